@@ -0,0 +1,70 @@
+package com.medify.medicamentos_backend.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contención en {@link RateLimitService.Limite#consumir}
+ *
+ * - claveCaliente: todos los hilos sobre el mismo bucket (peor caso del CAS)
+ * - clavesRepartidas: cada request con una IP distinta de un conjunto grande
+ * - rechazo: bucket agotado (camino de solo lectura)
+ *
+ * Se corre con el perfil jmh: mvn -Pjmh test-compile exec:exec
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RateLimitBenchmark {
+
+    private static final int CLAVES = 10_000;
+
+    private RateLimitService.Limite generoso;
+    private RateLimitService.Limite agotado;
+    private String[] claves;
+
+    @Setup
+    public void setup() {
+        // Límite que en la práctica no se alcanza: se mide el CAS, no el rechazo
+        generoso = new RateLimitService.Limite("bench", Integer.MAX_VALUE, Integer.MAX_VALUE);
+        agotado = new RateLimitService.Limite("bench", 1, 1);
+        agotado.consumir("ip", System.nanoTime());
+
+        claves = new String[CLAVES];
+        for (int i = 0; i < CLAVES; i++) {
+            claves[i] = "10.0." + (i / 256) + "." + (i % 256);
+        }
+    }
+
+    @Benchmark
+    public long claveCaliente() {
+        return generoso.consumir("ip", System.nanoTime());
+    }
+
+    @Benchmark
+    public long clavesRepartidas() {
+        String clave = claves[ThreadLocalRandom.current().nextInt(CLAVES)];
+        return generoso.consumir(clave, System.nanoTime());
+    }
+
+    @Benchmark
+    public long rechazo() {
+        return agotado.consumir("ip", System.nanoTime());
+    }
+}
@@ -0,0 +1,84 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService;
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService.Prioridad;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Filtro de descarte de carga para /api/**
+ *
+ * Corre primero: si el límite adaptativo de concurrencia está lleno para la
+ * prioridad del request, responde 503 con Retry-After antes de hacer trabajo.
+ *
+ * La prioridad sale de la política de la ruta ({@link RoutePolicyRegistry}):
+ * - CRITICA: webhook de MercadoPago (se descarta último)
+ * - BAJA: subidas multipart de imágenes de recetas (se descartan primero)
+ * - NORMAL: el resto
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "concurrency.adaptive.enabled", havingValue = "true", matchIfMissing = true)
+public class AdaptiveConcurrencyFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyFilter.class);
+
+    private final AdaptiveConcurrencyService adaptiveConcurrencyService;
+    private final RoutePolicyRegistry routePolicyRegistry;
+
+    @Value("${concurrency.adaptive.retry.after.seconds:2}")
+    private int retryAfterSeconds;
+
+    public AdaptiveConcurrencyFilter(AdaptiveConcurrencyService adaptiveConcurrencyService,
+                                     RoutePolicyRegistry routePolicyRegistry) {
+        this.adaptiveConcurrencyService = adaptiveConcurrencyService;
+        this.routePolicyRegistry = routePolicyRegistry;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        if (!httpRequest.getRequestURI().startsWith("/api/")) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Prioridad prioridad = routePolicyRegistry.resolver(httpRequest).getPrioridad();
+        if (!adaptiveConcurrencyService.adquirir(prioridad)) {
+            log.warn("Request descartado por carga ({}): {} {}",
+                    prioridad, httpRequest.getMethod(), httpRequest.getRequestURI());
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            httpResponse.setContentType("application/json");
+            httpResponse.getWriter().write("{\"error\":\"Servidor sobrecargado. Intente nuevamente.\"}");
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        boolean error = true;
+        try {
+            chain.doFilter(request, response);
+            error = !httpRequest.isAsyncStarted() && httpResponse.getStatus() >= 500;
+        } finally {
+            // La latencia de las subidas depende de la red del cliente y la de los requests
+            // asíncronos (long-polling, SSE) no mide trabajo: no se usan como muestra.
+            // El lugar se libera al pasar a modo asíncrono, así no ocupan el límite mientras esperan.
+            boolean muestra = prioridad != Prioridad.BAJA && !httpRequest.isAsyncStarted();
+            adaptiveConcurrencyService.liberar(inicio, muestra, error);
+        }
+    }
+}
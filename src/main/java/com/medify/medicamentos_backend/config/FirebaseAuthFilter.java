@@ -0,0 +1,108 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.dto.TokenVerificado;
+import com.medify.medicamentos_backend.service.FirebaseTokenVerifier;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Autenticación con ID tokens de Firebase (Authorization: Bearer <token>)
+ *
+ * Si el request trae token, se verifica localmente y el UID queda en el atributo
+ * {@link #ATRIBUTO_UID} (lo usa el rate limiting para identificar al usuario).
+ * Un token inválido se rechaza con 401; sin token el request sigue como anónimo,
+ * salvo en los prefijos de auth.firebase.required.paths.
+ *
+ * El webhook de MercadoPago nunca pide token.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+public class FirebaseAuthFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(FirebaseAuthFilter.class);
+    private static final String BEARER = "Bearer ";
+
+    public static final String ATRIBUTO_UID = "medify.uid";
+    public static final String ATRIBUTO_EMAIL = "medify.email";
+
+    private final FirebaseTokenVerifier tokenVerifier;
+
+    @Value("${auth.firebase.enabled:true}")
+    private boolean enabled;
+
+    // Prefijos que exigen token (separados por coma)
+    @Value("${auth.firebase.required.paths:}")
+    private List<String> pathsRequeridos;
+
+    public FirebaseAuthFilter(FirebaseTokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String path = httpRequest.getRequestURI();
+
+        if (!enabled || !path.startsWith("/api/") || path.startsWith("/api/pagos/webhook")) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String authorization = httpRequest.getHeader("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            if (requiereToken(path)) {
+                responder(httpResponse, HttpServletResponse.SC_UNAUTHORIZED, "Autenticación requerida");
+                return;
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+
+        try {
+            TokenVerificado token = tokenVerifier.verificar(authorization.substring(BEARER.length()).trim());
+            httpRequest.setAttribute(ATRIBUTO_UID, token.getUid());
+            if (token.getEmail() != null) {
+                httpRequest.setAttribute(ATRIBUTO_EMAIL, token.getEmail());
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("🔒 Token rechazado en {}: {}", path, e.getMessage());
+            responder(httpResponse, HttpServletResponse.SC_UNAUTHORIZED, "Token inválido");
+            return;
+        } catch (IllegalStateException e) {
+            log.warn("⚠️ No se pudo verificar el token en {}: {}", path, e.getMessage());
+            httpResponse.setHeader("Retry-After", "5");
+            responder(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Autenticación no disponible. Intente nuevamente.");
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    private boolean requiereToken(String path) {
+        for (String prefijo : pathsRequeridos) {
+            if (!prefijo.isBlank() && path.startsWith(prefijo.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void responder(HttpServletResponse response, int status, String mensaje) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.getWriter().write("{\"error\":\"" + mensaje + "\"}");
+    }
+}
@@ -0,0 +1,212 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.dto.RespuestaIdempotente;
+import com.medify.medicamentos_backend.service.IdempotencyService;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Soporte del header Idempotency-Key en las rutas con idempotency=true en su política
+ *
+ * Si el request trae la clave:
+ * - Primera vez: se ejecuta el endpoint y se guarda la respuesta
+ * - Reintento: se devuelve la respuesta original (header Idempotent-Replayed: true)
+ * - Duplicado concurrente: en la misma instancia espera a la primera ejecución (si no
+ *   termina a tiempo, 409); en otra instancia, 409 inmediato
+ *
+ * La clave es por cliente (UID o, sin token, la IP) e incluye query string y, si es
+ * JSON, el cuerpo: el mismo Idempotency-Key con otros datos se ejecuta como un
+ * request distinto. Los cuerpos multipart no se leen (se hashearían megas de imagen).
+ *
+ * Corre después de {@link FirebaseAuthFilter} (necesita el UID) y antes del
+ * rate limiting, así un reintento respondido desde memoria no consume cuota.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 25)
+public class IdempotencyFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyFilter.class);
+    private static final String HEADER = "Idempotency-Key";
+    private static final int MAX_LARGO_CLAVE = 255;
+    private static final int MAX_CUERPO_JSON = 1024 * 1024;
+
+    private final IdempotencyService idempotencyService;
+    private final RoutePolicyRegistry routePolicyRegistry;
+
+    public IdempotencyFilter(IdempotencyService idempotencyService, RoutePolicyRegistry routePolicyRegistry) {
+        this.idempotencyService = idempotencyService;
+        this.routePolicyRegistry = routePolicyRegistry;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        String idempotencyKey = httpRequest.getHeader(HEADER);
+        if (idempotencyKey == null || idempotencyKey.isBlank()
+                || !routePolicyRegistry.resolver(httpRequest).isIdempotente()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (idempotencyKey.length() > MAX_LARGO_CLAVE) {
+            responderError(httpResponse, HttpServletResponse.SC_BAD_REQUEST, "Idempotency-Key demasiado largo");
+            return;
+        }
+
+        byte[] cuerpo = null;
+        if (esJson(httpRequest)) {
+            cuerpo = httpRequest.getInputStream().readNBytes(MAX_CUERPO_JSON + 1);
+            if (cuerpo.length > MAX_CUERPO_JSON) {
+                responderError(httpResponse, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Cuerpo demasiado grande");
+                return;
+            }
+            // El endpoint vuelve a leer el cuerpo desde el buffer
+            request = httpRequest = new CuerpoLeido(httpRequest, cuerpo);
+        }
+
+        // Sin token el cliente es la IP (como el identificador USUARIO del rate limiting):
+        // dos anónimos con la misma Idempotency-Key no comparten respuestas
+        Object uid = httpRequest.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+        String cliente = uid != null ? "uid:" + uid : "ip:" + httpRequest.getRemoteAddr();
+        String clave = idempotencyService.clave(httpRequest.getMethod(), httpRequest.getRequestURI(),
+                httpRequest.getQueryString(), cliente, cuerpo, idempotencyKey);
+
+        RespuestaIdempotente guardada;
+        try {
+            guardada = idempotencyService.reservar(clave);
+        } catch (IllegalStateException e) {
+            log.warn("🔁 Idempotency-Key en curso para {}: {}", httpRequest.getRequestURI(), e.getMessage());
+            httpResponse.setHeader("Retry-After", "2");
+            responderError(httpResponse, HttpServletResponse.SC_CONFLICT, "La petición original todavía está en curso");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            responderError(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Servidor no disponible");
+            return;
+        }
+
+        if (guardada != null) {
+            log.info("🔁 Respuesta idempotente repetida para {} (status {})",
+                    httpRequest.getRequestURI(), guardada.getStatus());
+            httpResponse.setStatus(guardada.getStatus());
+            if (guardada.getContentType() != null) {
+                httpResponse.setContentType(guardada.getContentType());
+            }
+            httpResponse.setHeader("Idempotent-Replayed", "true");
+            httpResponse.setContentLength(guardada.getCuerpo().length);
+            httpResponse.getOutputStream().write(guardada.getCuerpo());
+            return;
+        }
+
+        ContentCachingResponseWrapper respuesta = new ContentCachingResponseWrapper(httpResponse);
+        boolean completada = false;
+        try {
+            chain.doFilter(request, respuesta);
+            idempotencyService.completar(clave, new RespuestaIdempotente(
+                    respuesta.getStatus(), respuesta.getContentType(), respuesta.getContentAsByteArray()));
+            completada = true;
+        } finally {
+            if (!completada) {
+                idempotencyService.liberar(clave);
+            }
+            respuesta.copyBodyToResponse();
+        }
+    }
+
+    private boolean esJson(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().contains("json");
+    }
+
+    private void responderError(HttpServletResponse response, int status, String mensaje) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.getWriter().write("{\"error\":\"" + mensaje + "\"}");
+    }
+
+    /**
+     * Request cuyo cuerpo ya se leyó para calcular la clave: lo entrega de nuevo desde memoria
+     */
+    private static class CuerpoLeido extends HttpServletRequestWrapper {
+
+        private final byte[] cuerpo;
+
+        CuerpoLeido(HttpServletRequest request, byte[] cuerpo) {
+            super(request);
+            this.cuerpo = cuerpo;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(cuerpo);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    // El cuerpo ya está en memoria: todo está disponible de entrada
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException | RuntimeException e) {
+                        listener.onError(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return cuerpo.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return cuerpo.length;
+        }
+    }
+}
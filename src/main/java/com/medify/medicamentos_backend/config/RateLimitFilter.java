@@ -6,22 +6,31 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 
 /**
  * Filtro global de rate limiting para todas las peticiones HTTP
+ *
+ * Corre después de {@link FirebaseAuthFilter}: los usuarios autenticados se limitan
+ * por UID y los anónimos por IP. Qué rutas se limitan, con qué namespace y con qué
+ * identificador lo decide la política de la ruta ({@link RoutePolicyRegistry}).
  */
 @Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 30)
 public class RateLimitFilter implements Filter {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitFilter.class);
 
     private final RateLimitService rateLimitService;
+    private final RoutePolicyRegistry routePolicyRegistry;
 
-    public RateLimitFilter(RateLimitService rateLimitService) {
+    public RateLimitFilter(RateLimitService rateLimitService, RoutePolicyRegistry routePolicyRegistry) {
         this.rateLimitService = rateLimitService;
+        this.routePolicyRegistry = routePolicyRegistry;
     }
 
     @Override
@@ -31,15 +40,14 @@ public class RateLimitFilter implements Filter {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
         HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-        String path = httpRequest.getRequestURI();
+        RoutePolicy politica = routePolicyRegistry.resolver(httpRequest);
 
-        // Aplicar rate limit solo a endpoints sensibles
-        if (shouldRateLimit(path)) {
-            String identifier = getClientIdentifier(httpRequest);
-            String namespace = getNamespace(path);
+        // Aplicar rate limit solo a las rutas con namespace en su política
+        if (politica.isRateLimited()) {
+            String identifier = getClientIdentifier(httpRequest, politica);
 
-            if (!rateLimitService.allowRequest(identifier, namespace)) {
-                log.warn("Rate limit excedido para {} en {}", identifier, path);
+            if (!rateLimitService.allowRequest(identifier, politica.getNamespace())) {
+                log.warn("Rate limit excedido para {} en {}", identifier, httpRequest.getRequestURI());
                 httpResponse.setStatus(429); // Too Many Requests
                 httpResponse.setContentType("application/json");
                 httpResponse.getWriter().write("{\"error\":\"Rate limit excedido. Intente más tarde.\"}");
@@ -51,49 +59,25 @@ public class RateLimitFilter implements Filter {
     }
 
     /**
-     * Determina si el path debe tener rate limiting
+     * Obtiene el identificador del cliente según la política (UID, IP o la ruta)
+     *
+     * La IP es la de getRemoteAddr(): detrás de un proxy confiable Tomcat ya la toma
+     * de X-Forwarded-For (server.forward-headers-strategy), así que un cliente no
+     * puede elegir su identificador mandando el header. Los UID de Firebase y las IP
+     * no se pisan entre sí, así que no hace falta un prefijo.
      */
-    private boolean shouldRateLimit(String path) {
-        // Excluir explícitamente el webhook para evitar 429 en notificaciones entrantes
-        if (path.contains("/webhook")) {
-            return false;
+    private String getClientIdentifier(HttpServletRequest request, RoutePolicy politica) {
+        switch (politica.getIdentificador()) {
+            case RUTA:
+                return politica.getNombre();
+            case USUARIO:
+                Object uid = request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+                if (uid != null) {
+                    return (String) uid;
+                }
+                return request.getRemoteAddr();
+            default:
+                return request.getRemoteAddr();
         }
-
-        return path.startsWith("/api/pagos/") ||
-                path.startsWith("/api/imagenes/subir");
-    }
-
-    /**
-     * Obtiene el identificador del cliente (IP o header personalizado)
-     */
-    private String getClientIdentifier(HttpServletRequest request) {
-        // Priorizar header X-Forwarded-For si está detrás de proxy
-        String forwarded = request.getHeader("X-Forwarded-For");
-        if (forwarded != null && !forwarded.isEmpty()) {
-            return forwarded.split(",")[0].trim();
-        }
-
-        // Alternativa: X-Real-IP
-        String realIp = request.getHeader("X-Real-IP");
-        if (realIp != null && !realIp.isEmpty()) {
-            return realIp;
-        }
-
-        // Fallback a IP directa
-        return request.getRemoteAddr();
-    }
-
-    /**
-     * Determina el namespace según el path
-     */
-    private String getNamespace(String path) {
-        if (path.contains("/webhook")) {
-            return "webhook";
-        } else if (path.contains("/crear-preferencia")) {
-            return "payment";
-        } else if (path.contains("/imagenes")) {
-            return "image";
-        }
-        return "api";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService.Prioridad;
+
+/**
+ * Política de una ruta: rate limiting, prioridad de carga, identificador del cliente
+ * e idempotencia
+ *
+ * Se declaran en application.properties (routes.policy.<nombre>.*) y las compila
+ * {@link RoutePolicyRegistry}.
+ */
+public final class RoutePolicy {
+
+    /**
+     * A quién se le cuenta el request en el rate limiting
+     */
+    public enum Identificador {
+        // UID si el request trae token, si no la IP
+        USUARIO,
+        // Siempre la IP
+        IP,
+        // Un único bucket compartido por todos los clientes de la ruta
+        RUTA
+    }
+
+    // Sin rate limiting y prioridad normal (rutas sin política)
+    static final RoutePolicy POR_DEFECTO =
+            new RoutePolicy("default", null, Prioridad.NORMAL, Identificador.USUARIO, RoutePolicyRegistry.TODOS_LOS_METODOS, false);
+
+    private final String nombre;
+    private final String namespace;
+    private final Prioridad prioridad;
+    private final Identificador identificador;
+    private final int metodos;
+    private final boolean idempotente;
+
+    RoutePolicy(String nombre, String namespace, Prioridad prioridad, Identificador identificador,
+                int metodos, boolean idempotente) {
+        this.nombre = nombre;
+        this.namespace = namespace;
+        this.prioridad = prioridad;
+        this.identificador = identificador;
+        this.metodos = metodos;
+        this.idempotente = idempotente;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Namespace de rate limiting, o null si la ruta no se limita
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public boolean isRateLimited() {
+        return namespace != null;
+    }
+
+    public Prioridad getPrioridad() {
+        return prioridad;
+    }
+
+    public Identificador getIdentificador() {
+        return identificador;
+    }
+
+    /**
+     * true si la ruta acepta el header Idempotency-Key
+     */
+    public boolean isIdempotente() {
+        return idempotente;
+    }
+
+    boolean aplicaA(int metodo) {
+        return (metodos & metodo) != 0;
+    }
+
+    boolean restringeMetodos() {
+        return metodos != RoutePolicyRegistry.TODOS_LOS_METODOS;
+    }
+
+    @Override
+    public String toString() {
+        return nombre + "(" + (namespace != null ? namespace : "sin límite") + ", " + prioridad + ", " + identificador + ")";
+    }
+}
@@ -0,0 +1,233 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.config.RoutePolicy.Identificador;
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService.Prioridad;
+import com.medify.medicamentos_backend.service.RateLimitService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Registro de políticas por ruta, compilado al iniciar en un trie de prefijos
+ *
+ * Cada política se declara en application.properties:
+ * - routes.policies: nombres de las políticas, separados por coma
+ * - routes.policy.<nombre>.prefix: uno o más prefijos; "*" como segmento completo
+ *   acepta cualquier valor (ej: /api/farmacias/&#42;/inbox)
+ * - routes.policy.<nombre>.methods: GET,POST,... (por defecto todos)
+ * - routes.policy.<nombre>.namespace: namespace de rate limiting (sin valor no se limita)
+ * - routes.policy.<nombre>.per.minute / .burst: límite propio (crea el namespace)
+ * - routes.policy.<nombre>.priority: CRITICA | NORMAL | BAJA
+ * - routes.policy.<nombre>.identifier: USUARIO | IP | RUTA
+ * - routes.policy.<nombre>.idempotency: true para aceptar Idempotency-Key
+ *
+ * Gana el prefijo más largo (un literal antes que un comodín) y, dentro del mismo
+ * prefijo, la política que restringe métodos. La búsqueda recorre el URI carácter a
+ * carácter sin crear objetos.
+ */
+@Component
+public class RoutePolicyRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutePolicyRegistry.class);
+
+    static final int TODOS_LOS_METODOS = -1;
+    private static final String[] METODOS = {"GET", "POST", "PUT", "PATCH", "DELETE", "HEAD", "OPTIONS"};
+    private static final int OTRO_METODO = 1 << METODOS.length;
+
+    private final Nodo raiz = new Nodo();
+
+    public RoutePolicyRegistry(Environment env, RateLimitService rateLimitService) {
+        String[] nombres = env.getProperty("routes.policies", String[].class, new String[0]);
+        List<RoutePolicy> politicas = new ArrayList<>();
+
+        for (String nombre : nombres) {
+            nombre = nombre.trim();
+            if (nombre.isEmpty()) {
+                continue;
+            }
+            String base = "routes.policy." + nombre + ".";
+
+            String[] prefijos = env.getProperty(base + "prefix", String[].class, new String[0]);
+            if (prefijos.length == 0) {
+                throw new IllegalStateException("La política de ruta '" + nombre + "' no tiene " + base + "prefix");
+            }
+
+            String namespace = env.getProperty(base + "namespace");
+            Integer porMinuto = env.getProperty(base + "per.minute", Integer.class);
+            if (porMinuto != null) {
+                if (namespace == null || namespace.isBlank()) {
+                    namespace = nombre;
+                }
+                rateLimitService.registrarLimite(namespace, porMinuto,
+                        env.getProperty(base + "burst", Integer.class, porMinuto));
+            }
+            if (namespace != null && namespace.isBlank()) {
+                namespace = null;
+            }
+
+            RoutePolicy politica = new RoutePolicy(
+                    nombre,
+                    namespace,
+                    Prioridad.valueOf(env.getProperty(base + "priority", "NORMAL").trim().toUpperCase(Locale.ROOT)),
+                    Identificador.valueOf(env.getProperty(base + "identifier", "USUARIO").trim().toUpperCase(Locale.ROOT)),
+                    mascaraMetodos(env.getProperty(base + "methods", String[].class, new String[0])),
+                    env.getProperty(base + "idempotency", Boolean.class, false));
+
+            for (String prefijo : prefijos) {
+                insertar(prefijo.trim(), politica);
+            }
+            politicas.add(politica);
+        }
+
+        log.info("RoutePolicyRegistry inicializado - Políticas: {}", politicas);
+    }
+
+    /**
+     * Política que aplica al request (la de por defecto si ninguna coincide)
+     */
+    public RoutePolicy resolver(HttpServletRequest request) {
+        return resolver(request.getMethod(), request.getRequestURI());
+    }
+
+    public RoutePolicy resolver(String metodo, String path) {
+        RoutePolicy politica = buscar(raiz, path, 0, bitMetodo(metodo));
+        return politica != null ? politica : RoutePolicy.POR_DEFECTO;
+    }
+
+    /**
+     * Recorre el trie siguiendo los literales; solo se ramifica en los nodos con comodín
+     */
+    private static RoutePolicy buscar(Nodo nodo, String path, int i, int metodo) {
+        RoutePolicy mejor = null;
+        while (nodo != null) {
+            RoutePolicy propia = nodo.politica(metodo);
+            if (propia != null) {
+                mejor = propia;
+            }
+            if (i >= path.length()) {
+                return mejor;
+            }
+
+            Nodo siguiente = nodo.hijo(path.charAt(i));
+            if (nodo.comodin != null) {
+                int fin = i;
+                while (fin < path.length() && path.charAt(fin) != '/') {
+                    fin++;
+                }
+                RoutePolicy porLiteral = siguiente != null ? buscar(siguiente, path, i + 1, metodo) : null;
+                if (porLiteral != null) {
+                    return porLiteral;
+                }
+                RoutePolicy porComodin = fin > i ? buscar(nodo.comodin, path, fin, metodo) : null;
+                return porComodin != null ? porComodin : mejor;
+            }
+
+            nodo = siguiente;
+            i++;
+        }
+        return mejor;
+    }
+
+    private void insertar(String prefijo, RoutePolicy politica) {
+        if (!prefijo.startsWith("/")) {
+            throw new IllegalStateException("Prefijo de ruta inválido para '" + politica.getNombre() + "': " + prefijo);
+        }
+
+        Nodo nodo = raiz;
+        int i = 0;
+        while (i < prefijo.length()) {
+            char c = prefijo.charAt(i);
+            boolean inicioDeSegmento = i > 0 && prefijo.charAt(i - 1) == '/';
+            boolean finDeSegmento = i + 1 == prefijo.length() || prefijo.charAt(i + 1) == '/';
+            if (c == '*' && inicioDeSegmento && finDeSegmento) {
+                if (nodo.comodin == null) {
+                    nodo.comodin = new Nodo();
+                }
+                nodo = nodo.comodin;
+            } else {
+                nodo = nodo.hijoOCrear(c);
+            }
+            i++;
+        }
+        nodo.agregar(politica);
+    }
+
+    private static int mascaraMetodos(String[] metodos) {
+        if (metodos.length == 0) {
+            return TODOS_LOS_METODOS;
+        }
+        int mascara = 0;
+        for (String metodo : metodos) {
+            mascara |= bitMetodo(metodo.trim().toUpperCase(Locale.ROOT));
+        }
+        return mascara;
+    }
+
+    private static int bitMetodo(String metodo) {
+        for (int i = 0; i < METODOS.length; i++) {
+            if (METODOS[i].equals(metodo)) {
+                return 1 << i;
+            }
+        }
+        return OTRO_METODO;
+    }
+
+    /**
+     * Nodo del trie: hijos ordenados por carácter (búsqueda binaria)
+     */
+    private static final class Nodo {
+        private char[] letras = new char[0];
+        private Nodo[] hijos = new Nodo[0];
+        private Nodo comodin;
+        // Las que restringen métodos primero
+        private RoutePolicy[] politicas = new RoutePolicy[0];
+
+        Nodo hijo(char c) {
+            int i = Arrays.binarySearch(letras, c);
+            return i >= 0 ? hijos[i] : null;
+        }
+
+        Nodo hijoOCrear(char c) {
+            int i = Arrays.binarySearch(letras, c);
+            if (i >= 0) {
+                return hijos[i];
+            }
+            int pos = -i - 1;
+            char[] nuevasLetras = new char[letras.length + 1];
+            Nodo[] nuevosHijos = new Nodo[hijos.length + 1];
+            System.arraycopy(letras, 0, nuevasLetras, 0, pos);
+            System.arraycopy(hijos, 0, nuevosHijos, 0, pos);
+            System.arraycopy(letras, pos, nuevasLetras, pos + 1, letras.length - pos);
+            System.arraycopy(hijos, pos, nuevosHijos, pos + 1, hijos.length - pos);
+            Nodo nuevo = new Nodo();
+            nuevasLetras[pos] = c;
+            nuevosHijos[pos] = nuevo;
+            letras = nuevasLetras;
+            hijos = nuevosHijos;
+            return nuevo;
+        }
+
+        void agregar(RoutePolicy politica) {
+            List<RoutePolicy> lista = new ArrayList<>(Arrays.asList(politicas));
+            lista.add(politica);
+            lista.sort((a, b) -> Boolean.compare(b.restringeMetodos(), a.restringeMetodos()));
+            politicas = lista.toArray(new RoutePolicy[0]);
+        }
+
+        RoutePolicy politica(int metodo) {
+            for (RoutePolicy politica : politicas) {
+                if (politica.aplicaA(metodo)) {
+                    return politica;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.service.UploadAdmissionService;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+
+/**
+ * Filtro de admisión para las subidas de imágenes de recetas (multipart en /api/recetas/)
+ *
+ * Corre antes de que se lea el cuerpo del request: si la instancia está saturada
+ * responde 503 con Retry-After sin recibir el archivo.
+ */
+@Component
+public class UploadAdmissionFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadAdmissionFilter.class);
+
+    private final UploadAdmissionService uploadAdmissionService;
+
+    @Value("${spring.servlet.multipart.max-request-size:20MB}")
+    private DataSize maxRequestSize;
+
+    @Value("${uploads.admission.retry.after.seconds:5}")
+    private int retryAfterSeconds;
+
+    public UploadAdmissionFilter(UploadAdmissionService uploadAdmissionService) {
+        this.uploadAdmissionService = uploadAdmissionService;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        if (!esSubida(httpRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        // Sin Content-Length (chunked) se reserva el máximo permitido
+        long bytes = httpRequest.getContentLengthLong();
+        if (bytes < 0) {
+            bytes = maxRequestSize.toBytes();
+        }
+
+        boolean admitida;
+        try {
+            admitida = uploadAdmissionService.adquirir(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitida = false;
+        }
+
+        if (!admitida) {
+            log.warn("Subida rechazada por saturación: {} ({} KB)", httpRequest.getRequestURI(), bytes / 1024);
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            httpResponse.setHeader("Connection", "close");
+            httpResponse.setContentType("application/json");
+            httpResponse.getWriter().write("{\"error\":\"Servidor ocupado recibiendo imágenes. Intente nuevamente.\"}");
+            return;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            uploadAdmissionService.liberar(bytes);
+        }
+    }
+
+    /**
+     * Subidas de imágenes: POST multipart a /api/recetas/
+     */
+    private boolean esSubida(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return "POST".equals(request.getMethod())
+                && request.getRequestURI().startsWith("/api/recetas/")
+                && contentType != null
+                && contentType.toLowerCase().startsWith("multipart/");
+    }
+}
@@ -2,12 +2,19 @@ package com.medify.medicamentos_backend.controller;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService;
+import com.medify.medicamentos_backend.service.CotizacionFeedService;
+import com.medify.medicamentos_backend.service.FarmaciaBusquedaService;
+import com.medify.medicamentos_backend.service.FarmaciaDirectorioService;
+import com.medify.medicamentos_backend.service.FarmaciaGeoIndexService;
+import com.medify.medicamentos_backend.service.PedidoEstadoService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @RestController
@@ -16,9 +23,63 @@ public class AdminController {
 
     private static final Logger log = LoggerFactory.getLogger(AdminController.class);
     private final FirebaseAuth firebaseAuth;
+    private final AdaptiveConcurrencyService adaptiveConcurrencyService;
+    private final PedidoEstadoService pedidoEstadoService;
+    private final CotizacionFeedService cotizacionFeedService;
+    private final FarmaciaDirectorioService farmaciaDirectorioService;
+    private final FarmaciaGeoIndexService farmaciaGeoIndexService;
+    private final FarmaciaBusquedaService farmaciaBusquedaService;
 
-    public AdminController(FirebaseAuth firebaseAuth) {
+    public AdminController(FirebaseAuth firebaseAuth,
+                           AdaptiveConcurrencyService adaptiveConcurrencyService,
+                           PedidoEstadoService pedidoEstadoService,
+                           CotizacionFeedService cotizacionFeedService,
+                           FarmaciaDirectorioService farmaciaDirectorioService,
+                           FarmaciaGeoIndexService farmaciaGeoIndexService,
+                           FarmaciaBusquedaService farmaciaBusquedaService) {
         this.firebaseAuth = firebaseAuth;
+        this.adaptiveConcurrencyService = adaptiveConcurrencyService;
+        this.pedidoEstadoService = pedidoEstadoService;
+        this.cotizacionFeedService = cotizacionFeedService;
+        this.farmaciaDirectorioService = farmaciaDirectorioService;
+        this.farmaciaGeoIndexService = farmaciaGeoIndexService;
+        this.farmaciaBusquedaService = farmaciaBusquedaService;
+    }
+
+    /**
+     * Estado del límite adaptativo de concurrencia (límite actual, en curso, descartados)
+     */
+    @GetMapping("/concurrencia/stats")
+    public ResponseEntity<Map<String, Object>> concurrenciaStats() {
+        return ResponseEntity.ok(adaptiveConcurrencyService.getStats());
+    }
+
+    /**
+     * Clientes esperando el estado de pedidos (long-polling y SSE)
+     */
+    @GetMapping("/pedidos/estado/stats")
+    public ResponseEntity<Map<String, Object>> pedidosEstadoStats() {
+        return ResponseEntity.ok(pedidoEstadoService.getStats());
+    }
+
+    /**
+     * Feeds de cotizaciones activos y conexiones SSE
+     */
+    @GetMapping("/cotizaciones/feed/stats")
+    public ResponseEntity<Map<String, Object>> cotizacionesFeedStats() {
+        return ResponseEntity.ok(cotizacionFeedService.getStats());
+    }
+
+    /**
+     * Índices en memoria de farmacias (directorio, índice geográfico y búsqueda)
+     */
+    @GetMapping("/farmacias/indices/stats")
+    public ResponseEntity<Map<String, Object>> farmaciasIndicesStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("directorio", farmaciaDirectorioService.getStats());
+        stats.put("geo", farmaciaGeoIndexService.getStats());
+        stats.put("busqueda", farmaciaBusquedaService.getStats());
+        return ResponseEntity.ok(stats);
     }
 
     /**
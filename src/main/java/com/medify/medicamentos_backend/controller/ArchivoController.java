@@ -0,0 +1,52 @@
+package com.medify.medicamentos_backend.controller;
+
+import com.medify.medicamentos_backend.service.LocalBlobStore;
+import com.medify.medicamentos_backend.util.ArchivoHttpUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Sirve los archivos del almacenamiento local (solo con storage.backend=local)
+ * GET /api/archivos/{path del archivo}
+ */
+@RestController
+@RequestMapping("/api/archivos")
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local")
+public class ArchivoController {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchivoController.class);
+    private static final String PREFIJO = "/api/archivos";
+
+    private final LocalBlobStore localBlobStore;
+
+    public ArchivoController(LocalBlobStore localBlobStore) {
+        this.localBlobStore = localBlobStore;
+    }
+
+    @GetMapping("/**")
+    public void servir(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        String path = URLDecoder.decode(uri.substring(PREFIJO.length()), StandardCharsets.UTF_8);
+
+        Path archivo = localBlobStore.abrir(path);
+        if (archivo == null) {
+            log.debug("Archivo no encontrado: {}", path);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ArchivoHttpUtils.enviar(archivo, ArchivoHttpUtils.contentType(archivo), ArchivoHttpUtils.etag(archivo),
+                "private, max-age=86400", request, response);
+    }
+}
@@ -1,13 +1,18 @@
 package com.medify.medicamentos_backend.controller;
 
+import com.medify.medicamentos_backend.config.FirebaseAuthFilter;
 import com.medify.medicamentos_backend.dto.CotizacionRequest;
+import com.medify.medicamentos_backend.service.CotizacionFeedService;
 import com.medify.medicamentos_backend.service.CotizacionService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -22,9 +27,11 @@ public class CotizacionController {
     private static final Logger log = LoggerFactory.getLogger(CotizacionController.class);
 
     private final CotizacionService cotizacionService;
+    private final CotizacionFeedService cotizacionFeedService;
 
-    public CotizacionController(CotizacionService cotizacionService) {
+    public CotizacionController(CotizacionService cotizacionService, CotizacionFeedService cotizacionFeedService) {
         this.cotizacionService = cotizacionService;
+        this.cotizacionFeedService = cotizacionFeedService;
     }
 
     /**
@@ -81,6 +88,40 @@ public class CotizacionController {
         }
     }
 
+    /**
+     * Feed en tiempo real de las cotizaciones de una receta (Server-Sent Events)
+     *
+     * Manda todas las cotizaciones existentes y después cada nueva como evento
+     * "cotizacion". Al reconectar, el header Last-Event-ID evita repetir las ya recibidas.
+     */
+    @GetMapping(value = "/recetas/{recetaId}/cotizaciones/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamCotizaciones(
+            @PathVariable String recetaId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            HttpServletRequest request) {
+
+        // Exige token aunque auth.firebase.required.paths no lo pida: solo el dueño ve las cotizaciones
+        Object uid = request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+        if (uid == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            return ResponseEntity.ok(cotizacionFeedService.suscribir(recetaId, uid.toString(), lastEventId));
+
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Feed de cotizaciones: {}", e.getMessage());
+            return ResponseEntity.notFound().build();
+
+        } catch (SecurityException e) {
+            log.warn("🔒 Feed de cotizaciones de receta {} rechazado: {}", recetaId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        } catch (IllegalStateException e) {
+            log.warn("⚠️ Feed de cotizaciones: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "5").build();
+        }
+    }
+
     /**
      * Health check del servicio de cotizaciones
      */
@@ -4,9 +4,15 @@ import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.GeoPoint;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.UserRecord;
+import com.medify.medicamentos_backend.config.FirebaseAuthFilter;
 import com.medify.medicamentos_backend.dto.FarmaciaRequest; // Asumo que el DTO está en este paquete
+import com.medify.medicamentos_backend.service.FarmaciaBusquedaService;
+import com.medify.medicamentos_backend.service.FarmaciaInboxService;
+import com.medify.medicamentos_backend.service.Geocoder;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger; // 👈 1. Importar Logger
 import org.slf4j.LoggerFactory; // 👈 2. Importar LoggerFactory
@@ -15,7 +21,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import com.google.cloud.firestore.WriteResult;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -27,10 +35,18 @@ public class FarmaciaController {
 
     private final Firestore firestore;
     private final FirebaseAuth firebaseAuth;
+    private final FarmaciaInboxService farmaciaInboxService;
+    private final Geocoder geocoder;
+    private final FarmaciaBusquedaService farmaciaBusquedaService;
 
-    public FarmaciaController(Firestore firestore, FirebaseAuth firebaseAuth) {
+    public FarmaciaController(Firestore firestore, FirebaseAuth firebaseAuth,
+                              FarmaciaInboxService farmaciaInboxService, Geocoder geocoder,
+                              FarmaciaBusquedaService farmaciaBusquedaService) {
         this.firestore = firestore;
         this.firebaseAuth = firebaseAuth;
+        this.farmaciaInboxService = farmaciaInboxService;
+        this.geocoder = geocoder;
+        this.farmaciaBusquedaService = farmaciaBusquedaService;
     }
 
     // ⛔️ Tu código tenía @PostMapping solo, es mejor @PostMapping("/crear")
@@ -64,6 +80,14 @@ public class FarmaciaController {
             data.put("authUid", uid);
             data.put("createdAt", FieldValue.serverTimestamp());
 
+            // 📍 Ubicación para recibir las recetas cercanas
+            GeoPoint ubicacion = geocoder.geocodificar(req.getDireccion().trim());
+            if (ubicacion != null) {
+                data.put("ubicacion", ubicacion);
+            } else {
+                log.warn("⚠️ No se pudo ubicar la dirección de la farmacia: {}", req.getDireccion());
+            }
+
            ApiFuture<WriteResult> future = 
         firestore.collection("farmacias").document(uid).set(data);
 
@@ -90,6 +114,77 @@ public class FarmaciaController {
         }
     }
 
+    /**
+     * Recetas pendientes de respuesta de la farmacia (de la más nueva a la más vieja)
+     *
+     * GET /api/farmacias/{id}/inbox?limite=20&cursor=...&campos=recetaId,userAddress
+     *
+     * "cursor" es el valor devuelto por la página anterior; "campos" limita los campos
+     * de cada item (ver {@link FarmaciaInboxService#CAMPOS_PROYECTABLES}).
+     *
+     * Exige token aunque auth.firebase.required.paths no lo pida: las entradas tienen
+     * datos del paciente y solo las puede ver la farmacia dueña de la bandeja.
+     */
+    @GetMapping("/{id}/inbox")
+    public ResponseEntity<?> inbox(@PathVariable String id,
+                                   @RequestParam(defaultValue = "20") int limite,
+                                   @RequestParam(required = false) String cursor,
+                                   @RequestParam(required = false) String campos,
+                                   HttpServletRequest request) {
+
+        Object uid = request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+        if (uid == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Autenticación requerida"));
+        }
+        if (!uid.toString().equals(id)) {
+            log.warn("🔒 Bandeja de {} pedida por {}", id, uid);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "La bandeja no pertenece a la farmacia"));
+        }
+
+        Set<String> proyeccion = null;
+        if (campos != null && !campos.isBlank()) {
+            proyeccion = new LinkedHashSet<>();
+            for (String campo : campos.split(",")) {
+                if (!campo.isBlank()) {
+                    proyeccion.add(campo.trim());
+                }
+            }
+        }
+
+        try {
+            return ResponseEntity.ok(farmaciaInboxService.listar(id, cursor, limite, proyeccion));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+
+        } catch (Exception e) {
+            log.error("❌ Error obteniendo la bandeja de la farmacia {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error interno al obtener la bandeja"));
+        }
+    }
+
+    /**
+     * Búsqueda de farmacias por nombre, dirección u horario (más relevantes primero)
+     *
+     * GET /api/farmacias/buscar?q=farmacia central&pagina=0&limite=20
+     */
+    @GetMapping("/buscar")
+    public ResponseEntity<?> buscar(@RequestParam String q,
+                                    @RequestParam(defaultValue = "0") int pagina,
+                                    @RequestParam(defaultValue = "20") int limite) {
+        if (q.isBlank() || q.length() > 200) {
+            return ResponseEntity.badRequest().body(Map.of("error", "La búsqueda debe tener entre 1 y 200 caracteres"));
+        }
+        try {
+            return ResponseEntity.ok(farmaciaBusquedaService.buscar(q, pagina, limite));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     private String clean(String value) {
         return (value == null || value.trim().isEmpty()) ? null : value.trim();
     }
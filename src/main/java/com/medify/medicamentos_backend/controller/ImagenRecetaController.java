@@ -0,0 +1,167 @@
+package com.medify.medicamentos_backend.controller;
+
+import com.medify.medicamentos_backend.config.FirebaseAuthFilter;
+import com.medify.medicamentos_backend.service.BlobStore;
+import com.medify.medicamentos_backend.service.ImagenCacheService;
+import com.medify.medicamentos_backend.service.RecetaService;
+import com.medify.medicamentos_backend.util.ArchivoHttpUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Proxy de imágenes de recetas servidas desde la cache local en disco.
+ *
+ * Una receta vista por muchas farmacias se descarga del almacenamiento una sola vez;
+ * el resto de los pedidos se sirven del disco con ETag (304) y Range (206).
+ *
+ * Exige token aunque auth.firebase.required.paths no lo pida: la imagen es un dato
+ * médico y solo la ven el paciente y las farmacias que recibieron la receta
+ * ({@link RecetaService#puedeVerImagen}). Las estadísticas también piden token.
+ */
+@RestController
+@RequestMapping("/api/recetas")
+public class ImagenRecetaController {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenRecetaController.class);
+
+    // Imagen médica: solo cache del navegador, nunca en caches compartidos
+    private static final String CACHE_CONTROL = "private, max-age=86400";
+
+    private final RecetaService recetaService;
+    private final ImagenCacheService imagenCacheService;
+    private final BlobStore blobStore;
+
+    public ImagenRecetaController(RecetaService recetaService,
+                                  ImagenCacheService imagenCacheService,
+                                  BlobStore blobStore) {
+        this.recetaService = recetaService;
+        this.imagenCacheService = imagenCacheService;
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Imagen de la receta (o una variante: ?variante=thumb | medium)
+     */
+    @GetMapping("/{recetaId}/imagen")
+    public ResponseEntity<Map<String, Object>> obtenerImagen(
+            @PathVariable String recetaId,
+            @RequestParam(value = "variante", required = false) String variante,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+
+        Object uid = request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+        if (uid == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Autenticación requerida"));
+        }
+
+        try {
+            if (!recetaService.puedeVerImagen(recetaId, uid.toString())) {
+                log.warn("🔒 Imagen de la receta {} pedida por {}", recetaId, uid);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", "Sin acceso a la imagen de la receta"));
+            }
+
+            String path = recetaService.obtenerPathImagen(recetaId, variante);
+            if (path == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "La receta no tiene imagen disponible"));
+            }
+
+            ImagenCacheService.Entrada entrada;
+            try {
+                entrada = imagenCacheService.obtener(path);
+            } catch (FileNotFoundException e) {
+                // La imagen pudo haberse movido al layout por fecha: releer el path una vez
+                recetaService.olvidarPathsImagen(recetaId);
+                String actual = recetaService.obtenerPathImagen(recetaId, variante);
+                if (actual == null || actual.equals(path)) {
+                    throw e;
+                }
+                path = actual;
+                entrada = imagenCacheService.obtener(path);
+            }
+            try {
+                ArchivoHttpUtils.enviar(entrada.getArchivo(),
+                        ArchivoHttpUtils.contentType(Paths.get(path)),
+                        entrada.getEtag(), CACHE_CONTROL, request, response);
+            } catch (NoSuchFileException e) {
+                // La cache lo evictó entre obtener() y la apertura: se vuelve a pedir una vez
+                if (response.isCommitted()) {
+                    throw e;
+                }
+                log.debug("Imagen {} evictada de la cache antes de enviarla, se reintenta", path);
+                entrada = imagenCacheService.obtener(path);
+                ArchivoHttpUtils.enviar(entrada.getArchivo(),
+                        ArchivoHttpUtils.contentType(Paths.get(path)),
+                        entrada.getEtag(), CACHE_CONTROL, request, response);
+            }
+
+            // La respuesta ya se escribió
+            return null;
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+
+        } catch (FileNotFoundException e) {
+            log.warn("⚠️ Imagen de receta {} no encontrada en el almacenamiento: {}", recetaId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Imagen no encontrada"));
+
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                // El cliente cortó la conexión a mitad del envío
+                log.debug("Envío de imagen {} interrumpido: {}", recetaId, e.getMessage());
+                return null;
+            }
+            log.error("☁️ Error obteniendo imagen de receta {}: {}", recetaId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                    .body(Map.of("error", "Error obteniendo la imagen"));
+
+        } catch (Exception e) {
+            log.error("💥 Error inesperado: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error interno al obtener la imagen"));
+        }
+    }
+
+    /**
+     * Estadísticas de la cache de imágenes
+     */
+    @GetMapping("/imagenes/cache/stats")
+    public ResponseEntity<Map<String, Object>> stats(HttpServletRequest request) {
+        if (request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Autenticación requerida"));
+        }
+        return ResponseEntity.ok(imagenCacheService.getStats());
+    }
+
+    /**
+     * Métricas del almacenamiento (latencia por endpoint, pool de conexiones)
+     */
+    @GetMapping("/imagenes/almacenamiento/stats")
+    public ResponseEntity<Map<String, Object>> statsAlmacenamiento(HttpServletRequest request) {
+        if (request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Autenticación requerida"));
+        }
+        return ResponseEntity.ok(blobStore.getStats());
+    }
+}
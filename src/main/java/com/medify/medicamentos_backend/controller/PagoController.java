@@ -1,5 +1,7 @@
 package com.medify.medicamentos_backend.controller;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mercadopago.exceptions.MPApiException;
 import com.mercadopago.exceptions.MPException;
 import com.mercadopago.resources.preference.Preference;
@@ -17,8 +19,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Controlador REST para la gestión de pagos con MercadoPago
@@ -37,20 +45,76 @@ public class PagoController {
     @Value("${mercadopago.failure.url:}")
     private String failureUrl;
 
+    // Tiempo máximo que un checkout duplicado espera al original
+    @Value("${payments.checkout.wait.timeout.ms:30000}")
+    private long checkoutWaitTimeoutMs;
+
+    // Checkouts en curso por (usuario, receta, cotización, farmacia): los duplicados concurrentes
+    // comparten el resultado; otra cotización de la misma receta sigue el camino normal (409)
+    private final ConcurrentHashMap<String, CompletableFuture<ResponseEntity<?>>> checkoutsEnCurso =
+            new ConcurrentHashMap<>();
+
+    // Preferencias recién creadas por (usuario, receta). El TTL tiene que ser menor que la
+    // expiración de la preferencia (10 min) y que orders.pending.age.minutes. Se olvidan
+    // cuando un pago cambia el estado del pedido
+    private final Cache<String, PreferenciaCreada> preferenciasRecientes;
+
     public PagoController(MercadoPagoService mercadoPagoService,
                           FirebaseService firebaseService,
-                          PagoProcessingService pagoProcessingService) {
+                          PagoProcessingService pagoProcessingService,
+                          @Value("${payments.preference.cache.ttl.seconds:120}") long preferenceCacheTtlSeconds) {
         this.mercadoPagoService = mercadoPagoService;
         this.firebaseService = firebaseService;
         this.pagoProcessingService = pagoProcessingService;
+        this.preferenciasRecientes = CacheBuilder.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(preferenceCacheTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        pagoProcessingService.alCambiarEstado(this::olvidarPreferencia);
     }
 
     /**
      * Crea una preferencia de pago en MercadoPago
      * Obtiene todos los datos necesarios desde Firebase usando solo los IDs
+     *
+     * Un doble toque en "pagar" no crea dos pedidos: los requests concurrentes para el
+     * mismo (usuario, receta, cotización, farmacia) comparten una única ejecución, y un
+     * reintento dentro del TTL recibe la misma preferencia sin volver a llamar a
+     * MercadoPago mientras el pedido siga pendiente de pago.
      */
     @PostMapping("/crear-preferencia")
     public ResponseEntity<?> crearPreferencia(@Valid @RequestBody PreferenciaRequest request) {
+        String clave = request.getUserId() + "|" + request.getRecetaId();
+
+        PreferenciaCreada reciente = preferenciasRecientes.getIfPresent(clave);
+        if (reciente != null && reciente.coincide(request) && sigueSinPagar(clave, reciente)) {
+            log.info("♻️ Reutilizando preferencia {} para receta {} (usuario {})",
+                    reciente.respuesta.get("preferenceId"), request.getRecetaId(), request.getUserId());
+            return ResponseEntity.ok(reciente.respuesta);
+        }
+
+        String claveCheckout = clave + "|" + request.getCotizacionId() + "|" + request.getFarmaciaId();
+        CompletableFuture<ResponseEntity<?>> propio = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<?>> enCurso = checkoutsEnCurso.putIfAbsent(claveCheckout, propio);
+        if (enCurso != null) {
+            log.info("⏳ Checkout duplicado para receta {} (usuario {}), esperando al original",
+                    request.getRecetaId(), request.getUserId());
+            return esperarCheckout(enCurso);
+        }
+
+        try {
+            ResponseEntity<?> respuesta = procesarPreferencia(request);
+            propio.complete(respuesta);
+            return respuesta;
+        } catch (RuntimeException e) {
+            propio.completeExceptionally(e);
+            throw e;
+        } finally {
+            checkoutsEnCurso.remove(claveCheckout, propio);
+        }
+    }
+
+    private ResponseEntity<?> procesarPreferencia(PreferenciaRequest request) {
 
         log.info("📝 Creando preferencia - Receta: {}, Cotización: {}, Farmacia: {}, Usuario: {}",
                 request.getRecetaId(), request.getCotizacionId(),
@@ -116,6 +180,9 @@ public class PagoController {
             response.put("preferenceId", preferencia.getId());
             response.put("pedidoId", pedidoId);
 
+            preferenciasRecientes.put(request.getUserId() + "|" + request.getRecetaId(),
+                    new PreferenciaCreada(request, Collections.unmodifiableMap(response)));
+
             return ResponseEntity.ok(response);
 
         } catch (MPException | MPApiException e) {
@@ -167,6 +234,47 @@ public class PagoController {
 
     // === Métodos privados ===
 
+    /**
+     * true si el pedido de la preferencia sigue pendiente de pago. El pago pudo haberse
+     * procesado en otra instancia (el webhook no llega siempre a la misma), así que se
+     * relee el pedido; si no se puede leer, se sigue el camino normal
+     */
+    private boolean sigueSinPagar(String clave, PreferenciaCreada reciente) {
+        try {
+            if ("pendiente_de_pago".equals(firebaseService.obtenerEstadoPedido(reciente.respuesta.get("pedidoId")))) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            log.warn("⚠️ No se pudo verificar el pedido {}: {}", reciente.respuesta.get("pedidoId"), e.getMessage());
+        }
+        preferenciasRecientes.asMap().remove(clave, reciente);
+        return false;
+    }
+
+    /**
+     * Olvida la preferencia de un pedido cuyo estado cambió (un reintento ya no la recibe)
+     */
+    private void olvidarPreferencia(String pedidoId) {
+        preferenciasRecientes.asMap().values().removeIf(p -> pedidoId.equals(p.respuesta.get("pedidoId")));
+    }
+
+    /**
+     * Espera el resultado del checkout original (la misma respuesta, éxito o error)
+     */
+    private ResponseEntity<?> esperarCheckout(CompletableFuture<ResponseEntity<?>> enCurso) {
+        try {
+            return enCurso.get(checkoutWaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return handlePaymentError("Ya existe un pedido en proceso para esta receta", HttpStatus.CONFLICT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return handlePaymentError("Error interno al procesar el pago", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            log.error("❌ El checkout original falló: {}", e.getCause().getMessage());
+            return handlePaymentError("Error interno al procesar el pago", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Maneja errores de pago
      */
@@ -182,4 +290,24 @@ public class PagoController {
         error.put("error", message);
         return ResponseEntity.status(status).body(error);
     }
-}
\ No newline at end of file
+
+    /**
+     * Preferencia creada para un (usuario, receta); solo se reutiliza para la misma
+     * cotización y farmacia
+     */
+    private static final class PreferenciaCreada {
+        private final String cotizacionId;
+        private final String farmaciaId;
+        private final Map<String, String> respuesta;
+
+        PreferenciaCreada(PreferenciaRequest request, Map<String, String> respuesta) {
+            this.cotizacionId = request.getCotizacionId();
+            this.farmaciaId = request.getFarmaciaId();
+            this.respuesta = respuesta;
+        }
+
+        boolean coincide(PreferenciaRequest request) {
+            return cotizacionId.equals(request.getCotizacionId()) && farmaciaId.equals(request.getFarmaciaId());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.medify.medicamentos_backend.controller;
+
+import com.medify.medicamentos_backend.config.FirebaseAuthFilter;
+import com.medify.medicamentos_backend.service.PedidoEstadoService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+
+/**
+ * Estado de pedidos en tiempo real, para después de la redirección de MercadoPago
+ *
+ * Exige token aunque auth.firebase.required.paths no lo pida: solo el dueño del
+ * pedido puede seguir su estado.
+ */
+@RestController
+@RequestMapping("/api/pedidos")
+public class PedidoController {
+
+    private final PedidoEstadoService pedidoEstadoService;
+
+    public PedidoController(PedidoEstadoService pedidoEstadoService) {
+        this.pedidoEstadoService = pedidoEstadoService;
+    }
+
+    /**
+     * Long-polling del estado: responde apenas el estado sea distinto de "desde"
+     * (o al vencer el timeout, con cambio=false). Sin "desde" responde el estado actual.
+     */
+    @GetMapping("/{pedidoId}/estado")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> esperarEstado(
+            @PathVariable String pedidoId,
+            @RequestParam(value = "desde", required = false) String desde,
+            HttpServletRequest request) {
+        String uid = uid(request);
+        if (uid == null) {
+            DeferredResult<ResponseEntity<Map<String, Object>>> resultado = new DeferredResult<>();
+            resultado.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Autenticación requerida")));
+            return resultado;
+        }
+        return pedidoEstadoService.esperar(pedidoId, desde, uid);
+    }
+
+    /**
+     * Server-Sent Events: un evento "estado" por cada cambio hasta un estado final
+     */
+    @GetMapping(value = "/{pedidoId}/estado", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> suscribirEstado(@PathVariable String pedidoId, HttpServletRequest request) {
+        String uid = uid(request);
+        if (uid == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(pedidoEstadoService.suscribir(pedidoId, uid));
+    }
+
+    private String uid(HttpServletRequest request) {
+        Object uid = request.getAttribute(FirebaseAuthFilter.ATRIBUTO_UID);
+        return uid != null ? uid.toString() : null;
+    }
+}
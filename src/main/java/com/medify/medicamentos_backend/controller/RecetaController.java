@@ -1,7 +1,11 @@
 package com.medify.medicamentos_backend.controller;
 
-import com.dropbox.core.DbxException;
+import com.medify.medicamentos_backend.exception.BlobStoreException;
+import com.medify.medicamentos_backend.service.ImageOptimizationService;
+import com.medify.medicamentos_backend.service.ImagenRecetaService;
 import com.medify.medicamentos_backend.service.RecetaService;
+import com.medify.medicamentos_backend.service.SubidaRecetaAsyncService;
+import com.medify.medicamentos_backend.service.UploadAdmissionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -11,6 +15,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller para operaciones de recetas
@@ -22,9 +27,18 @@ public class RecetaController {
 
     private static final Logger log = LoggerFactory.getLogger(RecetaController.class);
     private final RecetaService recetaService;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final SubidaRecetaAsyncService subidaRecetaAsyncService;
+    private final ImageOptimizationService imageOptimizationService;
 
-    public RecetaController(RecetaService recetaService) {
+    public RecetaController(RecetaService recetaService,
+                            UploadAdmissionService uploadAdmissionService,
+                            SubidaRecetaAsyncService subidaRecetaAsyncService,
+                            ImageOptimizationService imageOptimizationService) {
         this.recetaService = recetaService;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.subidaRecetaAsyncService = subidaRecetaAsyncService;
+        this.imageOptimizationService = imageOptimizationService;
     }
 
     /**
@@ -72,11 +86,10 @@ public class RecetaController {
                         .body(Map.of("error", "El archivo debe ser una imagen"));
             }
 
-            // Validar tamaño (máximo 10MB)
-            long maxSize = 20 * 1024 * 1024; // 10MB
-            if (file.getSize() > maxSize) {
+            // Validar tamaño
+            if (file.getSize() > ImagenRecetaService.MAX_IMAGE_SIZE_BYTES) {
                 return ResponseEntity.badRequest()
-                        .body(Map.of("error", "La imagen no puede superar 10MB"));
+                        .body(Map.of("error", "La imagen no puede superar " + ImagenRecetaService.MAX_IMAGE_SIZE_TEXTO));
             }
 
             log.info("✅ Imagen válida: {} ({} KB)", file.getOriginalFilename(), file.getSize() / 1024);
@@ -94,8 +107,14 @@ public class RecetaController {
             return ResponseEntity.badRequest()
                     .body(Map.of("error", e.getMessage()));
 
-        } catch (DbxException e) {
-            log.error("☁️ Error de Dropbox: {}", e.getMessage(), e);
+        } catch (RejectedExecutionException e) {
+            log.warn("⏳ Procesamiento de imágenes saturado: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "5")
+                    .body(Map.of("error", "Servidor ocupado procesando imágenes. Intente nuevamente."));
+
+        } catch (BlobStoreException e) {
+            log.error("☁️ Error del almacenamiento: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
                     .body(Map.of("error", "Error subiendo imagen al almacenamiento"));
 
@@ -111,6 +130,134 @@ public class RecetaController {
         }
     }
 
+    /**
+     * ⏳ CREACIÓN ASÍNCRONA:
+     * Crea la receta en estado "subiendo" y sube la imagen en segundo plano.
+     * La receta pasa a "esperando_respuestas" cuando la imagen está guardada
+     * (o a "error_subida" si no se pudo subir).
+     *
+     * @return 202 con recetaId y estado
+     */
+    @PostMapping("/crear-con-imagen-async")
+    public ResponseEntity<Map<String, Object>> crearRecetaConImagenAsync(
+            @RequestParam("userId") String userId,
+            @RequestParam("addressId") String addressId,
+            @RequestParam("file") MultipartFile file) {
+
+        try {
+            Map<String, Object> resultado = recetaService.crearRecetaConImagenAsync(userId, addressId, file);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(resultado);
+
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            log.warn("❌ Validación fallida: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+
+        } catch (RejectedExecutionException e) {
+            log.warn("⏳ Cola de subidas llena: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "5")
+                    .body(Map.of("error", "Servidor ocupado subiendo imágenes. Intente nuevamente."));
+
+        } catch (IOException e) {
+            log.error("📁 Error de I/O: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error procesando el archivo"));
+
+        } catch (Exception e) {
+            log.error("💥 Error inesperado: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error interno al crear la receta"));
+        }
+    }
+
+    /**
+     * 📤 SUBIDA DIRECTA (FASE 1):
+     * Valida usuario y dirección y devuelve un link temporal para que el cliente
+     * suba la imagen directamente a Dropbox (POST con Content-Type: application/octet-stream)
+     *
+     * @param fileName Nombre del archivo a subir (ej: receta.jpg)
+     * @return recetaId, uploadUrl, imagenPath y expiresInSeconds
+     */
+    @PostMapping("/subida-directa")
+    public ResponseEntity<Map<String, Object>> prepararSubidaDirecta(
+            @RequestParam("userId") String userId,
+            @RequestParam("addressId") String addressId,
+            @RequestParam("fileName") String fileName) {
+
+        try {
+            Map<String, Object> resultado = recetaService.prepararSubidaDirecta(userId, addressId, fileName);
+            return ResponseEntity.ok(resultado);
+
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            log.warn("❌ Validación fallida: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+
+        } catch (BlobStoreException e) {
+            log.error("☁️ Error del almacenamiento: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                    .body(Map.of("error", "Error generando el link de subida"));
+
+        } catch (Exception e) {
+            log.error("💥 Error inesperado: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error interno al preparar la subida"));
+        }
+    }
+
+    /**
+     * 📥 SUBIDA DIRECTA (FASE 2):
+     * Verifica que la imagen esté en Dropbox, la optimiza y crea la receta
+     *
+     * @param recetaId ID reservado en la fase 1
+     * @param userId ID del usuario que preparó la subida
+     * @return recetaId, imagenUrl e imagenPath
+     */
+    @PostMapping("/subida-directa/{recetaId}/finalizar")
+    public ResponseEntity<Map<String, Object>> finalizarSubidaDirecta(
+            @PathVariable String recetaId,
+            @RequestParam("userId") String userId) {
+
+        try {
+            Map<String, Object> resultado = recetaService.finalizarSubidaDirecta(recetaId, userId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(resultado);
+
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            log.warn("❌ Validación fallida: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+
+        } catch (RejectedExecutionException e) {
+            log.warn("⏳ Procesamiento de imágenes saturado: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "5")
+                    .body(Map.of("error", "Servidor ocupado procesando imágenes. Intente nuevamente."));
+
+        } catch (BlobStoreException e) {
+            log.error("☁️ Error del almacenamiento: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                    .body(Map.of("error", "Error verificando la imagen en el almacenamiento"));
+
+        } catch (Exception e) {
+            log.error("💥 Error inesperado: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error interno al crear la receta"));
+        }
+    }
+
+    /**
+     * Gauges de subidas: control de admisión, pool de subidas asíncronas y optimización
+     */
+    @GetMapping("/uploads/stats")
+    public ResponseEntity<Map<String, Object>> uploadStats() {
+        return ResponseEntity.ok(Map.of(
+                "admision", uploadAdmissionService.getStats(),
+                "async", subidaRecetaAsyncService.getStats(),
+                "optimizacion", imageOptimizationService.getStats()
+        ));
+    }
+
     /**
      * Health check del servicio de recetas
      */
@@ -0,0 +1,71 @@
+package com.medify.medicamentos_backend.dto;
+
+import java.time.Instant;
+
+/**
+ * Datos de un archivo guardado en el almacenamiento
+ */
+public class BlobInfo {
+
+    private String path;
+    private long size;
+
+    // Hash del contenido según el backend (ej: content_hash de Dropbox), puede ser null
+    private String contentHash;
+
+    private Instant fechaModificacion;
+
+    public BlobInfo() {}
+
+    public BlobInfo(String path, long size, String contentHash) {
+        this.path = path;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    public BlobInfo(String path, long size, String contentHash, Instant fechaModificacion) {
+        this(path, size, contentHash);
+        this.fechaModificacion = fechaModificacion;
+    }
+
+    // Getters y Setters
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Instant getFechaModificacion() {
+        return fechaModificacion;
+    }
+
+    public void setFechaModificacion(Instant fechaModificacion) {
+        this.fechaModificacion = fechaModificacion;
+    }
+
+    @Override
+    public String toString() {
+        return "BlobInfo{" +
+                "path='" + path + '\'' +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,127 @@
+package com.medify.medicamentos_backend.dto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imagen de receta ya guardada en el almacenamiento
+ * (original + variantes), identificada por el hash SHA-256 de su contenido
+ */
+public class ImagenAlmacenada {
+
+    private String hash;
+    private String url;
+    private String path;
+    private Map<String, Map<String, String>> variants = new HashMap<>();
+    private String contentType;
+    private long size;
+    private long sizeOriginal;
+    private String nombreOriginal;
+
+    // true si se reutilizó una imagen idéntica ya subida (sin upload)
+    private boolean reutilizada;
+
+    public ImagenAlmacenada() {}
+
+    /**
+     * Todos los paths guardados (original + variantes)
+     */
+    public List<String> getTodosLosPaths() {
+        List<String> paths = new ArrayList<>();
+        if (path != null) {
+            paths.add(path);
+        }
+        variants.values().forEach(v -> {
+            if (v.get("path") != null) {
+                paths.add(v.get("path"));
+            }
+        });
+        return paths;
+    }
+
+    // Getters y Setters
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Map<String, Map<String, String>> getVariants() {
+        return variants;
+    }
+
+    public void setVariants(Map<String, Map<String, String>> variants) {
+        this.variants = variants;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getSizeOriginal() {
+        return sizeOriginal;
+    }
+
+    public void setSizeOriginal(long sizeOriginal) {
+        this.sizeOriginal = sizeOriginal;
+    }
+
+    public String getNombreOriginal() {
+        return nombreOriginal;
+    }
+
+    public void setNombreOriginal(String nombreOriginal) {
+        this.nombreOriginal = nombreOriginal;
+    }
+
+    public boolean isReutilizada() {
+        return reutilizada;
+    }
+
+    public void setReutilizada(boolean reutilizada) {
+        this.reutilizada = reutilizada;
+    }
+
+    @Override
+    public String toString() {
+        return "ImagenAlmacenada{" +
+                "hash='" + hash + '\'' +
+                ", path='" + path + '\'' +
+                ", variants=" + variants.keySet() +
+                ", size=" + size +
+                ", reutilizada=" + reutilizada +
+                '}';
+    }
+}
@@ -0,0 +1,152 @@
+package com.medify.medicamentos_backend.dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resultado del procesamiento de una imagen antes de guardarla
+ * Contiene los bytes ya optimizados y los datos necesarios para subirlos
+ */
+public class ImagenProcesada {
+
+    private byte[] contenido;
+    private String contentType;
+    private String extension;
+    private String nombreOriginal;
+    private int ancho;
+    private int alto;
+    private long tamanoOriginal;
+    private boolean optimizada;
+
+    // SHA-256 (hex) del archivo original, calculado mientras se lee el upload
+    private String hashOriginal;
+
+    // Versiones reducidas (ej: "thumb", "medium") generadas desde la misma imagen
+    private Map<String, ImagenProcesada> variantes = new LinkedHashMap<>();
+
+    public ImagenProcesada() {}
+
+    public ImagenProcesada(byte[] contenido, String contentType, String extension,
+                           String nombreOriginal, int ancho, int alto,
+                           long tamanoOriginal, boolean optimizada) {
+        this.contenido = contenido;
+        this.contentType = contentType;
+        this.extension = extension;
+        this.nombreOriginal = nombreOriginal;
+        this.ancho = ancho;
+        this.alto = alto;
+        this.tamanoOriginal = tamanoOriginal;
+        this.optimizada = optimizada;
+    }
+
+    /**
+     * Nombre de archivo con la extensión del contenido final (ej: "foto.heic" -> "foto.jpg")
+     */
+    public String getNombreArchivo() {
+        String base = nombreOriginal != null ? nombreOriginal : "imagen";
+        int punto = base.lastIndexOf('.');
+        if (punto > 0) {
+            base = base.substring(0, punto);
+        }
+        return base + (extension != null ? extension : "");
+    }
+
+    public long getTamano() {
+        return contenido != null ? contenido.length : 0;
+    }
+
+    // Getters y Setters
+    public byte[] getContenido() {
+        return contenido;
+    }
+
+    public void setContenido(byte[] contenido) {
+        this.contenido = contenido;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public void setExtension(String extension) {
+        this.extension = extension;
+    }
+
+    public String getNombreOriginal() {
+        return nombreOriginal;
+    }
+
+    public void setNombreOriginal(String nombreOriginal) {
+        this.nombreOriginal = nombreOriginal;
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public void setAncho(int ancho) {
+        this.ancho = ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+
+    public void setAlto(int alto) {
+        this.alto = alto;
+    }
+
+    public long getTamanoOriginal() {
+        return tamanoOriginal;
+    }
+
+    public void setTamanoOriginal(long tamanoOriginal) {
+        this.tamanoOriginal = tamanoOriginal;
+    }
+
+    public boolean isOptimizada() {
+        return optimizada;
+    }
+
+    public void setOptimizada(boolean optimizada) {
+        this.optimizada = optimizada;
+    }
+
+    public String getHashOriginal() {
+        return hashOriginal;
+    }
+
+    public void setHashOriginal(String hashOriginal) {
+        this.hashOriginal = hashOriginal;
+    }
+
+    public Map<String, ImagenProcesada> getVariantes() {
+        return variantes;
+    }
+
+    public void setVariantes(Map<String, ImagenProcesada> variantes) {
+        this.variantes = variantes;
+    }
+
+    @Override
+    public String toString() {
+        return "ImagenProcesada{" +
+                "contentType='" + contentType + '\'' +
+                ", nombreOriginal='" + nombreOriginal + '\'' +
+                ", ancho=" + ancho +
+                ", alto=" + alto +
+                ", tamanoOriginal=" + tamanoOriginal +
+                ", tamano=" + getTamano() +
+                ", optimizada=" + optimizada +
+                ", variantes=" + variantes.keySet() +
+                '}';
+    }
+}
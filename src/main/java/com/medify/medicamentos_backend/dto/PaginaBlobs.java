@@ -0,0 +1,48 @@
+package com.medify.medicamentos_backend.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Página de un listado incremental del almacenamiento.
+ * El cursor permite seguir en la próxima llamada (y, al terminar, recibir solo cambios nuevos).
+ */
+public class PaginaBlobs {
+
+    private List<BlobInfo> archivos = new ArrayList<>();
+    private String cursor;
+    private boolean hayMas;
+
+    public PaginaBlobs() {}
+
+    public PaginaBlobs(List<BlobInfo> archivos, String cursor, boolean hayMas) {
+        this.archivos = archivos;
+        this.cursor = cursor;
+        this.hayMas = hayMas;
+    }
+
+    // Getters y Setters
+    public List<BlobInfo> getArchivos() {
+        return archivos;
+    }
+
+    public void setArchivos(List<BlobInfo> archivos) {
+        this.archivos = archivos;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isHayMas() {
+        return hayMas;
+    }
+
+    public void setHayMas(boolean hayMas) {
+        this.hayMas = hayMas;
+    }
+}
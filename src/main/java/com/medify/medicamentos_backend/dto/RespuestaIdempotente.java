@@ -0,0 +1,44 @@
+package com.medify.medicamentos_backend.dto;
+
+/**
+ * Respuesta HTTP guardada para un Idempotency-Key (se devuelve tal cual en los reintentos)
+ */
+public class RespuestaIdempotente {
+
+    private int status;
+    private String contentType;
+    private byte[] cuerpo;
+
+    public RespuestaIdempotente() {}
+
+    public RespuestaIdempotente(int status, String contentType, byte[] cuerpo) {
+        this.status = status;
+        this.contentType = contentType;
+        this.cuerpo = cuerpo;
+    }
+
+    // Getters y Setters
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public byte[] getCuerpo() {
+        return cuerpo;
+    }
+
+    public void setCuerpo(byte[] cuerpo) {
+        this.cuerpo = cuerpo;
+    }
+}
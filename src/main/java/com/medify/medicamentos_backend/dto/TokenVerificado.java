@@ -0,0 +1,46 @@
+package com.medify.medicamentos_backend.dto;
+
+/**
+ * Datos de un ID token de Firebase ya verificado
+ */
+public class TokenVerificado {
+
+    private String uid;
+    private String email;
+
+    // Vencimiento del token (epoch millis, claim "exp")
+    private long expiraEnMillis;
+
+    public TokenVerificado() {}
+
+    public TokenVerificado(String uid, String email, long expiraEnMillis) {
+        this.uid = uid;
+        this.email = email;
+        this.expiraEnMillis = expiraEnMillis;
+    }
+
+    // Getters y Setters
+    public String getUid() {
+        return uid;
+    }
+
+    public void setUid(String uid) {
+        this.uid = uid;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public long getExpiraEnMillis() {
+        return expiraEnMillis;
+    }
+
+    public void setExpiraEnMillis(long expiraEnMillis) {
+        this.expiraEnMillis = expiraEnMillis;
+    }
+}
@@ -0,0 +1,30 @@
+package com.medify.medicamentos_backend.exception;
+
+import java.io.IOException;
+
+/**
+ * Error del backend de almacenamiento de archivos (Dropbox, disco local, etc.)
+ * Se responde como 502 (el almacenamiento es un servicio externo)
+ */
+public class BlobStoreException extends IOException {
+
+    // > 0 si el backend pidió esperar antes de reintentar (rate limit)
+    private final long reintentarEnMs;
+
+    public BlobStoreException(String message, Throwable cause) {
+        this(message, cause, 0);
+    }
+
+    public BlobStoreException(String message, Throwable cause, long reintentarEnMs) {
+        super(message, cause);
+        this.reintentarEnMs = reintentarEnMs;
+    }
+
+    public long getReintentarEnMs() {
+        return reintentarEnMs;
+    }
+
+    public boolean isRateLimit() {
+        return reintentarEnMs > 0;
+    }
+}
@@ -46,11 +46,11 @@ public class GlobalExceptionHandler {
     }
 
     /**
-     * Maneja errores de Dropbox
+     * Maneja errores de Dropbox y del almacenamiento de archivos
      */
-    @ExceptionHandler(DbxException.class)
-    public ResponseEntity<Map<String, Object>> handleDropboxException(DbxException ex) {
-        log.error("Error de Dropbox: {}", ex.getMessage(), ex);
+    @ExceptionHandler({DbxException.class, BlobStoreException.class})
+    public ResponseEntity<Map<String, Object>> handleDropboxException(Exception ex) {
+        log.error("Error de almacenamiento: {}", ex.getMessage(), ex);
 
         Map<String, Object> response = new HashMap<>();
         response.put("error", "Error en el servicio de almacenamiento");
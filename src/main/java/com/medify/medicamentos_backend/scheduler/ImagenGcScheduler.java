@@ -0,0 +1,47 @@
+package com.medify.medicamentos_backend.scheduler;
+
+import com.medify.medicamentos_backend.service.ImagenGcService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Scheduler del recolector de imágenes huérfanas.
+ *
+ * Cada ejecución procesa como máximo images.gc.max.pages páginas del listado
+ * incremental, así el costo por corrida queda acotado.
+ */
+@Component
+@ConditionalOnProperty(name = "images.gc.enabled", havingValue = "true", matchIfMissing = true)
+public class ImagenGcScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenGcScheduler.class);
+
+    private final ImagenGcService imagenGcService;
+
+    public ImagenGcScheduler(ImagenGcService imagenGcService) {
+        this.imagenGcService = imagenGcService;
+    }
+
+    @Scheduled(
+            fixedRateString = "${images.gc.fixedRateMs:900000}",
+            initialDelayString = "${images.gc.initialDelayMs:120000}"
+    )
+    public void recolectarHuerfanas() {
+        try {
+            Map<String, Object> resumen = imagenGcService.ejecutar();
+            Object eliminados = resumen.get("eliminados");
+            if (eliminados instanceof Integer && (Integer) eliminados > 0) {
+                log.info("🧹 ImagenGcScheduler: {}", resumen);
+            } else {
+                log.debug("ImagenGcScheduler: {}", resumen);
+            }
+        } catch (Exception e) {
+            log.error("💥 ImagenGcScheduler: error inesperado: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.medify.medicamentos_backend.scheduler;
+
+import com.medify.medicamentos_backend.service.MigracionLayoutService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Scheduler que mueve de a poco las imágenes de la carpeta plana al layout particionado.
+ *
+ * Una vez recorrida la carpeta plana cada ejecución solo ve los cambios nuevos,
+ * así que puede quedar activo sin costo.
+ */
+@Component
+@ConditionalOnProperty(name = "images.layout.migration.enabled", havingValue = "true")
+public class MigracionLayoutScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionLayoutScheduler.class);
+
+    private final MigracionLayoutService migracionLayoutService;
+
+    public MigracionLayoutScheduler(MigracionLayoutService migracionLayoutService) {
+        this.migracionLayoutService = migracionLayoutService;
+    }
+
+    @Scheduled(
+            fixedRateString = "${images.layout.migration.fixedRateMs:600000}",
+            initialDelayString = "${images.layout.migration.initialDelayMs:180000}"
+    )
+    public void migrar() {
+        try {
+            Map<String, Object> resumen = migracionLayoutService.ejecutar();
+            Object migradas = resumen.get("migradas");
+            if (migradas instanceof Integer && (Integer) migradas > 0) {
+                log.info("📦 MigracionLayoutScheduler: {}", resumen);
+            } else {
+                log.debug("MigracionLayoutScheduler: {}", resumen);
+            }
+        } catch (Exception e) {
+            log.error("💥 MigracionLayoutScheduler: error inesperado: {}", e.getMessage(), e);
+        }
+    }
+}
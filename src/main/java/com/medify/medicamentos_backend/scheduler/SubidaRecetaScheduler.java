@@ -0,0 +1,40 @@
+package com.medify.medicamentos_backend.scheduler;
+
+import com.medify.medicamentos_backend.service.SubidaRecetaAsyncService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scheduler que compensa las recetas asíncronas que quedaron en "subiendo".
+ *
+ * Una receta queda así si el servidor se reinició con la subida en cola:
+ * pasado recetas.async.stale.minutes se marca como "error_subida".
+ */
+@Component
+public class SubidaRecetaScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(SubidaRecetaScheduler.class);
+
+    private final SubidaRecetaAsyncService subidaRecetaAsyncService;
+
+    public SubidaRecetaScheduler(SubidaRecetaAsyncService subidaRecetaAsyncService) {
+        this.subidaRecetaAsyncService = subidaRecetaAsyncService;
+    }
+
+    @Scheduled(
+            fixedRateString = "${recetas.async.cleanup.fixedRateMs:300000}",
+            initialDelayString = "${recetas.async.cleanup.initialDelayMs:60000}"
+    )
+    public void compensarSubidasAbandonadas() {
+        try {
+            int compensadas = subidaRecetaAsyncService.compensarSubidasAbandonadas();
+            if (compensadas > 0) {
+                log.info("🧹 SubidaRecetaScheduler: {} recetas marcadas como error_subida", compensadas);
+            }
+        } catch (Exception e) {
+            log.error("💥 SubidaRecetaScheduler: error inesperado: {}", e.getMessage(), e);
+        }
+    }
+}
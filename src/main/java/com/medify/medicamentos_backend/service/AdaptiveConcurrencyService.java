@@ -0,0 +1,202 @@
+package com.medify.medicamentos_backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Límite adaptativo de requests concurrentes (AIMD guiado por latencia).
+ *
+ * Cada ventana (concurrency.adaptive.window.ms) compara la latencia promedio con
+ * una latencia base: el menor promedio de las últimas concurrency.adaptive.baseline.windows
+ * ventanas. Una ventana excepcionalmente rápida deja de contar cuando sale de ese
+ * rango, y una degradación sostenida pasa a ser la nueva normalidad en el mismo plazo:
+ * - Latencia > base * tolerancia (o muchos 5xx): el límite baja multiplicativamente
+ * - Latencia normal y el límite en uso: sube de a uno
+ *
+ * Así, si Firestore o MercadoPago se ponen lentos, el límite baja y los requests que
+ * sobran se rechazan con 503 en lugar de acumularse hasta agotar los hilos.
+ *
+ * Prioridades: cada clase puede ocupar una fracción del límite, así las subidas
+ * de imágenes se rechazan primero y el webhook de pagos último.
+ */
+@Service
+public class AdaptiveConcurrencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyService.class);
+
+    /**
+     * Clases de prioridad con la fracción del límite que pueden ocupar
+     */
+    public enum Prioridad {
+        CRITICA(1.0),
+        NORMAL(0.9),
+        BAJA(0.6);
+
+        private final double fraccion;
+
+        Prioridad(double fraccion) {
+            this.fraccion = fraccion;
+        }
+    }
+
+    @Value("${concurrency.adaptive.limit.initial:50}")
+    private int limiteInicial;
+
+    @Value("${concurrency.adaptive.limit.min:8}")
+    private int limiteMinimo;
+
+    @Value("${concurrency.adaptive.limit.max:200}")
+    private int limiteMaximo;
+
+    @Value("${concurrency.adaptive.window.ms:1000}")
+    private long ventanaMs;
+
+    // Latencia promedio aceptada respecto de la base antes de bajar el límite
+    @Value("${concurrency.adaptive.latency.tolerance:2.0}")
+    private double tolerancia;
+
+    @Value("${concurrency.adaptive.backoff.ratio:0.9}")
+    private double backoff;
+
+    @Value("${concurrency.adaptive.min.samples:10}")
+    private int minMuestras;
+
+    // Ventanas (con muestras suficientes) sobre las que se toma la latencia mínima
+    @Value("${concurrency.adaptive.baseline.windows:60}")
+    private int ventanasBase;
+
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private volatile double limite;
+
+    // Muestras de la ventana actual
+    private final LongAdder muestras = new LongAdder();
+    private final LongAdder latenciaTotalNanos = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final AtomicInteger picoEnCurso = new AtomicInteger();
+    private final AtomicLong finVentanaNanos = new AtomicLong();
+    private volatile double latenciaBaseNanos = -1;
+    // Promedios de las últimas ventanas (buffer circular, solo lo usa ajustar)
+    private double[] promedios;
+    private int siguientePromedio;
+    private int promediosCargados;
+
+    private final AtomicLong admitidas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        limite = limiteInicial;
+        promedios = new double[Math.max(1, ventanasBase)];
+        finVentanaNanos.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ventanaMs));
+        log.info("AdaptiveConcurrencyService inicializado - Límite inicial: {} (min {}, max {})",
+                limiteInicial, limiteMinimo, limiteMaximo);
+    }
+
+    /**
+     * Intenta admitir un request de la prioridad indicada
+     *
+     * @return true si se admitió (el llamador debe llamar a {@link #liberar} al terminar)
+     */
+    public boolean adquirir(Prioridad prioridad) {
+        double maximo = limite * prioridad.fraccion;
+        while (true) {
+            int actual = enCurso.get();
+            if (actual + 1 > maximo) {
+                rechazadas.incrementAndGet();
+                return false;
+            }
+            if (enCurso.compareAndSet(actual, actual + 1)) {
+                picoEnCurso.accumulateAndGet(actual + 1, Math::max);
+                admitidas.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Libera un request admitido y registra su latencia
+     *
+     * @param muestra false para no usar la latencia (ej: subidas, que dependen de la red del cliente)
+     * @param error   true si terminó con 5xx
+     */
+    public void liberar(long inicioNanos, boolean muestra, boolean error) {
+        enCurso.decrementAndGet();
+
+        long ahora = System.nanoTime();
+        if (muestra) {
+            muestras.increment();
+            latenciaTotalNanos.add(ahora - inicioNanos);
+            if (error) {
+                errores.increment();
+            }
+        }
+
+        long fin = finVentanaNanos.get();
+        if (ahora - fin >= 0 && finVentanaNanos.compareAndSet(fin, ahora + TimeUnit.MILLISECONDS.toNanos(ventanaMs))) {
+            // Solo un hilo cierra cada ventana
+            ajustar();
+        }
+    }
+
+    /**
+     * AIMD sobre la ventana que termina (synchronized: lo llaman hilos distintos)
+     */
+    private synchronized void ajustar() {
+        long n = muestras.sumThenReset();
+        long total = latenciaTotalNanos.sumThenReset();
+        long fallidas = errores.sumThenReset();
+        int pico = picoEnCurso.getAndSet(enCurso.get());
+
+        if (n < minMuestras) {
+            return;
+        }
+
+        double promedio = (double) total / n;
+        promedios[siguientePromedio] = promedio;
+        siguientePromedio = (siguientePromedio + 1) % promedios.length;
+        promediosCargados = Math.min(promediosCargados + 1, promedios.length);
+
+        double base = promedio;
+        for (int i = 0; i < promediosCargados; i++) {
+            base = Math.min(base, promedios[i]);
+        }
+        latenciaBaseNanos = base;
+
+        double actual = limite;
+        double nuevo = actual;
+        if (promedio > base * tolerancia || fallidas * 10 > n) {
+            nuevo = Math.max(limiteMinimo, actual * backoff);
+        } else if (pico >= actual * 0.8) {
+            nuevo = Math.min(limiteMaximo, actual + 1);
+        }
+
+        if ((int) nuevo != (int) actual) {
+            log.debug("Límite de concurrencia {} -> {} (latencia {} ms, base {} ms, errores {}/{})",
+                    (int) actual, (int) nuevo, (long) (promedio / 1_000_000), (long) (base / 1_000_000), fallidas, n);
+        }
+        limite = nuevo;
+    }
+
+    /**
+     * Estadísticas del limitador
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("limite", (int) limite);
+        stats.put("enCurso", enCurso.get());
+        stats.put("latenciaBaseMs", latenciaBaseNanos < 0 ? null : (long) (latenciaBaseNanos / 1_000_000));
+        stats.put("admitidas", admitidas.get());
+        stats.put("rechazadas", rechazadas.get());
+        return stats;
+    }
+}
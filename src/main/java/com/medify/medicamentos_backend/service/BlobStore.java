@@ -0,0 +1,162 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import com.medify.medicamentos_backend.exception.BlobStoreException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Almacenamiento de archivos (imágenes de recetas).
+ *
+ * Implementaciones:
+ * - {@link DropboxService}: storage.backend=dropbox (por defecto)
+ * - {@link LocalBlobStore}: storage.backend=local (disco local, servido por /api/archivos)
+ *
+ * Los paths son absolutos dentro del almacenamiento (ej: /medify/imagenes/recetas/foto.jpg)
+ * y son los que se guardan en Firestore.
+ */
+public interface BlobStore {
+
+    /**
+     * true si el almacenamiento está listo para usarse
+     */
+    boolean isConfigured();
+
+    /**
+     * Construye el path completo de un archivo dentro de una carpeta lógica (ej: "recetas")
+     */
+    String construirRuta(String carpeta, String fileName);
+
+    /**
+     * Guarda el contenido en el path indicado
+     *
+     * @param sobrescribir false para fallar si el path ya existe
+     */
+    BlobInfo guardar(String path, InputStream contenido, boolean sobrescribir) throws IOException;
+
+    /**
+     * Abre el contenido del archivo para lectura (el llamador cierra el stream)
+     *
+     * @throws java.io.FileNotFoundException si el archivo no existe
+     */
+    InputStream leer(String path) throws IOException;
+
+    /**
+     * Datos del archivo o null si no existe
+     */
+    BlobInfo obtenerInfo(String path) throws IOException;
+
+    /**
+     * Elimina un archivo
+     */
+    void eliminar(String path) throws IOException;
+
+    /**
+     * Elimina varios archivos
+     *
+     * @return Paths que no se pudieron eliminar
+     */
+    default List<String> eliminarVarios(Collection<String> paths) {
+        List<String> fallidos = new ArrayList<>();
+        for (String path : paths) {
+            try {
+                eliminar(path);
+            } catch (IOException e) {
+                fallidos.add(path);
+            }
+        }
+        return fallidos;
+    }
+
+    /**
+     * Mueve varios archivos (origen -> destino), creando las carpetas necesarias
+     *
+     * @return Paths de origen que no se pudieron mover
+     */
+    List<String> moverVarios(Map<String, String> origenDestino);
+
+    /**
+     * Listado incremental de una carpeta lógica.
+     *
+     * Sin cursor empieza desde el principio; con el cursor de la página anterior sigue.
+     * Terminado el recorrido, el último cursor devuelve solo los archivos nuevos o modificados.
+     *
+     * @param carpeta    Carpeta lógica (ej: "recetas")
+     * @param cursor     null para empezar
+     * @param limite     Máximo sugerido de entradas por página
+     * @param recursivo  false para listar solo los archivos directamente en la carpeta
+     */
+    PaginaBlobs listarCambios(String carpeta, String cursor, int limite, boolean recursivo) throws IOException;
+
+    /**
+     * Listado incremental recursivo (ver {@link #listarCambios(String, String, int, boolean)})
+     */
+    default PaginaBlobs listarCambios(String carpeta, String cursor, int limite) throws IOException {
+        return listarCambios(carpeta, cursor, limite, true);
+    }
+
+    /**
+     * URL pública para mostrar el archivo
+     */
+    String obtenerUrl(String path) throws IOException;
+
+    /**
+     * Obtiene las URLs de varios archivos (en paralelo si el backend lo permite)
+     *
+     * @return Future con Map path -> url
+     */
+    default CompletableFuture<Map<String, String>> obtenerUrlsAsync(Collection<String> paths) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        try {
+            for (String path : paths) {
+                urls.put(path, obtenerUrl(path));
+            }
+            return CompletableFuture.completedFuture(urls);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Link temporal para que el cliente suba el archivo directamente al almacenamiento
+     *
+     * @throws IllegalStateException si el backend no lo soporta
+     */
+    default String crearLinkSubidaTemporal(String path, long duracionSegundos) throws IOException {
+        throw new IllegalStateException("La subida directa no está disponible con este almacenamiento");
+    }
+
+    /**
+     * Métricas del backend (latencias, conexiones); vacío si no las tiene
+     */
+    default Map<String, Object> getStats() {
+        return Map.of();
+    }
+
+    /**
+     * Espera el resultado de {@link #obtenerUrlsAsync(Collection)} desenvolviendo el error
+     */
+    static Map<String, String> esperarUrls(CompletableFuture<Map<String, String>> urls) throws IOException {
+        try {
+            return urls.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IOException) {
+                throw (IOException) causa;
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new BlobStoreException("Error obteniendo URLs", causa);
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed en tiempo real de cotizaciones por receta (Server-Sent Events)
+ *
+ * Es el bus de eventos en memoria de la instancia: por cada receta con clientes
+ * conectados hay un único feed con un único listener de Firestore sobre
+ * /recetas/{id}/cotizaciones, compartido por todas sus conexiones. Las cotizaciones
+ * creadas por {@link CotizacionService} en esta instancia se publican directamente
+ * (sin esperar al listener); las de otras instancias llegan por el listener.
+ *
+ * - El id de cada evento es "<createTime en micros>-<cotizacionId>", igual en todas las
+ *   instancias: un cliente que reconecta con Last-Event-ID (a esta u otra instancia)
+ *   recibe solo lo que le faltó. Sin Last-Event-ID recibe todas las cotizaciones.
+ * - Cada conexión tiene una cola acotada que vacía un pool de envío: un cliente lento
+ *   no frena al resto; si su cola se llena se cierra la conexión y reanuda con Last-Event-ID.
+ * - El envío es una escritura bloqueante del servlet: si un socket no drena y una escritura
+ *   supera cotizaciones.feed.send.timeout.ms, la conexión se da por atascada (se cierra y no
+ *   recibe más eventos) y el pool suma un hilo mientras esa escritura siga colgada (hasta
+ *   que la corte el timeout de escritura del contenedor), así el resto sigue recibiendo.
+ * - Un heartbeat (comentario SSE) mantiene viva la conexión a través de proxies.
+ * - El feed se cierra (y quita el listener) cotizaciones.feed.linger.seconds después de
+ *   que se va la última conexión, así las reconexiones no vuelven a leer todo.
+ */
+@Service
+public class CotizacionFeedService {
+
+    private static final Logger log = LoggerFactory.getLogger(CotizacionFeedService.class);
+    // Marcas en la cola de una conexión
+    private static final Object HEARTBEAT = new Object();
+    private static final Object CIERRE = new Object();
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${cotizaciones.feed.sse.timeout.ms:600000}")
+    private long sseTimeoutMs;
+
+    @Value("${cotizaciones.feed.heartbeat.seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${cotizaciones.feed.buffer.size:64}")
+    private int bufferSize;
+
+    // Cotizaciones recordadas por receta para reanudar (las más viejas se descartan)
+    @Value("${cotizaciones.feed.max.eventos:200}")
+    private int maxEventos;
+
+    @Value("${cotizaciones.feed.max.conexiones:20000}")
+    private int maxConexiones;
+
+    @Value("${cotizaciones.feed.linger.seconds:30}")
+    private long lingerSeconds;
+
+    @Value("${cotizaciones.feed.sender.threads:4}")
+    private int senderThreads;
+
+    @Value("${cotizaciones.feed.send.timeout.ms:5000}")
+    private long sendTimeoutMs;
+
+    // Hilos extra que puede sumar el pool por escrituras atascadas
+    @Value("${cotizaciones.feed.max.envios.atascados:64}")
+    private int maxEnviosAtascados;
+
+    private final Firestore firestore;
+    private final ConcurrentHashMap<String, Feed> feeds = new ConcurrentHashMap<>();
+    private final AtomicInteger conexiones = new AtomicInteger();
+    private final AtomicInteger enviosAtascados = new AtomicInteger();
+    private ThreadPoolExecutor envios;
+    private ScheduledExecutorService tareas;
+
+    public CotizacionFeedService(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger numero = new AtomicInteger();
+        envios = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "cotizaciones-feed-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        tareas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cotizaciones-feed-tareas");
+            t.setDaemon(true);
+            return t;
+        });
+        tareas.scheduleWithFixedDelay(this::enviarHeartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        tareas.scheduleWithFixedDelay(this::cerrarFeedsVacios, lingerSeconds, lingerSeconds, TimeUnit.SECONDS);
+        long revision = Math.max(sendTimeoutMs / 2, 100);
+        tareas.scheduleWithFixedDelay(this::revisarEnvios, revision, revision, TimeUnit.MILLISECONDS);
+        log.info("✅ CotizacionFeedService inicializado - Buffer por conexión: {}, heartbeat: {} s", bufferSize, heartbeatSeconds);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        tareas.shutdownNow();
+        envios.shutdownNow();
+        feeds.values().forEach(Feed::cerrar);
+    }
+
+    /**
+     * Conecta un cliente al feed de una receta
+     *
+     * @param uid         UID autenticado
+     * @param lastEventId Último evento recibido, para reanudar (puede ser null)
+     * @throws IllegalArgumentException si la receta no existe
+     * @throws SecurityException        si no hay usuario o la receta es de otro
+     * @throws IllegalStateException    si se alcanzó el máximo de conexiones
+     */
+    public SseEmitter suscribir(String recetaId, String uid, String lastEventId) {
+        Feed feed = obtenerFeed(recetaId);
+        if (uid == null || !uid.equals(feed.userId)) {
+            throw new SecurityException("La receta no pertenece al usuario");
+        }
+
+        if (conexiones.incrementAndGet() > maxConexiones) {
+            conexiones.decrementAndGet();
+            throw new IllegalStateException("Demasiadas conexiones al feed de cotizaciones");
+        }
+
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        Conexion conexion = new Conexion(feed, emitter, ClaveEvento.parsear(lastEventId));
+
+        while (!feed.agregar(conexion)) {
+            // El feed se cerró por inactividad justo ahora: se abre uno nuevo
+            feed = obtenerFeed(recetaId);
+            conexion = new Conexion(feed, emitter, conexion.desde);
+        }
+        return emitter;
+    }
+
+    /**
+     * Publica una cotización recién creada en esta instancia (solo si hay clientes de la receta)
+     *
+     * @param creada createTime del documento (el WriteResult de la escritura)
+     */
+    public void publicar(String recetaId, String cotizacionId, Map<String, Object> datos, Timestamp creada) {
+        Feed feed = feeds.get(recetaId);
+        if (feed != null) {
+            feed.publicar(new Evento(cotizacionId, creada, datos));
+        }
+    }
+
+    /**
+     * Estadísticas del bus
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("feedsActivos", feeds.size());
+        stats.put("conexiones", conexiones.get());
+        stats.put("enviosAtascados", enviosAtascados.get());
+        stats.put("hilosEnvio", envios.getPoolSize());
+        return stats;
+    }
+
+    private Feed obtenerFeed(String recetaId) {
+        Feed feed = feeds.get(recetaId);
+        if (feed != null) {
+            return feed;
+        }
+
+        // Una lectura por receta e instancia: existencia y dueño
+        DocumentSnapshot receta;
+        try {
+            receta = firestore.collection("recetas").document(recetaId).get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Error leyendo la receta " + recetaId, e);
+        }
+        if (!receta.exists()) {
+            throw new IllegalArgumentException("Receta no encontrada: " + recetaId);
+        }
+
+        String userId = receta.getString("userId");
+        return feeds.computeIfAbsent(recetaId, id -> new Feed(id, userId));
+    }
+
+    private void enviarHeartbeat() {
+        try {
+            feeds.values().forEach(feed -> feed.conexiones.forEach(c -> c.encolar(HEARTBEAT)));
+        } catch (Exception e) {
+            log.warn("⚠️ Error enviando heartbeat del feed de cotizaciones: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Da por atascadas las conexiones con una escritura en curso más vieja que el timeout
+     */
+    private void revisarEnvios() {
+        try {
+            long limite = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+            feeds.values().forEach(feed -> feed.conexiones.forEach(c -> c.revisarEnvio(limite)));
+        } catch (Exception e) {
+            log.warn("⚠️ Error revisando envíos del feed de cotizaciones: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Suma (o devuelve) un hilo del pool de envío por una escritura atascada
+     */
+    private synchronized void ajustarHilosEnvio(int delta) {
+        int hilos = senderThreads + enviosAtascados.addAndGet(delta);
+        if (delta > 0) {
+            envios.setMaximumPoolSize(hilos);
+            envios.setCorePoolSize(hilos);
+        } else {
+            envios.setCorePoolSize(hilos);
+            envios.setMaximumPoolSize(hilos);
+        }
+    }
+
+    private void cerrarFeedsVacios() {
+        long limite = System.nanoTime() - TimeUnit.SECONDS.toNanos(lingerSeconds);
+        feeds.forEach((id, feed) -> feeds.computeIfPresent(id, (k, actual) -> {
+            if (actual.cerrarSiInactivo(limite)) {
+                log.debug("Feed de cotizaciones de receta {} cerrado", id);
+                return null;
+            }
+            return actual;
+        }));
+    }
+
+    /**
+     * Feed de una receta: cotizaciones conocidas, conexiones y el listener compartido
+     */
+    private final class Feed {
+        private final String recetaId;
+        private final String userId;
+        private final Set<Conexion> conexiones = ConcurrentHashMap.newKeySet();
+        // Protegidos por el lock del feed
+        private final TreeMap<ClaveEvento, Evento> eventos = new TreeMap<>();
+        private final Set<String> cotizacionIds = new HashSet<>();
+        private final ListenerRegistration registro;
+        private volatile long vacioDesdeNanos = System.nanoTime();
+        private boolean cerrado;
+
+        Feed(String recetaId, String userId) {
+            this.recetaId = recetaId;
+            this.userId = userId;
+            this.registro = firestore.collection("recetas").document(recetaId)
+                    .collection("cotizaciones")
+                    .addSnapshotListener(this::alCambiar);
+        }
+
+        private void alCambiar(QuerySnapshot snapshot, Exception error) {
+            if (error != null) {
+                log.warn("⚠️ Listener de cotizaciones de receta {} falló: {}", recetaId, error.getMessage());
+                return;
+            }
+            for (DocumentChange cambio : snapshot.getDocumentChanges()) {
+                if (cambio.getType() == DocumentChange.Type.ADDED) {
+                    DocumentSnapshot doc = cambio.getDocument();
+                    publicar(new Evento(doc.getId(), doc.getCreateTime(), doc.getData()));
+                }
+            }
+        }
+
+        /**
+         * Registra la conexión y le encola lo que le falta, sin huecos ni repetidos
+         */
+        synchronized boolean agregar(Conexion conexion) {
+            if (cerrado) {
+                return false;
+            }
+            conexiones.add(conexion);
+            conexion.registrar();
+            for (Evento evento : conexion.desde != null ? eventos.tailMap(conexion.desde, false).values() : eventos.values()) {
+                conexion.encolar(evento);
+            }
+            return true;
+        }
+
+        synchronized void publicar(Evento evento) {
+            // La publicación local y el listener traen la misma cotización
+            if (!cotizacionIds.add(evento.cotizacionId)) {
+                return;
+            }
+            eventos.put(evento.clave, evento);
+            if (eventos.size() > maxEventos) {
+                cotizacionIds.remove(eventos.pollFirstEntry().getValue().cotizacionId);
+            }
+            for (Conexion conexion : conexiones) {
+                conexion.encolar(evento);
+            }
+        }
+
+        void quitar(Conexion conexion) {
+            if (conexiones.remove(conexion) && conexiones.isEmpty()) {
+                vacioDesdeNanos = System.nanoTime();
+            }
+        }
+
+        synchronized boolean cerrarSiInactivo(long limiteNanos) {
+            if (!conexiones.isEmpty() || vacioDesdeNanos - limiteNanos > 0) {
+                return false;
+            }
+            cerrar();
+            return true;
+        }
+
+        synchronized void cerrar() {
+            cerrado = true;
+            registro.remove();
+            conexiones.forEach(Conexion::cerrar);
+        }
+    }
+
+    /**
+     * Conexión SSE con su cola acotada de envíos pendientes
+     */
+    private final class Conexion {
+        private final Feed feed;
+        private final SseEmitter emitter;
+        private final ClaveEvento desde;
+        private final ArrayDeque<Object> cola = new ArrayDeque<>();
+        private final AtomicBoolean programada = new AtomicBoolean();
+        private final AtomicBoolean quitada = new AtomicBoolean();
+        private volatile boolean cerrada;
+        // Escritura en curso (protegidos por el lock de la cola)
+        private long enviandoDesdeNanos;
+        private boolean atascada;
+
+        Conexion(Feed feed, SseEmitter emitter, ClaveEvento desde) {
+            this.feed = feed;
+            this.emitter = emitter;
+            this.desde = desde;
+        }
+
+        void registrar() {
+            emitter.onCompletion(this::quitar);
+            emitter.onTimeout(emitter::complete);
+            emitter.onError(e -> quitar());
+        }
+
+        void encolar(Object item) {
+            if (item instanceof Evento && desde != null && ((Evento) item).clave.compareTo(desde) <= 0) {
+                return;
+            }
+            synchronized (cola) {
+                if (cerrada) {
+                    return;
+                }
+                if (cola.size() >= bufferSize) {
+                    // Cliente lento: se corta y reanuda con Last-Event-ID
+                    log.warn("⚠️ Conexión al feed de receta {} cerrada: buffer lleno", feed.recetaId);
+                    cerrada = true;
+                    cola.clear();
+                    cola.add(CIERRE);
+                } else {
+                    cola.add(item);
+                }
+            }
+            if (programada.compareAndSet(false, true)) {
+                envios.execute(this::vaciar);
+            }
+        }
+
+        private void vaciar() {
+            while (true) {
+                Object item;
+                synchronized (cola) {
+                    item = cola.poll();
+                    if (item == null) {
+                        programada.set(false);
+                        return;
+                    }
+                }
+                synchronized (cola) {
+                    enviandoDesdeNanos = System.nanoTime();
+                }
+                try {
+                    if (item == CIERRE) {
+                        emitter.complete();
+                    } else if (item == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("ping"));
+                    } else {
+                        Evento evento = (Evento) item;
+                        emitter.send(SseEmitter.event()
+                                .id(evento.clave.toString())
+                                .name("cotizacion")
+                                .data(evento.datos, MediaType.APPLICATION_JSON));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // El cliente se desconectó
+                    cerrar();
+                    emitter.completeWithError(e);
+                } finally {
+                    terminarEnvio();
+                }
+            }
+        }
+
+        private void terminarEnvio() {
+            boolean devolverHilo;
+            synchronized (cola) {
+                enviandoDesdeNanos = 0;
+                devolverHilo = atascada;
+                atascada = false;
+            }
+            if (devolverHilo) {
+                ajustarHilosEnvio(-1);
+            }
+        }
+
+        /**
+         * Si la escritura en curso empezó antes del límite, cierra la conexión y
+         * compensa el hilo que queda bloqueado en ella
+         */
+        void revisarEnvio(long limiteNanos) {
+            synchronized (cola) {
+                if (enviandoDesdeNanos == 0 || atascada || enviandoDesdeNanos - limiteNanos > 0) {
+                    return;
+                }
+                if (enviosAtascados.get() >= maxEnviosAtascados) {
+                    return;
+                }
+                atascada = true;
+                // La conexión no recibe más eventos; el cliente reanuda con Last-Event-ID
+                cerrada = true;
+                cola.clear();
+                cola.add(CIERRE);
+            }
+            log.warn("⚠️ Conexión al feed de receta {} cerrada: escritura atascada más de {} ms",
+                    feed.recetaId, sendTimeoutMs);
+            ajustarHilosEnvio(1);
+        }
+
+        void cerrar() {
+            synchronized (cola) {
+                if (!cerrada) {
+                    cerrada = true;
+                    cola.clear();
+                    cola.add(CIERRE);
+                }
+            }
+            if (programada.compareAndSet(false, true)) {
+                envios.execute(this::vaciar);
+            }
+        }
+
+        void quitar() {
+            if (quitada.compareAndSet(false, true)) {
+                conexiones.decrementAndGet();
+                feed.quitar(this);
+                synchronized (cola) {
+                    cerrada = true;
+                    cola.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Orden de los eventos: createTime y, a igual tiempo, el id de la cotización
+     */
+    private static final class ClaveEvento implements Comparable<ClaveEvento> {
+        private final long micros;
+        private final String cotizacionId;
+
+        ClaveEvento(long micros, String cotizacionId) {
+            this.micros = micros;
+            this.cotizacionId = cotizacionId;
+        }
+
+        static ClaveEvento parsear(String id) {
+            if (id == null || id.isBlank()) {
+                return null;
+            }
+            int separador = id.indexOf('-');
+            try {
+                return new ClaveEvento(Long.parseLong(id.substring(0, separador)), id.substring(separador + 1));
+            } catch (RuntimeException e) {
+                // Id desconocido: se manda todo
+                return null;
+            }
+        }
+
+        @Override
+        public int compareTo(ClaveEvento otra) {
+            int porTiempo = Long.compare(micros, otra.micros);
+            return porTiempo != 0 ? porTiempo : cotizacionId.compareTo(otra.cotizacionId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ClaveEvento && compareTo((ClaveEvento) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(micros) * 31 + cotizacionId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return micros + "-" + cotizacionId;
+        }
+    }
+
+    /**
+     * Cotización lista para enviar (solo los campos que ve el usuario)
+     */
+    private static final class Evento {
+        private static final List<String> CAMPOS =
+                List.of("farmaciaId", "nombreComercial", "direccion", "telefono", "estado", "descripcion", "precio");
+
+        private final String cotizacionId;
+        private final ClaveEvento clave;
+        private final Map<String, Object> datos = new HashMap<>();
+
+        Evento(String cotizacionId, Timestamp creada, Map<String, Object> doc) {
+            Timestamp fecha = creada != null ? creada : Timestamp.now();
+            long micros = fecha.getSeconds() * 1_000_000 + fecha.getNanos() / 1_000;
+            this.cotizacionId = cotizacionId;
+            this.clave = new ClaveEvento(micros, cotizacionId);
+            datos.put("cotizacionId", cotizacionId);
+            for (String campo : CAMPOS) {
+                datos.put(campo, doc != null ? doc.get(campo) : null);
+            }
+            datos.put("fechaCreacion", micros / 1_000);
+        }
+    }
+}
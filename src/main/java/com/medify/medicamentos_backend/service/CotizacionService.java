@@ -4,6 +4,7 @@ import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteResult;
 import com.medify.medicamentos_backend.dto.CotizacionRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,9 +27,15 @@ public class CotizacionService {
     private long firestoreTimeoutSeconds;
 
     private final Firestore db;
+    private final CotizacionFeedService cotizacionFeedService;
+    private final FarmaciaInboxService farmaciaInboxService;
 
-    public CotizacionService(Firestore firestore) {
+    public CotizacionService(Firestore firestore,
+                             CotizacionFeedService cotizacionFeedService,
+                             FarmaciaInboxService farmaciaInboxService) {
         this.db = firestore;
+        this.cotizacionFeedService = cotizacionFeedService;
+        this.farmaciaInboxService = farmaciaInboxService;
     }
 
     /**
@@ -41,6 +48,9 @@ public class CotizacionService {
      * 4. Registra la farmacia en /recetas/{recetaId}/farmaciasRespondieron
      * 5. Actualiza el contador cotizacionesCount
      * 6. Actualiza el estado de la receta según corresponda
+     * 7. Quita la receta de la bandeja de la farmacia ({@link FarmaciaInboxService})
+     *
+     * La cotización se publica en el feed SSE apenas se escribe ({@link CotizacionFeedService})
      *
      * @param request Datos de la cotización
      * @return ID de la cotización creada
@@ -61,6 +71,10 @@ public class CotizacionService {
                 throw new IllegalStateException("La receta ya está finalizada");
             }
 
+            if ("subiendo".equals(estadoReceta) || "error_subida".equals(estadoReceta)) {
+                throw new IllegalStateException("La receta todavía no tiene imagen disponible");
+            }
+
             // 2️⃣ Verificar si la farmacia ya respondió
             DocumentReference farmaciaRespondioRef = db.collection("recetas")
                     .document(request.getRecetaId())
@@ -116,10 +130,15 @@ public class CotizacionService {
                 cotizacionData.put("precio", null);
             }
 
-            cotizacionRef.set(cotizacionData).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            WriteResult cotizacionEscrita = cotizacionRef.set(cotizacionData)
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
 
             log.info("✅ Cotización creada: {}", cotizacionRef.getId());
 
+            // 📡 Avisar a los usuarios conectados a esta instancia sin esperar al listener
+            cotizacionFeedService.publicar(request.getRecetaId(), cotizacionRef.getId(),
+                    cotizacionData, cotizacionEscrita.getUpdateTime());
+
             // 5️⃣ Registrar en farmaciasRespondieron con TODOS los datos
             Map<String, Object> farmaciaRespondioData = new HashMap<>();
             farmaciaRespondioData.put("farmaciaId", request.getFarmaciaId());
@@ -153,6 +172,9 @@ public class CotizacionService {
                 log.info("📝 Estado de receta actualizado a: farmacias_respondiendo");
             }
 
+            // 8️⃣ La farmacia ya respondió: sale de su bandeja
+            farmaciaInboxService.quitar(request.getFarmaciaId(), request.getRecetaId());
+
             return cotizacionRef.getId();
 
         } catch (IllegalArgumentException | IllegalStateException e) {
@@ -1,150 +1,606 @@
 package com.medify.medicamentos_backend.service;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.InvalidAccessTokenException;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.http.OkHttp3Requestor;
+import com.dropbox.core.oauth.DbxCredential;
 import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.DeleteArg;
+import com.dropbox.core.v2.files.DeleteBatchJobStatus;
+import com.dropbox.core.v2.files.DeleteBatchLaunch;
+import com.dropbox.core.v2.files.DeleteBatchResultEntry;
+import com.dropbox.core.v2.files.DeleteError;
+import com.dropbox.core.v2.files.DownloadErrorException;
 import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.GetTemporaryUploadLinkResult;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.RelocationBatchResultEntry;
+import com.dropbox.core.v2.files.RelocationBatchV2JobStatus;
+import com.dropbox.core.v2.files.RelocationBatchV2Launch;
+import com.dropbox.core.v2.files.RelocationPath;
 import com.dropbox.core.v2.files.WriteMode;
+import com.dropbox.core.v2.sharing.CreateSharedLinkWithSettingsErrorException;
+import com.dropbox.core.v2.sharing.SharedLinkAlreadyExistsMetadata;
 import com.dropbox.core.v2.sharing.SharedLinkMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import com.medify.medicamentos_backend.exception.BlobStoreException;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Almacenamiento en Dropbox (backend por defecto, storage.backend=dropbox)
+ */
 @Service
-public class DropboxService {
+@ConditionalOnProperty(name = "storage.backend", havingValue = "dropbox", matchIfMissing = true)
+public class DropboxService implements BlobStore {
 
     private static final Logger log = LoggerFactory.getLogger(DropboxService.class);
-    private static final List<String> ALLOWED_CONTENT_TYPES = Arrays.asList(
-            "image/jpeg", "image/jpg", "image/png", "image/gif", "image/webp"
-    );
+    private static final int MAX_BATCH = 1000;
+    private static final int MAX_INTENTOS_RATE_LIMIT = 3;
 
     @Value("${dropbox.access.token:}")
     private String accessToken;
 
+    // Con refresh token el access token se renueva solo (recomendado: los tokens nuevos vencen a las 4 hs)
+    @Value("${dropbox.refresh.token:}")
+    private String refreshToken;
+
+    @Value("${dropbox.app.key:}")
+    private String appKey;
+
+    @Value("${dropbox.app.secret:}")
+    private String appSecret;
+
+    // Renovar cuando falte menos que esto para el vencimiento
+    @Value("${dropbox.token.refresh.margin.seconds:600}")
+    private long refreshMarginSeconds;
+
+    @Value("${dropbox.http.connect.timeout.ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${dropbox.http.read.timeout.ms:60000}")
+    private long readTimeoutMs;
+
+    @Value("${dropbox.http.max.connections:32}")
+    private int maxConnections;
+
+    @Value("${dropbox.http.keep.alive.seconds:300}")
+    private long keepAliveSeconds;
+
     @Value("${dropbox.folder.path:/medify/imagenes}")
     private String folderPath;
 
+    @Value("${dropbox.links.parallelism:4}")
+    private int linksParallelism;
+
     private DbxClientV2 client;
+    private DbxCredential credential;
+    private OkHttpClient httpClient;
     private volatile boolean dropboxConfigured = false;
 
+    // Latencia por endpoint de la API (ej: /2/files/upload), medida en el cliente HTTP
+    private final Map<String, Latencia> latencias = new ConcurrentHashMap<>();
+
+    // Chequeo de conexión y renovación del token, fuera del arranque
+    private ScheduledExecutorService mantenimiento;
+
+    // Links públicos ya conocidos por path (evita volver a consultarlos a Dropbox)
+    private final Cache<String, String> linksCache = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .expireAfterAccess(12, TimeUnit.HOURS)
+            .build();
+
+    // Pool para crear varios links en paralelo (original + variantes)
+    private ExecutorService linksExecutor;
+
     @PostConstruct
     public void init() {
-        if (accessToken == null || accessToken.isBlank()) {
+        AtomicInteger contador = new AtomicInteger();
+        linksExecutor = new ThreadPoolExecutor(
+                linksParallelism, linksParallelism,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "dropbox-links-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        ((ThreadPoolExecutor) linksExecutor).allowCoreThreadTimeOut(true);
+
+        boolean conRefresh = refreshToken != null && !refreshToken.isBlank();
+        if (!conRefresh && (accessToken == null || accessToken.isBlank())) {
             log.warn("Dropbox access token no configurado. Las subidas de imágenes no funcionarán.");
             return;
         }
 
-        try {
-            DbxRequestConfig config = DbxRequestConfig.newBuilder("medify-backend").build();
+        httpClient = new OkHttpClient.Builder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher())
+                .addInterceptor(this::medir)
+                .build();
+
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("medify-backend")
+                .withHttpRequestor(new OkHttp3Requestor(httpClient))
+                .build();
+
+        if (conRefresh) {
+            // Sin access token inicial: se obtiene con el primer refresh
+            credential = new DbxCredential(accessToken == null || accessToken.isBlank() ? "" : accessToken,
+                    0L, refreshToken, appKey, appSecret.isBlank() ? null : appSecret);
+            client = new DbxClientV2(config, credential);
+        } else {
             client = new DbxClientV2(config, accessToken);
+        }
+        dropboxConfigured = true;
+
+        mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dropbox-mantenimiento");
+            t.setDaemon(true);
+            return t;
+        });
+        mantenimiento.execute(this::verificarConexion);
+        if (conRefresh) {
+            mantenimiento.scheduleWithFixedDelay(this::renovarToken, 0, 60, TimeUnit.SECONDS);
+        }
 
-            // Test de conexión
+        log.info("Dropbox configurado (pool de {} conexiones, refresh token: {})", maxConnections, conRefresh);
+    }
+
+    /**
+     * Dispatcher de OkHttp: el SDK usa llamadas sincrónicas, pero el límite por host
+     * también aplica y por defecto es 5
+     */
+    private Dispatcher dispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConnections);
+        dispatcher.setMaxRequestsPerHost(maxConnections);
+        return dispatcher;
+    }
+
+    /**
+     * Test de conexión en segundo plano: un token inválido deshabilita el almacenamiento,
+     * un error de red solo se registra (las llamadas siguientes lo vuelven a intentar)
+     */
+    private void verificarConexion() {
+        try {
             client.users().getCurrentAccount();
-            dropboxConfigured = true;
-            log.info("Dropbox configurado correctamente");
+            log.info("Dropbox conectado correctamente");
+        } catch (InvalidAccessTokenException e) {
+            dropboxConfigured = false;
+            log.error("Token de Dropbox inválido, almacenamiento deshabilitado: {}", e.getMessage());
         } catch (DbxException e) {
-            log.error("Error inicializando Dropbox: {}", e.getMessage());
+            log.warn("No se pudo verificar la conexión con Dropbox: {}", e.getMessage());
         }
     }
 
-    public boolean isConfigured() {
-        return dropboxConfigured;
+    /**
+     * Renueva el access token antes de que venza, así ninguna subida paga el refresh
+     */
+    private void renovarToken() {
+        try {
+            Long expira = credential.getExpiresAt();
+            long margen = TimeUnit.SECONDS.toMillis(refreshMarginSeconds);
+            if (expira == null || expira - System.currentTimeMillis() < margen) {
+                client.refreshAccessToken();
+                log.info("Access token de Dropbox renovado (vence en {} s)",
+                        (credential.getExpiresAt() - System.currentTimeMillis()) / 1000);
+            }
+        } catch (DbxException e) {
+            log.warn("No se pudo renovar el access token de Dropbox: {}", e.getMessage());
+        }
     }
 
     /**
-     * Sube una imagen a Dropbox y retorna el link y el path
-     * @return Map con "url" y "path"
+     * Interceptor que registra la latencia de cada llamada HTTP hasta recibir la respuesta
+     * (en las descargas no incluye la lectura del cuerpo)
      */
-    public Map<String, String> subirImagen(MultipartFile file, String carpeta) throws IOException, DbxException {
+    private Response medir(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        Latencia latencia = latencias.computeIfAbsent(request.url().encodedPath(), k -> new Latencia());
+        long inicio = System.nanoTime();
+        try {
+            Response response = chain.proceed(request);
+            latencia.registrar(System.nanoTime() - inicio, !response.isSuccessful());
+            return response;
+        } catch (IOException e) {
+            latencia.registrar(System.nanoTime() - inicio, true);
+            throw e;
+        }
+    }
 
-        validarArchivo(file);
+    /**
+     * Latencias por endpoint y estado del pool de conexiones
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("configurado", dropboxConfigured);
+
+        Map<String, Object> porEndpoint = new TreeMap<>();
+        latencias.forEach((endpoint, latencia) -> porEndpoint.put(endpoint, latencia.resumen()));
+        stats.put("latencias", porEndpoint);
+
+        if (httpClient != null) {
+            stats.put("conexionesAbiertas", httpClient.connectionPool().connectionCount());
+            stats.put("conexionesOciosas", httpClient.connectionPool().idleConnectionCount());
+        }
+        if (credential != null && credential.getExpiresAt() != null) {
+            stats.put("tokenVenceEnSegundos", (credential.getExpiresAt() - System.currentTimeMillis()) / 1000);
+        }
+        return stats;
+    }
 
-        String fileName = generarNombreUnico(file.getOriginalFilename());
-        String dropboxPath = construirRuta(carpeta, fileName);
+    @PreDestroy
+    public void shutdown() {
+        if (linksExecutor != null) {
+            linksExecutor.shutdownNow();
+        }
+        if (mantenimiento != null) {
+            mantenimiento.shutdownNow();
+        }
+        if (httpClient != null) {
+            httpClient.dispatcher().executorService().shutdown();
+            httpClient.connectionPool().evictAll();
+        }
+    }
 
+    @Override
+    public boolean isConfigured() {
+        return dropboxConfigured;
+    }
+
+    /**
+     * Sube el contenido al path indicado (sin crear link)
+     */
+    @Override
+    public BlobInfo guardar(String dropboxPath, InputStream in, boolean sobrescribir) throws IOException {
         log.info("Subiendo imagen a Dropbox: {}", dropboxPath);
 
-        // Subir archivo
-        try (InputStream in = file.getInputStream()) {
+        try {
             FileMetadata metadata = client.files()
                     .uploadBuilder(dropboxPath)
-                    .withMode(WriteMode.ADD)
+                    .withMode(sobrescribir ? WriteMode.OVERWRITE : WriteMode.ADD)
                     .uploadAndFinish(in);
 
             log.info("Imagen subida exitosamente: {}", metadata.getPathDisplay());
+            return new BlobInfo(dropboxPath, metadata.getSize(), metadata.getContentHash());
+
+        } catch (DbxException e) {
+            throw error("Error subiendo " + dropboxPath + " a Dropbox", e);
+        }
+    }
+
+    /**
+     * Descarga un archivo de Dropbox como stream
+     */
+    @Override
+    public InputStream leer(String dropboxPath) throws IOException {
+        try {
+            return client.files().download(dropboxPath).getInputStream();
+        } catch (DownloadErrorException e) {
+            if (e.errorValue.isPath() && e.errorValue.getPathValue().isNotFound()) {
+                throw new FileNotFoundException(dropboxPath);
+            }
+            throw error("Error descargando " + dropboxPath + " de Dropbox", e);
+        } catch (DbxException e) {
+            throw error("Error descargando " + dropboxPath + " de Dropbox", e);
         }
+    }
 
-        // Obtener link público
-        String publicUrl = obtenerLinkPublico(dropboxPath);
-        log.info("Link generado: {}", publicUrl);
+    /**
+     * Crea un link temporal de subida para el path indicado.
+     * El cliente hace POST del archivo (Content-Type: application/octet-stream) a ese link
+     * sin pasar por el backend. Si el path ya existe la subida falla (sin autorename).
+     *
+     * @param duracionSegundos Validez del link (Dropbox permite entre 60 s y 4 h)
+     */
+    @Override
+    public String crearLinkSubidaTemporal(String dropboxPath, long duracionSegundos) throws IOException {
+        CommitInfo commitInfo = CommitInfo.newBuilder(dropboxPath)
+                .withMode(WriteMode.ADD)
+                .withAutorename(false)
+                .build();
 
-        // Retornar tanto la URL como el path
-        Map<String, String> resultado = new HashMap<>();
-        resultado.put("url", publicUrl);
-        resultado.put("path", dropboxPath);
+        try {
+            GetTemporaryUploadLinkResult link = client.files()
+                    .getTemporaryUploadLink(commitInfo, (double) duracionSegundos);
 
-        return resultado;
+            log.info("Link temporal de subida generado para {}", dropboxPath);
+            return link.getLink();
+
+        } catch (DbxException e) {
+            throw error("Error generando link de subida para " + dropboxPath, e);
+        }
+    }
+
+    /**
+     * Obtiene la metadata de un archivo subido
+     * @return datos del archivo o null si no existe (o es una carpeta)
+     */
+    @Override
+    public BlobInfo obtenerInfo(String dropboxPath) throws IOException {
+        try {
+            Metadata metadata = client.files().getMetadata(dropboxPath);
+            if (!(metadata instanceof FileMetadata)) {
+                return null;
+            }
+            FileMetadata archivo = (FileMetadata) metadata;
+            return new BlobInfo(dropboxPath, archivo.getSize(), archivo.getContentHash());
+
+        } catch (GetMetadataErrorException e) {
+            if (e.errorValue.isPath() && e.errorValue.getPathValue().isNotFound()) {
+                return null;
+            }
+            throw error("Error obteniendo metadata de " + dropboxPath, e);
+        } catch (DbxException e) {
+            throw error("Error obteniendo metadata de " + dropboxPath, e);
+        }
     }
 
     /**
      * Elimina una imagen de Dropbox
      */
-    public void eliminarImagen(String dropboxPath) throws DbxException {
+    @Override
+    public void eliminar(String dropboxPath) throws IOException {
         log.info("Eliminando imagen de Dropbox: {}", dropboxPath);
-        client.files().deleteV2(dropboxPath);
+        try {
+            client.files().deleteV2(dropboxPath);
+        } catch (DbxException e) {
+            throw error("Error eliminando " + dropboxPath + " de Dropbox", e);
+        }
+        linksCache.invalidate(dropboxPath);
         log.info("Imagen eliminada exitosamente");
     }
 
     /**
-     * Valida el archivo antes de subirlo
+     * Elimina varios archivos con deleteBatch (hasta 1000 por llamada).
+     * Un archivo que ya no existe cuenta como eliminado.
+     *
+     * @return Paths que no se pudieron eliminar
+     */
+    @Override
+    public List<String> eliminarVarios(Collection<String> paths) {
+        List<String> pendientes = new ArrayList<>(paths);
+        List<String> fallidos = new ArrayList<>();
+
+        for (int i = 0; i < pendientes.size(); i += MAX_BATCH) {
+            List<String> lote = pendientes.subList(i, Math.min(i + MAX_BATCH, pendientes.size()));
+            lote.forEach(linksCache::invalidate);
+
+            try {
+                List<DeleteBatchResultEntry> entradas = eliminarLoteConReintentos(lote);
+                for (int j = 0; j < entradas.size(); j++) {
+                    DeleteBatchResultEntry entrada = entradas.get(j);
+                    if (entrada.isFailure() && !noExiste(entrada.getFailureValue())) {
+                        fallidos.add(lote.get(j));
+                    }
+                }
+            } catch (DbxException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                log.error("Error eliminando lote de {} archivos: {}", lote.size(), e.getMessage());
+                fallidos.addAll(lote);
+            }
+        }
+
+        log.info("Eliminación en lote: {} archivos, {} fallidos", paths.size(), fallidos.size());
+        return fallidos;
+    }
+
+    /**
+     * Ante un rate limit espera lo que pide Dropbox y reintenta el lote
+     */
+    private List<DeleteBatchResultEntry> eliminarLoteConReintentos(List<String> lote)
+            throws DbxException, InterruptedException {
+        for (int intento = 1; ; intento++) {
+            try {
+                return eliminarLote(lote);
+            } catch (RateLimitException e) {
+                if (intento >= MAX_INTENTOS_RATE_LIMIT) {
+                    throw e;
+                }
+                log.warn("Rate limit en deleteBatch, reintentando en {} ms", e.getBackoffMillis());
+                Thread.sleep(Math.max(1000, e.getBackoffMillis()));
+            }
+        }
+    }
+
+    /**
+     * Lanza un deleteBatch y espera el job asíncrono si Dropbox no lo resolvió en el momento
      */
-    private void validarArchivo(MultipartFile file) {
-        if (file.isEmpty()) {
-            throw new IllegalArgumentException("El archivo está vacío");
+    private List<DeleteBatchResultEntry> eliminarLote(List<String> lote) throws DbxException, InterruptedException {
+        List<DeleteArg> args = new ArrayList<>();
+        lote.forEach(path -> args.add(new DeleteArg(path)));
+
+        DeleteBatchLaunch launch = client.files().deleteBatch(args);
+        if (launch.isComplete()) {
+            return launch.getCompleteValue().getEntries();
         }
 
-        if (file.getSize() > 20 * 1024 * 1024) { // 10MB
-            throw new IllegalArgumentException("El archivo excede el tamaño máximo de 10MB");
+        String jobId = launch.getAsyncJobIdValue();
+        long espera = 500;
+        while (true) {
+            Thread.sleep(espera);
+            DeleteBatchJobStatus estado = client.files().deleteBatchCheck(jobId);
+            if (estado.isComplete()) {
+                return estado.getCompleteValue().getEntries();
+            }
+            if (estado.isFailed()) {
+                throw new IllegalStateException("deleteBatch falló: " + estado.getFailedValue());
+            }
+            espera = Math.min(espera * 2, 5000);
         }
+    }
 
-        String contentType = file.getContentType();
-        if (!ALLOWED_CONTENT_TYPES.contains(contentType)) {
-            throw new IllegalArgumentException(
-                    "Tipo de archivo no permitido: " + contentType +
-                            ". Permitidos: " + ALLOWED_CONTENT_TYPES
-            );
+    private boolean noExiste(DeleteError error) {
+        return error.isPathLookup() && error.getPathLookupValue().isNotFound();
+    }
+
+    /**
+     * Mueve varios archivos con moveBatchV2 (hasta 1000 por llamada).
+     * Los shared links existentes siguen al archivo movido.
+     *
+     * @return Paths de origen que no se pudieron mover
+     */
+    @Override
+    public List<String> moverVarios(Map<String, String> origenDestino) {
+        List<RelocationPath> pendientes = new ArrayList<>();
+        origenDestino.forEach((origen, destino) -> pendientes.add(new RelocationPath(origen, destino)));
+        List<String> fallidos = new ArrayList<>();
+
+        for (int i = 0; i < pendientes.size(); i += MAX_BATCH) {
+            List<RelocationPath> lote = pendientes.subList(i, Math.min(i + MAX_BATCH, pendientes.size()));
+            lote.forEach(r -> linksCache.invalidate(r.getFromPath()));
+
+            try {
+                List<RelocationBatchResultEntry> entradas = moverLote(lote);
+                for (int j = 0; j < entradas.size(); j++) {
+                    if (entradas.get(j).isFailure()) {
+                        log.warn("No se pudo mover {}: {}", lote.get(j).getFromPath(), entradas.get(j).getFailureValue());
+                        fallidos.add(lote.get(j).getFromPath());
+                    }
+                }
+            } catch (DbxException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                log.error("Error moviendo lote de {} archivos: {}", lote.size(), e.getMessage());
+                lote.forEach(r -> fallidos.add(r.getFromPath()));
+            }
+        }
+
+        log.info("Movimiento en lote: {} archivos, {} fallidos", origenDestino.size(), fallidos.size());
+        return fallidos;
+    }
+
+    /**
+     * Lanza un moveBatchV2 y espera el job asíncrono si Dropbox no lo resolvió en el momento
+     */
+    private List<RelocationBatchResultEntry> moverLote(List<RelocationPath> lote)
+            throws DbxException, InterruptedException {
+        RelocationBatchV2Launch launch = client.files().moveBatchV2(lote);
+        if (launch.isComplete()) {
+            return launch.getCompleteValue().getEntries();
+        }
+
+        String jobId = launch.getAsyncJobIdValue();
+        long espera = 500;
+        while (true) {
+            Thread.sleep(espera);
+            RelocationBatchV2JobStatus estado = client.files().moveBatchCheckV2(jobId);
+            if (estado.isComplete()) {
+                return estado.getCompleteValue().getEntries();
+            }
+            espera = Math.min(espera * 2, 5000);
         }
     }
 
     /**
-     * Genera un nombre para el archivo
+     * Listado incremental con listFolder / listFolderContinue
+     *
+     * @throws IllegalArgumentException si el cursor venció (hay que empezar de nuevo)
      */
-    private String generarNombreUnico(String originalFilename) {
-        String timestamp = LocalDateTime.now()
-                .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+    @Override
+    public PaginaBlobs listarCambios(String carpeta, String cursor, int limite, boolean recursivo)
+            throws IOException {
+        try {
+            ListFolderResult resultado;
+            if (cursor == null) {
+                String ruta = construirRuta(carpeta, "");
+                resultado = client.files()
+                        .listFolderBuilder(ruta.substring(0, ruta.length() - 1))
+                        .withRecursive(recursivo)
+                        .withLimit((long) limite)
+                        .start();
+            } else {
+                resultado = client.files().listFolderContinue(cursor);
+            }
 
-        String extension = "";
-        if (originalFilename != null && originalFilename.contains(".")) {
-            extension = originalFilename.substring(originalFilename.lastIndexOf("."));
+            // path_display no siempre respeta las mayúsculas de las carpetas: se rearma
+            // con el prefijo de construirRuta para que coincida con los paths guardados
+            String prefijo = construirRuta(carpeta, "");
+            List<BlobInfo> archivos = new ArrayList<>();
+            for (Metadata metadata : resultado.getEntries()) {
+                if (metadata instanceof FileMetadata archivo) {
+                    String path = archivo.getPathLower().startsWith(prefijo.toLowerCase())
+                            ? prefijo + archivo.getPathDisplay().substring(prefijo.length())
+                            : archivo.getPathDisplay();
+                    archivos.add(new BlobInfo(path, archivo.getSize(),
+                            archivo.getContentHash(), archivo.getServerModified().toInstant()));
+                }
+            }
+            return new PaginaBlobs(archivos, resultado.getCursor(), resultado.getHasMore());
+
+        } catch (ListFolderContinueErrorException e) {
+            if (e.errorValue.isReset()) {
+                throw new IllegalArgumentException("Cursor de listado vencido", e);
+            }
+            throw error("Error listando " + carpeta, e);
+        } catch (DbxException e) {
+            throw error("Error listando " + carpeta, e);
         }
+    }
 
-        return timestamp + "_" + System.nanoTime() + extension;
+    /**
+     * Envuelve un error de Dropbox conservando el tiempo de espera pedido por rate limit
+     */
+    private BlobStoreException error(String mensaje, DbxException e) {
+        if (e instanceof RateLimitException) {
+            return new BlobStoreException(mensaje, e, Math.max(1, ((RateLimitException) e).getBackoffMillis()));
+        }
+        return new BlobStoreException(mensaje, e);
     }
 
     /**
      * Construye la ruta completa en Dropbox
      */
-    private String construirRuta(String carpeta, String fileName) {
+    @Override
+    public String construirRuta(String carpeta, String fileName) {
         String path = folderPath;
         if (carpeta != null && !carpeta.isBlank()) {
             path = path + "/" + carpeta;
@@ -153,34 +609,92 @@ public class DropboxService {
     }
 
     /**
-     * Obtiene o crea un link para el archivo
+     * Crea (u obtiene) los links públicos de varios archivos en paralelo
+     *
+     * @return Future con Map path -> url directa
      */
-    private String obtenerLinkPublico(String dropboxPath) throws DbxException {
+    @Override
+    public CompletableFuture<Map<String, String>> obtenerUrlsAsync(Collection<String> paths) {
+        Map<String, CompletableFuture<String>> futuros = new LinkedHashMap<>();
+        for (String path : paths) {
+            futuros.put(path, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return obtenerUrl(path);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, linksExecutor));
+        }
+
+        return CompletableFuture.allOf(futuros.values().toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    Map<String, String> links = new LinkedHashMap<>();
+                    futuros.forEach((path, futuro) -> links.put(path, futuro.join()));
+                    return links;
+                });
+    }
+
+    /**
+     * Obtiene o crea un link para el archivo.
+     *
+     * Primero intenta crear el link (un solo request, el caso normal tras una subida).
+     * Si ya existía, Dropbox devuelve su metadata en el error; solo si no viene
+     * se listan los links del archivo.
+     */
+    @Override
+    public String obtenerUrl(String dropboxPath) throws IOException {
+        String cacheado = linksCache.getIfPresent(dropboxPath);
+        if (cacheado != null) {
+            return cacheado;
+        }
+
         try {
-            // Intentar obtener link existente
-            List<SharedLinkMetadata> links = client.sharing()
-                    .listSharedLinksBuilder()
-                    .withPath(dropboxPath)
-                    .withDirectOnly(true)
-                    .start()
-                    .getLinks();
-
-            if (!links.isEmpty()) {
-                return convertirALinkDirecto(links.get(0).getUrl());
+            String url;
+            try {
+                // Crear nuevo link compartido
+                SharedLinkMetadata sharedLink = client.sharing()
+                        .createSharedLinkWithSettings(dropboxPath);
+                url = convertirALinkDirecto(sharedLink.getUrl());
+
+            } catch (CreateSharedLinkWithSettingsErrorException e) {
+                if (!e.errorValue.isSharedLinkAlreadyExists()) {
+                    throw e;
+                }
+                url = linkExistente(dropboxPath, e.errorValue.getSharedLinkAlreadyExistsValue());
             }
 
-            // Crear nuevo link compartido
-            SharedLinkMetadata sharedLink = client.sharing()
-                    .createSharedLinkWithSettings(dropboxPath);
-
-            return convertirALinkDirecto(sharedLink.getUrl());
+            linksCache.put(dropboxPath, url);
+            return url;
 
-        } catch (Exception e) {
+        } catch (DbxException e) {
             log.error("Error obteniendo link: {}", e.getMessage());
-            throw e;
+            throw error("Error obteniendo link de " + dropboxPath, e);
         }
     }
 
+    /**
+     * Link ya existente: usa la metadata del error o, si no viene, lo busca en Dropbox
+     */
+    private String linkExistente(String dropboxPath, SharedLinkAlreadyExistsMetadata existente)
+            throws DbxException {
+
+        if (existente != null && existente.isMetadata()) {
+            return convertirALinkDirecto(existente.getMetadataValue().getUrl());
+        }
+
+        List<SharedLinkMetadata> links = client.sharing()
+                .listSharedLinksBuilder()
+                .withPath(dropboxPath)
+                .withDirectOnly(true)
+                .start()
+                .getLinks();
+
+        if (links.isEmpty()) {
+            throw new IllegalStateException("Link existente no encontrado para " + dropboxPath);
+        }
+        return convertirALinkDirecto(links.get(0).getUrl());
+    }
+
     /**
      * Convierte el link de Dropbox a link directo para mostrar imagen
      */
@@ -189,4 +703,33 @@ public class DropboxService {
         return dropboxUrl.replace("?dl=0", "?raw=1")
                 .replace("www.dropbox.com", "dl.dropboxusercontent.com");
     }
+
+    /**
+     * Contadores de latencia de un endpoint (sin locks: los actualizan varios hilos)
+     */
+    private static final class Latencia {
+        private final LongAdder llamadas = new LongAdder();
+        private final LongAdder errores = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void registrar(long nanos, boolean error) {
+            llamadas.increment();
+            if (error) {
+                errores.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> resumen() {
+            long n = llamadas.sum();
+            Map<String, Object> resumen = new HashMap<>();
+            resumen.put("llamadas", n);
+            resumen.put("errores", errores.sum());
+            resumen.put("promedioMs", n == 0 ? 0 : totalNanos.sum() / n / 1_000_000);
+            resumen.put("maxMs", maxNanos.get() / 1_000_000);
+            return resumen;
+        }
+    }
 }
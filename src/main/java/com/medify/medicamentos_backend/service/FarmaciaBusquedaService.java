@@ -0,0 +1,288 @@
+package com.medify.medicamentos_backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Búsqueda de farmacias por texto (índice invertido en memoria)
+ *
+ * Indexa nombreComercial, direccion y horario. Los textos se normalizan (minúsculas,
+ * sin acentos, separados en palabras y sin palabras vacías como "de" o "la"), así que
+ * "Farmacia Güemes" se encuentra con "guemes".
+ *
+ * Consulta:
+ * - Todas las palabras tienen que aparecer (en cualquiera de los campos)
+ * - La última se toma también como prefijo, para buscar mientras se escribe
+ *   ("farmacia cent" encuentra "Farmacia Central")
+ * - Puntaje: suma por palabra de idf × peso del campo (nombre 3, dirección 2,
+ *   horario 1); una coincidencia por prefijo vale un poco menos que la exacta
+ *
+ * Se reconstruye al arrancar y se mantiene al día con {@link FarmaciaDirectorioService}.
+ * Solo se ordenan los resultados hasta la página pedida (heap acotado); las páginas
+ * más allá de farmacias.busqueda.resultados.max se rechazan, así una página profunda
+ * no obliga a ordenar todo el resultado.
+ */
+@Service
+public class FarmaciaBusquedaService implements FarmaciaDirectorioService.Observador {
+
+    private static final Logger log = LoggerFactory.getLogger(FarmaciaBusquedaService.class);
+    private static final Pattern NO_ALFANUMERICO = Pattern.compile("[^a-z0-9]+");
+    private static final Map<String, Float> PESOS = Map.of("nombreComercial", 3f, "direccion", 2f, "horario", 1f);
+    private static final Set<String> PALABRAS_VACIAS =
+            Set.of("de", "del", "la", "las", "el", "los", "y", "e", "en", "a", "al", "por", "con");
+    private static final float FACTOR_PREFIJO = 0.8f;
+    private static final int MIN_LARGO_PREFIJO = 2;
+
+    @Value("${farmacias.busqueda.page.max:50}")
+    private int maxPagina;
+
+    // Resultados alcanzables paginando (tamaño máximo del heap)
+    @Value("${farmacias.busqueda.resultados.max:500}")
+    private int maxResultados;
+
+    // Palabras que puede abarcar el prefijo de la última palabra
+    @Value("${farmacias.busqueda.prefijo.max.terminos:50}")
+    private int maxTerminosPrefijo;
+
+    private final FarmaciaDirectorioService farmaciaDirectorioService;
+
+    // palabra -> farmaciaId -> peso (suma de los pesos de los campos donde aparece)
+    private final ConcurrentSkipListMap<String, Map<String, Float>> indice = new ConcurrentSkipListMap<>();
+    private final Map<String, Documento> documentos = new ConcurrentHashMap<>();
+
+    public FarmaciaBusquedaService(FarmaciaDirectorioService farmaciaDirectorioService) {
+        this.farmaciaDirectorioService = farmaciaDirectorioService;
+    }
+
+    @PostConstruct
+    public void init() {
+        farmaciaDirectorioService.suscribir(this);
+        log.info("✅ FarmaciaBusquedaService inicializado - {} farmacias indexadas", documentos.size());
+    }
+
+    /**
+     * Busca farmacias por texto
+     *
+     * @param pagina Número de página (desde 0)
+     * @return items (id, datos públicos y puntaje), total, pagina y hayMas
+     * @throws IllegalArgumentException si la página supera los resultados alcanzables
+     */
+    public Map<String, Object> buscar(String texto, int pagina, int limite) {
+        int tamanio = Math.max(1, Math.min(limite, Math.min(maxPagina, maxResultados)));
+        // En long: una página enorme no debe desbordar el int
+        long hasta = (Math.max(0, pagina) + 1L) * tamanio;
+        if (hasta > maxResultados) {
+            throw new IllegalArgumentException("Solo se pueden recorrer los primeros " + maxResultados + " resultados");
+        }
+        int desde = (int) hasta - tamanio;
+
+        List<String> palabras = new ArrayList<>(tokenizar(texto));
+        Map<String, Float> puntajes = palabras.isEmpty() ? Collections.emptyMap() : puntuar(palabras);
+
+        // Heap con los mejores desde + tamanio (el peor arriba)
+        Comparator<Map.Entry<String, Float>> orden = Map.Entry.<String, Float>comparingByValue()
+                .thenComparing(e -> nombre(e.getKey()), Comparator.reverseOrder());
+        PriorityQueue<Map.Entry<String, Float>> mejores = new PriorityQueue<>(orden);
+        for (Map.Entry<String, Float> puntaje : puntajes.entrySet()) {
+            mejores.add(puntaje);
+            if (mejores.size() > desde + tamanio) {
+                mejores.poll();
+            }
+        }
+
+        List<Map.Entry<String, Float>> ordenados = new ArrayList<>(mejores);
+        ordenados.sort(orden.reversed());
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (Map.Entry<String, Float> puntaje : ordenados.subList(Math.min(desde, ordenados.size()), ordenados.size())) {
+            Documento documento = documentos.get(puntaje.getKey());
+            if (documento == null) {
+                continue;
+            }
+            Map<String, Object> item = new HashMap<>(documento.datos);
+            item.put("id", puntaje.getKey());
+            item.put("puntaje", Math.round(puntaje.getValue() * 100) / 100.0);
+            items.add(item);
+        }
+
+        Map<String, Object> resultado = new HashMap<>();
+        resultado.put("items", items);
+        resultado.put("total", puntajes.size());
+        resultado.put("pagina", Math.max(0, pagina));
+        resultado.put("hayMas", puntajes.size() > desde + tamanio);
+        return resultado;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("farmacias", documentos.size());
+        stats.put("palabras", indice.size());
+        return stats;
+    }
+
+    @Override
+    public void actualizar(String farmaciaId, Map<String, Object> datos) {
+        Map<String, Float> pesos = new HashMap<>();
+        Map<String, Object> publicos = new HashMap<>();
+        for (Map.Entry<String, Float> campo : PESOS.entrySet()) {
+            Object valor = datos.get(campo.getKey());
+            if (valor instanceof String) {
+                publicos.put(campo.getKey(), valor);
+                for (String palabra : tokenizar((String) valor)) {
+                    pesos.merge(palabra, campo.getValue(), Float::sum);
+                }
+            }
+        }
+        if (datos.get("telefono") != null) {
+            publicos.put("telefono", datos.get("telefono"));
+        }
+
+        quitar(farmaciaId);
+        documentos.put(farmaciaId, new Documento(publicos, pesos.keySet()));
+        pesos.forEach((palabra, peso) ->
+                indice.computeIfAbsent(palabra, p -> new ConcurrentHashMap<>()).put(farmaciaId, peso));
+    }
+
+    @Override
+    public void quitar(String farmaciaId) {
+        Documento anterior = documentos.remove(farmaciaId);
+        if (anterior == null) {
+            return;
+        }
+        for (String palabra : anterior.palabras) {
+            indice.computeIfPresent(palabra, (p, farmacias) -> {
+                farmacias.remove(farmaciaId);
+                return farmacias.isEmpty() ? null : farmacias;
+            });
+        }
+    }
+
+    /**
+     * Puntaje de las farmacias que tienen todas las palabras
+     */
+    private Map<String, Float> puntuar(List<String> palabras) {
+        int total = Math.max(documentos.size(), 1);
+
+        List<Coincidencias> todas = new ArrayList<>();
+        for (int i = 0; i < palabras.size(); i++) {
+            boolean ultima = i == palabras.size() - 1;
+            Map<String, Float> pesos = coincidencias(palabras.get(i), ultima);
+            if (pesos.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            float idf = (float) Math.log(1 + (total - pesos.size() + 0.5) / (pesos.size() + 0.5));
+            todas.add(new Coincidencias(pesos, idf));
+        }
+
+        // Se recorre la lista más corta y se cruza con las demás (sin copiarlas)
+        todas.sort(Comparator.comparingInt(c -> c.pesos.size()));
+        Coincidencias menor = todas.get(0);
+        Map<String, Float> puntajes = new HashMap<>(menor.pesos.size() * 2);
+        candidatos:
+        for (Map.Entry<String, Float> candidato : menor.pesos.entrySet()) {
+            float puntaje = menor.idf * candidato.getValue();
+            for (int i = 1; i < todas.size(); i++) {
+                Float peso = todas.get(i).pesos.get(candidato.getKey());
+                if (peso == null) {
+                    continue candidatos;
+                }
+                puntaje += todas.get(i).idf * peso;
+            }
+            puntajes.put(candidato.getKey(), puntaje);
+        }
+        return puntajes;
+    }
+
+    /**
+     * Farmacias con la palabra (y, si es la última, con palabras que empiezan con ella)
+     */
+    private Map<String, Float> coincidencias(String palabra, boolean prefijo) {
+        Map<String, Float> exactas = indice.getOrDefault(palabra, Collections.emptyMap());
+        if (!prefijo || palabra.length() < MIN_LARGO_PREFIJO) {
+            return exactas;
+        }
+
+        ConcurrentNavigableMap<String, Map<String, Float>> extensiones =
+                indice.subMap(palabra, false, palabra + Character.MAX_VALUE, false);
+        if (extensiones.isEmpty()) {
+            return exactas;
+        }
+
+        Map<String, Float> pesos = new HashMap<>(exactas);
+        int terminos = 0;
+        for (Map<String, Float> farmacias : extensiones.values()) {
+            if (++terminos > maxTerminosPrefijo) {
+                break;
+            }
+            farmacias.forEach((id, peso) -> pesos.merge(id, peso * FACTOR_PREFIJO, Math::max));
+        }
+        return pesos;
+    }
+
+    private String nombre(String farmaciaId) {
+        Documento documento = documentos.get(farmaciaId);
+        Object nombre = documento != null ? documento.datos.get("nombreComercial") : null;
+        return nombre != null ? nombre.toString() : "";
+    }
+
+    /**
+     * Palabras normalizadas (sin acentos, minúsculas, sin palabras vacías ni repetidas)
+     */
+    static Set<String> tokenizar(String texto) {
+        Set<String> palabras = new LinkedHashSet<>();
+        if (texto == null || texto.isBlank()) {
+            return palabras;
+        }
+        String sinAcentos = Normalizer.normalize(texto, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        for (String palabra : NO_ALFANUMERICO.split(sinAcentos.toLowerCase())) {
+            if (!palabra.isEmpty() && !PALABRAS_VACIAS.contains(palabra)) {
+                palabras.add(palabra);
+            }
+        }
+        return palabras;
+    }
+
+    /**
+     * Farmacias que coinciden con una palabra de la consulta y el idf de la palabra
+     */
+    private static final class Coincidencias {
+        private final Map<String, Float> pesos;
+        private final float idf;
+
+        Coincidencias(Map<String, Float> pesos, float idf) {
+            this.pesos = pesos;
+            this.idf = idf;
+        }
+    }
+
+    /**
+     * Farmacia indexada: datos públicos para los resultados y sus palabras (para quitarlas)
+     */
+    private static final class Documento {
+        private final Map<String, Object> datos;
+        private final Set<String> palabras;
+
+        Documento(Map<String, Object> datos, Set<String> palabras) {
+            this.datos = datos;
+            this.palabras = palabras;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Copia en memoria de la colección /farmacias, mantenida por un único listener de Firestore
+ *
+ * El primer snapshot trae todas las farmacias (reconstrucción al arrancar) y los
+ * siguientes solo los cambios. Los índices en memoria ({@link FarmaciaGeoIndexService},
+ * {@link FarmaciaBusquedaService}) se suscriben como {@link Observador}: al suscribirse reciben las farmacias ya cargadas
+ * y después cada alta, cambio o baja, en orden y desde un solo hilo.
+ */
+@Service
+public class FarmaciaDirectorioService {
+
+    private static final Logger log = LoggerFactory.getLogger(FarmaciaDirectorioService.class);
+
+    private final Firestore firestore;
+    private final Map<String, Map<String, Object>> farmacias = new ConcurrentHashMap<>();
+    private final List<Observador> observadores = new CopyOnWriteArrayList<>();
+    private ListenerRegistration registro;
+    private volatile boolean cargado;
+
+    public FarmaciaDirectorioService(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @PostConstruct
+    public void init() {
+        registro = firestore.collection("farmacias").addSnapshotListener(this::alCambiar);
+        log.info("✅ FarmaciaDirectorioService inicializado");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        registro.remove();
+    }
+
+    /**
+     * Suscribe un observador y le entrega las farmacias ya cargadas
+     */
+    public synchronized void suscribir(Observador observador) {
+        farmacias.forEach(observador::actualizar);
+        observadores.add(observador);
+    }
+
+    /**
+     * IDs de todas las farmacias conocidas
+     */
+    public List<String> ids() {
+        return new ArrayList<>(farmacias.keySet());
+    }
+
+    /**
+     * true cuando ya llegó el primer snapshot (la copia está completa)
+     */
+    public boolean isCargado() {
+        return cargado;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("farmacias", farmacias.size());
+        stats.put("cargado", cargado);
+        stats.put("observadores", observadores.size());
+        return stats;
+    }
+
+    private synchronized void alCambiar(QuerySnapshot snapshot, Exception error) {
+        if (error != null) {
+            log.warn("⚠️ Listener de farmacias falló: {}", error.getMessage());
+            return;
+        }
+
+        for (DocumentChange cambio : snapshot.getDocumentChanges()) {
+            String farmaciaId = cambio.getDocument().getId();
+            if (cambio.getType() == DocumentChange.Type.REMOVED) {
+                farmacias.remove(farmaciaId);
+                for (Observador observador : observadores) {
+                    observador.quitar(farmaciaId);
+                }
+            } else {
+                Map<String, Object> datos = cambio.getDocument().getData();
+                farmacias.put(farmaciaId, datos);
+                for (Observador observador : observadores) {
+                    observador.actualizar(farmaciaId, datos);
+                }
+            }
+        }
+
+        if (!cargado) {
+            cargado = true;
+            log.info("🏥 Directorio de farmacias cargado: {} farmacias", farmacias.size());
+        }
+    }
+
+    /**
+     * Índice en memoria alimentado por el directorio (se llama desde el hilo del listener,
+     * así que no debe bloquear ni lanzar excepciones)
+     */
+    public interface Observador {
+
+        /**
+         * Alta o cambio de una farmacia
+         */
+        void actualizar(String farmaciaId, Map<String, Object> datos);
+
+        /**
+         * Baja de una farmacia
+         */
+        void quitar(String farmaciaId);
+    }
+}
@@ -0,0 +1,212 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.GeoPoint;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice geográfico en memoria de las farmacias ("farmacias a menos de R km")
+ *
+ * Grilla de celdas de geo.index.cell.km de lado (en grados de latitud; en longitud
+ * son más angostas lejos del ecuador, lo que solo agrega alguna celda a la búsqueda).
+ * Una consulta recorre las celdas que cubren el círculo y filtra por distancia real
+ * (haversine), así el costo depende de las farmacias de la zona y no del total.
+ *
+ * Se alimenta de {@link FarmaciaDirectorioService}. La ubicación sale del campo
+ * "ubicacion" de la farmacia; las farmacias creadas antes de la geocodificación se
+ * ubican en memoria a partir de "direccion" (sin escribir en Firestore). La precisión
+ * es la del {@link Geocoder}: con {@link LocalGeocoder} todas las farmacias de una
+ * localidad caen en su centro, así que las distancias son entre localidades.
+ *
+ * No contempla el antimeridiano (no hay farmacias de ese lado del mundo).
+ */
+@Service
+public class FarmaciaGeoIndexService implements FarmaciaDirectorioService.Observador {
+
+    private static final Logger log = LoggerFactory.getLogger(FarmaciaGeoIndexService.class);
+    private static final double KM_POR_GRADO = 111.32;
+    private static final double RADIO_TIERRA_KM = 6371.0;
+
+    @Value("${geo.index.cell.km:5}")
+    private double celdaKm;
+
+    @Value("${geo.index.radio.max.km:100}")
+    private double radioMaxKm;
+
+    private final FarmaciaDirectorioService farmaciaDirectorioService;
+    private final Geocoder geocoder;
+
+    private final Map<String, Ubicada> farmacias = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Ubicada>> celdas = new ConcurrentHashMap<>();
+    private final Set<String> sinUbicacion = ConcurrentHashMap.newKeySet();
+    private double gradosCelda;
+
+    public FarmaciaGeoIndexService(FarmaciaDirectorioService farmaciaDirectorioService, Geocoder geocoder) {
+        this.farmaciaDirectorioService = farmaciaDirectorioService;
+        this.geocoder = geocoder;
+    }
+
+    @PostConstruct
+    public void init() {
+        gradosCelda = celdaKm / KM_POR_GRADO;
+        farmaciaDirectorioService.suscribir(this);
+        log.info("✅ FarmaciaGeoIndexService inicializado - Celda: {} km, radio máximo: {} km", celdaKm, radioMaxKm);
+    }
+
+    /**
+     * Farmacias a menos de radioKm del punto, de la más cercana a la más lejana
+     *
+     * @return farmaciaId -> distancia en km (orden de cercanía)
+     */
+    public Map<String, Double> cercanas(GeoPoint centro, double radioKm) {
+        double radio = Math.min(radioKm, radioMaxKm);
+        double lat = centro.getLatitude();
+        double lon = centro.getLongitude();
+
+        double deltaLat = radio / KM_POR_GRADO;
+        double deltaLon = radio / (KM_POR_GRADO * Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+
+        int filaDesde = fila(lat - deltaLat);
+        int filaHasta = fila(lat + deltaLat);
+        int columnaDesde = columna(lon - deltaLon);
+        int columnaHasta = columna(lon + deltaLon);
+
+        List<Map.Entry<String, Double>> encontradas = new ArrayList<>();
+        for (int f = filaDesde; f <= filaHasta; f++) {
+            for (int c = columnaDesde; c <= columnaHasta; c++) {
+                Set<Ubicada> celda = celdas.get(clave(f, c));
+                if (celda == null) {
+                    continue;
+                }
+                for (Ubicada farmacia : celda) {
+                    double distancia = distanciaKm(lat, lon, farmacia.lat, farmacia.lon);
+                    if (distancia <= radio) {
+                        encontradas.add(Map.entry(farmacia.farmaciaId, distancia));
+                    }
+                }
+            }
+        }
+
+        encontradas.sort(Map.Entry.comparingByValue());
+        Map<String, Double> resultado = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> encontrada : encontradas) {
+            resultado.put(encontrada.getKey(), Math.round(encontrada.getValue() * 100) / 100.0);
+        }
+        return resultado;
+    }
+
+    /**
+     * true si el índice ya tiene todas las farmacias
+     */
+    public boolean isCargado() {
+        return farmaciaDirectorioService.isCargado();
+    }
+
+    /**
+     * Farmacias que no se pudieron ubicar (no aparecen en {@link #cercanas})
+     */
+    public Set<String> sinUbicacion() {
+        return Set.copyOf(sinUbicacion);
+    }
+
+    public double getRadioMaxKm() {
+        return radioMaxKm;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("farmaciasUbicadas", farmacias.size());
+        stats.put("farmaciasSinUbicacion", sinUbicacion.size());
+        stats.put("celdas", celdas.size());
+        stats.put("celdaKm", celdaKm);
+        return stats;
+    }
+
+    @Override
+    public void actualizar(String farmaciaId, Map<String, Object> datos) {
+        GeoPoint ubicacion = null;
+        try {
+            Object guardada = datos.get("ubicacion");
+            if (guardada instanceof GeoPoint) {
+                ubicacion = (GeoPoint) guardada;
+            } else if (datos.get("direccion") instanceof String) {
+                ubicacion = geocoder.geocodificar((String) datos.get("direccion"));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo ubicar la farmacia {}: {}", farmaciaId, e.getMessage());
+        }
+
+        quitar(farmaciaId);
+        if (ubicacion == null) {
+            sinUbicacion.add(farmaciaId);
+            return;
+        }
+
+        Ubicada nueva = new Ubicada(farmaciaId, ubicacion.getLatitude(), ubicacion.getLongitude());
+        farmacias.put(farmaciaId, nueva);
+        celdas.computeIfAbsent(clave(fila(nueva.lat), columna(nueva.lon)), k -> ConcurrentHashMap.newKeySet())
+                .add(nueva);
+    }
+
+    @Override
+    public void quitar(String farmaciaId) {
+        sinUbicacion.remove(farmaciaId);
+        Ubicada anterior = farmacias.remove(farmaciaId);
+        if (anterior != null) {
+            celdas.computeIfPresent(clave(fila(anterior.lat), columna(anterior.lon)), (k, celda) -> {
+                celda.remove(anterior);
+                return celda.isEmpty() ? null : celda;
+            });
+        }
+    }
+
+    private int fila(double lat) {
+        return (int) Math.floor((lat + 90) / gradosCelda);
+    }
+
+    private int columna(double lon) {
+        return (int) Math.floor((lon + 180) / gradosCelda);
+    }
+
+    private static long clave(int fila, int columna) {
+        return ((long) fila << 32) | (columna & 0xffffffffL);
+    }
+
+    /**
+     * Distancia sobre la esfera (haversine)
+     */
+    static double distanciaKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * RADIO_TIERRA_KM * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * Farmacia ubicada en la grilla
+     */
+    private static final class Ubicada {
+        private final String farmaciaId;
+        private final double lat;
+        private final double lon;
+
+        Ubicada(String farmaciaId, double lat, double lon) {
+            this.farmaciaId = farmaciaId;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+}
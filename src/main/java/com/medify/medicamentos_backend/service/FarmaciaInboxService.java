@@ -0,0 +1,343 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandeja de entrada materializada por farmacia: /farmacias/{farmaciaId}/inbox/{recetaId}
+ *
+ * Se mantiene al escribir, no al leer:
+ * - Cuando una receta queda disponible (con imagen) se agrega una entrada a la bandeja
+ *   de cada farmacia destinataria ({@link #publicar})
+ * - Cuando la farmacia responde, su entrada se borra ({@link #quitar})
+ * - Cuando la receta se finaliza (pedido pagado), se borra de todas las bandejas
+ *
+ * Así la cola de una farmacia es una única consulta indexada y paginada, en lugar de
+ * recorrer recetas y farmaciasRespondieron.
+ *
+ * Las entradas llevan solo los campos que la farmacia necesita para decidir (proyección
+ * de la receta). La distribución corre en un hilo propio para no demorar la creación
+ * de la receta; como usa el recetaId como id de documento, repetirla es inocuo.
+ *
+ * Destinatarios: las farmacias a menos de farmacias.inbox.radio.km de la ubicación de
+ * la receta ({@link FarmaciaGeoIndexService}); si no hay ninguna se prueba con el radio
+ * máximo del índice, y si la receta no tiene ubicación o no hay farmacias cerca, todas.
+ * Las farmacias sin ubicación (dirección que no se pudo geocodificar) reciben todas las
+ * recetas, sin distanciaKm: no hay forma de saber si están cerca. Con el geocodificador
+ * local la ubicación es el centro de la localidad, así que el radio filtra por ciudad.
+ *
+ * Índices: el borrado por receta usa una consulta collection group sobre "inbox" por
+ * recetaId: requiere el índice de campo único de collection group declarado en
+ * firestore.indexes.json (sin él la consulta falla y las entradas no se borran).
+ */
+@Service
+public class FarmaciaInboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(FarmaciaInboxService.class);
+    private static final String SUBCOLECCION = "inbox";
+    private static final int MAX_BATCH = 500;
+
+    // Campos de la receta que se copian a la entrada
+    private static final List<String> CAMPOS_RECETA =
+            List.of("userName", "userAddress", "userObraSocial", "imagenUrl", "imagenVariants");
+
+    // Campos que se pueden pedir en la proyección del endpoint
+    public static final Set<String> CAMPOS_PROYECTABLES;
+
+    static {
+        Set<String> campos = new LinkedHashSet<>(CAMPOS_RECETA);
+        campos.add("recetaId");
+        campos.add("fechaCreacion");
+        campos.add("distanciaKm");
+        CAMPOS_PROYECTABLES = Set.copyOf(campos);
+    }
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${farmacias.inbox.page.max:100}")
+    private int maxPagina;
+
+    @Value("${farmacias.inbox.radio.km:10}")
+    private double radioKm;
+
+    private final Firestore firestore;
+    private final FarmaciaDirectorioService farmaciaDirectorioService;
+    private final FarmaciaGeoIndexService farmaciaGeoIndexService;
+    private ExecutorService distribucion;
+
+    public FarmaciaInboxService(Firestore firestore,
+                                FarmaciaDirectorioService farmaciaDirectorioService,
+                                FarmaciaGeoIndexService farmaciaGeoIndexService) {
+        this.firestore = firestore;
+        this.farmaciaDirectorioService = farmaciaDirectorioService;
+        this.farmaciaGeoIndexService = farmaciaGeoIndexService;
+    }
+
+    @PostConstruct
+    public void init() {
+        distribucion = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "farmacia-inbox");
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("✅ FarmaciaInboxService inicializado");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        distribucion.shutdown();
+    }
+
+    /**
+     * Agrega la receta a la bandeja de las farmacias destinatarias (en segundo plano)
+     *
+     * @param receta Datos de la receta (se copian solo los de la proyección)
+     */
+    public void publicar(String recetaId, Map<String, Object> receta) {
+        Map<String, Object> entrada = new HashMap<>();
+        entrada.put("recetaId", recetaId);
+        for (String campo : CAMPOS_RECETA) {
+            if (receta.get(campo) != null) {
+                entrada.put(campo, receta.get(campo));
+            }
+        }
+        entrada.put("fechaCreacion", FieldValue.serverTimestamp());
+
+        GeoPoint ubicacion = receta.get("userUbicacion") instanceof GeoPoint
+                ? (GeoPoint) receta.get("userUbicacion") : null;
+
+        try {
+            distribucion.execute(() -> distribuir(recetaId, entrada, ubicacion));
+        } catch (RejectedExecutionException e) {
+            log.error("❌ No se pudo encolar la distribución de la receta {} a las bandejas", recetaId);
+        }
+    }
+
+    /**
+     * true si la receta está en la bandeja de la farmacia
+     */
+    public boolean contiene(String farmaciaId, String recetaId) throws Exception {
+        return bandeja(farmaciaId).document(recetaId).get()
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS).exists();
+    }
+
+    /**
+     * Quita la receta de la bandeja de una farmacia (ya respondió)
+     */
+    public void quitar(String farmaciaId, String recetaId) {
+        try {
+            bandeja(farmaciaId).document(recetaId).delete().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo quitar la receta {} de la bandeja de {}: {}", recetaId, farmaciaId, e.getMessage());
+        }
+    }
+
+    /**
+     * Quita la receta de todas las bandejas (en segundo plano)
+     */
+    public void cerrarReceta(String recetaId) {
+        try {
+            distribucion.execute(() -> {
+                try {
+                    List<DocumentReference> entradas = new ArrayList<>();
+                    for (QueryDocumentSnapshot doc : firestore.collectionGroup(SUBCOLECCION)
+                            .whereEqualTo("recetaId", recetaId)
+                            .select(FieldPath.documentId())
+                            .get()
+                            .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                            .getDocuments()) {
+                        entradas.add(doc.getReference());
+                    }
+                    borrar(entradas);
+                    log.info("📪 Receta {} quitada de {} bandejas", recetaId, entradas.size());
+                } catch (Exception e) {
+                    log.error("❌ Error quitando la receta {} de las bandejas: {}", recetaId, e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("❌ No se pudo encolar el cierre de la receta {} en las bandejas", recetaId);
+        }
+    }
+
+    /**
+     * Página de la bandeja de una farmacia, de la receta más nueva a la más vieja
+     *
+     * @param cursor Cursor opaco devuelto por la página anterior (null para la primera)
+     * @param campos Proyección (null o vacío = todos los campos)
+     * @return items, cursor (null si no hay más) y hayMas
+     * @throws IllegalArgumentException si el cursor o algún campo no son válidos
+     */
+    public Map<String, Object> listar(String farmaciaId, String cursor, int limite, Set<String> campos) throws Exception {
+        int tamanio = Math.max(1, Math.min(limite, maxPagina));
+
+        Query query = bandeja(farmaciaId)
+                .orderBy("fechaCreacion", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+
+        if (campos != null && !campos.isEmpty()) {
+            for (String campo : campos) {
+                if (!CAMPOS_PROYECTABLES.contains(campo)) {
+                    throw new IllegalArgumentException("Campo no disponible: " + campo);
+                }
+            }
+            // fechaCreacion y recetaId hacen falta para el cursor
+            Set<String> seleccion = new LinkedHashSet<>(campos);
+            seleccion.add("fechaCreacion");
+            seleccion.add("recetaId");
+            query = query.select(seleccion.toArray(new String[0]));
+        }
+
+        if (cursor != null && !cursor.isBlank()) {
+            Object[] posicion = decodificarCursor(cursor);
+            query = query.startAfter(posicion);
+        }
+
+        List<QueryDocumentSnapshot> docs = query.limit(tamanio + 1)
+                .get()
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                .getDocuments();
+
+        boolean hayMas = docs.size() > tamanio;
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : docs.subList(0, Math.min(docs.size(), tamanio))) {
+            Map<String, Object> item = new HashMap<>(doc.getData());
+            Timestamp fecha = doc.getTimestamp("fechaCreacion");
+            item.put("fechaCreacion", fecha != null ? fecha.toDate().getTime() : null);
+            if (campos != null && !campos.isEmpty()) {
+                item.keySet().retainAll(campos);
+            }
+            items.add(item);
+        }
+
+        String siguiente = null;
+        if (hayMas) {
+            QueryDocumentSnapshot ultimo = docs.get(tamanio - 1);
+            siguiente = codificarCursor(ultimo.getTimestamp("fechaCreacion"), ultimo.getId());
+        }
+
+        Map<String, Object> pagina = new HashMap<>();
+        pagina.put("items", items);
+        pagina.put("cursor", siguiente);
+        pagina.put("hayMas", hayMas);
+        return pagina;
+    }
+
+    /**
+     * Farmacias que reciben la receta
+     *
+     * @return farmaciaId -> distancia en km (null si la receta va a todas)
+     */
+    private Map<String, Double> destinatarios(String recetaId, GeoPoint ubicacion) throws Exception {
+        if (ubicacion != null && farmaciaGeoIndexService.isCargado()) {
+            Map<String, Double> cercanas = farmaciaGeoIndexService.cercanas(ubicacion, radioKm);
+            if (cercanas.isEmpty() && farmaciaGeoIndexService.getRadioMaxKm() > radioKm) {
+                cercanas = farmaciaGeoIndexService.cercanas(ubicacion, farmaciaGeoIndexService.getRadioMaxKm());
+            }
+            if (!cercanas.isEmpty()) {
+                Map<String, Double> destino = new LinkedHashMap<>(cercanas);
+                farmaciaGeoIndexService.sinUbicacion().forEach(id -> destino.putIfAbsent(id, null));
+                return destino;
+            }
+            log.info("📭 Sin farmacias cerca de la receta {}, se envía a todas", recetaId);
+        }
+
+        // Recién arrancado el directorio puede estar incompleto: se lee de Firestore
+        List<String> ids = farmaciaDirectorioService.isCargado() ? farmaciaDirectorioService.ids() : leerFarmacias();
+        Map<String, Double> todas = new LinkedHashMap<>();
+        ids.forEach(id -> todas.put(id, null));
+        return todas;
+    }
+
+    private void distribuir(String recetaId, Map<String, Object> entrada, GeoPoint ubicacion) {
+        try {
+            List<Map.Entry<String, Double>> destino = new ArrayList<>(destinatarios(recetaId, ubicacion).entrySet());
+            for (int i = 0; i < destino.size(); i += MAX_BATCH) {
+                WriteBatch batch = firestore.batch();
+                for (Map.Entry<String, Double> farmacia : destino.subList(i, Math.min(i + MAX_BATCH, destino.size()))) {
+                    Map<String, Object> datos = entrada;
+                    if (farmacia.getValue() != null) {
+                        datos = new HashMap<>(entrada);
+                        datos.put("distanciaKm", farmacia.getValue());
+                    }
+                    batch.set(bandeja(farmacia.getKey()).document(recetaId), datos);
+                }
+                batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            }
+            log.info("📬 Receta {} agregada a {} bandejas", recetaId, destino.size());
+        } catch (Exception e) {
+            log.error("❌ Error distribuyendo la receta {} a las bandejas: {}", recetaId, e.getMessage(), e);
+        }
+    }
+
+    private void borrar(List<DocumentReference> entradas) throws Exception {
+        for (int i = 0; i < entradas.size(); i += MAX_BATCH) {
+            WriteBatch batch = firestore.batch();
+            entradas.subList(i, Math.min(i + MAX_BATCH, entradas.size())).forEach(batch::delete);
+            batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<String> leerFarmacias() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : firestore.collection("farmacias")
+                .select(FieldPath.documentId())
+                .get()
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                .getDocuments()) {
+            ids.add(doc.getId());
+        }
+        return ids;
+    }
+
+    private CollectionReference bandeja(String farmaciaId) {
+        return firestore.collection("farmacias").document(farmaciaId).collection(SUBCOLECCION);
+    }
+
+    private String codificarCursor(Timestamp fecha, String recetaId) {
+        String crudo = fecha.getSeconds() + "." + fecha.getNanos() + "|" + recetaId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(crudo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Object[] decodificarCursor(String cursor) {
+        try {
+            String crudo = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int barra = crudo.indexOf('|');
+            int punto = crudo.indexOf('.');
+            Timestamp fecha = Timestamp.ofTimeSecondsAndNanos(
+                    Long.parseLong(crudo.substring(0, punto)),
+                    Integer.parseInt(crudo.substring(punto + 1, barra)));
+            return new Object[]{fecha, crudo.substring(barra + 1)};
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class FirebaseService {
@@ -34,9 +35,11 @@ public class FirebaseService {
     private int pendingAgeMinutes;
 
     private final Firestore db;
+    private final FarmaciaInboxService farmaciaInboxService;
 
-    public FirebaseService(Firestore firestore) {
+    public FirebaseService(Firestore firestore, FarmaciaInboxService farmaciaInboxService) {
         this.db = firestore;
+        this.farmaciaInboxService = farmaciaInboxService;
         log.debug("FirebaseService inicializado con Firestore inyectado");
     }
 
@@ -631,6 +634,21 @@ public class FirebaseService {
         }
     }
 
+    /**
+     * Estado actual de un pedido (null si no existe)
+     */
+    public String obtenerEstadoPedido(String pedidoId) {
+        try {
+            DocumentSnapshot pedido = db.collection("pedidos").document(pedidoId)
+                    .get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            return pedido.exists() ? pedido.getString("estado") : null;
+        } catch (Exception e) {
+            log.error("❌ Error leyendo el estado del pedido {}", pedidoId, e);
+            throw new RuntimeException("Error al leer el pedido", e);
+        }
+    }
+
     /**
      * Borra un pedido completamente
      */
@@ -667,6 +685,7 @@ public class FirebaseService {
      * Marca un pedido como pagado de forma idempotente
      */
     public boolean marcarPedidoComoPagadoIdempotente(String pedidoId, String paymentId, String status) {
+        AtomicReference<String> recetaFinalizada = new AtomicReference<>();
         try {
             Boolean updated = db.runTransaction(transaction -> {
                 DocumentReference pedidoRef = db.collection("pedidos").document(pedidoId);
@@ -704,6 +723,7 @@ public class FirebaseService {
                 if (recetaId != null && !recetaId.isBlank()) {
                     DocumentReference recetaRef = db.collection("recetas").document(recetaId);
                     transaction.update(recetaRef, "estado", "finalizada");
+                    recetaFinalizada.set(recetaId);
                     log.debug("🔄 Receta {} marcada como finalizada", recetaId);
                 }
 
@@ -713,6 +733,10 @@ public class FirebaseService {
 
             if (Boolean.TRUE.equals(updated)) {
                 log.info("✅ Pedido {} marcado como pagado (paymentId: {})", pedidoId, paymentId);
+                if (recetaFinalizada.get() != null) {
+                    // La receta ya no acepta cotizaciones: sale de todas las bandejas
+                    farmaciaInboxService.cerrarReceta(recetaFinalizada.get());
+                }
             }
 
             return Boolean.TRUE.equals(updated);
@@ -0,0 +1,256 @@
+package com.medify.medicamentos_backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.medify.medicamentos_backend.dto.TokenVerificado;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verificación local de ID tokens de Firebase (JWT RS256).
+ *
+ * Las claves públicas de Google se descargan en segundo plano y se renuevan antes
+ * de que venzan (según su Cache-Control), así la verificación nunca sale a la red.
+ * Los tokens ya verificados se guardan por su SHA-256 hasta que vencen: un token
+ * repetido cuesta un hash y una búsqueda en memoria.
+ *
+ * No detecta tokens revocados (eso requiere consultar a Firebase); vencen en 1 hora.
+ */
+@Service
+public class FirebaseTokenVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(FirebaseTokenVerifier.class);
+    private static final String URL_CLAVES =
+            "https://www.googleapis.com/robot/v1/metadata/x509/securetoken@system.gserviceaccount.com";
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final long TOLERANCIA_RELOJ_SEGUNDOS = 60;
+
+    @Value("${firebase.project.id:}")
+    private String projectId;
+
+    @Value("${auth.firebase.token.cache.size:100000}")
+    private long tokenCacheSize;
+
+    private final Firestore firestore;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // kid -> clave pública (se reemplaza el mapa entero en cada renovación)
+    private volatile Map<String, PublicKey> claves = Map.of();
+    private Cache<String, TokenVerificado> tokens;
+    private ScheduledExecutorService renovador;
+    private String emisor;
+
+    public FirebaseTokenVerifier(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (projectId == null || projectId.isBlank()) {
+            projectId = firestore.getOptions().getProjectId();
+        }
+        emisor = "https://securetoken.google.com/" + projectId;
+
+        tokens = CacheBuilder.newBuilder()
+                .maximumSize(tokenCacheSize)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .build();
+
+        renovador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "firebase-claves");
+            t.setDaemon(true);
+            return t;
+        });
+        renovador.execute(this::renovarClaves);
+
+        log.info("✅ FirebaseTokenVerifier inicializado - Proyecto: {}", projectId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (renovador != null) {
+            renovador.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifica un ID token
+     *
+     * @throws IllegalArgumentException si el token es inválido o venció
+     * @throws IllegalStateException    si todavía no se descargaron las claves de Google
+     */
+    public TokenVerificado verificar(String token) {
+        String clave = sha256(token);
+
+        TokenVerificado conocido = tokens.getIfPresent(clave);
+        if (conocido != null) {
+            if (conocido.getExpiraEnMillis() > System.currentTimeMillis()) {
+                return conocido;
+            }
+            tokens.invalidate(clave);
+            throw new IllegalArgumentException("Token vencido");
+        }
+
+        TokenVerificado verificado = verificarFirmaYClaims(token);
+        tokens.put(clave, verificado);
+        return verificado;
+    }
+
+    private TokenVerificado verificarFirmaYClaims(String token) {
+        String[] partes = token.split("\\.");
+        if (partes.length != 3) {
+            throw new IllegalArgumentException("Token mal formado");
+        }
+
+        JsonNode header;
+        JsonNode payload;
+        byte[] firma;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            header = objectMapper.readTree(decoder.decode(partes[0]));
+            payload = objectMapper.readTree(decoder.decode(partes[1]));
+            firma = decoder.decode(partes[2]);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Token mal formado");
+        }
+
+        if (!"RS256".equals(header.path("alg").asText())) {
+            throw new IllegalArgumentException("Algoritmo de token no soportado");
+        }
+
+        Map<String, PublicKey> actuales = claves;
+        if (actuales.isEmpty()) {
+            throw new IllegalStateException("Claves de Firebase todavía no disponibles");
+        }
+        PublicKey publica = actuales.get(header.path("kid").asText());
+        if (publica == null) {
+            throw new IllegalArgumentException("Token firmado con una clave desconocida");
+        }
+
+        try {
+            Signature verificador = Signature.getInstance("SHA256withRSA");
+            verificador.initVerify(publica);
+            verificador.update((partes[0] + "." + partes[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!verificador.verify(firma)) {
+                throw new IllegalArgumentException("Firma de token inválida");
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Firma de token inválida");
+        }
+
+        long ahora = System.currentTimeMillis() / 1000;
+        long exp = payload.path("exp").asLong(0);
+        String uid = payload.path("sub").asText("");
+
+        if (!projectId.equals(payload.path("aud").asText())) {
+            throw new IllegalArgumentException("Token de otro proyecto");
+        }
+        if (!emisor.equals(payload.path("iss").asText())) {
+            throw new IllegalArgumentException("Emisor de token inválido");
+        }
+        if (exp <= ahora) {
+            throw new IllegalArgumentException("Token vencido");
+        }
+        if (payload.path("iat").asLong(Long.MAX_VALUE) > ahora + TOLERANCIA_RELOJ_SEGUNDOS
+                || payload.path("auth_time").asLong(Long.MAX_VALUE) > ahora + TOLERANCIA_RELOJ_SEGUNDOS) {
+            throw new IllegalArgumentException("Token emitido en el futuro");
+        }
+        if (uid.isEmpty() || uid.length() > 128) {
+            throw new IllegalArgumentException("Token sin usuario");
+        }
+
+        String email = payload.hasNonNull("email") ? payload.get("email").asText() : null;
+        return new TokenVerificado(uid, email, exp * 1000);
+    }
+
+    /**
+     * Descarga las claves públicas y programa la próxima renovación antes de que venzan
+     */
+    private void renovarClaves() {
+        long proximaSegundos = 30;
+        try {
+            HttpResponse<String> respuesta = httpClient.send(
+                    HttpRequest.newBuilder(URI.create(URL_CLAVES)).timeout(Duration.ofSeconds(10)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (respuesta.statusCode() != 200) {
+                throw new IllegalStateException("HTTP " + respuesta.statusCode());
+            }
+
+            CertificateFactory fabrica = CertificateFactory.getInstance("X.509");
+            Map<String, PublicKey> nuevas = new HashMap<>();
+            JsonNode certificados = objectMapper.readTree(respuesta.body());
+            Iterator<Map.Entry<String, JsonNode>> it = certificados.fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> cert = it.next();
+                nuevas.put(cert.getKey(), fabrica.generateCertificate(
+                        new ByteArrayInputStream(cert.getValue().asText().getBytes(StandardCharsets.US_ASCII)))
+                        .getPublicKey());
+            }
+            claves = Map.copyOf(nuevas);
+
+            // Renovar al 80% de la validez informada (mínimo 1 minuto)
+            long maxAge = respuesta.headers().firstValue("Cache-Control")
+                    .map(MAX_AGE::matcher)
+                    .filter(Matcher::find)
+                    .map(m -> Long.parseLong(m.group(1)))
+                    .orElse(3600L);
+            proximaSegundos = Math.max(60, maxAge * 8 / 10);
+            log.debug("Claves de Firebase renovadas ({}), próxima renovación en {} s", nuevas.size(), proximaSegundos);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            // Las claves anteriores siguen sirviendo hasta la próxima renovación
+            log.warn("⚠️ No se pudieron renovar las claves de Firebase: {}", e.getMessage());
+        }
+
+        if (!renovador.isShutdown()) {
+            renovador.schedule(this::renovarClaves, proximaSegundos, TimeUnit.SECONDS);
+        }
+    }
+
+    private String sha256(String texto) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(texto.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store de rate limiting en Firestore (rate.limit.store=firestore, por defecto).
+ *
+ * Cada instancia escribe un documento propio por ventana:
+ * /rate_limits/{ventana}/instancias/{instancia} con el mapa de conteos.
+ * Así no hay varias instancias escribiendo el mismo documento, y leer los
+ * conteos globales es una consulta de N documentos (uno por instancia).
+ *
+ * El campo expiraEn permite configurar una política TTL en la colección
+ * "instancias" para que Firestore borre las ventanas viejas. El mapa "conteos"
+ * está exento de índices (firestore.indexes.json): nunca se consulta por sus
+ * campos y cada identificador nuevo agregaría entradas de índice a cada escritura.
+ */
+@Service
+@ConditionalOnProperty(name = "rate.limit.store", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreRateLimitStore implements RateLimitStore {
+
+    private static final String COLECCION = "rate_limits";
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    private final Firestore firestore;
+
+    public FirestoreRateLimitStore(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Long>> publicar(String instancia, long ventana,
+                                                   Map<String, Map<String, Long>> conteos) throws Exception {
+        CollectionReference instancias = firestore.collection(COLECCION)
+                .document(String.valueOf(ventana))
+                .collection("instancias");
+
+        // Escritura y lectura en paralelo: lo propio se descarta de la lectura
+        ApiFuture<WriteResult> escritura = null;
+        if (conteos != null) {
+            Map<String, Object> datos = new HashMap<>();
+            datos.put("conteos", conteos);
+            datos.put("actualizado", FieldValue.serverTimestamp());
+            datos.put("expiraEn", Timestamp.ofTimeSecondsAndNanos(TimeUnit.MINUTES.toSeconds(ventana + 2), 0));
+            escritura = instancias.document(instancia).set(datos);
+        }
+        ApiFuture<QuerySnapshot> lectura = instancias.get();
+
+        if (escritura != null) {
+            escritura.get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        }
+        QuerySnapshot snapshot = lectura.get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+
+        Map<String, Map<String, Long>> resto = new HashMap<>();
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+            if (doc.getId().equals(instancia) || !(doc.get("conteos") instanceof Map)) {
+                continue;
+            }
+            ((Map<String, Object>) doc.get("conteos")).forEach((namespace, porId) -> {
+                if (porId instanceof Map) {
+                    Map<String, Long> destino = resto.computeIfAbsent(namespace, n -> new HashMap<>());
+                    ((Map<String, Object>) porId).forEach((id, n) -> {
+                        if (n instanceof Number) {
+                            destino.merge(id, ((Number) n).longValue(), Long::sum);
+                        }
+                    });
+                }
+            });
+        }
+        return resto;
+    }
+}
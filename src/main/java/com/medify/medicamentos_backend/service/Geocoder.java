@@ -0,0 +1,42 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.GeoPoint;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Geocodificación de direcciones (recetas y farmacias).
+ *
+ * Implementaciones:
+ * - {@link LocalGeocoder}: geo.geocoder=local (por defecto, tabla offline de localidades)
+ *
+ * La ubicación se guarda como GeoPoint: "userUbicacion" en las recetas y "ubicacion"
+ * en las farmacias. Una dirección que no se puede ubicar no es un error: la receta
+ * se sigue distribuyendo a todas las farmacias.
+ */
+public interface Geocoder {
+
+    /**
+     * Ubicación aproximada de una dirección en texto libre
+     *
+     * @return La ubicación, o null si no se pudo determinar
+     */
+    GeoPoint geocodificar(String direccion);
+
+    /**
+     * Ubicación de una dirección estructurada (street, city, province, postalCode)
+     */
+    default GeoPoint geocodificar(Map<String, String> direccion) {
+        if (direccion == null || direccion.isEmpty()) {
+            return null;
+        }
+        String texto = Stream.of("street", "city", "province", "postalCode")
+                .map(direccion::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.joining(", "));
+        return texto.isBlank() ? null : geocodificar(texto);
+    }
+}
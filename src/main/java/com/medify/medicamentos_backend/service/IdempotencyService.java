@@ -0,0 +1,315 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.medify.medicamentos_backend.dto.RespuestaIdempotente;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Idempotency-Key para endpoints que modifican datos
+ *
+ * Cada clave pasa por tres estados:
+ * - Sin registro: el primer request la reserva (marca "en_curso" en Firestore con
+ *   un lease) y ejecuta el endpoint
+ * - En curso: en la misma instancia los duplicados esperan a la primera ejecución
+ *   sobre un CompletableFuture; si llegan a otra, reciben 409 enseguida (sin ocupar
+ *   un hilo consultando Firestore) y el cliente reintenta
+ * - Completa: los reintentos reciben la respuesta original (status, content type y
+ *   cuerpo) desde memoria o, si llegan a otra instancia, desde Firestore
+ *
+ * Las respuestas 5xx (y 408/429) no se guardan: la clave se libera y el reintento
+ * vuelve a ejecutar el endpoint. Los documentos de /idempotencia tienen "expiraEn"
+ * para la política de TTL de Firestore; uno vencido se trata como inexistente.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+    private static final String COLECCION = "idempotencia";
+    private static final String EN_CURSO = "en_curso";
+    private static final String COMPLETA = "completa";
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${idempotency.ttl.hours:24}")
+    private long ttlHoras;
+
+    // Si la instancia que reservó la clave se cae, otra puede tomarla pasado este tiempo
+    @Value("${idempotency.lease.seconds:120}")
+    private long leaseSegundos;
+
+    // Tiempo máximo que un duplicado de la misma instancia espera a la primera ejecución
+    @Value("${idempotency.wait.timeout.ms:5000}")
+    private long esperaMaximaMs;
+
+    @Value("${idempotency.cache.size:10000}")
+    private long cacheSize;
+
+    // Respuestas más grandes no se guardan (los documentos de Firestore tienen 1 MB)
+    @Value("${idempotency.max.body.bytes:262144}")
+    private int maxBodyBytes;
+
+    private final Firestore firestore;
+    private final String instancia = UUID.randomUUID().toString();
+
+    // Ejecuciones en curso en esta instancia (los duplicados locales esperan su resultado)
+    private final ConcurrentHashMap<String, CompletableFuture<RespuestaIdempotente>> enCurso = new ConcurrentHashMap<>();
+    private Cache<String, RespuestaIdempotente> respuestas;
+
+    public IdempotencyService(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @PostConstruct
+    public void init() {
+        respuestas = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttlHoras, TimeUnit.HOURS)
+                .build();
+        log.info("✅ IdempotencyService inicializado - TTL: {} h, lease: {} s", ttlHoras, leaseSegundos);
+    }
+
+    /**
+     * Clave interna: la misma Idempotency-Key en otro endpoint, de otro cliente o con
+     * otros parámetros o cuerpo es otra clave
+     *
+     * @param cliente Identificador del llamador (UID o, sin token, la IP)
+     * @param cuerpo Cuerpo del request si forma parte de la clave (ej: JSON), o null
+     */
+    public String clave(String metodo, String path, String query, String cliente, byte[] cuerpo,
+                        String idempotencyKey) {
+        MessageDigest digest = nuevoDigest();
+        actualizar(digest, metodo);
+        actualizar(digest, path);
+        actualizar(digest, query);
+        actualizar(digest, cliente);
+        actualizar(digest, idempotencyKey);
+        if (cuerpo != null) {
+            digest.update(cuerpo);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Agrega el texto seguido de un separador (así "a" + "bc" no equivale a "ab" + "c")
+     */
+    private void actualizar(MessageDigest digest, String texto) {
+        if (texto != null) {
+            digest.update(texto.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Reserva la clave o devuelve la respuesta de la ejecución original
+     *
+     * @return La respuesta guardada, o null si el llamador la reservó y debe ejecutar
+     *         el endpoint (y después llamar a {@link #completar} o {@link #liberar})
+     * @throws IllegalStateException si la ejecución original no terminó a tiempo
+     *         o la está ejecutando otra instancia
+     */
+    public RespuestaIdempotente reservar(String clave) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMaximaMs);
+
+        while (true) {
+            RespuestaIdempotente guardada = respuestas.getIfPresent(clave);
+            if (guardada != null) {
+                return guardada;
+            }
+
+            CompletableFuture<RespuestaIdempotente> propio = new CompletableFuture<>();
+            CompletableFuture<RespuestaIdempotente> otro = enCurso.putIfAbsent(clave, propio);
+            if (otro != null) {
+                // Duplicado en esta instancia: esperar; si la original falló se vuelve a intentar
+                guardada = esperar(otro, limite);
+                if (guardada != null) {
+                    return guardada;
+                }
+                continue;
+            }
+
+            try {
+                guardada = reservarEnFirestore(clave);
+            } catch (RuntimeException | InterruptedException e) {
+                terminar(clave, propio, null);
+                throw e;
+            }
+            if (guardada != null) {
+                respuestas.put(clave, guardada);
+                terminar(clave, propio, guardada);
+            }
+            return guardada;
+        }
+    }
+
+    /**
+     * Guarda la respuesta de la ejecución y se la entrega a los duplicados en espera
+     */
+    public void completar(String clave, RespuestaIdempotente respuesta) {
+        if (!esGuardable(respuesta)) {
+            liberar(clave);
+            return;
+        }
+
+        respuestas.put(clave, respuesta);
+        CompletableFuture<RespuestaIdempotente> propio = enCurso.get(clave);
+        if (propio != null) {
+            terminar(clave, propio, respuesta);
+        }
+
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("estado", COMPLETA);
+        datos.put("status", respuesta.getStatus());
+        datos.put("contentType", respuesta.getContentType());
+        datos.put("cuerpo", Blob.fromBytes(respuesta.getCuerpo()));
+        datos.put("instancia", instancia);
+        datos.put("completado", FieldValue.serverTimestamp());
+        datos.put("expiraEn", Timestamp.ofTimeMicroseconds(
+                TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHoras))));
+        try {
+            documento(clave).set(datos).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Esta instancia la sigue teniendo en memoria; en otra el reintento recibe 409 hasta que venza el lease
+            log.warn("⚠️ No se pudo guardar la respuesta idempotente {}: {}", clave, e.getMessage());
+        }
+    }
+
+    /**
+     * Libera la clave sin guardar respuesta (el próximo intento vuelve a ejecutar)
+     */
+    public void liberar(String clave) {
+        CompletableFuture<RespuestaIdempotente> propio = enCurso.get(clave);
+        if (propio != null) {
+            terminar(clave, propio, null);
+        }
+        try {
+            documento(clave).delete().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo liberar la clave idempotente {}: {}", clave, e.getMessage());
+        }
+    }
+
+    /**
+     * Reserva la clave en Firestore
+     *
+     * @return La respuesta guardada, o null si se reservó
+     * @throws IllegalStateException si otra instancia la está ejecutando
+     */
+    private RespuestaIdempotente reservarEnFirestore(String clave) throws InterruptedException {
+        DocumentReference ref = documento(clave);
+
+        Object resultado;
+        try {
+            resultado = firestore.runTransaction(transaction -> {
+                DocumentSnapshot doc = transaction.get(ref).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                Timestamp ahora = Timestamp.now();
+
+                if (doc.exists()) {
+                    Timestamp expira = doc.getTimestamp(EN_CURSO.equals(doc.getString("estado")) ? "leaseHasta" : "expiraEn");
+                    boolean vigente = expira != null && expira.compareTo(ahora) > 0;
+                    if (vigente && COMPLETA.equals(doc.getString("estado"))) {
+                        return leerRespuesta(doc);
+                    }
+                    if (vigente) {
+                        return Boolean.FALSE;
+                    }
+                }
+
+                Map<String, Object> datos = new HashMap<>();
+                datos.put("estado", EN_CURSO);
+                datos.put("instancia", instancia);
+                datos.put("creado", FieldValue.serverTimestamp());
+                datos.put("leaseHasta", Timestamp.ofTimeMicroseconds(
+                        TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseSegundos))));
+                datos.put("expiraEn", Timestamp.ofTimeMicroseconds(
+                        TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHoras))));
+                transaction.set(ref, datos);
+                return Boolean.TRUE;
+            }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // Sin Firestore se sigue solo con la protección local (fail-open, como el webhook)
+            log.error("❌ Error reservando clave idempotente {}: {}", clave, e.getMessage());
+            return null;
+        }
+
+        if (resultado instanceof RespuestaIdempotente) {
+            return (RespuestaIdempotente) resultado;
+        }
+        if (Boolean.TRUE.equals(resultado)) {
+            return null;
+        }
+
+        // Otra instancia la está ejecutando: se responde ya en vez de ocupar el hilo esperándola
+        throw new IllegalStateException("La petición original está en curso en otra instancia");
+    }
+
+    private RespuestaIdempotente esperar(CompletableFuture<RespuestaIdempotente> futuro, long limite)
+            throws InterruptedException {
+        try {
+            return futuro.get(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("La petición original todavía está en curso");
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private void terminar(String clave, CompletableFuture<RespuestaIdempotente> propio, RespuestaIdempotente respuesta) {
+        enCurso.remove(clave, propio);
+        propio.complete(respuesta);
+    }
+
+    private boolean esGuardable(RespuestaIdempotente respuesta) {
+        int status = respuesta.getStatus();
+        return status < 500 && status != 408 && status != 429
+                && respuesta.getCuerpo().length <= maxBodyBytes;
+    }
+
+    private RespuestaIdempotente leerRespuesta(DocumentSnapshot doc) {
+        Long status = doc.getLong("status");
+        Blob cuerpo = doc.getBlob("cuerpo");
+        return new RespuestaIdempotente(
+                status != null ? status.intValue() : 200,
+                doc.getString("contentType"),
+                cuerpo != null ? cuerpo.toBytes() : new byte[0]);
+    }
+
+    private DocumentReference documento(String clave) {
+        return firestore.collection(COLECCION).document(clave);
+    }
+
+    private MessageDigest nuevoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
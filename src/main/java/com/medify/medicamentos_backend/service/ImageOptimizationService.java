@@ -0,0 +1,421 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.ImagenProcesada;
+import com.medify.medicamentos_backend.util.ExifOrientationUtils;
+import com.medify.medicamentos_backend.util.MetadatosImagenUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Etapa de procesamiento de imágenes entre el controller y el almacenamiento.
+ *
+ * Por cada foto de receta:
+ * 1. Decodifica (JPEG/PNG/GIF/BMP). Lo que ImageIO no puede decodificar (WebP, JPEG
+ *    CMYK) se guarda sin re-codificar pero sin metadatos (EXIF/XMP, ej: ubicación GPS);
+ *    el contador "sinOptimizar" de {@link #getStats()} muestra cuántas pasan así
+ * 2. Aplica la orientación EXIF (fotos de celular)
+ * 3. Reduce a una resolución máxima legible
+ * 4. Re-codifica a JPEG con calidad configurable (sin EXIF ni otros metadatos)
+ * 5. Genera variantes reducidas ("medium" y "thumb") para listados
+ *
+ * El trabajo corre en un pool acotado de workers y cada decodificación
+ * reserva memoria de un presupuesto global para no agotar el heap con ráfagas
+ * de fotos grandes.
+ */
+@Service
+public class ImageOptimizationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageOptimizationService.class);
+    private static final long MB = 1024L * 1024L;
+
+    @Value("${images.optimization.enabled:true}")
+    private boolean enabled;
+
+    @Value("${images.optimization.max.dimension:2048}")
+    private int maxDimension;
+
+    @Value("${images.optimization.jpeg.quality:0.82}")
+    private float jpegQuality;
+
+    @Value("${images.optimization.max.megapixels:32}")
+    private int maxMegapixels;
+
+    @Value("${images.optimization.workers:2}")
+    private int workers;
+
+    @Value("${images.optimization.queue.size:16}")
+    private int queueSize;
+
+    @Value("${images.optimization.memory.max.mb:256}")
+    private int memoryMaxMb;
+
+    @Value("${images.optimization.timeout.seconds:30}")
+    private long timeoutSeconds;
+
+    @Value("${images.variants.enabled:true}")
+    private boolean variantsEnabled;
+
+    @Value("${images.variants.medium.dimension:1024}")
+    private int mediumDimension;
+
+    @Value("${images.variants.thumb.dimension:320}")
+    private int thumbDimension;
+
+    @Value("${images.variants.jpeg.quality:0.75}")
+    private float variantsJpegQuality;
+
+    private ThreadPoolExecutor executor;
+    private Semaphore memoria;
+    private final AtomicLong procesadas = new AtomicLong();
+    private final AtomicLong sinOptimizar = new AtomicLong();
+    // Resolución máxima efectiva: max.megapixels acotado a lo que entra en memory.max.mb
+    private long maxPixeles;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger contador = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "img-opt-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        memoria = new Semaphore(memoryMaxMb, true);
+
+        // Cada pixel ocupa 8 bytes (decodificada + copia): una imagen que no entra en el
+        // presupuesto de memoria no se puede procesar aunque esté bajo max.megapixels
+        long pixelesPorMemoria = memoryMaxMb * MB / 8;
+        maxPixeles = Math.min((long) maxMegapixels * 1_000_000L, pixelesPorMemoria);
+        if (maxPixeles < (long) maxMegapixels * 1_000_000L) {
+            log.warn("images.optimization.max.megapixels={} no entra en memory.max.mb={}: se limita a {} MP",
+                    maxMegapixels, memoryMaxMb, String.format("%.1f", maxPixeles / 1_000_000.0));
+        }
+
+        // Evita que ImageIO use archivos temporales para cada stream
+        ImageIO.setUseCache(false);
+
+        log.info("ImageOptimizationService inicializado - Habilitado: {}, Max: {}px, Calidad: {}, Workers: {}, Memoria: {}MB",
+                enabled, maxDimension, jpegQuality, workers, memoryMaxMb);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Optimiza la imagen subida para su almacenamiento
+     *
+     * @param file Imagen original recibida por el endpoint
+     * @return Imagen lista para subir (optimizada o la original si no se pudo procesar)
+     * @throws java.util.concurrent.RejectedExecutionException si el pool está saturado
+     * @throws IllegalArgumentException si la imagen excede los límites de tamaño
+     * @throws IOException si no se puede leer el archivo
+     */
+    public ImagenProcesada optimizar(MultipartFile file) throws IOException {
+        return optimizar(file, file.getOriginalFilename(), file.getContentType(), file.getSize());
+    }
+
+    /**
+     * Igual que {@link #optimizar(MultipartFile)} pero desde cualquier origen
+     * (ej: un archivo temporal del spool de subidas asíncronas)
+     */
+    public ImagenProcesada optimizar(InputStreamSource fuente, String nombre, String contentType, long size)
+            throws IOException {
+        // El upload se lee dentro del pool: los requests en cola no retienen sus bytes en el heap
+        Future<ImagenProcesada> future = executor.submit(
+                () -> leerYProcesar(fuente, nombre, contentType, size));
+
+        try {
+            return future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Timeout optimizando imagen", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Optimización de imagen interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) causa;
+            }
+            if (causa instanceof IOException) {
+                throw (IOException) causa;
+            }
+            throw new IOException("Error optimizando imagen", causa);
+        }
+    }
+
+    /**
+     * Lee el upload calculando el SHA-256 en el mismo recorrido y lo procesa
+     * (ejecutado dentro del pool de workers)
+     */
+    private ImagenProcesada leerYProcesar(InputStreamSource fuente, String nombre, String contentType, long size)
+            throws IOException, InterruptedException {
+        MessageDigest digest = nuevoDigest();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.max(32, size));
+        try (InputStream in = new DigestInputStream(fuente.getInputStream(), digest)) {
+            in.transferTo(buffer);
+        }
+        byte[] original = buffer.toByteArray();
+
+        procesadas.incrementAndGet();
+        ImagenProcesada imagen = enabled
+                ? procesar(original, contentType, nombre)
+                : sinCambios(original, contentType, nombre);
+        imagen.setHashOriginal(HexFormat.of().formatHex(digest.digest()));
+        return imagen;
+    }
+
+    /**
+     * Procesamiento real, ejecutado dentro del pool de workers
+     */
+    private ImagenProcesada procesar(byte[] original, String contentType, String nombre)
+            throws IOException, InterruptedException {
+
+        long inicio = System.nanoTime();
+
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(original))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                ImagenProcesada imagen = sinCambios(original, contentType, nombre);
+                log.warn("Formato {} no soportado para optimización, se guarda sin metadatos ({} de {} sin optimizar)",
+                        contentType, sinOptimizar.get(), procesadas.get());
+                return imagen;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+
+                // Leer dimensiones sin decodificar para validar y reservar memoria
+                int ancho = reader.getWidth(0);
+                int alto = reader.getHeight(0);
+                long pixeles = (long) ancho * alto;
+
+                if (pixeles > maxPixeles) {
+                    throw new IllegalArgumentException("La imagen excede la resolución máxima permitida ("
+                            + String.format("%.1f", maxPixeles / 1_000_000.0) + " MP)");
+                }
+
+                // Decodificada + copia rotada/escalada, 4 bytes por pixel (nunca más que
+                // memory.max.mb: maxPixeles ya está acotado al presupuesto)
+                int permisos = (int) Math.min(memoryMaxMb, Math.max(1, (pixeles * 4 * 2 + MB - 1) / MB));
+
+                memoria.acquire(permisos);
+                try {
+                    BufferedImage imagen;
+                    try {
+                        imagen = reader.read(0);
+                    } catch (IIOException e) {
+                        // Ej: JPEG CMYK, no soportado por ImageIO
+                        ImagenProcesada sinDecodificar = sinCambios(original, contentType, nombre);
+                        log.warn("No se pudo decodificar la imagen ({}), se guarda sin metadatos ({} de {} sin optimizar): {}",
+                                contentType, sinOptimizar.get(), procesadas.get(), e.getMessage());
+                        return sinDecodificar;
+                    }
+
+                    int orientacion = ExifOrientationUtils.leerOrientacion(original);
+                    imagen = ExifOrientationUtils.aplicarOrientacion(imagen, orientacion);
+                    imagen = escalar(imagen, maxDimension);
+
+                    byte[] jpeg = codificarJpeg(imagen, jpegQuality);
+
+                    ImagenProcesada resultado = new ImagenProcesada(jpeg, "image/jpeg", ".jpg", nombre,
+                            imagen.getWidth(), imagen.getHeight(), original.length, true);
+
+                    if (variantsEnabled) {
+                        // Cada variante se escala desde la anterior (ya más chica)
+                        BufferedImage medium = escalar(imagen, mediumDimension);
+                        agregarVariante(resultado, "medium", medium);
+                        agregarVariante(resultado, "thumb", escalar(medium, thumbDimension));
+                    }
+
+                    long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+                    log.info("Imagen optimizada: {} KB -> {} KB ({}x{} -> {}x{}, orientación {}, variantes {}) en {} ms",
+                            original.length / 1024, jpeg.length / 1024,
+                            ancho, alto, imagen.getWidth(), imagen.getHeight(), orientacion,
+                            resultado.getVariantes().keySet(), ms);
+
+                    return resultado;
+                } finally {
+                    memoria.release(permisos);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Codifica una variante reducida y la agrega al resultado
+     */
+    private void agregarVariante(ImagenProcesada resultado, String nombreVariante, BufferedImage imagen)
+            throws IOException {
+        byte[] jpeg = codificarJpeg(imagen, variantsJpegQuality);
+        resultado.getVariantes().put(nombreVariante, new ImagenProcesada(
+                jpeg, "image/jpeg", ".jpg", resultado.getNombreOriginal(),
+                imagen.getWidth(), imagen.getHeight(), resultado.getTamanoOriginal(), true));
+    }
+
+    /**
+     * Reduce la imagen para que su lado mayor no supere maxLado.
+     * Reduce en pasos de a la mitad para conservar legibilidad del texto.
+     */
+    private BufferedImage escalar(BufferedImage imagen, int maxLado) {
+        int w = imagen.getWidth();
+        int h = imagen.getHeight();
+        int mayor = Math.max(w, h);
+
+        if (mayor <= maxLado) {
+            return aRgb(imagen, w, h);
+        }
+
+        double escala = (double) maxLado / mayor;
+        int destinoW = Math.max(1, (int) Math.round(w * escala));
+        int destinoH = Math.max(1, (int) Math.round(h * escala));
+
+        BufferedImage actual = imagen;
+        int actualW = w;
+        int actualH = h;
+
+        while (actualW / 2 >= destinoW && actualH / 2 >= destinoH) {
+            actualW /= 2;
+            actualH /= 2;
+            actual = aRgb(actual, actualW, actualH);
+        }
+
+        return aRgb(actual, destinoW, destinoH);
+    }
+
+    /**
+     * Dibuja la imagen en un lienzo RGB (sin alfa, fondo blanco) del tamaño indicado
+     */
+    private BufferedImage aRgb(BufferedImage origen, int w, int h) {
+        if (origen.getType() == BufferedImage.TYPE_INT_RGB
+                && origen.getWidth() == w && origen.getHeight() == h) {
+            return origen;
+        }
+
+        BufferedImage destino = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = destino.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            g.drawImage(origen, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return destino;
+    }
+
+    /**
+     * Codifica a JPEG con la calidad indicada, sin metadatos
+     */
+    private byte[] codificarJpeg(BufferedImage imagen, float calidad) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No hay codificador JPEG disponible");
+        }
+
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(calidad);
+
+            writer.write(null, new IIOImage(imagen, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private MessageDigest nuevoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Imagen sin re-codificar: mismos datos de imagen, sin metadatos
+     *
+     * @throws IllegalArgumentException si el contenedor de la imagen es inválido
+     */
+    private ImagenProcesada sinCambios(byte[] original, String contentType, String nombre) {
+        sinOptimizar.incrementAndGet();
+        String extension = "";
+        if (nombre != null && nombre.contains(".")) {
+            extension = nombre.substring(nombre.lastIndexOf("."));
+        }
+        byte[] limpia = MetadatosImagenUtils.quitarMetadatos(original);
+        return new ImagenProcesada(limpia, contentType, extension, nombre,
+                0, 0, original.length, false);
+    }
+
+    /**
+     * Imágenes procesadas y cuántas se guardaron sin optimizar (formato no decodificable
+     * o optimización deshabilitada)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("procesadas", procesadas.get());
+        stats.put("sinOptimizar", sinOptimizar.get());
+        stats.put("enCola", executor.getQueue().size());
+        stats.put("memoriaLibreMb", memoria.availablePermits());
+        return stats;
+    }
+}
@@ -0,0 +1,318 @@
+package com.medify.medicamentos_backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache LRU en disco de las imágenes del almacenamiento, acotado por tamaño total.
+ *
+ * Se llena al subir una imagen (precarga) o en el primer acceso desde el proxy.
+ * Varias farmacias pidiendo la misma receta a la vez generan una sola descarga
+ * (las demás esperan la misma).
+ *
+ * Los archivos del almacenamiento no cambian una vez escritos en un path
+ * (paths únicos o direccionados por contenido), así que el ETag se deriva del path.
+ */
+@Service
+public class ImagenCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenCacheService.class);
+    private static final long MB = 1024L * 1024L;
+    private static final long CHUNK = 8L * MB;
+    private static final String EXTENSION = ".bin";
+
+    @Value("${images.cache.dir:${java.io.tmpdir}/medify-image-cache}")
+    private String cacheDir;
+
+    @Value("${images.cache.max.mb:1024}")
+    private long maxMb;
+
+    private final BlobStore blobStore;
+
+    // Orden de acceso: la primera entrada es la menos usada (guardado por synchronized(lru))
+    private final LinkedHashMap<String, Entrada> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytesTotales;
+
+    private final Map<String, CompletableFuture<Entrada>> descargas = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private Path dir;
+
+    public ImagenCacheService(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        dir = Paths.get(cacheDir).toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+
+        // Reconstruir el índice con lo que quedó en disco (más viejos primero)
+        List<Path> existentes = new ArrayList<>();
+        try (Stream<Path> archivos = Files.list(dir)) {
+            archivos.filter(a -> a.getFileName().toString().endsWith(EXTENSION)).forEach(existentes::add);
+        }
+        existentes.sort(Comparator.comparingLong(a -> a.toFile().lastModified()));
+
+        synchronized (lru) {
+            for (Path archivo : existentes) {
+                String nombre = archivo.getFileName().toString();
+                String clave = nombre.substring(0, nombre.length() - EXTENSION.length());
+                long size = archivo.toFile().length();
+                lru.put(clave, new Entrada(archivo, size, etag(clave, size)));
+                bytesTotales += size;
+            }
+            evictar();
+        }
+
+        log.info("ImagenCacheService inicializado - Dir: {}, Max: {}MB, Entradas: {}, Ocupado: {}MB",
+                dir, maxMb, lru.size(), bytesTotales / MB);
+    }
+
+    /**
+     * Archivo local con el contenido del path, descargándolo si no está en cache
+     *
+     * @throws java.io.FileNotFoundException si el archivo no existe en el almacenamiento
+     */
+    public Entrada obtener(String path) throws IOException {
+        String clave = clave(path);
+
+        Entrada entrada = buscar(clave);
+        if (entrada != null) {
+            hits.incrementAndGet();
+            return entrada;
+        }
+
+        misses.incrementAndGet();
+
+        // Una sola descarga por path: los demás pedidos esperan el mismo resultado
+        CompletableFuture<Entrada> nueva = new CompletableFuture<>();
+        CompletableFuture<Entrada> enCurso = descargas.putIfAbsent(clave, nueva);
+        if (enCurso != null) {
+            return esperar(enCurso);
+        }
+
+        try (InputStream in = blobStore.leer(path)) {
+            Entrada descargada = escribir(clave, in);
+            nueva.complete(descargada);
+            log.debug("Imagen {} descargada a la cache ({} KB)", path, descargada.getSize() / 1024);
+            return descargada;
+        } catch (IOException | RuntimeException e) {
+            nueva.completeExceptionally(e);
+            throw e;
+        } finally {
+            descargas.remove(clave);
+        }
+    }
+
+    /**
+     * Guarda en cache una imagen recién subida (nunca lanza excepción)
+     */
+    public void precargar(String path, byte[] contenido) {
+        try {
+            escribir(clave(path), new ByteArrayInputStream(contenido));
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo precargar {} en la cache: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Quita un path de la cache (ej: imagen eliminada del almacenamiento)
+     */
+    public void invalidar(String path) {
+        String clave = clave(path);
+        Entrada entrada;
+        synchronized (lru) {
+            entrada = lru.remove(clave);
+            if (entrada != null) {
+                bytesTotales -= entrada.getSize();
+            }
+        }
+        if (entrada != null) {
+            borrar(entrada.getArchivo());
+        }
+    }
+
+    /**
+     * Estadísticas de la cache
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (lru) {
+            stats.put("entradas", lru.size());
+            stats.put("bytes", bytesTotales);
+        }
+        stats.put("maxBytes", maxMb * MB);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("descargasEnCurso", descargas.size());
+        return stats;
+    }
+
+    private Entrada buscar(String clave) {
+        synchronized (lru) {
+            Entrada entrada = lru.get(clave);
+            if (entrada != null && Files.isRegularFile(entrada.getArchivo())) {
+                return entrada;
+            }
+            if (entrada != null) {
+                // Borrado desde afuera: olvidar la entrada
+                lru.remove(clave);
+                bytesTotales -= entrada.getSize();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Escribe el contenido en un temporal con FileChannel.transferFrom y lo mueve
+     * atómicamente a su lugar, así nunca se sirve un archivo incompleto
+     */
+    private Entrada escribir(String clave, InputStream contenido) throws IOException {
+        Path destino = dir.resolve(clave + EXTENSION);
+        Path temporal = Files.createTempFile(dir, ".", ".tmp");
+
+        try {
+            long escritos = 0;
+            try (FileChannel out = FileChannel.open(temporal, StandardOpenOption.WRITE);
+                 ReadableByteChannel in = Channels.newChannel(contenido)) {
+                long n;
+                while ((n = out.transferFrom(in, escritos, CHUNK)) > 0) {
+                    escritos += n;
+                }
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            Entrada entrada = new Entrada(destino, escritos, etag(clave, escritos));
+            synchronized (lru) {
+                Entrada anterior = lru.put(clave, entrada);
+                if (anterior != null) {
+                    bytesTotales -= anterior.getSize();
+                }
+                bytesTotales += escritos;
+                evictar();
+            }
+            return entrada;
+
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Borra las entradas menos usadas hasta quedar dentro del máximo (llamar con el lock)
+     */
+    private void evictar() {
+        long max = maxMb * MB;
+        Iterator<Map.Entry<String, Entrada>> it = lru.entrySet().iterator();
+        // Se conserva al menos la última entrada aunque supere el máximo sola
+        while (bytesTotales > max && lru.size() > 1 && it.hasNext()) {
+            Entrada entrada = it.next().getValue();
+            it.remove();
+            bytesTotales -= entrada.getSize();
+            evictions.incrementAndGet();
+            // Un envío en curso sigue leyendo el archivo abierto aunque se borre
+            borrar(entrada.getArchivo());
+        }
+    }
+
+    private void borrar(Path archivo) {
+        try {
+            Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            log.warn("⚠️ No se pudo borrar {} de la cache: {}", archivo, e.getMessage());
+        }
+    }
+
+    private Entrada esperar(CompletableFuture<Entrada> descarga) throws IOException {
+        try {
+            return descarga.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Nombre del archivo en cache: SHA-256 del path
+     */
+    private String clave(String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(path.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private String etag(String clave, long size) {
+        return "\"" + clave.substring(0, 32) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * Imagen disponible en la cache local
+     */
+    public static final class Entrada {
+        private final Path archivo;
+        private final long size;
+        private final String etag;
+
+        private Entrada(Path archivo, long size, String etag) {
+            this.archivo = archivo;
+            this.size = size;
+            this.etag = etag;
+        }
+
+        public Path getArchivo() {
+            return archivo;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
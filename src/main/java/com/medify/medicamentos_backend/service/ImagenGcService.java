@@ -0,0 +1,338 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import com.medify.medicamentos_backend.exception.BlobStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recolector de imágenes huérfanas en el almacenamiento.
+ *
+ * Recorre la carpeta de recetas de forma incremental con un cursor persistido en
+ * /mantenimiento/gc_imagenes: cada ejecución sigue desde donde quedó la anterior y
+ * solo ve archivos nuevos o modificados, nunca vuelve a listar toda la carpeta.
+ *
+ * Un archivo es huérfano si ninguna receta lo tiene como imagenPath (las variantes
+ * se comparan por su original) y, si es direccionado por contenido, tampoco tiene
+ * entrada en imagenes_index.
+ *
+ * Los archivos más nuevos que el período de gracia pueden pertenecer a una subida
+ * en curso: se anotan en /mantenimiento/gc_imagenes/pendientes y se revisan en una
+ * ejecución posterior, porque el cursor ya pasó por ellos.
+ *
+ * Los archivos que {@link MigracionLayoutService} está moviendo conservan su fecha
+ * y todavía no figuran en ninguna receta: se consideran en uso mientras figuren en
+ * sus destinos en curso (que se leen antes que las recetas).
+ *
+ * Si el almacenamiento responde con rate limit se corta la ejecución, se guarda el
+ * cursor y no se vuelve a intentar hasta que pase la espera pedida.
+ */
+@Service
+public class ImagenGcService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenGcService.class);
+    private static final String COLECCION = "mantenimiento";
+    private static final String DOCUMENTO = "gc_imagenes";
+    private static final String PENDIENTES = "pendientes";
+    private static final int MAX_WHERE_IN = 10;
+    private static final int MAX_BATCH = 500;
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${images.gc.grace.hours:24}")
+    private long graceHours;
+
+    @Value("${images.gc.page.size:500}")
+    private int pageSize;
+
+    @Value("${images.gc.max.pages:5}")
+    private int maxPages;
+
+    private final Firestore firestore;
+    private final BlobStore blobStore;
+    private final ImagenCacheService imagenCacheService;
+    private final MigracionLayoutService migracionLayoutService;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private volatile long pausadoHasta;
+
+    public ImagenGcService(Firestore firestore, BlobStore blobStore, ImagenCacheService imagenCacheService,
+                           MigracionLayoutService migracionLayoutService) {
+        this.firestore = firestore;
+        this.blobStore = blobStore;
+        this.imagenCacheService = imagenCacheService;
+        this.migracionLayoutService = migracionLayoutService;
+    }
+
+    /**
+     * Procesa los pendientes vencidos y hasta images.gc.max.pages páginas nuevas del listado
+     *
+     * @return Resumen de la ejecución (revisados, eliminados, diferidos, paginas)
+     */
+    public Map<String, Object> ejecutar() {
+        Map<String, Object> resumen = new HashMap<>();
+
+        if (System.currentTimeMillis() < pausadoHasta) {
+            resumen.put("omitido", "rate_limit");
+            return resumen;
+        }
+        if (!enCurso.compareAndSet(false, true)) {
+            resumen.put("omitido", "en_curso");
+            return resumen;
+        }
+
+        DocumentReference estadoRef = firestore.collection(COLECCION).document(DOCUMENTO);
+        Instant limiteGracia = Instant.now().minus(graceHours, ChronoUnit.HOURS);
+        int revisados = 0;
+        int eliminados = 0;
+        int diferidos = 0;
+        int paginas = 0;
+
+        try {
+            eliminados += procesarPendientes(estadoRef, limiteGracia);
+
+            DocumentSnapshot estado = estadoRef.get().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            String cursor = estado.exists() ? estado.getString("cursor") : null;
+
+            while (paginas < maxPages) {
+                PaginaBlobs pagina;
+                try {
+                    pagina = blobStore.listarCambios(ImagenRecetaService.CARPETA, cursor, pageSize);
+                } catch (IllegalArgumentException e) {
+                    if (cursor == null) {
+                        throw e;
+                    }
+                    // Cursor vencido: no queda otra que volver a empezar
+                    log.warn("⚠️ GC de imágenes: cursor inválido, se reinicia el listado ({})", e.getMessage());
+                    cursor = null;
+                    continue;
+                }
+                paginas++;
+
+                List<String> candidatos = new ArrayList<>();
+                List<BlobInfo> recientes = new ArrayList<>();
+                for (BlobInfo archivo : pagina.getArchivos()) {
+                    if (archivo.getFechaModificacion() != null && archivo.getFechaModificacion().isAfter(limiteGracia)) {
+                        recientes.add(archivo);
+                    } else {
+                        candidatos.add(archivo.getPath());
+                    }
+                }
+                revisados += pagina.getArchivos().size();
+
+                diferir(estadoRef, recientes);
+                diferidos += recientes.size();
+                int eliminadosPagina = eliminarHuerfanos(candidatos);
+                eliminados += eliminadosPagina;
+
+                // El cursor se guarda recién después de procesar la página
+                cursor = pagina.getCursor();
+                guardarEstado(estadoRef, cursor, eliminadosPagina);
+
+                if (!pagina.isHayMas()) {
+                    break;
+                }
+            }
+
+        } catch (BlobStoreException e) {
+            if (e.isRateLimit()) {
+                pausadoHasta = System.currentTimeMillis() + e.getReintentarEnMs();
+                log.warn("⏸️ GC de imágenes pausado {} ms por rate limit", e.getReintentarEnMs());
+                resumen.put("pausadoMs", e.getReintentarEnMs());
+            } else {
+                log.error("❌ Error en el GC de imágenes: {}", e.getMessage(), e);
+            }
+        } catch (Exception e) {
+            log.error("❌ Error en el GC de imágenes: {}", e.getMessage(), e);
+        } finally {
+            enCurso.set(false);
+        }
+
+        resumen.put("revisados", revisados);
+        resumen.put("eliminados", eliminados);
+        resumen.put("diferidos", diferidos);
+        resumen.put("paginas", paginas);
+        return resumen;
+    }
+
+    /**
+     * Revisa los archivos diferidos que ya superaron el período de gracia
+     */
+    private int procesarPendientes(DocumentReference estadoRef, Instant limiteGracia) throws Exception {
+        CollectionReference pendientes = estadoRef.collection(PENDIENTES);
+        List<QueryDocumentSnapshot> vencidos = pendientes
+                .whereLessThan("fechaModificacion", Timestamp.ofTimeSecondsAndNanos(limiteGracia.getEpochSecond(), 0))
+                .limit(pageSize)
+                .get()
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                .getDocuments();
+
+        if (vencidos.isEmpty()) {
+            return 0;
+        }
+
+        List<String> paths = new ArrayList<>();
+        vencidos.forEach(doc -> paths.add(doc.getString("path")));
+        int eliminados = eliminarHuerfanos(paths);
+
+        WriteBatch batch = firestore.batch();
+        vencidos.forEach(doc -> batch.delete(doc.getReference()));
+        batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+
+        return eliminados;
+    }
+
+    /**
+     * Anota archivos recientes para revisarlos cuando pase el período de gracia
+     */
+    private void diferir(DocumentReference estadoRef, List<BlobInfo> recientes) throws Exception {
+        for (int i = 0; i < recientes.size(); i += MAX_BATCH) {
+            WriteBatch batch = firestore.batch();
+            for (BlobInfo archivo : recientes.subList(i, Math.min(i + MAX_BATCH, recientes.size()))) {
+                Map<String, Object> datos = new HashMap<>();
+                datos.put("path", archivo.getPath());
+                datos.put("fechaModificacion", Timestamp.ofTimeSecondsAndNanos(
+                        archivo.getFechaModificacion().getEpochSecond(), 0));
+                // Los IDs de Firestore no admiten "/"
+                batch.set(estadoRef.collection(PENDIENTES).document(archivo.getPath().replace('/', '|')), datos);
+            }
+            batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void guardarEstado(DocumentReference estadoRef, String cursor, int eliminados) throws Exception {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("cursor", cursor);
+        datos.put("actualizado", FieldValue.serverTimestamp());
+        if (eliminados > 0) {
+            datos.put("eliminadosTotal", FieldValue.increment(eliminados));
+        }
+        estadoRef.set(datos, SetOptions.merge()).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Elimina en lote los paths que no están referenciados
+     *
+     * @return Cantidad de archivos eliminados
+     */
+    private int eliminarHuerfanos(List<String> paths) throws Exception {
+        if (paths.isEmpty()) {
+            return 0;
+        }
+
+        // path -> path del original (las variantes dependen de su original)
+        Map<String, String> originales = new LinkedHashMap<>();
+        paths.forEach(path -> originales.put(path, ImagenRecetaService.rutaOriginal(path)));
+
+        Set<String> referenciados = referenciados(new HashSet<>(originales.values()));
+
+        List<String> huerfanos = new ArrayList<>();
+        originales.forEach((path, original) -> {
+            if (!referenciados.contains(original)) {
+                huerfanos.add(path);
+            }
+        });
+
+        if (huerfanos.isEmpty()) {
+            return 0;
+        }
+
+        huerfanos.forEach(imagenCacheService::invalidar);
+        List<String> fallidos = blobStore.eliminarVarios(huerfanos);
+        if (!fallidos.isEmpty()) {
+            log.warn("⚠️ GC de imágenes: {} archivos no se pudieron eliminar", fallidos.size());
+        }
+
+        int eliminados = huerfanos.size() - fallidos.size();
+        log.info("🧹 GC de imágenes: {} archivos huérfanos eliminados", eliminados);
+        return eliminados;
+    }
+
+    /**
+     * Originales en uso, consultando recetas por imagenPath en lotes acotados
+     * y el índice de contenido para los que no aparecen en ninguna receta
+     *
+     * Los destinos de la migración se leen primero: si la marca ya no está es porque
+     * el commit (o el deshacer) terminó y la consulta de recetas lo ve.
+     */
+    private Set<String> referenciados(Set<String> originales) throws Exception {
+        Set<String> enUso = new HashSet<>();
+
+        Set<String> migrando = migracionLayoutService.destinosEnCurso();
+        for (String original : originales) {
+            if (migrando.contains(original)) {
+                enUso.add(original);
+            }
+        }
+
+        List<String> lista = new ArrayList<>(originales);
+        for (int i = 0; i < lista.size(); i += MAX_WHERE_IN) {
+            List<String> lote = lista.subList(i, Math.min(i + MAX_WHERE_IN, lista.size()));
+            firestore.collection("recetas")
+                    .whereIn("imagenPath", new ArrayList<>(lote))
+                    .select("imagenPath")
+                    .get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                    .getDocuments()
+                    .forEach(doc -> enUso.add(doc.getString("imagenPath")));
+        }
+
+        // Direccionados por contenido: en uso mientras exista la entrada del índice
+        Map<DocumentReference, String> entradas = new HashMap<>();
+        for (String original : originales) {
+            String hash = hashContenido(original);
+            if (hash != null && !enUso.contains(original)) {
+                entradas.put(firestore.collection("imagenes_index").document(hash), original);
+            }
+        }
+        if (!entradas.isEmpty()) {
+            List<DocumentSnapshot> snaps = firestore
+                    .getAll(entradas.keySet().toArray(new DocumentReference[0]))
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            for (DocumentSnapshot snap : snaps) {
+                if (snap.exists()) {
+                    enUso.add(entradas.get(snap.getReference()));
+                }
+            }
+        }
+
+        return enUso;
+    }
+
+    /**
+     * Hash de un path direccionado por contenido (/recetas/cas/ab/<hash>.jpg) o null
+     */
+    private String hashContenido(String path) {
+        if (!path.contains("/" + ImagenRecetaService.CARPETA + "/cas/")) {
+            return null;
+        }
+        String nombre = path.substring(path.lastIndexOf('/') + 1);
+        int punto = nombre.lastIndexOf('.');
+        return punto > 0 ? nombre.substring(0, punto) : nombre;
+    }
+}
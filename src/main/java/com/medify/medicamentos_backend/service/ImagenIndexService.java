@@ -0,0 +1,296 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Índice de imágenes por contenido: hash SHA-256 -> path y links en el almacenamiento.
+ *
+ * Cada entrada vive en /imagenes_index/{hash} con un contador de referencias
+ * (refCount) que indica cuántas recetas usan esa imagen. Una imagen idéntica
+ * subida de nuevo (reintento del usuario) reutiliza la entrada sin volver a subirse.
+ *
+ * Al liberar la última referencia la entrada no se borra enseguida: pasa a
+ * estado "borrando" en la misma transacción, el llamador borra los archivos y
+ * recién entonces {@link #confirmarBorrado(String)} elimina la entrada. Mientras
+ * tanto nadie la reutiliza y {@link #registrar} no la toma, porque el borrado en
+ * curso se llevaría los archivos recién subidos al mismo path. Una entrada en
+ * "borrando" más vieja que images.index.borrando.timeout.seconds se considera
+ * abandonada y se puede volver a registrar.
+ *
+ * Se mantiene un cache en memoria con la versión (updateTime) de cada entrada: si
+ * no cambió desde entonces se suma la referencia sin leerla.
+ */
+@Service
+public class ImagenIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenIndexService.class);
+    private static final String COLECCION = "imagenes_index";
+    private static final String ESTADO_BORRANDO = "borrando";
+    private static final int MAX_INTENTOS_ADQUIRIR = 3;
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${images.index.borrando.timeout.seconds:120}")
+    private long borrandoTimeoutSeconds;
+
+    private final Firestore firestore;
+    private final Cache<String, Entrada> cache;
+
+    public ImagenIndexService(Firestore firestore) {
+        this.firestore = firestore;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .maximumSize(10000)
+                .build();
+    }
+
+    /**
+     * Busca una imagen ya indexada y, si existe y no se está borrando, suma una referencia
+     *
+     * El incremento va condicionado a la versión leída (Precondition.updatedAt): si la
+     * entrada cambió en el medio (otra referencia, links o borrado) se vuelve a leer.
+     *
+     * @param hash SHA-256 del contenido original
+     * @return Datos de la entrada (path, url, variants) o null si no existe
+     */
+    public Map<String, Object> adquirir(String hash) {
+        DocumentReference ref = firestore.collection(COLECCION).document(hash);
+
+        // Camino rápido: versión conocida en memoria, solo incrementar (sin lectura)
+        Entrada conocida = cache.getIfPresent(hash);
+        if (conocida != null && conocida.version != null) {
+            try {
+                Timestamp version = sumarReferencia(ref, conocida.version);
+                cache.put(hash, new Entrada(conocida.datos, version));
+                log.info("♻️ Imagen {} reutilizada (cache)", hash);
+                return conocida.datos;
+            } catch (Exception e) {
+                // La entrada cambió o se eliminó: seguir por la lectura
+                log.debug("Entrada {} en cache no válida: {}", hash, e.getMessage());
+                cache.invalidate(hash);
+            }
+        }
+
+        for (int intento = 1; intento <= MAX_INTENTOS_ADQUIRIR; intento++) {
+            DocumentSnapshot snap;
+            try {
+                snap = ref.get().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // Si el índice falla se sube igual: solo se pierde la deduplicación
+                log.warn("⚠️ No se pudo consultar el índice de imágenes para {}: {}", hash, e.getMessage());
+                return null;
+            }
+            if (!snap.exists() || snap.getData() == null || borrando(snap)) {
+                return null;
+            }
+
+            try {
+                Timestamp version = sumarReferencia(ref, snap.getUpdateTime());
+                Map<String, Object> datos = snap.getData();
+                cache.put(hash, new Entrada(datos, version));
+                log.info("♻️ Imagen {} reutilizada", hash);
+                return datos;
+            } catch (Exception e) {
+                log.debug("Entrada {} cambió mientras se reutilizaba (intento {}): {}", hash, intento, e.getMessage());
+            }
+        }
+
+        log.warn("⚠️ Entrada {} del índice en disputa, se sube sin deduplicar", hash);
+        return null;
+    }
+
+    /**
+     * Registra una imagen recién subida con una referencia.
+     * Si otra petición la registró en paralelo, solo suma la referencia.
+     *
+     * Se registra solo con los paths: los links se agregan luego con
+     * {@link #guardarLinks(String, String, String, Map)} para no esperar a Dropbox.
+     *
+     * @return false si la entrada se está borrando: el borrado puede llevarse los
+     *         archivos recién subidos, hay que esperar y volver a subirlos
+     */
+    public boolean registrar(String hash, String path, Map<String, Map<String, String>> variants) {
+        DocumentReference ref = firestore.collection(COLECCION).document(hash);
+
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("path", path);
+        datos.put("variants", copiar(variants));
+
+        try {
+            Boolean registrada = firestore.runTransaction(tx -> {
+                DocumentSnapshot snap = tx.get(ref).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                if (snap.exists() && !borrando(snap)) {
+                    tx.update(ref, "refCount", FieldValue.increment(1),
+                            "ultimoUso", FieldValue.serverTimestamp());
+                    return true;
+                }
+                if (snap.exists() && !borradoAbandonado(snap)) {
+                    return false;
+                }
+                Map<String, Object> nuevo = new HashMap<>(datos);
+                nuevo.put("refCount", 1);
+                nuevo.put("fechaCreacion", FieldValue.serverTimestamp());
+                nuevo.put("ultimoUso", FieldValue.serverTimestamp());
+                tx.set(ref, nuevo);
+                return true;
+            }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+
+            if (Boolean.TRUE.equals(registrada)) {
+                log.debug("Imagen {} registrada en el índice", hash);
+            }
+            return Boolean.TRUE.equals(registrada);
+
+        } catch (Exception e) {
+            log.error("❌ Error registrando imagen {} en el índice", hash, e);
+            throw new RuntimeException("Error registrando imagen en el índice", e);
+        }
+    }
+
+    /**
+     * Guarda los links públicos de una entrada ya registrada, sin esperar la escritura.
+     * Si falla, las reutilizaciones obtienen los links desde Dropbox por path.
+     */
+    public void guardarLinks(String hash, String path, String url, Map<String, Map<String, String>> variants) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("url", url);
+        datos.put("variants", copiar(variants));
+
+        ApiFutures.addCallback(
+                firestore.collection(COLECCION).document(hash).update(datos),
+                new ApiFutureCallback<>() {
+                    @Override
+                    public void onSuccess(WriteResult result) {
+                        Map<String, Object> entrada = new HashMap<>(datos);
+                        entrada.put("path", path);
+                        // Sin versión: la entrada pudo liberarse en el medio, la próxima
+                        // reutilización la relee
+                        cache.put(hash, new Entrada(entrada, null));
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        log.warn("⚠️ No se pudieron guardar los links de la imagen {}: {}", hash, t.getMessage());
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Quita una referencia (usado por el rollback)
+     *
+     * @return true si era la última referencia: la entrada queda en "borrando" y el
+     *         llamador debe borrar los archivos y después llamar a {@link #confirmarBorrado}
+     */
+    public boolean liberar(String hash) {
+        DocumentReference ref = firestore.collection(COLECCION).document(hash);
+
+        try {
+            Boolean ultima = firestore.runTransaction(tx -> {
+                DocumentSnapshot snap = tx.get(ref).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                if (!snap.exists() || borrando(snap)) {
+                    // Sin entrada no se borra nada: si quedan archivos los recoge el GC
+                    return false;
+                }
+                Long refCount = snap.getLong("refCount");
+                if (refCount == null || refCount <= 1) {
+                    tx.update(ref, "estado", ESTADO_BORRANDO,
+                            "refCount", 0,
+                            "borrandoDesde", FieldValue.serverTimestamp());
+                    return true;
+                }
+                tx.update(ref, "refCount", FieldValue.increment(-1));
+                return false;
+            }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+
+            cache.invalidate(hash);
+            return Boolean.TRUE.equals(ultima);
+
+        } catch (Exception e) {
+            log.error("❌ Error liberando referencia de imagen {}", hash, e);
+            throw new RuntimeException("Error liberando imagen del índice", e);
+        }
+    }
+
+    /**
+     * Elimina una entrada en "borrando" una vez borrados sus archivos (no lanza excepción).
+     * Si no se llega a eliminar, {@link #registrar} la toma cuando se considera abandonada.
+     */
+    public void confirmarBorrado(String hash) {
+        DocumentReference ref = firestore.collection(COLECCION).document(hash);
+
+        try {
+            firestore.runTransaction(tx -> {
+                DocumentSnapshot snap = tx.get(ref).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                if (snap.exists() && borrando(snap)) {
+                    tx.delete(ref);
+                }
+                return null;
+            }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo eliminar la entrada {} del índice: {}", hash, e.getMessage());
+        }
+    }
+
+    /**
+     * Suma una referencia solo si la entrada sigue en la versión dada
+     *
+     * @return La versión nueva
+     */
+    private Timestamp sumarReferencia(DocumentReference ref, Timestamp version) throws Exception {
+        return ref.update(Precondition.updatedAt(version),
+                        "refCount", FieldValue.increment(1),
+                        "ultimoUso", FieldValue.serverTimestamp())
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                .getUpdateTime();
+    }
+
+    private boolean borrando(DocumentSnapshot snap) {
+        return ESTADO_BORRANDO.equals(snap.getString("estado"));
+    }
+
+    private boolean borradoAbandonado(DocumentSnapshot snap) {
+        Timestamp desde = snap.getTimestamp("borrandoDesde");
+        return desde == null
+                || desde.getSeconds() + borrandoTimeoutSeconds < Timestamp.now().getSeconds();
+    }
+
+    private Map<String, Map<String, String>> copiar(Map<String, Map<String, String>> variants) {
+        Map<String, Map<String, String>> copia = new HashMap<>();
+        variants.forEach((nombre, variante) -> copia.put(nombre, new HashMap<>(variante)));
+        return copia;
+    }
+
+    /**
+     * Datos de una entrada y su versión en Firestore (null si no se conoce)
+     */
+    private static final class Entrada {
+        private final Map<String, Object> datos;
+        private final Timestamp version;
+
+        Entrada(Map<String, Object> datos, Timestamp version) {
+            this.datos = datos;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.ImagenAlmacenada;
+import com.medify.medicamentos_backend.dto.ImagenProcesada;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Guarda las imágenes de recetas: optimización, deduplicación por contenido y subida.
+ *
+ * FLUJO:
+ * 1. Optimiza la imagen calculando el SHA-256 del original mientras se lee
+ * 2. Si el hash ya está en el índice, reutiliza path y links (sin subir nada)
+ * 3. Si no, sube original + variantes en un path direccionado por contenido
+ *    (/recetas/cas/ab/abcdef....jpg) y lo registra en el índice mientras
+ *    se crean los links públicos en paralelo
+ *
+ * LAYOUT: las subidas directas van a carpetas por fecha y prefijo de hash
+ * (/recetas/2025/03/14/a7/nombre.jpg) para que ninguna carpeta crezca sin límite.
+ * Los paths planos anteriores (/recetas/nombre.jpg) siguen funcionando y
+ * {@link MigracionLayoutService} los mueve al layout nuevo en segundo plano.
+ *
+ * El almacenamiento concreto (Dropbox o disco local) es un {@link BlobStore}.
+ *
+ * El rollback usa {@link #liberar(ImagenAlmacenada)}: resta la referencia y solo
+ * borra los archivos cuando ninguna otra receta los usa. Mientras se borran, la
+ * entrada del índice queda en "borrando" y una subida idéntica espera a que
+ * termine para volver a subir los archivos.
+ */
+@Service
+public class ImagenRecetaService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagenRecetaService.class);
+    static final String CARPETA = "recetas";
+
+    public static final long MAX_IMAGE_SIZE_BYTES = 20L * 1024 * 1024;
+    // Límite para los mensajes de error (ej: "20MB"), siempre derivado del anterior
+    public static final String MAX_IMAGE_SIZE_TEXTO = (MAX_IMAGE_SIZE_BYTES / (1024 * 1024)) + "MB";
+    // Esperas a que termine el borrado de una entrada del índice antes de volver a subir
+    private static final int MAX_ESPERAS_BORRADO = 3;
+    private static final long ESPERA_BORRADO_MS = 500;
+    private static final List<String> ALLOWED_CONTENT_TYPES = Arrays.asList(
+            "image/jpeg", "image/jpg", "image/png", "image/gif", "image/webp"
+    );
+
+    // Partición por fecha (vacío = sin carpetas por fecha)
+    @Value("${images.layout.date.pattern:yyyy/MM/dd}")
+    private String layoutDatePattern;
+
+    // Caracteres del hash usados como subcarpeta (0 = sin subcarpeta)
+    @Value("${images.layout.prefix.length:2}")
+    private int layoutPrefixLength;
+
+    private final BlobStore blobStore;
+    private final ImageOptimizationService imageOptimizationService;
+    private final ImagenIndexService imagenIndexService;
+    private final ImagenCacheService imagenCacheService;
+
+    public ImagenRecetaService(BlobStore blobStore,
+                               ImageOptimizationService imageOptimizationService,
+                               ImagenIndexService imagenIndexService,
+                               ImagenCacheService imagenCacheService) {
+        this.blobStore = blobStore;
+        this.imageOptimizationService = imageOptimizationService;
+        this.imagenIndexService = imagenIndexService;
+        this.imagenCacheService = imagenCacheService;
+    }
+
+    /**
+     * Optimiza y guarda la imagen de una receta, reutilizando una idéntica si ya existe
+     */
+    public ImagenAlmacenada almacenar(MultipartFile file) throws IOException {
+
+        validarArchivo(file);
+
+        return almacenar(file, file.getOriginalFilename(), file.getContentType(), file.getSize());
+    }
+
+    /**
+     * Igual que {@link #almacenar(MultipartFile)} para un origen ya validado
+     * (ej: archivo del spool de subidas asíncronas)
+     */
+    @SuppressWarnings("unchecked")
+    public ImagenAlmacenada almacenar(InputStreamSource fuente, String nombre, String contentType, long size)
+            throws IOException {
+
+        ImagenProcesada imagen = imageOptimizationService.optimizar(fuente, nombre, contentType, size);
+        String hash = imagen.getHashOriginal();
+
+        ImagenAlmacenada resultado = new ImagenAlmacenada();
+        resultado.setHash(hash);
+        resultado.setNombreOriginal(nombre);
+        resultado.setContentType(imagen.getContentType());
+        resultado.setSize(imagen.getTamano());
+        resultado.setSizeOriginal(size);
+
+        // ====== IMAGEN YA CONOCIDA: SIN UPLOAD NI LINKS ======
+
+        Map<String, Object> existente = imagenIndexService.adquirir(hash);
+        if (existente != null) {
+            resultado.setPath((String) existente.get("path"));
+            resultado.setUrl((String) existente.get("url"));
+            Object variants = existente.get("variants");
+            if (variants instanceof Map) {
+                Map<String, Map<String, String>> copia = new HashMap<>();
+                ((Map<String, Map<String, String>>) variants)
+                        .forEach((nombreVariante, variante) -> copia.put(nombreVariante, new HashMap<>(variante)));
+                resultado.setVariants(copia);
+            }
+            resultado.setReutilizada(true);
+
+            // Entrada registrada cuyos links todavía no se guardaron en el índice
+            if (resultado.getUrl() == null) {
+                completarLinks(resultado, BlobStore.esperarUrls(
+                        blobStore.obtenerUrlsAsync(resultado.getTodosLosPaths())));
+            }
+
+            log.info("♻️ Imagen reutilizada por contenido: {}", resultado.getPath());
+            return resultado;
+        }
+
+        // ====== IMAGEN NUEVA: SUBIR EN PATH DIRECCIONADO POR CONTENIDO ======
+
+        String carpeta = layoutPrefixLength > 0
+                ? CARPETA + "/cas/" + hash.substring(0, layoutPrefixLength)
+                : CARPETA + "/cas";
+        Map<String, String> paths = subirArchivos(imagen, carpeta, hash);
+
+        // Los links se crean en paralelo (entre sí y con el registro en el índice)
+        CompletableFuture<Map<String, String>> links = blobStore.obtenerUrlsAsync(paths.values());
+
+        Map<String, Map<String, String>> variants = new HashMap<>();
+        paths.forEach((nombreVariante, path) -> {
+            if (!"original".equals(nombreVariante)) {
+                Map<String, String> variante = new HashMap<>();
+                variante.put("path", path);
+                variants.put(nombreVariante, variante);
+            }
+        });
+
+        resultado.setPath(paths.get("original"));
+        resultado.setVariants(variants);
+
+        for (int espera = 1; ; espera++) {
+            boolean registrada;
+            try {
+                registrada = imagenIndexService.registrar(hash, resultado.getPath(), variants);
+            } catch (RuntimeException e) {
+                // Sin registro nadie más la referencia: se borra lo subido
+                eliminarArchivos(resultado);
+                throw e;
+            }
+            if (registrada) {
+                break;
+            }
+
+            // La entrada se está borrando y el borrado puede llevarse lo recién subido:
+            // se espera a que termine y se vuelve a subir (los archivos son del borrado)
+            if (espera > MAX_ESPERAS_BORRADO) {
+                throw new IOException("La imagen se está eliminando del almacenamiento, reintentar");
+            }
+            log.info("⏳ Imagen {} en borrado, se vuelve a subir", hash);
+            try {
+                Thread.sleep(ESPERA_BORRADO_MS * espera);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido esperando el borrado de la imagen", e);
+            }
+            subirArchivos(imagen, carpeta, hash);
+            links = blobStore.obtenerUrlsAsync(paths.values());
+        }
+
+        try {
+            completarLinks(resultado, BlobStore.esperarUrls(links));
+        } catch (IOException | RuntimeException e) {
+            liberar(resultado);
+            throw e;
+        }
+
+        // Sin esperar: si no llega a guardarse, la próxima reutilización los vuelve a obtener
+        imagenIndexService.guardarLinks(hash, resultado.getPath(), resultado.getUrl(), resultado.getVariants());
+
+        return resultado;
+    }
+
+    /**
+     * Completa url del original y de cada variante a partir de los links por path
+     */
+    private void completarLinks(ImagenAlmacenada imagen, Map<String, String> links) {
+        imagen.setUrl(links.get(imagen.getPath()));
+        imagen.getVariants().values().forEach(v -> v.put("url", links.get(v.get("path"))));
+    }
+
+    /**
+     * Campos de la imagen tal como se guardan en el documento de la receta
+     */
+    public Map<String, Object> camposReceta(ImagenAlmacenada imagen) {
+        Map<String, Object> campos = new HashMap<>();
+        campos.put("imagenUrl", imagen.getUrl());
+        campos.put("imagenPath", imagen.getPath());
+        campos.put("imagenNombre", imagen.getNombreOriginal());
+        campos.put("imagenSize", imagen.getSize());
+        campos.put("imagenSizeOriginal", imagen.getSizeOriginal());
+        campos.put("imagenContentType", imagen.getContentType());
+        campos.put("imagenHash", imagen.getHash());
+        campos.put("imagenVariants", imagen.getVariants()); // {thumb: {url, path}, medium: {url, path}}
+        return campos;
+    }
+
+    /**
+     * Rollback: quita la referencia de la receta y, si era la última,
+     * borra original y variantes. Nunca lanza excepción (solo registra el error).
+     */
+    public void liberar(ImagenAlmacenada imagen) {
+        if (imagen == null) {
+            return;
+        }
+
+        try {
+            if (imagenIndexService.liberar(imagen.getHash())) {
+                eliminarArchivos(imagen);
+                imagenIndexService.confirmarBorrado(imagen.getHash());
+            } else {
+                log.info("ℹ️ Imagen {} sigue en uso por otras recetas, no se elimina", imagen.getPath());
+            }
+        } catch (Exception e) {
+            log.error("💥 CRÍTICO: No se pudo liberar la imagen {}: {}", imagen.getPath(), e.getMessage(), e);
+        }
+    }
+
+    private void eliminarArchivos(ImagenAlmacenada imagen) {
+        List<String> paths = imagen.getTodosLosPaths();
+        log.warn("🧹 Limpiando imagen del almacenamiento: {} ({} archivos)", imagen.getPath(), paths.size());
+        paths.forEach(imagenCacheService::invalidar);
+
+        List<String> fallidos = blobStore.eliminarVarios(paths);
+        if (fallidos.isEmpty()) {
+            log.info("✅ Imagen eliminada del almacenamiento (rollback exitoso)");
+        } else {
+            // Quedan huérfanos: los recoge ImagenGcService en una pasada posterior
+            log.error("💥 CRÍTICO: No se pudo hacer rollback del almacenamiento de {}", fallidos);
+        }
+    }
+
+    // ==================================================================================
+    // ☁️ SUBIDA AL ALMACENAMIENTO
+    // ==================================================================================
+
+    /**
+     * Sube original y variantes sin crear links. Las variantes se guardan al lado
+     * del original: nombre_thumb.jpg, nombre_medium.jpg
+     *
+     * Con un nombre base fijo (hash del contenido) se sobreescribe: una subida concurrente
+     * del mismo archivo escribe bytes idénticos en vez de fallar.
+     * Si falla alguna subida, elimina lo que ya se había subido antes de relanzar.
+     *
+     * @return Map "original"/variante -> path en el almacenamiento
+     */
+    private Map<String, String> subirArchivos(ImagenProcesada imagen, String carpeta, String nombreBase)
+            throws IOException {
+
+        String fileName = nombreBase != null
+                ? nombreBase + imagen.getExtension()
+                : generarNombreUnico(imagen.getNombreArchivo());
+        String path = blobStore.construirRuta(carpeta, fileName);
+        boolean sobrescribir = nombreBase != null;
+
+        Map<String, String> paths = new LinkedHashMap<>();
+
+        try {
+            try (InputStream in = new ByteArrayInputStream(imagen.getContenido())) {
+                blobStore.guardar(path, in, sobrescribir);
+                paths.put("original", path);
+            }
+            imagenCacheService.precargar(path, imagen.getContenido());
+
+            for (Map.Entry<String, ImagenProcesada> variante : imagen.getVariantes().entrySet()) {
+                String variantePath = construirRutaVariante(path, variante.getKey());
+                try (InputStream in = new ByteArrayInputStream(variante.getValue().getContenido())) {
+                    blobStore.guardar(variantePath, in, sobrescribir);
+                    paths.put(variante.getKey(), variantePath);
+                }
+                imagenCacheService.precargar(variantePath, variante.getValue().getContenido());
+            }
+
+            return paths;
+
+        } catch (IOException | RuntimeException e) {
+            paths.values().forEach(imagenCacheService::invalidar);
+            List<String> fallidos = blobStore.eliminarVarios(paths.values());
+            if (!fallidos.isEmpty()) {
+                log.error("No se pudieron eliminar {} tras fallo de subida", fallidos);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reserva un path para una imagen que el cliente subirá directamente al almacenamiento
+     */
+    public String generarRutaSubidaDirecta(String originalFilename) {
+        String fileName = generarNombreUnico(originalFilename);
+        return blobStore.construirRuta(carpetaParticionada(Instant.now(), fileName), fileName);
+    }
+
+    /**
+     * Carpeta lógica de un archivo en el layout particionado
+     * (ej: recetas/2025/03/14/a7, con el prefijo del SHA-256 del nombre)
+     *
+     * @param fecha Fecha de la receta (se usa en UTC)
+     */
+    public String carpetaParticionada(Instant fecha, String fileName) {
+        StringBuilder carpeta = new StringBuilder(CARPETA);
+        if (layoutDatePattern != null && !layoutDatePattern.isBlank()) {
+            carpeta.append('/').append(DateTimeFormatter.ofPattern(layoutDatePattern)
+                    .withZone(ZoneOffset.UTC)
+                    .format(fecha));
+        }
+        if (layoutPrefixLength > 0) {
+            carpeta.append('/').append(sha256(fileName), 0, layoutPrefixLength);
+        }
+        return carpeta.toString();
+    }
+
+    /**
+     * true si el path está en la carpeta plana anterior al layout particionado
+     */
+    public boolean esRutaPlana(String path) {
+        String carpeta = blobStore.construirRuta(CARPETA, "");
+        return path.startsWith(carpeta) && path.indexOf('/', carpeta.length()) < 0;
+    }
+
+    /**
+     * Valida el archivo antes de subirlo
+     */
+    public void validarArchivo(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("El archivo está vacío");
+        }
+
+        if (file.getSize() > MAX_IMAGE_SIZE_BYTES) {
+            throw new IllegalArgumentException("El archivo excede el tamaño máximo de " + MAX_IMAGE_SIZE_TEXTO);
+        }
+
+        String contentType = file.getContentType();
+        if (!ALLOWED_CONTENT_TYPES.contains(contentType)) {
+            throw new IllegalArgumentException(
+                    "Tipo de archivo no permitido: " + contentType +
+                            ". Permitidos: " + ALLOWED_CONTENT_TYPES
+            );
+        }
+    }
+
+    /**
+     * Valida la extensión del nombre de archivo contra los tipos de imagen permitidos
+     */
+    public void validarNombreImagen(String fileName) {
+        String nombre = fileName != null ? fileName.toLowerCase() : "";
+        int punto = nombre.lastIndexOf('.');
+        String extension = punto >= 0 ? nombre.substring(punto + 1) : "";
+        if (!ALLOWED_CONTENT_TYPES.contains("image/" + extension)) {
+            throw new IllegalArgumentException(
+                    "Tipo de archivo no permitido: " + fileName +
+                            ". Permitidos: " + ALLOWED_CONTENT_TYPES
+            );
+        }
+    }
+
+    /**
+     * Tipo de imagen según la firma de los primeros bytes (no confía en el nombre
+     * ni en el content type que declara el cliente)
+     *
+     * @return content type detectado
+     * @throws IllegalArgumentException si el contenido no es una imagen permitida
+     */
+    public String detectarTipoImagen(byte[] contenido) {
+        if (empiezaCon(contenido, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (empiezaCon(contenido, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (empiezaCon(contenido, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (empiezaCon(contenido, 0, 'R', 'I', 'F', 'F') && empiezaCon(contenido, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        throw new IllegalArgumentException("El archivo no es una imagen válida. Permitidos: " + ALLOWED_CONTENT_TYPES);
+    }
+
+    private static boolean empiezaCon(byte[] contenido, int desde, int... firma) {
+        if (contenido.length < desde + firma.length) {
+            return false;
+        }
+        for (int i = 0; i < firma.length; i++) {
+            if ((contenido[desde + i] & 0xFF) != firma[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Genera un nombre para el archivo
+     */
+    private String generarNombreUnico(String originalFilename) {
+        String timestamp = LocalDateTime.now()
+                .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+
+        String extension = "";
+        if (originalFilename != null && originalFilename.contains(".")) {
+            extension = originalFilename.substring(originalFilename.lastIndexOf("."));
+        }
+
+        return timestamp + "_" + System.nanoTime() + extension;
+    }
+
+    /**
+     * Path del original de una variante (ej: /recetas/foto_thumb.jpg -> /recetas/foto.jpg)
+     */
+    static String rutaOriginal(String path) {
+        int punto = path.lastIndexOf('.');
+        int barra = path.lastIndexOf('/');
+        String base = punto > barra ? path.substring(0, punto) : path;
+        String extension = punto > barra ? path.substring(punto) : "";
+
+        for (String variante : List.of("_thumb", "_medium")) {
+            if (base.endsWith(variante)) {
+                return base.substring(0, base.length() - variante.length()) + extension;
+            }
+        }
+        return path;
+    }
+
+    private String sha256(String texto) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(texto.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Construye la ruta de una variante al lado del original
+     * (ej: /recetas/foto.jpg -> /recetas/foto_thumb.jpg)
+     */
+    String construirRutaVariante(String path, String variante) {
+        int punto = path.lastIndexOf('.');
+        int barra = path.lastIndexOf('/');
+        if (punto > barra) {
+            return path.substring(0, punto) + "_" + variante + path.substring(punto);
+        }
+        return path + "_" + variante;
+    }
+}
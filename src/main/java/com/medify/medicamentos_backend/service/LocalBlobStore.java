@@ -0,0 +1,331 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Almacenamiento en disco local (storage.backend=local).
+ *
+ * Pensado para desarrollo sin conexión, pruebas de carga del pipeline de subida
+ * y despliegues autoalojados. Los archivos se sirven desde /api/archivos/**.
+ *
+ * Escritura: el stream se copia con FileChannel.transferFrom a un archivo temporal
+ * en la misma carpeta y se publica atómicamente en el path final (rename, o hard
+ * link si no se puede pisar un archivo existente), así un lector nunca ve un
+ * archivo a medio escribir.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local")
+public class LocalBlobStore implements BlobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalBlobStore.class);
+    private static final long CHUNK = 8L * 1024 * 1024;
+    // Antigüedad mínima de un archivo para entrar en un listado incremental
+    private static final long MARGEN_LISTADO_MS = 2000;
+
+    @Value("${storage.local.root.dir:${java.io.tmpdir}/medify-storage}")
+    private String rootDir;
+
+    @Value("${storage.local.public.url:http://localhost:8080/api/archivos}")
+    private String publicUrl;
+
+    @Value("${dropbox.folder.path:/medify/imagenes}")
+    private String folderPath;
+
+    private Path root;
+    // Última foto de cada listado (carpeta|recursivo), de la que salen sus páginas siguientes
+    private final Map<String, Foto> fotos = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(rootDir).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        log.info("LocalBlobStore inicializado - Raíz: {}, URL pública: {}", root, publicUrl);
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return root != null;
+    }
+
+    @Override
+    public String construirRuta(String carpeta, String fileName) {
+        String path = folderPath;
+        if (carpeta != null && !carpeta.isBlank()) {
+            path = path + "/" + carpeta;
+        }
+        return path + "/" + fileName;
+    }
+
+    @Override
+    public BlobInfo guardar(String path, InputStream contenido, boolean sobrescribir) throws IOException {
+        Path destino = resolver(path);
+        if (!sobrescribir && Files.exists(destino)) {
+            throw new FileAlreadyExistsException(path);
+        }
+
+        Files.createDirectories(destino.getParent());
+        Path temporal = Files.createTempFile(destino.getParent(), ".", ".tmp");
+
+        try {
+            long escritos = 0;
+            try (FileChannel out = FileChannel.open(temporal, StandardOpenOption.WRITE);
+                 ReadableByteChannel in = Channels.newChannel(contenido)) {
+                long n;
+                while ((n = out.transferFrom(in, escritos, CHUNK)) > 0) {
+                    escritos += n;
+                }
+            }
+
+            if (sobrescribir) {
+                Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                publicarSinPisar(temporal, destino, path);
+            }
+
+            log.debug("Archivo guardado: {} ({} bytes)", path, escritos);
+            return new BlobInfo(path, escritos, null);
+
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Publica el temporal en el destino solo si no existe. rename() pisa el destino
+     * sin avisar, así que se usa un hard link: falla atómicamente si ya existe y el
+     * temporal se borra después. Si el sistema de archivos no admite hard links se
+     * copia con CREATE_NEW (el archivo puede verse a medio escribir).
+     */
+    private void publicarSinPisar(Path temporal, Path destino, String path) throws IOException {
+        try {
+            Files.createLink(destino, temporal);
+        } catch (FileAlreadyExistsException e) {
+            throw new FileAlreadyExistsException(path);
+        } catch (UnsupportedOperationException e) {
+            try (FileChannel in = FileChannel.open(temporal, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(destino, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                long copiados = 0;
+                long total = in.size();
+                while (copiados < total) {
+                    copiados += in.transferTo(copiados, total - copiados, out);
+                }
+            } catch (FileAlreadyExistsException existente) {
+                throw new FileAlreadyExistsException(path);
+            }
+        }
+    }
+
+    @Override
+    public InputStream leer(String path) throws IOException {
+        try {
+            return Files.newInputStream(resolver(path));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(path);
+        }
+    }
+
+    @Override
+    public BlobInfo obtenerInfo(String path) throws IOException {
+        Path archivo = resolver(path);
+        if (!Files.isRegularFile(archivo)) {
+            return null;
+        }
+        return new BlobInfo(path, Files.size(archivo), null);
+    }
+
+    @Override
+    public void eliminar(String path) throws IOException {
+        Files.deleteIfExists(resolver(path));
+        log.debug("Archivo eliminado: {}", path);
+    }
+
+    @Override
+    public List<String> moverVarios(Map<String, String> origenDestino) {
+        List<String> fallidos = new ArrayList<>();
+        origenDestino.forEach((origen, destino) -> {
+            try {
+                Path archivoDestino = resolver(destino);
+                Files.createDirectories(archivoDestino.getParent());
+                Files.move(resolver(origen), archivoDestino, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("No se pudo mover {} a {}: {}", origen, destino, e.getMessage());
+                fallidos.add(origen);
+            }
+        });
+        return fallidos;
+    }
+
+    /**
+     * Listado incremental ordenado por fecha de modificación (en ms) y path.
+     * El cursor es "mtimeMillis|path" del último archivo devuelto.
+     *
+     * Cada recorrido del árbol deja una foto ordenada de la que salen las páginas
+     * siguientes; solo se vuelve a recorrer al pedir sin cursor o al agotar la foto.
+     * La foto no incluye archivos de los últimos {@link #MARGEN_LISTADO_MS} ms: uno
+     * escrito después del recorrido nunca puede quedar detrás del cursor (aunque
+     * comparta milisegundo con el último devuelto) y sale en un recorrido posterior.
+     */
+    @Override
+    public PaginaBlobs listarCambios(String carpeta, String cursor, int limite, boolean recursivo)
+            throws IOException {
+        String ruta = construirRuta(carpeta, "");
+        Path base = resolver(ruta.substring(0, ruta.length() - 1));
+        if (!Files.isDirectory(base)) {
+            return new PaginaBlobs(List.of(), cursor, false);
+        }
+
+        long desdeMillis = Long.MIN_VALUE;
+        String desdePath = "";
+        if (cursor != null) {
+            int separador = cursor.indexOf('|');
+            if (separador < 0) {
+                throw new IllegalArgumentException("Cursor de listado inválido");
+            }
+            desdeMillis = Long.parseLong(cursor.substring(0, separador));
+            desdePath = cursor.substring(separador + 1);
+        }
+
+        // La foto sirve si empezó en este cursor o antes (no le faltan archivos posteriores)
+        String clave = carpeta + "|" + recursivo;
+        Foto previa = cursor != null ? fotos.get(clave) : null;
+        List<BlobInfo> foto = null;
+        int desde = -1;
+        if (previa != null && (previa.desdeMillis < desdeMillis
+                || (previa.desdeMillis == desdeMillis && previa.desdePath.compareTo(desdePath) <= 0))) {
+            foto = previa.archivos;
+            desde = posicionDespues(foto, desdeMillis, desdePath);
+        }
+        if (desde < 0 || desde >= foto.size()) {
+            foto = recorrer(base, recursivo, desdeMillis, desdePath);
+            fotos.put(clave, new Foto(desdeMillis, desdePath, foto));
+            desde = 0;
+        }
+
+        List<BlobInfo> pagina = foto.subList(desde, Math.min(desde + limite, foto.size()));
+        String siguiente = cursor;
+        if (!pagina.isEmpty()) {
+            BlobInfo ultimo = pagina.get(pagina.size() - 1);
+            siguiente = ultimo.getFechaModificacion().toEpochMilli() + "|" + ultimo.getPath();
+        }
+        return new PaginaBlobs(new ArrayList<>(pagina), siguiente, desde + pagina.size() < foto.size());
+    }
+
+    /**
+     * Archivos posteriores al cursor y anteriores al margen, ordenados por (ms, path)
+     */
+    private List<BlobInfo> recorrer(Path base, boolean recursivo, long desdeMillis, String desdePath)
+            throws IOException {
+        long hastaMillis = System.currentTimeMillis() - MARGEN_LISTADO_MS;
+        List<BlobInfo> candidatos = new ArrayList<>();
+        try (Stream<Path> archivos = recursivo ? Files.walk(base) : Files.list(base)) {
+            // Los temporales de escritura empiezan con "." y no se listan
+            Iterable<Path> visibles = archivos
+                    .filter(a -> Files.isRegularFile(a) && !a.getFileName().toString().startsWith("."))::iterator;
+            for (Path archivo : visibles) {
+                String path = "/" + root.relativize(archivo).toString().replace('\\', '/');
+                Instant modificado = Files.getLastModifiedTime(archivo).toInstant();
+                long millis = modificado.toEpochMilli();
+                if (millis < hastaMillis
+                        && (millis > desdeMillis || (millis == desdeMillis && path.compareTo(desdePath) > 0))) {
+                    candidatos.add(new BlobInfo(path, Files.size(archivo), null, modificado));
+                }
+            }
+        }
+        // Mismo orden que el cursor: por ms (no por la fecha completa) y después por path
+        candidatos.sort(Comparator.comparingLong((BlobInfo b) -> b.getFechaModificacion().toEpochMilli())
+                .thenComparing(BlobInfo::getPath));
+        return candidatos;
+    }
+
+    /**
+     * Índice del primer archivo de la foto posterior al cursor
+     */
+    private int posicionDespues(List<BlobInfo> foto, long millis, String path) {
+        int bajo = 0;
+        int alto = foto.size();
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            BlobInfo info = foto.get(medio);
+            long m = info.getFechaModificacion().toEpochMilli();
+            if (m < millis || (m == millis && info.getPath().compareTo(path) <= 0)) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    @Override
+    public String obtenerUrl(String path) {
+        return publicUrl + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    /**
+     * Archivo en disco para servir un path, o null si no existe
+     */
+    public Path abrir(String path) {
+        try {
+            Path archivo = resolver(path);
+            return Files.isRegularFile(archivo) ? archivo : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Traduce el path del almacenamiento a un archivo dentro de la raíz
+     * (rechaza paths que intenten salir de ella, ej: "../")
+     */
+    private Path resolver(String path) {
+        String relativo = path.startsWith("/") ? path.substring(1) : path;
+        Path archivo = root.resolve(relativo).normalize();
+        if (!archivo.startsWith(root) || archivo.equals(root)) {
+            throw new IllegalArgumentException("Path inválido: " + path);
+        }
+        return archivo;
+    }
+
+    /**
+     * Resultado de un recorrido: archivos posteriores a (desdeMillis, desdePath)
+     */
+    private static final class Foto {
+        private final long desdeMillis;
+        private final String desdePath;
+        private final List<BlobInfo> archivos;
+
+        Foto(long desdeMillis, String desdePath, List<BlobInfo> archivos) {
+            this.desdeMillis = desdeMillis;
+            this.desdePath = desdePath;
+            this.archivos = archivos;
+        }
+    }
+}
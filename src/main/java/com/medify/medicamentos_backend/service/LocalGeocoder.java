@@ -0,0 +1,243 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.GeoPoint;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Geocodificador offline (geo.geocoder=local).
+ *
+ * Ubica la dirección en el centro de su localidad usando una tabla local
+ * (geo.local.table, por defecto classpath:geo/localidades.csv). No hace llamadas
+ * de red, así que sirve para desarrollo, pruebas y como respaldo. La precisión es
+ * de ciudad: calle y altura se ignoran, así que dos direcciones de la misma
+ * localidad quedan a distancia 0. Para ruteo por cuadra hace falta otro
+ * {@link Geocoder} (geo.geocoder) que resuelva la dirección completa.
+ *
+ * Búsqueda:
+ * - Dirección estructurada: ciudad, después código postal, después texto libre
+ * - Texto libre: el nombre de localidad que aparece más a la derecha (las direcciones
+ *   van de calle a provincia), ignorando los que siguen a "av", "calle", etc.
+ *   (Av. Santa Fe no es Santa Fe) y los que en realidad nombran la provincia de
+ *   otra localidad encontrada ("Rosario, Santa Fe"); si no hay ninguno, el código
+ *   postal en formato CPA (C1425ABC) o precedido de "cp"
+ */
+@Service
+@ConditionalOnProperty(name = "geo.geocoder", havingValue = "local", matchIfMissing = true)
+public class LocalGeocoder implements Geocoder {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalGeocoder.class);
+    private static final Pattern NO_ALFANUMERICO = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern CODIGO_POSTAL = Pattern.compile("(?:\\b[a-z](\\d{4})[a-z]{3}\\b|\\bcp (\\d{4})\\b)");
+    private static final Set<String> PREFIJOS_CALLE =
+            Set.of("av", "avda", "avenida", "calle", "bv", "bulevar", "boulevard", "pasaje", "pje", "diagonal");
+
+    @Value("${geo.local.table:classpath:geo/localidades.csv}")
+    private Resource tabla;
+
+    private final List<Localidad> localidades = new ArrayList<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(tabla.getInputStream(), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                if (linea.isBlank() || linea.startsWith("#")) {
+                    continue;
+                }
+                localidades.add(Localidad.parsear(linea));
+            }
+        }
+        log.info("✅ LocalGeocoder inicializado - {} localidades", localidades.size());
+    }
+
+    @Override
+    public GeoPoint geocodificar(String direccion) {
+        if (direccion == null || direccion.isBlank()) {
+            return null;
+        }
+        String texto = " " + normalizar(direccion) + " ";
+
+        Localidad localidad = porNombre(texto);
+        if (localidad == null) {
+            Matcher matcher = CODIGO_POSTAL.matcher(texto);
+            Integer codigo = null;
+            while (matcher.find()) {
+                codigo = Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            }
+            localidad = codigo != null ? porCodigoPostal(codigo) : null;
+        }
+        return localidad != null ? localidad.ubicacion : null;
+    }
+
+    @Override
+    public GeoPoint geocodificar(Map<String, String> direccion) {
+        if (direccion == null || direccion.isEmpty()) {
+            return null;
+        }
+
+        String ciudad = direccion.get("city");
+        if (ciudad != null && !ciudad.isBlank()) {
+            Localidad localidad = porNombre(" " + normalizar(ciudad) + " ");
+            if (localidad != null) {
+                return localidad.ubicacion;
+            }
+        }
+
+        String codigoPostal = direccion.get("postalCode");
+        if (codigoPostal != null) {
+            String digitos = codigoPostal.replaceAll("\\D", "");
+            if (digitos.length() == 4) {
+                Localidad localidad = porCodigoPostal(Integer.parseInt(digitos));
+                if (localidad != null) {
+                    return localidad.ubicacion;
+                }
+            }
+        }
+
+        return Geocoder.super.geocodificar(direccion);
+    }
+
+    private Localidad porNombre(String texto) {
+        List<Localidad> encontradas = new ArrayList<>();
+        List<Integer> posiciones = new ArrayList<>();
+        List<String> nombres = new ArrayList<>();
+
+        for (Localidad localidad : localidades) {
+            int mejor = -1;
+            String nombreMejor = null;
+            for (String nombre : localidad.nombres) {
+                int desde = texto.length();
+                int pos;
+                // La aparición más a la derecha que no sea nombre de calle
+                while ((pos = texto.lastIndexOf(" " + nombre + " ", desde - 1)) >= 0) {
+                    if (!esNombreDeCalle(texto, pos)) {
+                        break;
+                    }
+                    desde = pos;
+                }
+                if (pos > mejor) {
+                    mejor = pos;
+                    nombreMejor = nombre;
+                }
+            }
+            if (mejor >= 0) {
+                encontradas.add(localidad);
+                posiciones.add(mejor);
+                nombres.add(nombreMejor);
+            }
+        }
+
+        Localidad elegida = null;
+        int posicionElegida = -1;
+        for (int i = 0; i < encontradas.size(); i++) {
+            if (esProvinciaDeOtra(nombres.get(i), encontradas.get(i), encontradas)) {
+                continue;
+            }
+            if (posiciones.get(i) > posicionElegida) {
+                elegida = encontradas.get(i);
+                posicionElegida = posiciones.get(i);
+            }
+        }
+        return elegida;
+    }
+
+    private Localidad porCodigoPostal(int codigo) {
+        for (Localidad localidad : localidades) {
+            if (localidad.contieneCodigo(codigo)) {
+                return localidad;
+            }
+        }
+        return null;
+    }
+
+    private boolean esNombreDeCalle(String texto, int pos) {
+        int fin = pos;
+        int inicio = texto.lastIndexOf(' ', fin - 1) + 1;
+        return fin > 0 && PREFIJOS_CALLE.contains(texto.substring(inicio, fin));
+    }
+
+    private boolean esProvinciaDeOtra(String nombre, Localidad localidad, List<Localidad> encontradas) {
+        for (Localidad otra : encontradas) {
+            if (otra != localidad && otra.provincia.equals(nombre)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Minúsculas, sin acentos y con los signos reemplazados por un espacio
+     */
+    static String normalizar(String texto) {
+        String sinAcentos = Normalizer.normalize(texto, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return NO_ALFANUMERICO.matcher(sinAcentos.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    /**
+     * Fila de la tabla: nombres (con alias), provincia, rangos de códigos postales y ubicación
+     */
+    private static final class Localidad {
+        private final List<String> nombres;
+        private final String provincia;
+        private final int[][] codigos;
+        private final GeoPoint ubicacion;
+
+        private Localidad(List<String> nombres, String provincia, int[][] codigos, GeoPoint ubicacion) {
+            this.nombres = nombres;
+            this.provincia = provincia;
+            this.codigos = codigos;
+            this.ubicacion = ubicacion;
+        }
+
+        static Localidad parsear(String linea) {
+            String[] campos = linea.split(";");
+            if (campos.length != 5) {
+                throw new IllegalArgumentException("Fila inválida en la tabla de localidades: " + linea);
+            }
+
+            List<String> nombres = new ArrayList<>();
+            for (String nombre : campos[0].split("\\|")) {
+                nombres.add(normalizar(nombre));
+            }
+
+            String[] rangos = campos[2].split("\\|");
+            int[][] codigos = new int[rangos.length][2];
+            for (int i = 0; i < rangos.length; i++) {
+                String[] limites = rangos[i].trim().split("-");
+                codigos[i][0] = Integer.parseInt(limites[0]);
+                codigos[i][1] = Integer.parseInt(limites[limites.length - 1]);
+            }
+
+            return new Localidad(nombres, normalizar(campos[1]), codigos,
+                    new GeoPoint(Double.parseDouble(campos[3].trim()), Double.parseDouble(campos[4].trim())));
+        }
+
+        boolean contieneCodigo(int codigo) {
+            for (int[] rango : codigos) {
+                if (codigo >= rango[0] && codigo <= rango[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
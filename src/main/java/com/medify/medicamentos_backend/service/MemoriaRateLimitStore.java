@@ -0,0 +1,46 @@
+package com.medify.medicamentos_backend.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store en memoria (rate.limit.store=memoria).
+ *
+ * Sirve para desarrollo con una sola instancia o para simular varias
+ * instancias compartiendo el mismo objeto en pruebas.
+ */
+@Service
+@ConditionalOnProperty(name = "rate.limit.store", havingValue = "memoria")
+public class MemoriaRateLimitStore implements RateLimitStore {
+
+    // ventana -> instancia -> conteos
+    private final Map<Long, Map<String, Map<String, Map<String, Long>>>> ventanas = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, Map<String, Long>> publicar(String instancia, long ventana,
+                                                   Map<String, Map<String, Long>> conteos) {
+        // Solo interesan la ventana actual y la anterior
+        ventanas.keySet().removeIf(v -> v < ventana - 1);
+
+        Map<String, Map<String, Map<String, Long>>> instancias =
+                ventanas.computeIfAbsent(ventana, v -> new ConcurrentHashMap<>());
+        if (conteos != null) {
+            instancias.put(instancia, conteos);
+        }
+
+        Map<String, Map<String, Long>> resto = new HashMap<>();
+        instancias.forEach((otra, suyos) -> {
+            if (!otra.equals(instancia)) {
+                suyos.forEach((namespace, porId) -> {
+                    Map<String, Long> destino = resto.computeIfAbsent(namespace, n -> new HashMap<>());
+                    porId.forEach((id, n) -> destino.merge(id, n, Long::sum));
+                });
+            }
+        });
+        return resto;
+    }
+}
@@ -0,0 +1,424 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import com.medify.medicamentos_backend.exception.BlobStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Migra las imágenes de la carpeta plana /recetas al layout particionado
+ * (/recetas/yyyy/MM/dd/<prefijo>/), de a páginas y con un cursor persistido en
+ * /mantenimiento/migracion_layout.
+ *
+ * Por cada página del listado (no recursivo, solo la carpeta plana):
+ * 1. Busca las recetas que usan esos archivos (imagenPath, en lotes de 10)
+ * 2. Mueve original y variantes en lote (la fecha de la carpeta es la de la receta)
+ * 3. Actualiza imagenPath, imagenUrl e imagenVariants en WriteBatch de hasta 500
+ *    escrituras (las recetas de un mismo archivo siempre van en el mismo lote)
+ *
+ * Si un lote del paso 3 falla, los archivos de ese lote y de los siguientes se
+ * vuelven a su lugar; los de lotes ya confirmados quedan migrados. Los archivos sin
+ * receta quedan donde están (los recoge {@link ImagenGcService}).
+ *
+ * Un archivo movido conserva su fecha de modificación, así que para el GC no es
+ * reciente. Antes de mover se anotan los destinos en el campo "enCurso" del
+ * documento de estado (con vencimiento, por si la instancia muere) y se quitan
+ * después del commit o de deshacer: el GC los lee con {@link #destinosEnCurso()}
+ * antes de buscar las recetas y no los borra.
+ *
+ * En Dropbox los shared links siguen al archivo movido, así que las URLs ya copiadas
+ * en otros documentos (ej: pedidos) siguen funcionando.
+ */
+@Service
+public class MigracionLayoutService {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionLayoutService.class);
+    private static final String COLECCION = "mantenimiento";
+    private static final String DOCUMENTO = "migracion_layout";
+    private static final int MAX_WHERE_IN = 10;
+    // Límite de escrituras de un WriteBatch de Firestore
+    private static final int MAX_BATCH = 500;
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${images.layout.migration.page.size:200}")
+    private int pageSize;
+
+    @Value("${images.layout.migration.max.pages:5}")
+    private int maxPages;
+
+    // Vencimiento de los destinos anotados en "enCurso"
+    @Value("${images.layout.migration.lease.minutes:30}")
+    private long leaseMinutes;
+
+    private final Firestore firestore;
+    private final BlobStore blobStore;
+    private final ImagenRecetaService imagenRecetaService;
+    private final ImagenCacheService imagenCacheService;
+    private final RecetaService recetaService;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private volatile long pausadoHasta;
+
+    public MigracionLayoutService(Firestore firestore,
+                                  BlobStore blobStore,
+                                  ImagenRecetaService imagenRecetaService,
+                                  ImagenCacheService imagenCacheService,
+                                  RecetaService recetaService) {
+        this.firestore = firestore;
+        this.blobStore = blobStore;
+        this.imagenRecetaService = imagenRecetaService;
+        this.imagenCacheService = imagenCacheService;
+        this.recetaService = recetaService;
+    }
+
+    /**
+     * Migra hasta images.layout.migration.max.pages páginas de la carpeta plana
+     *
+     * @return Resumen de la ejecución (revisados, migradas, paginas)
+     */
+    public Map<String, Object> ejecutar() {
+        Map<String, Object> resumen = new HashMap<>();
+
+        if (System.currentTimeMillis() < pausadoHasta) {
+            resumen.put("omitido", "rate_limit");
+            return resumen;
+        }
+        if (!enCurso.compareAndSet(false, true)) {
+            resumen.put("omitido", "en_curso");
+            return resumen;
+        }
+
+        DocumentReference estadoRef = firestore.collection(COLECCION).document(DOCUMENTO);
+        int revisados = 0;
+        int migradas = 0;
+        int paginas = 0;
+
+        try {
+            DocumentSnapshot estado = estadoRef.get().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            String cursor = estado.exists() ? estado.getString("cursor") : null;
+
+            while (paginas < maxPages) {
+                PaginaBlobs pagina;
+                try {
+                    pagina = blobStore.listarCambios(ImagenRecetaService.CARPETA, cursor, pageSize, false);
+                } catch (IllegalArgumentException e) {
+                    if (cursor == null) {
+                        throw e;
+                    }
+                    log.warn("⚠️ Migración de layout: cursor inválido, se reinicia el listado ({})", e.getMessage());
+                    cursor = null;
+                    continue;
+                }
+                paginas++;
+                revisados += pagina.getArchivos().size();
+
+                int migradasPagina = migrar(estadoRef, pagina.getArchivos());
+                migradas += migradasPagina;
+
+                cursor = pagina.getCursor();
+                guardarEstado(estadoRef, cursor, migradasPagina);
+
+                if (!pagina.isHayMas()) {
+                    break;
+                }
+            }
+
+        } catch (BlobStoreException e) {
+            if (e.isRateLimit()) {
+                pausadoHasta = System.currentTimeMillis() + e.getReintentarEnMs();
+                log.warn("⏸️ Migración de layout pausada {} ms por rate limit", e.getReintentarEnMs());
+                resumen.put("pausadoMs", e.getReintentarEnMs());
+            } else {
+                log.error("❌ Error en la migración de layout: {}", e.getMessage(), e);
+            }
+        } catch (Exception e) {
+            log.error("❌ Error en la migración de layout: {}", e.getMessage(), e);
+        } finally {
+            enCurso.set(false);
+        }
+
+        resumen.put("revisados", revisados);
+        resumen.put("migradas", migradas);
+        resumen.put("paginas", paginas);
+        return resumen;
+    }
+
+    /**
+     * Migra las recetas que usan los archivos de una página
+     *
+     * @return Cantidad de recetas actualizadas
+     */
+    @SuppressWarnings("unchecked")
+    private int migrar(DocumentReference estadoRef, List<BlobInfo> archivos) throws Exception {
+        Set<String> originales = new HashSet<>();
+        for (BlobInfo archivo : archivos) {
+            if (imagenRecetaService.esRutaPlana(archivo.getPath())) {
+                originales.add(ImagenRecetaService.rutaOriginal(archivo.getPath()));
+            }
+        }
+        if (originales.isEmpty()) {
+            return 0;
+        }
+
+        // Recetas por path original
+        Map<String, List<QueryDocumentSnapshot>> recetasPorPath = new LinkedHashMap<>();
+        List<String> lista = new ArrayList<>(originales);
+        for (int i = 0; i < lista.size(); i += MAX_WHERE_IN) {
+            List<String> lote = lista.subList(i, Math.min(i + MAX_WHERE_IN, lista.size()));
+            for (QueryDocumentSnapshot doc : firestore.collection("recetas")
+                    .whereIn("imagenPath", new ArrayList<>(lote))
+                    .get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                    .getDocuments()) {
+                recetasPorPath.computeIfAbsent(doc.getString("imagenPath"), p -> new ArrayList<>()).add(doc);
+            }
+        }
+        // Un archivo con más recetas que un lote no se puede actualizar de una vez: queda donde está
+        recetasPorPath.entrySet().removeIf(entrada -> {
+            if (entrada.getValue().size() > MAX_BATCH) {
+                log.warn("⚠️ Migración de layout: {} tiene {} recetas, no se migra",
+                        entrada.getKey(), entrada.getValue().size());
+                return true;
+            }
+            return false;
+        });
+        if (recetasPorPath.isEmpty()) {
+            return 0;
+        }
+
+        // Destinos: la carpeta de fecha sale de la receta, las variantes van al lado del original
+        Map<String, Map<String, String>> movimientosPorPath = new HashMap<>();
+        Map<String, Map<String, Map<String, String>>> variantsPorPath = new HashMap<>();
+        recetasPorPath.forEach((viejo, recetas) -> {
+            QueryDocumentSnapshot receta = recetas.get(0);
+            Timestamp fechaCreacion = receta.getTimestamp("fechaCreacion");
+            Instant fecha = fechaCreacion != null ? fechaCreacion.toDate().toInstant() : Instant.now();
+            String fileName = viejo.substring(viejo.lastIndexOf('/') + 1);
+            String nuevo = blobStore.construirRuta(imagenRecetaService.carpetaParticionada(fecha, fileName), fileName);
+            Map<String, String> propios = new LinkedHashMap<>();
+            propios.put(viejo, nuevo);
+
+            Map<String, Map<String, String>> variants = new HashMap<>();
+            Object guardadas = receta.get("imagenVariants");
+            if (guardadas instanceof Map) {
+                ((Map<String, Object>) guardadas).forEach((nombre, datos) -> {
+                    Object path = datos instanceof Map ? ((Map<String, Object>) datos).get("path") : null;
+                    if (path != null) {
+                        String destino = imagenRecetaService.construirRutaVariante(nuevo, nombre);
+                        propios.put(path.toString(), destino);
+                        Map<String, String> variante = new HashMap<>();
+                        variante.put("path", destino);
+                        variants.put(nombre, variante);
+                    }
+                });
+            }
+            movimientosPorPath.put(viejo, propios);
+            variantsPorPath.put(viejo, variants);
+        });
+
+        Map<String, String> movimientos = new LinkedHashMap<>();
+        movimientosPorPath.values().forEach(movimientos::putAll);
+
+        // Las variantes el GC las resuelve a su original: alcanza con anotar los originales
+        List<String> destinos = new ArrayList<>();
+        recetasPorPath.keySet().forEach(viejo -> destinos.add(movimientos.get(viejo)));
+        String marca = anotarEnCurso(estadoRef, destinos);
+        try {
+            return mover(recetasPorPath, movimientosPorPath, variantsPorPath, movimientos);
+        } finally {
+            quitarEnCurso(estadoRef, marca);
+        }
+    }
+
+    /**
+     * Mueve los archivos y actualiza las recetas (deshace los movimientos si falla)
+     */
+    private int mover(Map<String, List<QueryDocumentSnapshot>> recetasPorPath,
+                      Map<String, Map<String, String>> movimientosPorPath,
+                      Map<String, Map<String, Map<String, String>>> variantsPorPath,
+                      Map<String, String> movimientos) throws Exception {
+
+        List<String> fallidos = blobStore.moverVarios(movimientos);
+        if (!fallidos.isEmpty()) {
+            // Una receta se actualiza solo si se movieron todos sus archivos
+            Set<String> fallidosSet = new HashSet<>(fallidos);
+            Map<String, String> deshacer = new LinkedHashMap<>();
+            movimientosPorPath.forEach((viejo, propios) -> {
+                if (propios.keySet().stream().anyMatch(fallidosSet::contains)) {
+                    propios.forEach((origen, destino) -> {
+                        if (!fallidosSet.contains(origen)) {
+                            deshacer.put(destino, origen);
+                        }
+                    });
+                    propios.keySet().forEach(movimientos::remove);
+                    recetasPorPath.remove(viejo);
+                }
+            });
+            blobStore.moverVarios(deshacer);
+            log.warn("⚠️ Migración de layout: {} archivos no se pudieron mover", fallidos.size());
+        }
+        if (recetasPorPath.isEmpty()) {
+            return 0;
+        }
+
+        // Paths viejos cuyas recetas ya quedaron actualizadas (lotes confirmados)
+        Set<String> confirmados = new HashSet<>();
+        int actualizadas = 0;
+        try {
+            Map<String, String> urls = BlobStore.esperarUrls(blobStore.obtenerUrlsAsync(movimientos.values()));
+
+            WriteBatch batch = firestore.batch();
+            List<String> enLote = new ArrayList<>();
+            int escrituras = 0;
+            for (Map.Entry<String, List<QueryDocumentSnapshot>> entrada : recetasPorPath.entrySet()) {
+                if (escrituras + entrada.getValue().size() > MAX_BATCH) {
+                    batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                    confirmados.addAll(enLote);
+                    actualizadas += escrituras;
+                    batch = firestore.batch();
+                    enLote.clear();
+                    escrituras = 0;
+                }
+
+                String nuevo = movimientos.get(entrada.getKey());
+                Map<String, Map<String, String>> variants = variantsPorPath.get(entrada.getKey());
+                variants.values().forEach(v -> v.put("url", urls.get(v.get("path"))));
+
+                Map<String, Object> campos = new HashMap<>();
+                campos.put("imagenPath", nuevo);
+                campos.put("imagenUrl", urls.get(nuevo));
+                campos.put("imagenVariants", variants);
+                for (QueryDocumentSnapshot receta : entrada.getValue()) {
+                    batch.update(receta.getReference(), campos);
+                    escrituras++;
+                }
+                enLote.add(entrada.getKey());
+            }
+            if (escrituras > 0) {
+                batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                confirmados.addAll(enLote);
+                actualizadas += escrituras;
+            }
+
+        } catch (Exception e) {
+            // Sin actualizar las recetas los archivos tienen que volver a su lugar
+            Map<String, String> deshacer = new LinkedHashMap<>();
+            recetasPorPath.keySet().forEach(viejo -> {
+                if (!confirmados.contains(viejo)) {
+                    movimientosPorPath.get(viejo).forEach((origen, destino) -> deshacer.put(destino, origen));
+                }
+            });
+            List<String> sinDeshacer = blobStore.moverVarios(deshacer);
+            if (!sinDeshacer.isEmpty()) {
+                log.error("💥 CRÍTICO: No se pudieron devolver a su lugar {}", sinDeshacer);
+            }
+            olvidar(confirmados, recetasPorPath, movimientosPorPath);
+            throw e;
+        }
+
+        olvidar(confirmados, recetasPorPath, movimientosPorPath);
+        log.info("📦 Migración de layout: {} recetas movidas al layout particionado", actualizadas);
+        return actualizadas;
+    }
+
+    /**
+     * Invalida los caches de las recetas y archivos ya migrados
+     */
+    private void olvidar(Set<String> confirmados,
+                         Map<String, List<QueryDocumentSnapshot>> recetasPorPath,
+                         Map<String, Map<String, String>> movimientosPorPath) {
+        for (String viejo : confirmados) {
+            recetasPorPath.get(viejo).forEach(receta -> recetaService.olvidarPathsImagen(receta.getId()));
+            movimientosPorPath.get(viejo).keySet().forEach(imagenCacheService::invalidar);
+        }
+    }
+
+    /**
+     * Destinos de movimientos en curso (de cualquier instancia) que todavía no vencieron
+     */
+    public Set<String> destinosEnCurso() throws Exception {
+        DocumentSnapshot estado = firestore.collection(COLECCION).document(DOCUMENTO).get()
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        Set<String> destinos = new HashSet<>();
+        Object enCursoDoc = estado.exists() ? estado.get("enCurso") : null;
+        if (!(enCursoDoc instanceof Map)) {
+            return destinos;
+        }
+
+        Timestamp ahora = Timestamp.now();
+        for (Object marca : ((Map<?, ?>) enCursoDoc).values()) {
+            if (!(marca instanceof Map)) {
+                continue;
+            }
+            Object hasta = ((Map<?, ?>) marca).get("hasta");
+            Object paths = ((Map<?, ?>) marca).get("destinos");
+            if (hasta instanceof Timestamp && ((Timestamp) hasta).compareTo(ahora) > 0 && paths instanceof List) {
+                ((List<?>) paths).forEach(path -> destinos.add(path.toString()));
+            }
+        }
+        return destinos;
+    }
+
+    /**
+     * Anota los destinos de una página antes de mover
+     *
+     * @return Id de la marca (para quitarla)
+     */
+    private String anotarEnCurso(DocumentReference estadoRef, List<String> destinos) throws Exception {
+        String marca = UUID.randomUUID().toString();
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("destinos", destinos);
+        datos.put("hasta", Timestamp.ofTimeSecondsAndNanos(
+                Instant.now().plus(Duration.ofMinutes(leaseMinutes)).getEpochSecond(), 0));
+        estadoRef.set(Map.of("enCurso", Map.of(marca, datos)), SetOptions.merge())
+                .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        return marca;
+    }
+
+    private void quitarEnCurso(DocumentReference estadoRef, String marca) {
+        try {
+            estadoRef.update(FieldPath.of("enCurso", marca), FieldValue.delete())
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Vence sola: solo demora el GC de esos archivos
+            log.warn("⚠️ Migración de layout: no se pudo quitar la marca {}: {}", marca, e.getMessage());
+        }
+    }
+
+    private void guardarEstado(DocumentReference estadoRef, String cursor, int migradas) throws Exception {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("cursor", cursor);
+        datos.put("actualizado", FieldValue.serverTimestamp());
+        if (migradas > 0) {
+            datos.put("migradasTotal", FieldValue.increment(migradas));
+        }
+        estadoRef.set(datos, SetOptions.merge()).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+    }
+}
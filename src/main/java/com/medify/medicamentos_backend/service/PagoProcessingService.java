@@ -9,7 +9,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Servicio encargado de procesar pagos y webhooks de MercadoPago
@@ -24,15 +27,28 @@ public class PagoProcessingService {
     private final FirebaseService firebaseService;
     private final WebhookLockService webhookLockService;
     private final RateLimitService rateLimitService;
+    private final PedidoEstadoService pedidoEstadoService;
+
+    // Avisados con el pedidoId cuando un pago cambia el estado de un pedido
+    private final List<Consumer<String>> observadoresEstado = new CopyOnWriteArrayList<>();
 
     public PagoProcessingService(MercadoPagoService mercadoPagoService,
                                  FirebaseService firebaseService,
                                  WebhookLockService webhookLockService,
-                                 RateLimitService rateLimitService) {
+                                 RateLimitService rateLimitService,
+                                 PedidoEstadoService pedidoEstadoService) {
         this.mercadoPagoService = mercadoPagoService;
         this.firebaseService = firebaseService;
         this.webhookLockService = webhookLockService;
         this.rateLimitService = rateLimitService;
+        this.pedidoEstadoService = pedidoEstadoService;
+    }
+
+    /**
+     * Registra un observador de cambios de estado de pedidos procesados en esta instancia
+     */
+    public void alCambiarEstado(Consumer<String> observador) {
+        observadoresEstado.add(observador);
     }
 
     /**
@@ -104,6 +120,8 @@ public class PagoProcessingService {
 
                 if (updated) {
                     log.info("✓ Pedido {} marcado como pagado exitosamente", pedidoId);
+                    pedidoEstadoService.notificar(pedidoId, estadoPedido);
+                    notificarCambioEstado(pedidoId);
                 } else {
                     log.info("Pedido {} ya estaba pagado, operación idempotente", pedidoId);
                 }
@@ -115,6 +133,8 @@ public class PagoProcessingService {
                 updates.put("paymentStatus", status);
 
                 firebaseService.actualizarPedido(pedidoId, updates);
+                pedidoEstadoService.notificar(pedidoId, estadoPedido);
+                notificarCambioEstado(pedidoId);
 
                 log.info("Pedido {} actualizado a estado: {} (status MP: {})",
                         pedidoId, estadoPedido, status);
@@ -129,6 +149,16 @@ public class PagoProcessingService {
         }
     }
 
+    private void notificarCambioEstado(String pedidoId) {
+        for (Consumer<String> observador : observadoresEstado) {
+            try {
+                observador.accept(pedidoId);
+            } catch (RuntimeException e) {
+                log.warn("Observador de estado falló para pedido {}: {}", pedidoId, e.getMessage());
+            }
+        }
+    }
+
     /**
      * Mapea el status de MercadoPago a un estado interno del pedido
      */
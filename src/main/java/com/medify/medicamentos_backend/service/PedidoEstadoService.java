@@ -0,0 +1,343 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estado de pedidos en tiempo real (long-polling y Server-Sent Events)
+ *
+ * Los clientes esperan en un registro en memoria, sin ocupar un hilo (DeferredResult /
+ * SseEmitter). Los cambios llegan por dos caminos:
+ * - {@link PagoProcessingService} avisa apenas confirma el cambio en Firestore
+ *   (los clientes de esta instancia se enteran en milisegundos)
+ * - Un listener de Firestore por pedido observado, compartido por todos sus clientes,
+ *   trae los cambios hechos en otras instancias (y el estado inicial)
+ *
+ * El listener se quita cuando se va el último cliente del pedido.
+ */
+@Service
+public class PedidoEstadoService {
+
+    private static final Logger log = LoggerFactory.getLogger(PedidoEstadoService.class);
+    private static final Set<String> ESTADOS_FINALES = Set.of("pagado", "rechazado", "cancelado", "abandonada");
+
+    @Value("${pedidos.estado.longpoll.timeout.ms:25000}")
+    private long longPollTimeoutMs;
+
+    @Value("${pedidos.estado.sse.timeout.ms:300000}")
+    private long sseTimeoutMs;
+
+    @Value("${pedidos.estado.heartbeat.seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${pedidos.estado.max.clientes:10000}")
+    private int maxClientes;
+
+    private final Firestore firestore;
+    private final ConcurrentHashMap<String, Observado> observados = new ConcurrentHashMap<>();
+    private final AtomicInteger clientes = new AtomicInteger();
+    private ScheduledExecutorService heartbeat;
+
+    public PedidoEstadoService(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @PostConstruct
+    public void init() {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pedido-estado-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::enviarHeartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        log.info("✅ PedidoEstadoService inicializado - Long-poll: {} ms, SSE: {} ms", longPollTimeoutMs, sseTimeoutMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        observados.values().forEach(Observado::cerrar);
+    }
+
+    /**
+     * Long-polling: responde apenas el estado sea distinto de "estadoConocido"
+     * (de inmediato si no se indica) o, pasado el timeout, con el estado actual
+     */
+    public DeferredResult<ResponseEntity<Map<String, Object>>> esperar(String pedidoId, String estadoConocido, String uid) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> resultado = new DeferredResult<>(longPollTimeoutMs);
+        if (!admitir()) {
+            resultado.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Demasiados clientes esperando. Intente nuevamente.")));
+            return resultado;
+        }
+
+        Cliente cliente = new Cliente(pedidoId, uid) {
+            @Override
+            boolean entregar(Observado observado) {
+                if (!observado.existe) {
+                    return resultado.setResult(ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .body(Map.of("error", "Pedido no encontrado")));
+                }
+                if (observado.denegado(uid)) {
+                    return resultado.setResult(ResponseEntity.status(HttpStatus.FORBIDDEN)
+                            .body(Map.of("error", "El pedido no pertenece al usuario")));
+                }
+                if (observado.estado == null || observado.estado.equals(estadoConocido)) {
+                    return false;
+                }
+                return resultado.setResult(ResponseEntity.ok(respuesta(pedidoId, observado.estado, true)));
+            }
+        };
+
+        resultado.onTimeout(() -> {
+            Observado observado = observados.get(pedidoId);
+            String estado = observado != null ? observado.estado : estadoConocido;
+            resultado.setResult(ResponseEntity.ok(respuesta(pedidoId, estado, false)));
+        });
+        resultado.onCompletion(() -> quitar(cliente));
+
+        agregar(cliente);
+        return resultado;
+    }
+
+    /**
+     * Server-Sent Events: un evento "estado" por cada cambio; termina en un estado final
+     */
+    public SseEmitter suscribir(String pedidoId, String uid) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        if (!admitir()) {
+            emitter.completeWithError(new IllegalStateException("Demasiados clientes esperando"));
+            return emitter;
+        }
+
+        Cliente cliente = new Cliente(pedidoId, uid) {
+            private String ultimoEnviado;
+
+            @Override
+            synchronized boolean entregar(Observado observado) {
+                try {
+                    if (observado.denegado(uid) || !observado.existe) {
+                        emitter.send(SseEmitter.event().name("error")
+                                .data(Map.of("error", observado.existe ? "El pedido no pertenece al usuario" : "Pedido no encontrado"),
+                                        MediaType.APPLICATION_JSON));
+                        emitter.complete();
+                        return true;
+                    }
+                    String estado = observado.estado;
+                    if (estado == null || estado.equals(ultimoEnviado)) {
+                        return false;
+                    }
+                    emitter.send(SseEmitter.event().name("estado")
+                            .data(respuesta(pedidoId, estado, true), MediaType.APPLICATION_JSON));
+                    ultimoEnviado = estado;
+                    if (ESTADOS_FINALES.contains(estado)) {
+                        emitter.complete();
+                        return true;
+                    }
+                    return false;
+                } catch (IOException | IllegalStateException e) {
+                    // El cliente se desconectó
+                    emitter.completeWithError(e);
+                    return true;
+                }
+            }
+
+            @Override
+            synchronized void latido() {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    emitter.completeWithError(e);
+                }
+            }
+        };
+
+        emitter.onCompletion(() -> quitar(cliente));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> quitar(cliente));
+
+        agregar(cliente);
+        return emitter;
+    }
+
+    /**
+     * Aviso de un cambio de estado ya confirmado en Firestore (desde esta instancia)
+     */
+    public void notificar(String pedidoId, String estado) {
+        Observado observado = observados.get(pedidoId);
+        if (observado != null) {
+            observado.actualizar(estado);
+        }
+    }
+
+    /**
+     * Estadísticas del registro
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pedidosObservados", observados.size());
+        stats.put("clientes", clientes.get());
+        return stats;
+    }
+
+    private boolean admitir() {
+        if (clientes.incrementAndGet() > maxClientes) {
+            clientes.decrementAndGet();
+            log.warn("⚠️ Límite de clientes esperando estado de pedidos alcanzado ({})", maxClientes);
+            return false;
+        }
+        return true;
+    }
+
+    private void agregar(Cliente cliente) {
+        Observado observado = observados.compute(cliente.pedidoId, (id, actual) -> {
+            Observado o = actual != null ? actual : new Observado(id);
+            o.clientes.add(cliente);
+            return o;
+        });
+        // Si el estado ya se conoce se entrega de inmediato
+        observado.entregar(cliente);
+    }
+
+    private void quitar(Cliente cliente) {
+        if (!cliente.quitado.compareAndSet(false, true)) {
+            return;
+        }
+        clientes.decrementAndGet();
+        observados.computeIfPresent(cliente.pedidoId, (id, observado) -> {
+            observado.clientes.remove(cliente);
+            if (observado.clientes.isEmpty()) {
+                observado.cerrar();
+                return null;
+            }
+            return observado;
+        });
+    }
+
+    private void enviarHeartbeat() {
+        try {
+            observados.values().forEach(observado -> observado.clientes.forEach(Cliente::latido));
+        } catch (Exception e) {
+            log.warn("⚠️ Error enviando heartbeat de estado de pedidos: {}", e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> respuesta(String pedidoId, String estado, boolean cambio) {
+        Map<String, Object> respuesta = new HashMap<>();
+        respuesta.put("pedidoId", pedidoId);
+        respuesta.put("estado", estado);
+        respuesta.put("cambio", cambio);
+        return respuesta;
+    }
+
+    /**
+     * Cliente esperando cambios de un pedido
+     */
+    private abstract static class Cliente {
+        final String pedidoId;
+        final String uid;
+        final AtomicBoolean quitado = new AtomicBoolean();
+
+        Cliente(String pedidoId, String uid) {
+            this.pedidoId = pedidoId;
+            this.uid = uid;
+        }
+
+        /**
+         * @return true si el cliente ya terminó
+         */
+        abstract boolean entregar(Observado observado);
+
+        void latido() {
+        }
+    }
+
+    /**
+     * Pedido observado: último estado conocido, sus clientes y el listener compartido
+     */
+    private final class Observado {
+        private final String pedidoId;
+        private final Set<Cliente> clientes = ConcurrentHashMap.newKeySet();
+        private final ListenerRegistration registro;
+        private volatile String estado;
+        private volatile String userId;
+        private volatile boolean existe = true;
+        // Hasta el primer snapshot no se sabe de quién es el pedido: no se entrega nada
+        private volatile boolean cargado;
+
+        Observado(String pedidoId) {
+            this.pedidoId = pedidoId;
+            this.registro = firestore.collection("pedidos").document(pedidoId)
+                    .addSnapshotListener(this::alCambiar);
+        }
+
+        private void alCambiar(DocumentSnapshot snapshot, Exception error) {
+            if (error != null) {
+                log.warn("⚠️ Listener de estado del pedido {} falló: {}", pedidoId, error.getMessage());
+                return;
+            }
+            if (snapshot == null || !snapshot.exists()) {
+                existe = false;
+                cargado = true;
+                entregarATodos();
+                return;
+            }
+            userId = snapshot.getString("userId");
+            cargado = true;
+            actualizar(snapshot.getString("estado"));
+        }
+
+        void actualizar(String nuevo) {
+            if (nuevo == null) {
+                return;
+            }
+            existe = true;
+            estado = nuevo;
+            entregarATodos();
+        }
+
+        // Sin usuario autenticado, o sin dueño conocido, no se entrega el estado
+        boolean denegado(String uid) {
+            return uid == null || !uid.equals(userId);
+        }
+
+        void entregar(Cliente cliente) {
+            if (cargado && (estado != null || !existe) && cliente.entregar(this)) {
+                quitar(cliente);
+            }
+        }
+
+        private void entregarATodos() {
+            for (Cliente cliente : clientes) {
+                entregar(cliente);
+            }
+        }
+
+        void cerrar() {
+            registro.remove();
+        }
+    }
+}
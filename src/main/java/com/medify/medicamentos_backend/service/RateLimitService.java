@@ -1,43 +1,125 @@
 package com.medify.medicamentos_backend.service;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Servicio de rate limiting usando Guava Cache (in-memory)
- * Para producción multi-instancia, considerar Redis
+ * Servicio de rate limiting en memoria con token bucket (algoritmo GCRA).
+ *
+ * El estado de cada cliente es un único long (el "tiempo teórico de llegada" en
+ * nanosegundos) en un AtomicLong actualizado con CAS: sin locks y sin crear objetos
+ * por petición. Equivale a un bucket de capacidad "burst" que se rellena a
+ * "per.minute" tokens por minuto.
+ *
+ * Cada namespace (api, payment, image, webhook) tiene su propio límite y su propio
+ * mapa de buckets, así la clave es el identificador sin concatenar strings:
+ * - rate.limit.{namespace}.per.minute (por defecto rate.limit.requests.per.minute)
+ * - rate.limit.{namespace}.burst (por defecto igual a per.minute)
+ *
+ * MODO DISTRIBUIDO (rate.limit.distribuido.enabled=true): además del bucket local,
+ * cada namespace tiene un límite por minuto para todo el cluster. Cada instancia
+ * cuenta localmente por ventana de un minuto y cada rate.limit.sync.intervalMs
+ * publica sus conteos en un {@link RateLimitStore}, recibiendo los del resto.
+ * La decisión usa el último conteo conocido del resto más el uso local, sin
+ * llamadas remotas por petición. El error está acotado a lo que las demás
+ * instancias aceptaron desde la última sincronización. Si los conteos locales
+ * no cambiaron desde la última publicación solo se leen los del resto.
  */
 @Service
 public class RateLimitService {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitService.class);
+    private static final List<String> NAMESPACES = List.of("global", "api", "payment", "image", "webhook");
 
-    private final Cache<String, AtomicInteger> requestCounts;
-    private final int maxRequestsPerMinute;
-    private final int webhookMaxRequestsPerMinute;
+    // Solo se escribe al iniciar (constructor y políticas de ruta)
+    private final Map<String, Limite> limites = new ConcurrentHashMap<>();
+
+    // Origen del reloj: los tiempos son siempre >= 0, así un AtomicLong nuevo (0) es un bucket lleno
+    private final long origenNanos = System.nanoTime();
+
+    private final RateLimitStore store;
+    private final boolean distribuido;
+    private final long syncIntervalMs;
+    private final String instancia;
+
+    // Conteos del resto de las instancias según la última sincronización
+    private volatile ConteosRemotos remotos = new ConteosRemotos(-1, Map.of());
+    // Último publicado con éxito (solo lo usa el hilo de sincronización)
+    private long ventanaPublicada = -1;
+    private Map<String, Map<String, Long>> publicados = Map.of();
+    private ScheduledExecutorService sincronizador;
 
     public RateLimitService(
-            @Value("${rate-limit.requests-per-minute:10}") int maxRequestsPerMinute,
-            @Value("${rate-limit.webhook.requests-per-minute:5}") int webhookMaxRequestsPerMinute) {
+            Environment env,
+            RateLimitStore store,
+            @Value("${rate.limit.requests.per.minute:10}") int maxRequestsPerMinute,
+            @Value("${rate.limit.webhook.per.minute:5}") int webhookMaxRequestsPerMinute,
+            @Value("${rate.limit.distribuido.enabled:false}") boolean distribuido,
+            @Value("${rate.limit.sync.intervalMs:1000}") long syncIntervalMs,
+            @Value("${rate.limit.instance.id:}") String instanceId) {
 
-        this.maxRequestsPerMinute = maxRequestsPerMinute;
-        this.webhookMaxRequestsPerMinute = webhookMaxRequestsPerMinute;
+        this.store = store;
+        this.distribuido = distribuido;
+        this.syncIntervalMs = syncIntervalMs;
+        this.instancia = instanceId == null || instanceId.isBlank() ? UUID.randomUUID().toString() : instanceId;
+
+        for (String namespace : NAMESPACES) {
+            int porDefecto = "webhook".equals(namespace) ? webhookMaxRequestsPerMinute : maxRequestsPerMinute;
+            int porMinuto = env.getProperty("rate.limit." + namespace + ".per.minute", Integer.class, porDefecto);
+            int rafaga = env.getProperty("rate.limit." + namespace + ".burst", Integer.class, porMinuto);
+            limites.put(namespace, new Limite(namespace, porMinuto, rafaga));
+        }
+
+        log.info("RateLimitService inicializado - Límites (req/min, burst): {}, distribuido: {}",
+                limites, distribuido);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!distribuido) {
+            return;
+        }
+        // Hilo propio: la sincronización no compite con los schedulers de la aplicación
+        sincronizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limit-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        sincronizador.scheduleWithFixedDelay(this::sincronizar, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Rate limit distribuido activo - Instancia: {}, sincronización cada {} ms", instancia, syncIntervalMs);
+    }
 
-        // Cache para contadores por minuto
-        this.requestCounts = CacheBuilder.newBuilder()
-                .expireAfterWrite(1, TimeUnit.MINUTES)
-                .maximumSize(10000)
-                .build();
+    @PreDestroy
+    public void shutdown() {
+        if (sincronizador != null) {
+            sincronizador.shutdownNow();
+        }
+    }
 
-        log.info("RateLimitService inicializado - Max requests/min: {}, Webhook max: {}",
-                maxRequestsPerMinute, webhookMaxRequestsPerMinute);
+    /**
+     * Registra (o reemplaza) el límite de un namespace. Solo al iniciar: los buckets
+     * del namespace anterior se descartan.
+     */
+    public void registrarLimite(String namespace, int porMinuto, int rafaga) {
+        Limite limite = new Limite(namespace, porMinuto, rafaga);
+        limites.put(namespace, limite);
+        log.info("RateLimitService: límite {} = {} (req/min, burst)", namespace, limite);
     }
 
     /**
@@ -52,29 +134,25 @@ public class RateLimitService {
     /**
      * Verifica rate limit con namespace específico
      * @param identifier Identificador
-     * @param namespace Namespace (ej: "webhook", "api", "payment")
+     * @param namespace Namespace (ej: "webhook", "api", "payment"); uno desconocido usa el de "api"
      * @return true si está permitido
      */
     public boolean allowRequest(String identifier, String namespace) {
-        String key = namespace + ":" + identifier;
-
-        AtomicInteger counter = requestCounts.getIfPresent(key);
-        if (counter == null) {
-            counter = new AtomicInteger(0);
-            requestCounts.put(key, counter);
+        Limite limite = limites.get(namespace);
+        if (limite == null) {
+            limite = limites.get("api");
         }
+        long restantes = permitir(limite, identifier);
 
-        int count = counter.incrementAndGet();
-
-        if (count > maxRequestsPerMinute) {
-            log.warn("Rate limit excedido para {} en namespace {}: {} requests/min",
-                    identifier, namespace, count);
+        if (restantes < 0) {
+            log.warn("Rate limit excedido para {} en namespace {}: máximo {} requests/min",
+                    identifier, namespace, limite.porMinuto);
             return false;
         }
 
-        if (count == maxRequestsPerMinute - 2) {
-            log.info("Acercándose al rate limit para {}: {}/{} requests",
-                    identifier, count, maxRequestsPerMinute);
+        if (restantes == 2) {
+            log.info("Acercándose al rate limit para {} en namespace {}: quedan {} requests",
+                    identifier, namespace, restantes);
         }
 
         return true;
@@ -84,22 +162,222 @@ public class RateLimitService {
      * Verifica rate limit específico para webhooks (límite más estricto)
      */
     public boolean allowWebhook(String paymentId) {
-        String key = "webhook:" + paymentId;
+        Limite limite = limites.get("webhook");
+
+        if (permitir(limite, paymentId) < 0) {
+            log.error("Rate limit de webhook excedido para payment {} (max: {} webhooks/min)",
+                    paymentId, limite.porMinuto);
+            return false;
+        }
 
-        AtomicInteger counter = requestCounts.getIfPresent(key);
-        if (counter == null) {
-            counter = new AtomicInteger(0);
-            requestCounts.put(key, counter);
+        return true;
+    }
+
+    /**
+     * Bucket local y, en modo distribuido, el límite por minuto del cluster
+     *
+     * @return Tokens locales que quedan, o -1 si se rechaza
+     */
+    private long permitir(Limite limite, String identificador) {
+        long restantes = limite.consumir(identificador, ahora());
+        if (restantes < 0 || !distribuido) {
+            return restantes;
         }
 
-        int count = counter.incrementAndGet();
+        long ventana = ventanaActual();
+        ConteosRemotos conocidos = remotos;
+        long resto = conocidos.ventana == ventana ? conocidos.conteo(limite.nombre, identificador) : 0;
+        if (limite.sumarEnVentana(identificador, ventana, resto)) {
+            return restantes;
+        }
 
-        if (count > webhookMaxRequestsPerMinute) {
-            log.error("Rate limit de webhook excedido para payment {}: {} webhooks/min (max: {})",
-                    paymentId, count, webhookMaxRequestsPerMinute);
-            return false;
+        // Rechazada por el cluster: el token local se devuelve para no castigar dos veces
+        limite.devolver(identificador);
+        return -1;
+    }
+
+    /**
+     * Publica los conteos locales de la ventana actual y guarda los del resto
+     */
+    private void sincronizar() {
+        long ventana = ventanaActual();
+        Map<String, Map<String, Long>> locales = new HashMap<>();
+        for (Limite limite : limites.values()) {
+            Map<String, Long> conteos = limite.conteosEn(ventana);
+            if (!conteos.isEmpty()) {
+                locales.put(limite.nombre, conteos);
+            }
         }
 
-        return true;
+        // Sin cambios desde la última publicación no se vuelve a escribir (solo se lee el resto)
+        boolean sinCambios = ventana == ventanaPublicada && locales.equals(publicados);
+        try {
+            remotos = new ConteosRemotos(ventana, store.publicar(instancia, ventana, sinCambios ? null : locales));
+            ventanaPublicada = ventana;
+            publicados = locales;
+        } catch (Exception e) {
+            // Se sigue con el último conteo conocido (solo vale dentro de su ventana)
+            log.warn("⚠️ No se pudo sincronizar el rate limit distribuido: {}", e.getMessage());
+        }
+    }
+
+    private long ventanaActual() {
+        return System.currentTimeMillis() / TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * Descarta los buckets que ya se rellenaron por completo (equivalen a uno nuevo)
+     */
+    @Scheduled(fixedDelayString = "${rate.limit.cleanup.fixedDelayMs:60000}")
+    public void limpiarBuckets() {
+        long ahora = ahora();
+        int eliminados = 0;
+        for (Limite limite : limites.values()) {
+            eliminados += limite.limpiar(ahora);
+        }
+        if (eliminados > 0) {
+            log.debug("RateLimitService: {} buckets inactivos eliminados", eliminados);
+        }
+    }
+
+    private long ahora() {
+        return System.nanoTime() - origenNanos;
+    }
+
+    /**
+     * Límite de un namespace y sus buckets por identificador
+     */
+    static final class Limite {
+        // Conteo por ventana empaquetado en un long: la ventana en los 24 bits altos (ventana << 40,
+        // se conservan sus bits bajos) y el conteo en los 40 bits bajos
+        private static final int BITS_CONTEO = 40;
+        private static final long MASCARA_CONTEO = (1L << BITS_CONTEO) - 1;
+
+        private final String nombre;
+        private final int porMinuto;
+        private final int rafaga;
+        // Tiempo entre tokens y cuánto puede adelantarse el TAT (capacidad del bucket)
+        private final long intervaloNanos;
+        private final long toleranciaNanos;
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        // Solo en modo distribuido: requests aceptadas por esta instancia en la ventana actual
+        private final ConcurrentHashMap<String, AtomicLong> ventanas = new ConcurrentHashMap<>();
+
+        Limite(String nombre, int porMinuto, int rafaga) {
+            this.nombre = nombre;
+            this.porMinuto = Math.max(1, porMinuto);
+            this.rafaga = Math.max(1, rafaga);
+            this.intervaloNanos = TimeUnit.MINUTES.toNanos(1) / this.porMinuto;
+            this.toleranciaNanos = this.intervaloNanos * this.rafaga;
+        }
+
+        /**
+         * Consume un token
+         *
+         * @return Tokens que quedan, o -1 si no había (sin modificar el estado)
+         */
+        long consumir(String identificador, long ahora) {
+            AtomicLong estado = buckets.get(identificador);
+            if (estado == null) {
+                estado = buckets.computeIfAbsent(identificador, k -> new AtomicLong());
+            }
+
+            while (true) {
+                long tat = estado.get();
+                long nuevo = Math.max(tat, ahora) + intervaloNanos;
+                long ocupado = nuevo - ahora;
+                if (ocupado > toleranciaNanos) {
+                    return -1;
+                }
+                if (estado.compareAndSet(tat, nuevo)) {
+                    return (toleranciaNanos - ocupado) / intervaloNanos;
+                }
+            }
+        }
+
+        /**
+         * Devuelve un token consumido con {@link #consumir} (vuelve el TAT un intervalo atrás)
+         */
+        void devolver(String identificador) {
+            AtomicLong estado = buckets.get(identificador);
+            if (estado != null) {
+                estado.addAndGet(-intervaloNanos);
+            }
+        }
+
+        /**
+         * Suma una request a la ventana si el total del cluster no supera el límite
+         *
+         * @param resto Requests del resto de las instancias en la ventana
+         */
+        boolean sumarEnVentana(String identificador, long ventana, long resto) {
+            AtomicLong estado = ventanas.get(identificador);
+            if (estado == null) {
+                estado = ventanas.computeIfAbsent(identificador, k -> new AtomicLong());
+            }
+
+            long marca = ventana << BITS_CONTEO;
+            while (true) {
+                long actual = estado.get();
+                long conteo = (actual & ~MASCARA_CONTEO) == marca ? actual & MASCARA_CONTEO : 0;
+                if (resto + conteo + 1 > porMinuto) {
+                    return false;
+                }
+                if (estado.compareAndSet(actual, marca | (conteo + 1))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Conteos locales de la ventana (descarta los de ventanas anteriores)
+         */
+        Map<String, Long> conteosEn(long ventana) {
+            long marca = ventana << BITS_CONTEO;
+            Map<String, Long> conteos = new HashMap<>();
+            ventanas.forEach((identificador, estado) -> {
+                long actual = estado.get();
+                if ((actual & ~MASCARA_CONTEO) == marca) {
+                    conteos.put(identificador, actual & MASCARA_CONTEO);
+                } else {
+                    ventanas.remove(identificador, estado);
+                }
+            });
+            return conteos;
+        }
+
+        /**
+         * Un bucket cuyo TAT ya pasó está lleno. Si se borra justo mientras otro hilo
+         * lo usa, se pierde como mucho ese token.
+         */
+        int limpiar(long ahora) {
+            int antes = buckets.size();
+            buckets.values().removeIf(estado -> estado.get() <= ahora);
+            return antes - buckets.size();
+        }
+
+        @Override
+        public String toString() {
+            return porMinuto + "/" + rafaga;
+        }
+    }
+
+    /**
+     * Conteos del resto de las instancias para una ventana
+     */
+    private static final class ConteosRemotos {
+        private final long ventana;
+        private final Map<String, Map<String, Long>> conteos;
+
+        ConteosRemotos(long ventana, Map<String, Map<String, Long>> conteos) {
+            this.ventana = ventana;
+            this.conteos = conteos;
+        }
+
+        long conteo(String namespace, String identificador) {
+            Map<String, Long> porId = conteos.get(namespace);
+            Long conteo = porId != null ? porId.get(identificador) : null;
+            return conteo != null ? conteo : 0;
+        }
     }
-}
\ No newline at end of file
+}
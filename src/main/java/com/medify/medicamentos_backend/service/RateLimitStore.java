@@ -0,0 +1,30 @@
+package com.medify.medicamentos_backend.service;
+
+import java.util.Map;
+
+/**
+ * Store compartido del rate limiting distribuido.
+ *
+ * Cada instancia publica periódicamente sus conteos de la ventana actual
+ * (namespace -> identificador -> requests) y recibe la suma de las demás.
+ * Los conteos son absolutos dentro de la ventana, así que publicar dos veces
+ * lo mismo no duplica nada.
+ *
+ * Implementaciones:
+ * - {@link FirestoreRateLimitStore}: rate.limit.store=firestore (por defecto)
+ * - {@link MemoriaRateLimitStore}: rate.limit.store=memoria (una sola JVM, pruebas)
+ */
+public interface RateLimitStore {
+
+    /**
+     * Publica los conteos de esta instancia y devuelve los del resto
+     *
+     * @param instancia Identificador de la instancia que publica
+     * @param ventana   Número de ventana (minutos desde epoch)
+     * @param conteos   namespace -> identificador -> requests de esta instancia en la ventana,
+     *                  o null si no cambiaron desde la última publicación (solo se leen los del resto)
+     * @return namespace -> identificador -> requests del resto de las instancias
+     */
+    Map<String, Map<String, Long>> publicar(String instancia, long ventana,
+                                            Map<String, Map<String, Long>> conteos) throws Exception;
+}
@@ -1,10 +1,17 @@
 package com.medify.medicamentos_backend.service;
 
-import com.dropbox.core.DbxException;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.ImagenAlmacenada;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,8 +19,13 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -27,12 +39,40 @@ public class RecetaService {
     @Value("${firestore.timeout.seconds:10}")
     private long firestoreTimeoutSeconds;
 
-    private final Firestore firestore;
-    private final DropboxService dropboxService;
+    @Value("${dropbox.upload.link.duration.seconds:900}")
+    private long uploadLinkDurationSeconds;
 
-    public RecetaService(Firestore firestore, DropboxService dropboxService) {
+    private final Firestore firestore;
+    private final BlobStore blobStore;
+    private final ImagenRecetaService imagenRecetaService;
+    private final SubidaRecetaAsyncService subidaRecetaAsyncService;
+    private final FarmaciaInboxService farmaciaInboxService;
+    private final Geocoder geocoder;
+
+    // recetaId -> (variante -> path de la imagen), para el proxy de imágenes
+    private final Cache<String, Map<String, String>> pathsImagenPorReceta = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    // "recetaId|uid" con acceso a la imagen (solo positivos: un acceso nuevo se ve enseguida)
+    private final Cache<String, Boolean> accesoImagen = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    public RecetaService(Firestore firestore,
+                         BlobStore blobStore,
+                         ImagenRecetaService imagenRecetaService,
+                         SubidaRecetaAsyncService subidaRecetaAsyncService,
+                         FarmaciaInboxService farmaciaInboxService,
+                         Geocoder geocoder) {
         this.firestore = firestore;
-        this.dropboxService = dropboxService;
+        this.blobStore = blobStore;
+        this.imagenRecetaService = imagenRecetaService;
+        this.subidaRecetaAsyncService = subidaRecetaAsyncService;
+        this.farmaciaInboxService = farmaciaInboxService;
+        this.geocoder = geocoder;
     }
 
     /**
@@ -41,12 +81,14 @@ public class RecetaService {
      * Obtiene todos los datos del usuario y la dirección específica desde Firebase
      *
      * FLUJO TRANSACCIONAL:
-     * 1. Obtiene datos completos del usuario desde Firebase
-     * 2. Obtiene la dirección específica desde users/{userId}/addresses/{addressId}
+     * 1. Lanza la lectura del usuario desde Firebase
+     * 2. Lanza en paralelo la lectura de users/{userId}/addresses/{addressId}
      * 3. Genera ID único para la receta
-     * 4. Sube imagen a Dropbox con ese ID
+     * 4. Optimiza la imagen (orientación, resolución, calidad) y la sube a Dropbox,
+     *    reutilizando una imagen idéntica si ya fue subida (hash SHA-256),
+     *    mientras (1) y (2) siguen en vuelo; luego valida usuario y dirección
      * 5. Crea documento en Firestore con la URL y datos del usuario
-     * 6. Si falla (4) o (5), hace rollback completo
+     * 6. Si falla la validación, (4) o (5), hace rollback completo (original y variantes)
      *
      * VENTAJAS:
      * - O TODO funciona o NADA queda guardado
@@ -59,22 +101,22 @@ public class RecetaService {
      * @param userId ID del usuario
      * @param addressId ID de la dirección a usar
      * @param file Imagen de la receta (obligatorio)
-     * @return Map con recetaId, imagenUrl, imagenPath y mensaje
-     * @throws DbxException si falla Dropbox
+     * @return Map con recetaId, imagenUrl, imagenPath, imagenVariants y mensaje
+     * @throws com.medify.medicamentos_backend.exception.BlobStoreException si falla el almacenamiento
      * @throws IOException si hay problema con el archivo
      */
     public Map<String, Object> crearRecetaConImagenAtomica(
             String userId,
             String addressId,
-            MultipartFile file) throws DbxException, IOException {
+            MultipartFile file) throws IOException {
 
         log.info("🚀 Iniciando creación atómica de receta - Usuario: {}, Dirección: {}",
                 userId, addressId);
 
         // ====== VALIDACIONES INICIALES ======
 
-        if (!dropboxService.isConfigured()) {
-            throw new IllegalStateException("❌ DROPBOX NO DISPONIBLE");
+        if (!blobStore.isConfigured()) {
+            throw new IllegalStateException("❌ ALMACENAMIENTO NO DISPONIBLE");
         }
 
         if (userId == null || userId.trim().isEmpty()) {
@@ -89,44 +131,11 @@ public class RecetaService {
             throw new IllegalArgumentException("La imagen es obligatoria");
         }
 
-        // ====== PASO 1: OBTENER DATOS DEL USUARIO DESDE FIREBASE ======
-
-        log.info("👤 Obteniendo datos del usuario desde Firebase...");
-        Map<String, Object> userData = obtenerUsuario(userId);
-
-        if (userData == null) {
-            throw new IllegalArgumentException("Usuario no encontrado: " + userId);
-        }
-
-        // Extraer y validar datos requeridos
-        String userName = extractString(userData, "displayName", "Nombre del usuario");
-        String userEmail = extractString(userData, "email", "Email del usuario");
-        String userDNI = extractString(userData, "dni", "DNI del usuario");
-        String userPhone = extractStringOptional(userData, "phone");
-
-        // Obra social del usuario
-        Map<String, String> userObraSocial = extractObraSocial(userData, "obraSocial");
-        if (userObraSocial == null || userObraSocial.isEmpty()) {
-            // Ya no es un error, solo informativo
-            log.info("ℹ️ El usuario {} no tiene obra social configurada. Continuando...", userId);
-            userObraSocial = null; // Asegurarse de que sea null si está vacío o no existe
-        }
-
-        log.info("✅ Datos del usuario obtenidos: {} ({})", userName, userEmail);
+        imagenRecetaService.validarArchivo(file);
 
-        // ====== PASO 2: OBTENER DIRECCIÓN ESPECÍFICA DESDE SUBCOLECCIÓN ======
+        // ====== PASO 1 Y 2: LANZAR LECTURAS DE USUARIO Y DIRECCIÓN (SIN ESPERAR) ======
 
-        log.info("📍 Obteniendo dirección desde subcolección...");
-        Map<String, String> userAddress = obtenerDireccionUsuario(userId, addressId);
-
-        if (userAddress == null || userAddress.isEmpty()) {
-            throw new IllegalArgumentException(
-                    "Dirección no encontrada o no pertenece al usuario: " + addressId
-            );
-        }
-
-        log.info("✅ Dirección obtenida: {}, {}",
-                userAddress.get("street"), userAddress.get("city"));
+        ApiFuture<List<DocumentSnapshot>> lecturas = leerUsuarioYDireccion(userId, addressId);
 
         // ====== PASO 3: GENERAR ID ÚNICO ======
 
@@ -136,45 +145,36 @@ public class RecetaService {
         log.info("🆔 ID generado: {}", recetaId);
 
         // Variables para rollback
-        String dropboxPath = null;
+        ImagenAlmacenada imagen = null;
         boolean firestoreCreado = false;
 
         try {
-            // ====== PASO 4: SUBIR IMAGEN A DROPBOX ======
+            // ====== PASO 4: OPTIMIZAR Y GUARDAR IMAGEN (DEDUPLICADA POR CONTENIDO) ======
+            // Especulativo: corre mientras las lecturas están en vuelo.
+            // Si la validación falla, el rollback libera la imagen.
+
+            log.info("☁️ Guardando imagen...");
+            imagen = imagenRecetaService.almacenar(file);
 
-            log.info("☁️ Subiendo imagen a Dropbox...");
-            Map<String, String> resultadoDropbox = dropboxService.subirImagen(file, "recetas");
+            String imageUrl = imagen.getUrl();
+            String imagenPath = imagen.getPath();
+            Map<String, Map<String, String>> imagenVariants = imagen.getVariants();
 
-            String imageUrl = resultadoDropbox.get("url");
-            dropboxPath = resultadoDropbox.get("path");
+            log.info("✅ Imagen guardada: {} (variantes: {}, reutilizada: {})",
+                    imagenPath, imagenVariants.keySet(), imagen.isReutilizada());
 
-            log.info("✅ Imagen subida: {}", dropboxPath);
+            // ====== VALIDAR USUARIO Y DIRECCIÓN (LECTURAS YA EN VUELO) ======
+
+            Map<String, Object> datosUsuario = obtenerDatosUsuarioParaReceta(userId, addressId, lecturas);
 
             // ====== PASO 5: CREAR DOCUMENTO EN FIRESTORE ======
 
             log.info("💾 Creando documento en Firestore...");
 
-            Map<String, Object> recetaData = new HashMap<>();
-
-            // Datos básicos de la receta
-            recetaData.put("userId", userId);
-            recetaData.put("estado", "esperando_respuestas");
-            recetaData.put("fechaCreacion", FieldValue.serverTimestamp());
-            recetaData.put("cotizacionesCount", 0);
+            Map<String, Object> recetaData = nuevaReceta(userId, datosUsuario);
 
             // Datos de la imagen
-            recetaData.put("imagenUrl", imageUrl);
-            recetaData.put("imagenPath", dropboxPath);
-            recetaData.put("imagenNombre", file.getOriginalFilename());
-            recetaData.put("imagenSize", file.getSize());
-
-            // ⭐ Datos del usuario (obtenidos desde Firebase)
-            recetaData.put("userName", userName);
-            recetaData.put("userEmail", userEmail);
-            recetaData.put("userAddress", userAddress); // ⭐ Copia estática de la dirección
-            recetaData.put("userDNI", userDNI);
-            recetaData.put("userPhone", userPhone);
-            recetaData.put("userObraSocial", userObraSocial);
+            recetaData.putAll(imagenRecetaService.camposReceta(imagen));
 
             // Crear en Firestore con timeout
             recetaRef.set(recetaData).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
@@ -182,14 +182,18 @@ public class RecetaService {
 
             log.info("✅ Receta {} creada exitosamente en Firestore", recetaId);
 
+            farmaciaInboxService.publicar(recetaId, recetaData);
+
             // ====== PASO 6: RETORNAR RESULTADO ======
 
             Map<String, Object> resultado = new HashMap<>();
             resultado.put("recetaId", recetaId);
             resultado.put("imagenUrl", imageUrl);
-            resultado.put("imagenPath", dropboxPath);
+            resultado.put("imagenPath", imagenPath);
+            resultado.put("imagenVariants", imagenVariants);
             resultado.put("fileName", file.getOriginalFilename());
-            resultado.put("size", file.getSize());
+            resultado.put("size", imagen.getSize());
+            resultado.put("sizeOriginal", imagen.getSizeOriginal());
             resultado.put("mensaje", "Receta creada exitosamente");
 
             log.info("🎉 Operación atómica completada exitosamente");
@@ -200,16 +204,10 @@ public class RecetaService {
 
             log.error("❌ Error en creación atómica, iniciando rollback...", e);
 
-            // Si se subió la imagen pero falló Firestore, borrar de Dropbox
-            if (dropboxPath != null && !firestoreCreado) {
-                try {
-                    log.warn("🧹 Limpiando imagen de Dropbox: {}", dropboxPath);
-                    dropboxService.eliminarImagen(dropboxPath);
-                    log.info("✅ Imagen eliminada de Dropbox (rollback exitoso)");
-                } catch (DbxException dbxEx) {
-                    log.error("💥 CRÍTICO: No se pudo hacer rollback de Dropbox: {}",
-                            dbxEx.getMessage(), dbxEx);
-                }
+            // Si se guardó la imagen pero falló Firestore, liberar la referencia
+            // (original y variantes se borran solo si ninguna otra receta los usa)
+            if (imagen != null && !firestoreCreado) {
+                imagenRecetaService.liberar(imagen);
             }
 
             // Si se creó en Firestore pero hubo otro error, intentar borrar
@@ -225,8 +223,10 @@ public class RecetaService {
             }
 
             // Re-lanzar la excepción original
-            if (e instanceof DbxException) {
-                throw (DbxException) e;
+            if (e instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e;
+            } else if (e instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e;
             } else if (e instanceof IOException) {
                 throw (IOException) e;
             } else {
@@ -236,82 +236,459 @@ public class RecetaService {
     }
 
     // ==================================================================================
-    // 📍 MÉTODO NUEVO: OBTENER DIRECCIÓN DESDE SUBCOLECCIÓN
+    // ⏳ CREACIÓN ASÍNCRONA (SUBIDA EN SEGUNDO PLANO)
     // ==================================================================================
 
     /**
-     * Obtiene una dirección específica desde la subcolección users/{userId}/addresses/{addressId}
-     * Extrae solo los campos necesarios: street, city, province, postalCode
+     * Crea la receta en estado "subiendo" y deja la subida de la imagen a un worker.
      *
-     * @param userId ID del usuario
-     * @param addressId ID de la dirección
-     * @return Map con los 4 campos de dirección, o null si no existe
+     * FLUJO:
+     * 1. Valida y obtiene usuario y dirección desde Firebase
+     * 2. Guarda la imagen en el spool local
+     * 3. Crea la receta en estado "subiendo" (sin datos de imagen)
+     * 4. Encola la subida; el worker pasa la receta a "esperando_respuestas"
+     *    o a "error_subida" si se agotan los reintentos
+     *
+     * La latencia del request no depende de Dropbox.
+     *
+     * @return Map con recetaId, estado y mensaje
+     * @throws RejectedExecutionException si la cola de subidas está llena
      */
-    private Map<String, String> obtenerDireccionUsuario(String userId, String addressId) {
-        try {
-            DocumentSnapshot doc = firestore.collection("users")
-                    .document(userId)
-                    .collection("addresses")
-                    .document(addressId)
-                    .get()
-                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+    public Map<String, Object> crearRecetaConImagenAsync(
+            String userId,
+            String addressId,
+            MultipartFile file) throws IOException {
 
-            if (!doc.exists()) {
-                log.warn("⚠️ Dirección {} no encontrada para usuario {}", addressId, userId);
-                return null;
-            }
+        log.info("⏳ Iniciando creación asíncrona de receta - Usuario: {}, Dirección: {}",
+                userId, addressId);
 
-            Map<String, Object> addressData = doc.getData();
-            if (addressData == null) {
-                return null;
-            }
+        // ====== VALIDACIONES INICIALES ======
 
-            // Extraer solo los 4 campos que necesitamos
-            Map<String, String> address = new HashMap<>();
-            address.put("street", extractString(addressData, "street", "street"));
-            address.put("city", extractString(addressData, "city", "city"));
-            address.put("province", extractString(addressData, "province", "province"));
-            address.put("postalCode", extractString(addressData, "postalCode", "postalCode"));
+        if (!blobStore.isConfigured()) {
+            throw new IllegalStateException("❌ ALMACENAMIENTO NO DISPONIBLE");
+        }
+
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("userId es obligatorio");
+        }
+
+        if (addressId == null || addressId.trim().isEmpty()) {
+            throw new IllegalArgumentException("addressId es obligatorio");
+        }
+
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("La imagen es obligatoria");
+        }
 
-            log.debug("📍 Dirección extraída: {}, {}, {}, {}",
-                    address.get("street"),
-                    address.get("city"),
-                    address.get("province"),
-                    address.get("postalCode"));
+        imagenRecetaService.validarArchivo(file);
 
-            return address;
+        Map<String, Object> datosUsuario = obtenerDatosUsuarioParaReceta(userId, addressId);
 
+        DocumentReference recetaRef = firestore.collection("recetas").document();
+        String recetaId = recetaRef.getId();
+
+        // ====== SPOOL LOCAL Y DOCUMENTO EN "subiendo" ======
+
+        Path spool = subidaRecetaAsyncService.guardarEnSpool(recetaId, file);
+
+        Map<String, Object> recetaData = nuevaReceta(userId, datosUsuario);
+        recetaData.put("estado", SubidaRecetaAsyncService.ESTADO_SUBIENDO);
+        recetaData.put("imagenNombre", file.getOriginalFilename());
+        recetaData.put("imagenSizeOriginal", file.getSize());
+        recetaData.putAll(subidaRecetaAsyncService.camposLease());
+
+        try {
+            recetaRef.create(recetaData).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
         } catch (Exception e) {
-            log.error("❌ Error obteniendo dirección {}/{}", userId, addressId, e);
-            throw new RuntimeException("Error al obtener dirección desde Firestore", e);
+            subidaRecetaAsyncService.eliminarDelSpool(spool);
+            log.error("❌ Error creando receta {} en Firestore", recetaId, e);
+            throw new RuntimeException("Error al crear la receta", e);
         }
+
+        // ====== ENCOLAR SUBIDA ======
+
+        try {
+            subidaRecetaAsyncService.encolar(recetaId, spool, file.getOriginalFilename(), file.getContentType());
+        } catch (RejectedExecutionException e) {
+            // Rollback: sin worker la receta nunca saldría de "subiendo"
+            subidaRecetaAsyncService.eliminarDelSpool(spool);
+            try {
+                recetaRef.delete().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (Exception fsEx) {
+                log.error("💥 CRÍTICO: No se pudo hacer rollback de Firestore: {}",
+                        fsEx.getMessage(), fsEx);
+            }
+            throw e;
+        }
+
+        log.info("✅ Receta {} creada en estado '{}'", recetaId, SubidaRecetaAsyncService.ESTADO_SUBIENDO);
+
+        Map<String, Object> resultado = new HashMap<>();
+        resultado.put("recetaId", recetaId);
+        resultado.put("estado", SubidaRecetaAsyncService.ESTADO_SUBIENDO);
+        resultado.put("fileName", file.getOriginalFilename());
+        resultado.put("mensaje", "Receta creada, la imagen se está subiendo");
+        return resultado;
     }
 
     // ==================================================================================
-    // 📁 MÉTODOS AUXILIARES PRIVADOS
+    // 📤 SUBIDA DIRECTA CLIENTE -> DROPBOX (DOS FASES)
     // ==================================================================================
 
     /**
-     * Obtiene un usuario desde Firestore
+     * FASE 1: valida usuario y dirección y entrega un link temporal de subida a Dropbox.
+     *
+     * El cliente sube la imagen directamente a Dropbox (el backend no recibe los bytes)
+     * y luego llama a {@link #finalizarSubidaDirecta(String, String)}. El path y el
+     * recetaId quedan reservados en /subidas_pendientes/{recetaId}.
+     *
+     * @param fileName Nombre del archivo (se usa para validar la extensión)
+     * @return Map con recetaId, uploadUrl, imagenPath y expiresInSeconds
      */
-    private Map<String, Object> obtenerUsuario(String userId) {
+    public Map<String, Object> prepararSubidaDirecta(String userId, String addressId, String fileName)
+            throws IOException {
+
+        log.info("📤 Preparando subida directa - Usuario: {}, Dirección: {}", userId, addressId);
+
+        if (!blobStore.isConfigured()) {
+            throw new IllegalStateException("❌ ALMACENAMIENTO NO DISPONIBLE");
+        }
+
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("userId es obligatorio");
+        }
+
+        if (addressId == null || addressId.trim().isEmpty()) {
+            throw new IllegalArgumentException("addressId es obligatorio");
+        }
+
+        imagenRecetaService.validarNombreImagen(fileName);
+
+        // Solo valida: los datos se vuelven a leer al finalizar
+        obtenerDatosUsuarioParaReceta(userId, addressId);
+
+        String recetaId = firestore.collection("recetas").document().getId();
+        String imagenPath = imagenRecetaService.generarRutaSubidaDirecta(fileName);
+        String uploadUrl = blobStore.crearLinkSubidaTemporal(imagenPath, uploadLinkDurationSeconds);
+
+        Map<String, Object> pendiente = new HashMap<>();
+        pendiente.put("userId", userId);
+        pendiente.put("addressId", addressId);
+        pendiente.put("imagenPath", imagenPath);
+        pendiente.put("imagenNombre", fileName);
+        pendiente.put("fechaCreacion", FieldValue.serverTimestamp());
+        pendiente.put("expiraEn", Timestamp.ofTimeSecondsAndNanos(
+                Instant.now().getEpochSecond() + uploadLinkDurationSeconds, 0));
+
         try {
-            DocumentSnapshot doc = firestore.collection("users")
-                    .document(userId)
-                    .get()
+            firestore.collection("subidas_pendientes").document(recetaId)
+                    .set(pendiente)
                     .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("❌ Error registrando subida pendiente {}", recetaId, e);
+            throw new RuntimeException("Error al registrar la subida pendiente", e);
+        }
 
-            if (!doc.exists()) {
-                log.warn("⚠️ Usuario {} no encontrado", userId);
-                return null;
+        log.info("✅ Subida directa preparada - Receta: {}, Path: {}", recetaId, imagenPath);
+
+        Map<String, Object> resultado = new HashMap<>();
+        resultado.put("recetaId", recetaId);
+        resultado.put("uploadUrl", uploadUrl);
+        resultado.put("imagenPath", imagenPath);
+        resultado.put("expiresInSeconds", uploadLinkDurationSeconds);
+        return resultado;
+    }
+
+    /**
+     * FASE 2: verifica en Dropbox el archivo subido por el cliente y crea la receta.
+     *
+     * La receta y el borrado de la subida pendiente se escriben en un mismo batch,
+     * así una segunda llamada no puede crear la receta dos veces.
+     * El archivo se descarga, se valida que sea una imagen y pasa por la misma
+     * optimización, variantes y deduplicación que las subidas al servidor.
+     *
+     * @return Map con recetaId, imagenUrl, imagenPath y mensaje
+     */
+    public Map<String, Object> finalizarSubidaDirecta(String recetaId, String userId) throws IOException {
+
+        log.info("📥 Finalizando subida directa - Receta: {}, Usuario: {}", recetaId, userId);
+
+        if (!blobStore.isConfigured()) {
+            throw new IllegalStateException("❌ ALMACENAMIENTO NO DISPONIBLE");
+        }
+
+        DocumentReference pendienteRef = firestore.collection("subidas_pendientes").document(recetaId);
+        DocumentSnapshot pendiente;
+        try {
+            pendiente = pendienteRef.get().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("❌ Error obteniendo subida pendiente {}", recetaId, e);
+            throw new RuntimeException("Error al obtener la subida pendiente", e);
+        }
+
+        if (!pendiente.exists()) {
+            throw new IllegalArgumentException("Subida pendiente no encontrada: " + recetaId);
+        }
+
+        if (userId == null || !userId.equals(pendiente.getString("userId"))) {
+            throw new IllegalArgumentException("La subida no pertenece al usuario");
+        }
+
+        String imagenPath = pendiente.getString("imagenPath");
+        String addressId = pendiente.getString("addressId");
+
+        // ====== VERIFICAR EL ARCHIVO EN DROPBOX ======
+
+        BlobInfo metadata = blobStore.obtenerInfo(imagenPath);
+        if (metadata == null) {
+            throw new IllegalStateException("La imagen todavía no fue subida");
+        }
+
+        if (metadata.getSize() <= 0 || metadata.getSize() > ImagenRecetaService.MAX_IMAGE_SIZE_BYTES) {
+            log.warn("🧹 Archivo subido con tamaño inválido ({} bytes), eliminando: {}",
+                    metadata.getSize(), imagenPath);
+            blobStore.eliminar(imagenPath);
+            throw new IllegalArgumentException("La imagen no puede superar " + ImagenRecetaService.MAX_IMAGE_SIZE_TEXTO);
+        }
+
+        // ====== LEER, VALIDAR Y OPTIMIZAR (MISMO CAMINO QUE LAS SUBIDAS AL SERVIDOR) ======
+
+        // Solo la firma: el contenido se lee después dentro del pool de optimización
+        byte[] cabecera;
+        try (InputStream in = blobStore.leer(imagenPath)) {
+            cabecera = in.readNBytes(16);
+        }
+
+        String contentType;
+        try {
+            contentType = imagenRecetaService.detectarTipoImagen(cabecera);
+        } catch (IllegalArgumentException e) {
+            log.warn("🧹 Archivo subido inválido ({}), eliminando: {}", e.getMessage(), imagenPath);
+            blobStore.eliminar(imagenPath);
+            throw e;
+        }
+
+        log.info("✅ Archivo verificado en el almacenamiento: {} ({} KB, {})",
+                imagenPath, metadata.getSize() / 1024, contentType);
+
+        // Original y variantes quedan en el layout direccionado por contenido, como las
+        // subidas al servidor; el archivo subido por el cliente se borra al crear la receta
+        ImagenAlmacenada imagen = imagenRecetaService.almacenar(() -> blobStore.leer(imagenPath),
+                pendiente.getString("imagenNombre"), contentType, metadata.getSize());
+
+        // ====== CREAR RECETA ======
+
+        Map<String, Object> recetaData;
+        try {
+            Map<String, Object> datosUsuario = obtenerDatosUsuarioParaReceta(userId, addressId);
+            recetaData = nuevaReceta(userId, datosUsuario);
+            recetaData.putAll(imagenRecetaService.camposReceta(imagen));
+
+            WriteBatch batch = firestore.batch();
+            batch.create(firestore.collection("recetas").document(recetaId), recetaData);
+            batch.delete(pendienteRef);
+            batch.commit().get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // El archivo subido se conserva para permitir reintentar la finalización
+            log.error("❌ Error creando receta {} desde subida directa", recetaId, e);
+            imagenRecetaService.liberar(imagen);
+            if (e instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e;
             }
+            throw new RuntimeException("Error al crear la receta", e);
+        }
+
+        log.info("🎉 Receta {} creada desde subida directa", recetaId);
+
+        try {
+            blobStore.eliminar(imagenPath);
+        } catch (Exception e) {
+            // Sin receta que lo referencie, lo recoge ImagenGcService
+            log.warn("⚠️ No se pudo borrar el archivo de la subida directa {}: {}", imagenPath, e.getMessage());
+        }
+
+        farmaciaInboxService.publicar(recetaId, recetaData);
+
+        Map<String, Object> resultado = new HashMap<>();
+        resultado.put("recetaId", recetaId);
+        resultado.put("imagenUrl", imagen.getUrl());
+        resultado.put("imagenPath", imagen.getPath());
+        resultado.put("imagenVariants", imagen.getVariants());
+        resultado.put("size", imagen.getSize());
+        resultado.put("sizeOriginal", imagen.getSizeOriginal());
+        resultado.put("mensaje", "Receta creada exitosamente");
+        return resultado;
+    }
+
+    /**
+     * Datos básicos de una receta nueva con la copia de los datos del usuario
+     */
+    private Map<String, Object> nuevaReceta(String userId, Map<String, Object> datosUsuario) {
+        Map<String, Object> recetaData = new HashMap<>();
+
+        // Datos básicos de la receta
+        recetaData.put("userId", userId);
+        recetaData.put("estado", "esperando_respuestas");
+        recetaData.put("fechaCreacion", FieldValue.serverTimestamp());
+        recetaData.put("cotizacionesCount", 0);
 
-            return doc.getData();
+        // ⭐ Datos del usuario (obtenidos desde Firebase)
+        recetaData.putAll(datosUsuario);
 
+        // 📍 Ubicación aproximada de la dirección, para enviar la receta a las farmacias cercanas
+        @SuppressWarnings("unchecked")
+        Map<String, String> userAddress = (Map<String, String>) datosUsuario.get("userAddress");
+        try {
+            GeoPoint ubicacion = geocoder.geocodificar(userAddress);
+            if (ubicacion != null) {
+                recetaData.put("userUbicacion", ubicacion);
+            }
         } catch (Exception e) {
-            log.error("❌ Error obteniendo usuario {}", userId, e);
+            log.warn("⚠️ No se pudo geocodificar la dirección de la receta: {}", e.getMessage());
+        }
+        return recetaData;
+    }
+
+    // ==================================================================================
+    // 👤 DATOS DEL USUARIO PARA LA RECETA
+    // ==================================================================================
+
+    /**
+     * Obtiene y valida los datos del usuario y la dirección elegida.
+     * Devuelve los campos que se copian en el documento de la receta:
+     * userName, userEmail, userAddress, userDNI, userPhone, userObraSocial
+     *
+     * @throws IllegalArgumentException si el usuario o la dirección no existen o están incompletos
+     */
+    private Map<String, Object> obtenerDatosUsuarioParaReceta(String userId, String addressId) {
+        return obtenerDatosUsuarioParaReceta(userId, addressId, leerUsuarioYDireccion(userId, addressId));
+    }
+
+    /**
+     * Lanza la lectura del usuario y de la dirección en un solo getAll (en paralelo),
+     * sin esperar el resultado. Permite solapar las lecturas con otro trabajo (ej: la subida).
+     */
+    private ApiFuture<List<DocumentSnapshot>> leerUsuarioYDireccion(String userId, String addressId) {
+        DocumentReference userRef = firestore.collection("users").document(userId);
+        DocumentReference addressRef = userRef.collection("addresses").document(addressId);
+        return firestore.getAll(userRef, addressRef);
+    }
+
+    /**
+     * Espera las lecturas lanzadas con {@link #leerUsuarioYDireccion(String, String)}
+     * y valida los datos
+     */
+    private Map<String, Object> obtenerDatosUsuarioParaReceta(String userId, String addressId,
+                                                              ApiFuture<List<DocumentSnapshot>> lecturas) {
+
+        List<DocumentSnapshot> docs;
+        try {
+            docs = lecturas.get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Lectura de usuario interrumpida", e);
+        } catch (Exception e) {
+            log.error("❌ Error obteniendo usuario {} y dirección {}", userId, addressId, e);
             throw new RuntimeException("Error al obtener usuario desde Firestore", e);
         }
+
+        // ====== PASO 1: DATOS DEL USUARIO ======
+
+        Map<String, Object> userData = extraerUsuario(userId, docs.get(0));
+
+        if (userData == null) {
+            throw new IllegalArgumentException("Usuario no encontrado: " + userId);
+        }
+
+        // Extraer y validar datos requeridos
+        String userName = extractString(userData, "displayName", "Nombre del usuario");
+        String userEmail = extractString(userData, "email", "Email del usuario");
+        String userDNI = extractString(userData, "dni", "DNI del usuario");
+        String userPhone = extractStringOptional(userData, "phone");
+
+        // Obra social del usuario
+        Map<String, String> userObraSocial = extractObraSocial(userData, "obraSocial");
+        if (userObraSocial == null || userObraSocial.isEmpty()) {
+            // Ya no es un error, solo informativo
+            log.info("ℹ️ El usuario {} no tiene obra social configurada. Continuando...", userId);
+            userObraSocial = null; // Asegurarse de que sea null si está vacío o no existe
+        }
+
+        log.info("✅ Datos del usuario obtenidos: {} ({})", userName, userEmail);
+
+        // ====== PASO 2: DIRECCIÓN ESPECÍFICA DESDE SUBCOLECCIÓN ======
+
+        Map<String, String> userAddress = extraerDireccion(userId, addressId, docs.get(1));
+
+        if (userAddress == null || userAddress.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Dirección no encontrada o no pertenece al usuario: " + addressId
+            );
+        }
+
+        log.info("✅ Dirección obtenida: {}, {}",
+                userAddress.get("street"), userAddress.get("city"));
+
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("userName", userName);
+        datos.put("userEmail", userEmail);
+        datos.put("userAddress", userAddress); // ⭐ Copia estática de la dirección
+        datos.put("userDNI", userDNI);
+        datos.put("userPhone", userPhone);
+        datos.put("userObraSocial", userObraSocial);
+        return datos;
+    }
+
+    // ==================================================================================
+    // 📍 DIRECCIÓN DESDE SUBCOLECCIÓN
+    // ==================================================================================
+
+    /**
+     * Extrae la dirección de users/{userId}/addresses/{addressId}
+     * Solo los campos necesarios: street, city, province, postalCode
+     *
+     * @return Map con los 4 campos de dirección, o null si no existe
+     */
+    private Map<String, String> extraerDireccion(String userId, String addressId, DocumentSnapshot doc) {
+        if (!doc.exists()) {
+            log.warn("⚠️ Dirección {} no encontrada para usuario {}", addressId, userId);
+            return null;
+        }
+
+        Map<String, Object> addressData = doc.getData();
+        if (addressData == null) {
+            return null;
+        }
+
+        // Extraer solo los 4 campos que necesitamos
+        Map<String, String> address = new HashMap<>();
+        address.put("street", extractString(addressData, "street", "street"));
+        address.put("city", extractString(addressData, "city", "city"));
+        address.put("province", extractString(addressData, "province", "province"));
+        address.put("postalCode", extractString(addressData, "postalCode", "postalCode"));
+
+        log.debug("📍 Dirección extraída: {}, {}, {}, {}",
+                address.get("street"),
+                address.get("city"),
+                address.get("province"),
+                address.get("postalCode"));
+
+        return address;
+    }
+
+    // ==================================================================================
+    // 📁 MÉTODOS AUXILIARES PRIVADOS
+    // ==================================================================================
+
+    /**
+     * Datos del usuario o null si no existe
+     */
+    private Map<String, Object> extraerUsuario(String userId, DocumentSnapshot doc) {
+        if (!doc.exists()) {
+            log.warn("⚠️ Usuario {} no encontrado", userId);
+            return null;
+        }
+        return doc.getData();
     }
 
     /**
@@ -364,6 +741,99 @@ public class RecetaService {
         return value != null ? value.toString() : "";
     }
 
+    /**
+     * Path de la imagen de una receta en el almacenamiento (original o una variante)
+     *
+     * @param variante null u "original" para la imagen completa, o "medium" / "thumb"
+     * @return path o null si la receta no existe o todavía no tiene imagen
+     * @throws IllegalArgumentException si la variante no existe para la receta
+     */
+    @SuppressWarnings("unchecked")
+    public String obtenerPathImagen(String recetaId, String variante) {
+        String nombre = variante == null || variante.isBlank() ? "original" : variante;
+
+        Map<String, String> paths = pathsImagenPorReceta.getIfPresent(recetaId);
+        if (paths == null) {
+            DocumentSnapshot doc;
+            try {
+                doc = firestore.collection("recetas").document(recetaId)
+                        .get()
+                        .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.error("❌ Error obteniendo receta {}", recetaId, e);
+                throw new RuntimeException("Error al obtener la receta", e);
+            }
+
+            String imagenPath = doc.exists() ? doc.getString("imagenPath") : null;
+            if (imagenPath == null) {
+                // No se cachea: la receta puede estar todavía en "subiendo"
+                return null;
+            }
+
+            paths = new HashMap<>();
+            paths.put("original", imagenPath);
+            Object variants = doc.get("imagenVariants");
+            if (variants instanceof Map) {
+                for (Map.Entry<String, Object> v : ((Map<String, Object>) variants).entrySet()) {
+                    if (v.getValue() instanceof Map) {
+                        Object path = ((Map<String, Object>) v.getValue()).get("path");
+                        if (path != null) {
+                            paths.put(v.getKey(), path.toString());
+                        }
+                    }
+                }
+            }
+            // Solo cambia si la migración de layout mueve la imagen (ver olvidarPathsImagen)
+            pathsImagenPorReceta.put(recetaId, paths);
+        }
+
+        String path = paths.get(nombre);
+        if (path == null) {
+            throw new IllegalArgumentException("Variante no disponible: " + nombre);
+        }
+        return path;
+    }
+
+    /**
+     * Descarta los paths cacheados de una receta (ej: su imagen se movió de carpeta)
+     */
+    public void olvidarPathsImagen(String recetaId) {
+        pathsImagenPorReceta.invalidate(recetaId);
+    }
+
+    /**
+     * Quién puede ver la imagen de una receta: el paciente dueño, una farmacia que la
+     * tiene en su bandeja o una que ya la cotizó (la bandeja se vacía al responder y al
+     * pagarse, pero la farmacia elegida necesita la imagen para preparar el pedido)
+     */
+    public boolean puedeVerImagen(String recetaId, String uid) {
+        String clave = recetaId + "|" + uid;
+        if (accesoImagen.getIfPresent(clave) != null) {
+            return true;
+        }
+
+        boolean permitido;
+        try {
+            permitido = validarPropietario(recetaId, uid)
+                    || farmaciaInboxService.contiene(uid, recetaId)
+                    || !firestore.collection("recetas").document(recetaId)
+                            .collection("cotizaciones")
+                            .whereEqualTo("farmaciaId", uid)
+                            .limit(1)
+                            .get()
+                            .get(firestoreTimeoutSeconds, TimeUnit.SECONDS)
+                            .isEmpty();
+        } catch (Exception e) {
+            log.error("❌ Error verificando acceso a la imagen de la receta {}", recetaId, e);
+            throw new RuntimeException("Error al verificar el acceso a la imagen", e);
+        }
+
+        if (permitido) {
+            accesoImagen.put(clave, Boolean.TRUE);
+        }
+        return permitido;
+    }
+
     /**
      * Valida que una receta existe y pertenece al usuario
      * Útil para otros endpoints que necesiten verificar permisos
@@ -0,0 +1,488 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.medify.medicamentos_backend.dto.ImagenAlmacenada;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subida en segundo plano de las imágenes de recetas creadas en modo asíncrono.
+ *
+ * FLUJO:
+ * 1. El request guarda la imagen en el spool local y crea la receta en estado "subiendo"
+ * 2. Un worker del pool optimiza y sube la imagen (deduplicada por contenido)
+ * 3. La receta pasa a "esperando_respuestas" con los datos de la imagen
+ * 4. Si falla, se reintenta con backoff exponencial; agotados los intentos
+ *    la receta queda en "error_subida" (compensación) y se borra el spool
+ *
+ * La instancia que tiene el spool es dueña de la subida: la receta guarda
+ * subidaInstancia y subidaLeaseHasta, que se renuevan en cada intento. La
+ * compensación de subidas abandonadas no toca recetas con la lease vigente de
+ * otra instancia, y el paso a "error_subida" se hace en una transacción que
+ * verifica que la receta siga en "subiendo".
+ *
+ * Si un intento falla después de almacenar la imagen (ej: timeout esperando el
+ * commit) no se sabe si la receta quedó con ella: la imagen no se libera y el
+ * intento siguiente relee la receta. Si la referencia, la subida ya terminó; si
+ * no, se reusa la misma imagen sin volver a subirla.
+ *
+ * El pool es acotado: si la cola está llena el request recibe un 503.
+ */
+@Service
+public class SubidaRecetaAsyncService {
+
+    private static final Logger log = LoggerFactory.getLogger(SubidaRecetaAsyncService.class);
+
+    public static final String ESTADO_SUBIENDO = "subiendo";
+    public static final String ESTADO_ERROR_SUBIDA = "error_subida";
+
+    @Value("${firestore.timeout.seconds:10}")
+    private long firestoreTimeoutSeconds;
+
+    @Value("${recetas.async.spool.dir:${java.io.tmpdir}/medify-spool}")
+    private String spoolDir;
+
+    @Value("${recetas.async.workers:2}")
+    private int workers;
+
+    @Value("${recetas.async.queue.size:32}")
+    private int queueSize;
+
+    @Value("${recetas.async.max.intentos:4}")
+    private int maxIntentos;
+
+    @Value("${recetas.async.backoff.inicial.ms:2000}")
+    private long backoffInicialMs;
+
+    @Value("${recetas.async.stale.minutes:30}")
+    private int staleMinutes;
+
+    @Value("${recetas.async.instance.id:}")
+    private String instanceId;
+
+    private final Firestore firestore;
+    private final ImagenRecetaService imagenRecetaService;
+    private final FarmaciaInboxService farmaciaInboxService;
+
+    // Recetas con una subida en curso o esperando reintento en este proceso
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService reintentos;
+    private Path spool;
+    private String instancia;
+
+    public SubidaRecetaAsyncService(Firestore firestore,
+                                    ImagenRecetaService imagenRecetaService,
+                                    FarmaciaInboxService farmaciaInboxService) {
+        this.firestore = firestore;
+        this.imagenRecetaService = imagenRecetaService;
+        this.farmaciaInboxService = farmaciaInboxService;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        spool = Paths.get(spoolDir);
+        Files.createDirectories(spool);
+        instancia = instanceId == null || instanceId.isBlank() ? UUID.randomUUID().toString() : instanceId;
+
+        AtomicInteger contador = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "receta-upload-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        reintentos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "receta-upload-retry");
+            t.setDaemon(true);
+            return t;
+        });
+
+        log.info("SubidaRecetaAsyncService inicializado - Spool: {}, Workers: {}, Cola: {}, Intentos: {}, Instancia: {}",
+                spool, workers, queueSize, maxIntentos, instancia);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (reintentos != null) {
+            reintentos.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Guarda el archivo recibido en el spool local hasta que lo tome un worker
+     *
+     * @return Path del archivo temporal
+     */
+    public Path guardarEnSpool(String recetaId, MultipartFile file) throws IOException {
+        Path destino = spool.resolve(recetaId + ".upload");
+        file.transferTo(destino);
+        return destino;
+    }
+
+    /**
+     * Campos de la lease de subida de esta instancia (se agregan al crear la receta)
+     */
+    public Map<String, Object> camposLease() {
+        Map<String, Object> campos = new HashMap<>();
+        campos.put("subidaInstancia", instancia);
+        campos.put("subidaLeaseHasta", Timestamp.ofTimeSecondsAndNanos(
+                Instant.now().plus(Duration.ofMinutes(staleMinutes)).getEpochSecond(), 0));
+        return campos;
+    }
+
+    /**
+     * Encola la subida de la imagen de una receta en estado "subiendo"
+     *
+     * @throws RejectedExecutionException si la cola de subidas está llena
+     */
+    public void encolar(String recetaId, Path archivo, String nombre, String contentType) {
+        Tarea tarea = new Tarea(recetaId, archivo, nombre, contentType);
+        enCurso.add(recetaId);
+        try {
+            executor.execute(() -> ejecutar(tarea));
+        } catch (RejectedExecutionException e) {
+            enCurso.remove(recetaId);
+            throw e;
+        }
+        log.info("📥 Subida encolada para receta {} (cola: {})", recetaId, executor.getQueue().size());
+    }
+
+    /**
+     * Borra un archivo del spool (no lanza excepción)
+     */
+    public void eliminarDelSpool(Path archivo) {
+        try {
+            Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            log.warn("⚠️ No se pudo borrar el archivo temporal {}: {}", archivo, e.getMessage());
+        }
+    }
+
+    /**
+     * Compensa las recetas que quedaron en "subiendo" sin ningún worker a cargo
+     * (ej: reinicio del servidor con subidas pendientes). Se saltean las que tienen
+     * una subida en curso en esta instancia o la lease vigente de otra.
+     *
+     * @return Cantidad de recetas marcadas como "error_subida"
+     */
+    public int compensarSubidasAbandonadas() {
+        Timestamp cutoff = Timestamp.ofTimeSecondsAndNanos(
+                Instant.now().minus(Duration.ofMinutes(staleMinutes)).getEpochSecond(), 0);
+
+        try {
+            var snapshot = firestore.collection("recetas")
+                    .whereEqualTo("estado", ESTADO_SUBIENDO)
+                    .whereLessThan("fechaCreacion", cutoff)
+                    .get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+
+            int compensadas = 0;
+            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                if (enCurso.contains(doc.getId()) || tomadaPorOtra(doc)) {
+                    continue;
+                }
+                if (marcarErrorSubida(doc.getId(), "Subida abandonada")) {
+                    eliminarDelSpool(spool.resolve(doc.getId() + ".upload"));
+                    compensadas++;
+                }
+            }
+            return compensadas;
+
+        } catch (Exception e) {
+            log.error("❌ Error buscando subidas abandonadas: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Estado del pool de subidas
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activas", executor.getActiveCount());
+        stats.put("enCola", executor.getQueue().size());
+        stats.put("pendientes", enCurso.size());
+        stats.put("completadas", executor.getCompletedTaskCount());
+        return stats;
+    }
+
+    // ==================================================================================
+    // 🛠️ WORKER
+    // ==================================================================================
+
+    private void ejecutar(Tarea tarea) {
+        tarea.intentos++;
+        // Imagen de un intento anterior que falló sin saber si la receta quedó con ella
+        ImagenAlmacenada imagen = tarea.imagenEnDuda;
+        tarea.imagenEnDuda = null;
+
+        try {
+            log.info("☁️ Subiendo imagen de receta {} (intento {}/{})",
+                    tarea.recetaId, tarea.intentos, maxIntentos);
+
+            DocumentSnapshot actual = renovarLease(tarea.recetaId);
+            if (!actual.exists() || !ESTADO_SUBIENDO.equals(actual.getString("estado"))) {
+                if (imagen != null && imagen.getPath().equals(actual.getString("imagenPath"))) {
+                    // El intento anterior llegó a completar la receta
+                    log.info("🎉 Receta {} lista: {}", tarea.recetaId, imagen.getPath());
+                    farmaciaInboxService.publicar(tarea.recetaId, actual.getData());
+                } else {
+                    log.warn("⚠️ Receta {} ya no está en '{}', se descarta la imagen",
+                            tarea.recetaId, ESTADO_SUBIENDO);
+                    imagenRecetaService.liberar(imagen);
+                }
+                finalizar(tarea);
+                return;
+            }
+            if (tomadaPorOtra(actual)) {
+                log.warn("⚠️ La subida de la receta {} la tiene la instancia {}, se descarta",
+                        tarea.recetaId, actual.getString("subidaInstancia"));
+                imagenRecetaService.liberar(imagen);
+                finalizar(tarea);
+                return;
+            }
+
+            if (imagen == null) {
+                imagen = imagenRecetaService.almacenar(
+                        new FileSystemResource(tarea.archivo), tarea.nombre, tarea.contentType,
+                        Files.size(tarea.archivo));
+            }
+
+            Map<String, Object> receta = completarReceta(tarea.recetaId, imagen);
+            if (receta != null) {
+                log.info("🎉 Receta {} lista: {}", tarea.recetaId, imagen.getPath());
+                // Recién ahora la receta tiene imagen: pasa a las bandejas de las farmacias
+                farmaciaInboxService.publicar(tarea.recetaId, receta);
+            } else {
+                // La receta se eliminó o cambió de estado mientras se subía
+                log.warn("⚠️ Receta {} ya no está en '{}', se descarta la imagen",
+                        tarea.recetaId, ESTADO_SUBIENDO);
+                imagenRecetaService.liberar(imagen);
+            }
+            finalizar(tarea);
+
+        } catch (IllegalArgumentException e) {
+            // Imagen inválida (ej: demasiados megapíxeles): no tiene sentido reintentar
+            log.warn("❌ Imagen inválida para receta {}: {}", tarea.recetaId, e.getMessage());
+            compensar(tarea, imagen, e.getMessage());
+
+        } catch (Exception e) {
+            log.error("❌ Error subiendo imagen de receta {} (intento {}/{}): {}",
+                    tarea.recetaId, tarea.intentos, maxIntentos, e.getMessage());
+
+            if (tarea.intentos >= maxIntentos) {
+                compensar(tarea, imagen, "No se pudo subir la imagen");
+                return;
+            }
+            // No se libera: el commit pudo haber llegado (lo resuelve el próximo intento)
+            tarea.imagenEnDuda = imagen;
+            programarReintento(tarea);
+        }
+    }
+
+    /**
+     * Reintento con backoff exponencial: 2s, 4s, 8s...
+     */
+    private void programarReintento(Tarea tarea) {
+        long espera = backoffInicialMs << (tarea.intentos - 1);
+        log.info("🔁 Reintentando receta {} en {} ms", tarea.recetaId, espera);
+
+        reintentos.schedule(() -> {
+            try {
+                executor.execute(() -> ejecutar(tarea));
+            } catch (RejectedExecutionException e) {
+                // Cola llena: esperar otro ciclo sin consumir un intento
+                tarea.intentos--;
+                programarReintento(tarea);
+            }
+        }, espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pasa la receta de "subiendo" a "esperando_respuestas" con los datos de la imagen
+     *
+     * @return Los datos de la receta completa, o null si ya no existe o no está en "subiendo"
+     */
+    private Map<String, Object> completarReceta(String recetaId, ImagenAlmacenada imagen) throws Exception {
+        DocumentReference recetaRef = firestore.collection("recetas").document(recetaId);
+
+        Map<String, Object> updates = imagenRecetaService.camposReceta(imagen);
+        updates.put("estado", "esperando_respuestas");
+        updates.put("fechaSubida", FieldValue.serverTimestamp());
+
+        return firestore.runTransaction(tx -> {
+            DocumentSnapshot snap = tx.get(recetaRef).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            if (!snap.exists() || !ESTADO_SUBIENDO.equals(snap.getString("estado"))) {
+                return null;
+            }
+            tx.update(recetaRef, updates);
+            Map<String, Object> receta = new HashMap<>(snap.getData());
+            receta.putAll(updates);
+            return receta;
+        }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Toma o renueva la lease de subida de la receta para esta instancia
+     *
+     * @return La receta leída en la transacción (la lease solo se escribe si sigue en
+     *         "subiendo" y no la tiene otra instancia)
+     */
+    private DocumentSnapshot renovarLease(String recetaId) throws Exception {
+        DocumentReference recetaRef = firestore.collection("recetas").document(recetaId);
+
+        return firestore.runTransaction(tx -> {
+            DocumentSnapshot snap = tx.get(recetaRef).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            if (snap.exists() && ESTADO_SUBIENDO.equals(snap.getString("estado")) && !tomadaPorOtra(snap)) {
+                tx.update(recetaRef, camposLease());
+            }
+            return snap;
+        }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * true si otra instancia tiene la lease de subida vigente
+     */
+    private boolean tomadaPorOtra(DocumentSnapshot receta) {
+        String duenia = receta.getString("subidaInstancia");
+        Timestamp hasta = receta.getTimestamp("subidaLeaseHasta");
+        return duenia != null && !instancia.equals(duenia)
+                && hasta != null && hasta.compareTo(Timestamp.now()) > 0;
+    }
+
+    /**
+     * Compensación: la receta queda en "error_subida" y se liberan los recursos
+     *
+     * La imagen solo se libera si la receta seguro no la referencia: si no se pudo
+     * marcar (la receta ya cambió de estado o Firestore no respondió) se relee.
+     */
+    private void compensar(Tarea tarea, ImagenAlmacenada imagen, String motivo) {
+        boolean marcada = marcarErrorSubida(tarea.recetaId, motivo);
+        if (imagen != null) {
+            if (marcada || Boolean.FALSE.equals(referenciaImagen(tarea.recetaId, imagen))) {
+                imagenRecetaService.liberar(imagen);
+            } else {
+                log.warn("⚠️ No se libera la imagen {}: la receta {} puede referenciarla",
+                        imagen.getPath(), tarea.recetaId);
+            }
+        }
+        finalizar(tarea);
+    }
+
+    /**
+     * Pasa la receta a "error_subida" si sigue en "subiendo" y no la tiene otra instancia
+     *
+     * @return true si la marcó
+     */
+    private boolean marcarErrorSubida(String recetaId, String motivo) {
+        DocumentReference recetaRef = firestore.collection("recetas").document(recetaId);
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("estado", ESTADO_ERROR_SUBIDA);
+        updates.put("errorSubida", motivo);
+        updates.put("fechaError", FieldValue.serverTimestamp());
+
+        try {
+            boolean marcada = firestore.runTransaction(tx -> {
+                DocumentSnapshot snap = tx.get(recetaRef).get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+                if (!snap.exists() || !ESTADO_SUBIENDO.equals(snap.getString("estado")) || tomadaPorOtra(snap)) {
+                    return false;
+                }
+                tx.update(recetaRef, updates);
+                return true;
+            }).get(firestoreTimeoutSeconds + 2, TimeUnit.SECONDS);
+
+            if (marcada) {
+                log.warn("🚫 Receta {} marcada como {}: {}", recetaId, ESTADO_ERROR_SUBIDA, motivo);
+            } else {
+                log.info("ℹ️ Receta {} no se marca como {}: ya no está en '{}' o la tiene otra instancia",
+                        recetaId, ESTADO_ERROR_SUBIDA, ESTADO_SUBIENDO);
+            }
+            return marcada;
+
+        } catch (Exception e) {
+            log.error("💥 CRÍTICO: No se pudo marcar la receta {} como {}: {}",
+                    recetaId, ESTADO_ERROR_SUBIDA, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * true si la receta tiene la imagen, false si no existe o no la tiene,
+     * null si no se pudo leer
+     */
+    private Boolean referenciaImagen(String recetaId, ImagenAlmacenada imagen) {
+        try {
+            DocumentSnapshot snap = firestore.collection("recetas").document(recetaId).get()
+                    .get(firestoreTimeoutSeconds, TimeUnit.SECONDS);
+            return snap.exists() && imagen.getPath().equals(snap.getString("imagenPath"));
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo releer la receta {}: {}", recetaId, e.getMessage());
+            return null;
+        }
+    }
+
+    private void finalizar(Tarea tarea) {
+        eliminarDelSpool(tarea.archivo);
+        enCurso.remove(tarea.recetaId);
+    }
+
+    /**
+     * Subida pendiente de una receta (intentos e imagenEnDuda solo los modifica el worker que la ejecuta)
+     */
+    private static class Tarea {
+        private final String recetaId;
+        private final Path archivo;
+        private final String nombre;
+        private final String contentType;
+        private volatile int intentos;
+        private volatile ImagenAlmacenada imagenEnDuda;
+
+        private Tarea(String recetaId, Path archivo, String nombre, String contentType) {
+            this.recetaId = recetaId;
+            this.archivo = archivo;
+            this.nombre = nombre;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.medify.medicamentos_backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Control de admisión de subidas de imágenes.
+ *
+ * Limita la cantidad de subidas simultáneas y el total de bytes en vuelo
+ * (tamaño declarado de los requests multipart) para que una ráfaga no agote
+ * heap ni disco temporal. Si no hay lugar, el request espera un rato corto;
+ * pasado ese tiempo (o con demasiados esperando) se rechaza.
+ */
+@Service
+public class UploadAdmissionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadAdmissionService.class);
+    private static final long MB = 1024L * 1024L;
+
+    @Value("${uploads.admission.max.concurrent:8}")
+    private int maxConcurrent;
+
+    @Value("${uploads.admission.max.inflight.mb:96}")
+    private long maxInflightMb;
+
+    @Value("${uploads.admission.max.waiting:16}")
+    private int maxWaiting;
+
+    @Value("${uploads.admission.queue.timeout.ms:2000}")
+    private long queueTimeoutMs;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition liberado = lock.newCondition();
+
+    // Estado protegido por lock
+    private int enCurso;
+    private long bytesEnCurso;
+    private int esperando;
+
+    private final AtomicLong admitidas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+    private final AtomicLong encoladas = new AtomicLong();
+
+    /**
+     * Intenta admitir una subida de tantos bytes, esperando como máximo el timeout de cola
+     *
+     * @return true si se admitió (el llamador debe llamar a {@link #liberar(long)} al terminar)
+     */
+    public boolean adquirir(long bytes) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+
+        lock.lock();
+        try {
+            if (!cabe(bytes)) {
+                if (esperando >= maxWaiting) {
+                    rechazadas.incrementAndGet();
+                    return false;
+                }
+
+                encoladas.incrementAndGet();
+                esperando++;
+                try {
+                    long restante = limite - System.nanoTime();
+                    while (!cabe(bytes)) {
+                        if (restante <= 0) {
+                            rechazadas.incrementAndGet();
+                            log.warn("⏳ Subida rechazada: {} en curso, {} MB en vuelo",
+                                    enCurso, bytesEnCurso / MB);
+                            return false;
+                        }
+                        restante = liberado.awaitNanos(restante);
+                    }
+                } finally {
+                    esperando--;
+                }
+            }
+
+            enCurso++;
+            bytesEnCurso += bytes;
+            admitidas.incrementAndGet();
+            return true;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Libera el lugar de una subida admitida
+     */
+    public void liberar(long bytes) {
+        lock.lock();
+        try {
+            enCurso--;
+            bytesEnCurso -= bytes;
+            liberado.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gauges del control de admisión
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.lock();
+        try {
+            stats.put("enCurso", enCurso);
+            stats.put("bytesEnCurso", bytesEnCurso);
+            stats.put("esperando", esperando);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxBytesEnCurso", maxInflightMb * MB);
+        stats.put("admitidas", admitidas.get());
+        stats.put("encoladas", encoladas.get());
+        stats.put("rechazadas", rechazadas.get());
+        return stats;
+    }
+
+    /**
+     * Hay lugar si no se supera la concurrencia ni el total de bytes.
+     * Una subida sola siempre entra aunque supere el límite de bytes (la limita multipart).
+     */
+    private boolean cabe(long bytes) {
+        if (enCurso >= maxConcurrent) {
+            return false;
+        }
+        return enCurso == 0 || bytesEnCurso + bytes <= maxInflightMb * MB;
+    }
+}
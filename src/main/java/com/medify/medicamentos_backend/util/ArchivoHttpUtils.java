@@ -0,0 +1,192 @@
+package com.medify.medicamentos_backend.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Envío de archivos del disco en respuestas HTTP.
+ *
+ * El contenido se copia en bloques con FileChannel.transferTo al stream de la respuesta,
+ * sin cargar el archivo entero en memoria. Como el destino es un OutputStream (no un
+ * socket) no hay zero-copy: cada bloque pasa por un buffer temporal de la JVM y por el
+ * buffer de salida del contenedor. Soporta ETag (304) y Range (206).
+ */
+public final class ArchivoHttpUtils {
+
+    private ArchivoHttpUtils() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Content-Type según la extensión del archivo
+     */
+    public static String contentType(Path archivo) {
+        return MediaTypeFactory.getMediaType(archivo.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+    }
+
+    /**
+     * ETag para un archivo local según su tamaño y fecha de modificación
+     */
+    public static String etag(Path archivo) throws IOException {
+        return "\"" + Long.toHexString(Files.getLastModifiedTime(archivo).toMillis())
+                + "-" + Long.toHexString(Files.size(archivo)) + "\"";
+    }
+
+    /**
+     * Envía el archivo con soporte de caché HTTP y descargas parciales:
+     * - If-None-Match con el ETag -> 304 sin cuerpo
+     * - Range: bytes=a-b / a- / -n (un solo rango) -> 206 con Content-Range
+     * - If-Range con otro ETag -> se ignora el Range y se envía completo
+     * - Rango fuera del archivo -> 416
+     * Varios rangos en el mismo header se responden con el archivo completo.
+     *
+     * El archivo se abre antes de escribir nada: si se borra después (ej: evicción de la
+     * cache) el envío sigue con el archivo abierto, y si ya no existe se lanza
+     * NoSuchFileException con la respuesta todavía sin escribir.
+     */
+    public static void enviar(Path archivo, String contentType, String etag, String cacheControl,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        try (FileChannel in = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            enviar(in, contentType, etag, cacheControl, request, response);
+        }
+    }
+
+    private static void enviar(FileChannel in, String contentType, String etag, String cacheControl,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        long size = in.size();
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || contieneEtag(ifNoneMatch, etag))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(contentType);
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.trim().equals(etag))) {
+            long[] rango = parsearRango(range, size);
+            if (rango == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (rango.length == 2) {
+                long largo = rango[1] - rango[0] + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + rango[0] + "-" + rango[1] + "/" + size);
+                response.setContentLengthLong(largo);
+                if (!"HEAD".equals(request.getMethod())) {
+                    transferir(in, rango[0], largo, response);
+                }
+                return;
+            }
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLengthLong(size);
+        if (!"HEAD".equals(request.getMethod())) {
+            transferir(in, 0, size, response);
+        }
+    }
+
+    /**
+     * Interpreta un header Range de un solo rango
+     *
+     * @return {inicio, fin} inclusivos, un array vacío si hay que enviar el archivo
+     *         completo (varios rangos o unidad desconocida) o null si no es satisfacible
+     */
+    static long[] parsearRango(String header, long size) {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return new long[0];
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int guion = spec.indexOf('-');
+        if (guion < 0) {
+            return null;
+        }
+
+        try {
+            long inicio;
+            long fin;
+            if (guion == 0) {
+                // Sufijo: los últimos n bytes
+                long n = Long.parseLong(spec.substring(1));
+                if (n <= 0) {
+                    return null;
+                }
+                inicio = Math.max(0, size - n);
+                fin = size - 1;
+            } else {
+                inicio = Long.parseLong(spec.substring(0, guion));
+                String finStr = spec.substring(guion + 1);
+                fin = finStr.isEmpty() ? size - 1 : Math.min(Long.parseLong(finStr), size - 1);
+            }
+
+            if (inicio >= size || inicio > fin) {
+                return null;
+            }
+            return new long[]{inicio, fin};
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean contieneEtag(String header, String etag) {
+        for (String valor : header.split(",")) {
+            String v = valor.trim();
+            if (v.startsWith("W/")) {
+                v = v.substring(2);
+            }
+            if (v.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copia [inicio, inicio + largo) del archivo al cuerpo de la respuesta (por bloques,
+     * a través del buffer de salida del contenedor)
+     */
+    private static void transferir(FileChannel in, long inicio, long largo, HttpServletResponse response)
+            throws IOException {
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long posicion = inicio;
+        long restante = largo;
+        while (restante > 0) {
+            long n = in.transferTo(posicion, restante, out);
+            if (n <= 0) {
+                break;
+            }
+            posicion += n;
+            restante -= n;
+        }
+        response.flushBuffer();
+    }
+}
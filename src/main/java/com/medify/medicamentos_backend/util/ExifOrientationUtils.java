@@ -0,0 +1,174 @@
+package com.medify.medicamentos_backend.util;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+   Utilidades para leer y aplicar la orientación EXIF de fotos JPEG
+   (los celulares guardan la foto "acostada" y marcan la rotación en EXIF)
+*/
+public class ExifOrientationUtils {
+
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private ExifOrientationUtils() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+        Lee el tag Orientation (1-8) del segmento APP1/Exif de un JPEG.
+        Devuelve 1 (normal) si no es JPEG, no tiene EXIF o el EXIF es inválido.
+     */
+    public static int leerOrientacion(byte[] jpeg) {
+        if (jpeg == null || jpeg.length < 4
+                || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+
+        try {
+            int pos = 2;
+            while (pos + 4 <= jpeg.length) {
+                if ((jpeg[pos] & 0xFF) != 0xFF) {
+                    return 1;
+                }
+                int marker = jpeg[pos + 1] & 0xFF;
+
+                // Marcadores sin longitud
+                if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    pos += 2;
+                    continue;
+                }
+                // Inicio de los datos comprimidos o fin de imagen: no hay más metadatos
+                if (marker == 0xDA || marker == 0xD9) {
+                    return 1;
+                }
+
+                int length = u16(jpeg, pos + 2, true);
+                int segmento = pos + 4;
+
+                if (marker == 0xE1 && esExif(jpeg, segmento)) {
+                    return leerOrientacionTiff(jpeg, segmento + 6, pos + 2 + length);
+                }
+
+                pos += 2 + length;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // EXIF truncado o corrupto: se ignora
+        }
+        return 1;
+    }
+
+    /**
+        Aplica la orientación EXIF a la imagen decodificada para que quede "derecha"
+     */
+    public static BufferedImage aplicarOrientacion(BufferedImage imagen, int orientacion) {
+        if (orientacion <= 1 || orientacion > 8) {
+            return imagen;
+        }
+
+        int w = imagen.getWidth();
+        int h = imagen.getHeight();
+        boolean rota90 = orientacion >= 5;
+
+        AffineTransform t = new AffineTransform();
+        switch (orientacion) {
+            case 2: // espejo horizontal
+                t.translate(w, 0);
+                t.scale(-1, 1);
+                break;
+            case 3: // 180°
+                t.translate(w, h);
+                t.rotate(Math.PI);
+                break;
+            case 4: // espejo vertical
+                t.translate(0, h);
+                t.scale(1, -1);
+                break;
+            case 5: // transpuesta
+                t.rotate(Math.PI / 2);
+                t.scale(1, -1);
+                break;
+            case 6: // 90° horario
+                t.translate(h, 0);
+                t.rotate(Math.PI / 2);
+                break;
+            case 7: // transversa
+                t.scale(-1, 1);
+                t.translate(-h, 0);
+                t.translate(0, w);
+                t.rotate(3 * Math.PI / 2);
+                break;
+            case 8: // 90° antihorario
+                t.translate(0, w);
+                t.rotate(3 * Math.PI / 2);
+                break;
+            default:
+                return imagen;
+        }
+
+        int tipo = imagen.getType() == BufferedImage.TYPE_CUSTOM
+                ? BufferedImage.TYPE_INT_RGB
+                : imagen.getType();
+        BufferedImage destino = new BufferedImage(rota90 ? h : w, rota90 ? w : h, tipo);
+        Graphics2D g = destino.createGraphics();
+        try {
+            g.drawImage(imagen, t, null);
+        } finally {
+            g.dispose();
+        }
+        return destino;
+    }
+
+    private static boolean esExif(byte[] data, int off) {
+        return off + 6 <= data.length
+                && data[off] == 'E' && data[off + 1] == 'x' && data[off + 2] == 'i'
+                && data[off + 3] == 'f' && data[off + 4] == 0 && data[off + 5] == 0;
+    }
+
+    private static int leerOrientacionTiff(byte[] data, int tiff, int fin) {
+        boolean bigEndian;
+        if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            bigEndian = true;
+        } else if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return 1;
+        }
+
+        long ifd0 = u32(data, tiff + 4, bigEndian);
+        int ifd = tiff + (int) ifd0;
+        if (ifd0 < 8 || ifd + 2 > fin) {
+            return 1;
+        }
+
+        int entradas = u16(data, ifd, bigEndian);
+        for (int i = 0; i < entradas; i++) {
+            int entrada = ifd + 2 + i * 12;
+            if (entrada + 12 > fin) {
+                return 1;
+            }
+            if (u16(data, entrada, bigEndian) == TAG_ORIENTATION) {
+                int valor = u16(data, entrada + 8, bigEndian);
+                return valor >= 1 && valor <= 8 ? valor : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int u16(byte[] d, int off, boolean bigEndian) {
+        int a = d[off] & 0xFF;
+        int b = d[off + 1] & 0xFF;
+        return bigEndian ? (a << 8) | b : (b << 8) | a;
+    }
+
+    private static long u32(byte[] d, int off, boolean bigEndian) {
+        long a = d[off] & 0xFF;
+        long b = d[off + 1] & 0xFF;
+        long c = d[off + 2] & 0xFF;
+        long e = d[off + 3] & 0xFF;
+        return bigEndian
+                ? (a << 24) | (b << 16) | (c << 8) | e
+                : (e << 24) | (c << 16) | (b << 8) | a;
+    }
+}
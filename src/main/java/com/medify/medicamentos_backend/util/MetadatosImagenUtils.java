@@ -0,0 +1,158 @@
+package com.medify.medicamentos_backend.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+   Quita los metadatos (EXIF, XMP, IPTC, comentarios) de una imagen sin decodificarla.
+   Se usa con las imágenes que se guardan sin re-codificar (ej: WebP, JPEG CMYK), que
+   de otro modo conservarían datos como la ubicación GPS de la foto.
+
+   Solo se tocan los contenedores (segmentos JPEG, chunks PNG y WebP); los datos de
+   la imagen se copian tal cual. Se conservan los perfiles de color (ICC, Adobe).
+*/
+public class MetadatosImagenUtils {
+
+    // APP1 (EXIF/XMP), APP3-APP13 (IPTC, Photoshop, datos de fabricantes), APP15 y COM
+    private static final Set<Integer> MARCADORES_JPEG_QUITAR = Set.of(
+            0xE1, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xEB, 0xEC, 0xED, 0xEF, 0xFE);
+    private static final Set<String> CHUNKS_PNG_QUITAR = Set.of("eXIf", "tEXt", "zTXt", "iTXt", "tIME");
+    private static final Set<String> CHUNKS_WEBP_QUITAR = Set.of("EXIF", "XMP ");
+    // Flags del chunk VP8X que anuncian EXIF y XMP
+    private static final int VP8X_EXIF = 0x08;
+    private static final int VP8X_XMP = 0x04;
+
+    private MetadatosImagenUtils() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+        Copia de la imagen sin metadatos. Formatos sin metadatos conocidos (ej: GIF)
+        se devuelven sin cambios.
+
+        @throws IllegalArgumentException si el contenedor está truncado o es inválido
+     */
+    public static byte[] quitarMetadatos(byte[] imagen) {
+        try {
+            if (imagen.length >= 3 && (imagen[0] & 0xFF) == 0xFF && (imagen[1] & 0xFF) == 0xD8) {
+                return quitarJpeg(imagen);
+            }
+            if (imagen.length >= 8 && (imagen[0] & 0xFF) == 0x89 && imagen[1] == 'P' && imagen[2] == 'N' && imagen[3] == 'G') {
+                return quitarPng(imagen);
+            }
+            if (imagen.length >= 12 && ascii(imagen, 0).equals("RIFF") && ascii(imagen, 8).equals("WEBP")) {
+                return quitarWebp(imagen);
+            }
+            return imagen;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Imagen truncada o inválida", e);
+        }
+    }
+
+    private static byte[] quitarJpeg(byte[] jpeg) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(jpeg.length);
+        salida.write(jpeg, 0, 2);
+        int pos = 2;
+        while (true) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                throw new IllegalArgumentException("Segmento JPEG inválido");
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Byte de relleno antes del marcador
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                salida.write(jpeg, pos, 2);
+                pos += 2;
+                continue;
+            }
+            // Inicio de los datos comprimidos o fin de imagen: el resto se copia tal cual
+            if (marker == 0xDA || marker == 0xD9) {
+                salida.write(jpeg, pos, jpeg.length - pos);
+                return salida.toByteArray();
+            }
+
+            int largo = ((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF);
+            if (largo < 2 || pos + 2 + largo > jpeg.length) {
+                throw new IllegalArgumentException("Segmento JPEG truncado");
+            }
+            if (!MARCADORES_JPEG_QUITAR.contains(marker)) {
+                salida.write(jpeg, pos, 2 + largo);
+            }
+            pos += 2 + largo;
+        }
+    }
+
+    private static byte[] quitarPng(byte[] png) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(png.length);
+        salida.write(png, 0, 8);
+        int pos = 8;
+        while (pos < png.length) {
+            long largo = u32be(png, pos);
+            String tipo = ascii(png, pos + 4);
+            long total = 12 + largo;
+            if (pos + total > png.length) {
+                throw new IllegalArgumentException("Chunk PNG truncado");
+            }
+            if (!CHUNKS_PNG_QUITAR.contains(tipo)) {
+                salida.write(png, pos, (int) total);
+            }
+            pos += (int) total;
+            if ("IEND".equals(tipo)) {
+                break;
+            }
+        }
+        return salida.toByteArray();
+    }
+
+    private static byte[] quitarWebp(byte[] webp) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(webp.length);
+        salida.write(webp, 0, 12);
+        long fin = Math.min(webp.length, 8 + u32le(webp, 4));
+        int pos = 12;
+        while (pos + 8 <= fin) {
+            String tipo = ascii(webp, pos);
+            long largo = u32le(webp, pos + 4);
+            // Los chunks de largo impar llevan un byte de relleno
+            long total = 8 + largo + (largo & 1);
+            if (pos + 8 + largo > fin) {
+                throw new IllegalArgumentException("Chunk WebP truncado");
+            }
+            total = Math.min(total, fin - pos);
+            if (!CHUNKS_WEBP_QUITAR.contains(tipo)) {
+                byte[] chunk = Arrays.copyOfRange(webp, pos, pos + (int) total);
+                if ("VP8X".equals(tipo) && largo > 0) {
+                    chunk[8] &= (byte) ~(VP8X_EXIF | VP8X_XMP);
+                }
+                salida.write(chunk, 0, chunk.length);
+            }
+            pos += (int) total;
+        }
+
+        byte[] resultado = salida.toByteArray();
+        long tamanioRiff = resultado.length - 8L;
+        resultado[4] = (byte) tamanioRiff;
+        resultado[5] = (byte) (tamanioRiff >>> 8);
+        resultado[6] = (byte) (tamanioRiff >>> 16);
+        resultado[7] = (byte) (tamanioRiff >>> 24);
+        return resultado;
+    }
+
+    private static String ascii(byte[] datos, int pos) {
+        return new String(datos, pos, 4, StandardCharsets.US_ASCII);
+    }
+
+    private static long u32be(byte[] datos, int pos) {
+        return ((long) (datos[pos] & 0xFF) << 24) | ((datos[pos + 1] & 0xFF) << 16)
+                | ((datos[pos + 2] & 0xFF) << 8) | (datos[pos + 3] & 0xFF);
+    }
+
+    private static long u32le(byte[] datos, int pos) {
+        return (datos[pos] & 0xFF) | ((datos[pos + 1] & 0xFF) << 8)
+                | ((datos[pos + 2] & 0xFF) << 16) | ((long) (datos[pos + 3] & 0xFF) << 24);
+    }
+}
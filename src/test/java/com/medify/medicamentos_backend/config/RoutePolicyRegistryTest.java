@@ -0,0 +1,171 @@
+package com.medify.medicamentos_backend.config;
+
+import com.medify.medicamentos_backend.service.AdaptiveConcurrencyService.Prioridad;
+import com.medify.medicamentos_backend.service.RateLimitService;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Resolución de políticas en {@link RoutePolicyRegistry}: prefijo más largo,
+ * métodos, comodines y la política por defecto
+ */
+class RoutePolicyRegistryTest {
+
+    private static RoutePolicyRegistry registro(MockEnvironment env) {
+        RateLimitService rateLimitService = new RateLimitService(new MockEnvironment(), null, 10, 5, false, 1000, "test");
+        return new RoutePolicyRegistry(env, rateLimitService);
+    }
+
+    private static MockEnvironment politicas(String nombres) {
+        return new MockEnvironment().withProperty("routes.policies", nombres);
+    }
+
+    @Test
+    void ganaElPrefijoMasLargo() {
+        RoutePolicyRegistry registro = registro(politicas("pagos,webhook")
+                .withProperty("routes.policy.pagos.prefix", "/api/pagos/")
+                .withProperty("routes.policy.webhook.prefix", "/api/pagos/webhook")
+                .withProperty("routes.policy.webhook.priority", "critica"));
+
+        assertThat(registro.resolver("POST", "/api/pagos/webhook").getNombre()).isEqualTo("webhook");
+        assertThat(registro.resolver("POST", "/api/pagos/webhook/123").getPrioridad()).isEqualTo(Prioridad.CRITICA);
+        assertThat(registro.resolver("GET", "/api/pagos/estado").getNombre()).isEqualTo("pagos");
+        assertThat(registro.resolver("GET", "/api/pagos").getNombre()).isEqualTo("default");
+    }
+
+    @Test
+    void sinCoincidenciaDevuelveLaPorDefecto() {
+        RoutePolicyRegistry registro = registro(politicas("pagos")
+                .withProperty("routes.policy.pagos.prefix", "/api/pagos/"));
+
+        RoutePolicy politica = registro.resolver("GET", "/api/recetas/1");
+
+        assertThat(politica).isSameAs(RoutePolicy.POR_DEFECTO);
+        assertThat(politica.isRateLimited()).isFalse();
+        assertThat(registro.resolver("GET", "").getNombre()).isEqualTo("default");
+    }
+
+    @Test
+    void respetaLosMetodos() {
+        RoutePolicyRegistry registro = registro(politicas("subida")
+                .withProperty("routes.policy.subida.prefix", "/api/recetas/crear-con-imagen")
+                .withProperty("routes.policy.subida.methods", "post, put"));
+
+        assertThat(registro.resolver("POST", "/api/recetas/crear-con-imagen").getNombre()).isEqualTo("subida");
+        assertThat(registro.resolver("PUT", "/api/recetas/crear-con-imagen").getNombre()).isEqualTo("subida");
+        assertThat(registro.resolver("GET", "/api/recetas/crear-con-imagen").getNombre()).isEqualTo("default");
+        assertThat(registro.resolver("PROPFIND", "/api/recetas/crear-con-imagen").getNombre()).isEqualTo("default");
+    }
+
+    @Test
+    void conElMismoPrefijoGanaLaQueRestringeMetodos() {
+        RoutePolicyRegistry registro = registro(politicas("todas,escritura")
+                .withProperty("routes.policy.todas.prefix", "/api/recetas")
+                .withProperty("routes.policy.escritura.prefix", "/api/recetas")
+                .withProperty("routes.policy.escritura.methods", "POST"));
+
+        assertThat(registro.resolver("POST", "/api/recetas").getNombre()).isEqualTo("escritura");
+        assertThat(registro.resolver("GET", "/api/recetas").getNombre()).isEqualTo("todas");
+        // Un método desconocido solo lo toma la que acepta todos
+        assertThat(registro.resolver("PROPFIND", "/api/recetas").getNombre()).isEqualTo("todas");
+    }
+
+    @Test
+    void elComodinAceptaUnSegmentoCompleto() {
+        RoutePolicyRegistry registro = registro(politicas("inbox")
+                .withProperty("routes.policy.inbox.prefix", "/api/farmacias/*/inbox"));
+
+        assertThat(registro.resolver("GET", "/api/farmacias/abc123/inbox").getNombre()).isEqualTo("inbox");
+        assertThat(registro.resolver("GET", "/api/farmacias/abc123/inbox/recetas").getNombre()).isEqualTo("inbox");
+        assertThat(registro.resolver("GET", "/api/farmacias//inbox").getNombre()).isEqualTo("default");
+        assertThat(registro.resolver("GET", "/api/farmacias/abc/def/inbox").getNombre()).isEqualTo("default");
+    }
+
+    @Test
+    void elLiteralGanaAlComodin() {
+        RoutePolicyRegistry registro = registro(politicas("inbox,propias")
+                .withProperty("routes.policy.inbox.prefix", "/api/farmacias/*/inbox")
+                .withProperty("routes.policy.propias.prefix", "/api/farmacias/propias/inbox"));
+
+        assertThat(registro.resolver("GET", "/api/farmacias/propias/inbox").getNombre()).isEqualTo("propias");
+        assertThat(registro.resolver("GET", "/api/farmacias/otra/inbox").getNombre()).isEqualTo("inbox");
+    }
+
+    @Test
+    void siElLiteralNoLlegaSeProbaElComodin() {
+        RoutePolicyRegistry registro = registro(politicas("inbox,stock")
+                .withProperty("routes.policy.inbox.prefix", "/api/farmacias/*/inbox")
+                .withProperty("routes.policy.stock.prefix", "/api/farmacias/propias/stock"));
+
+        assertThat(registro.resolver("GET", "/api/farmacias/propias/inbox").getNombre()).isEqualTo("inbox");
+        assertThat(registro.resolver("GET", "/api/farmacias/propias/stock").getNombre()).isEqualTo("stock");
+    }
+
+    @Test
+    void unAsteriscoDentroDeUnSegmentoEsLiteral() {
+        RoutePolicyRegistry registro = registro(politicas("literal")
+                .withProperty("routes.policy.literal.prefix", "/api/a*b"));
+
+        assertThat(registro.resolver("GET", "/api/a*b").getNombre()).isEqualTo("literal");
+        assertThat(registro.resolver("GET", "/api/axb").getNombre()).isEqualTo("default");
+    }
+
+    @Test
+    void variosPrefijosParaUnaPolitica() {
+        RoutePolicyRegistry registro = registro(politicas("imagenes")
+                .withProperty("routes.policy.imagenes.prefix", "/api/imagenes/subir, /api/recetas/subida"));
+
+        assertThat(registro.resolver("POST", "/api/imagenes/subir").getNombre()).isEqualTo("imagenes");
+        assertThat(registro.resolver("POST", "/api/recetas/subida/1").getNombre()).isEqualTo("imagenes");
+    }
+
+    @Test
+    void leeNamespaceIdentificadorEIdempotencia() {
+        RoutePolicyRegistry registro = registro(politicas("propia,sin-limite,compartida")
+                .withProperty("routes.policy.propia.prefix", "/api/propia")
+                .withProperty("routes.policy.propia.per.minute", "30")
+                .withProperty("routes.policy.propia.idempotency", "true")
+                .withProperty("routes.policy.sin-limite.prefix", "/api/libre")
+                .withProperty("routes.policy.sin-limite.namespace", " ")
+                .withProperty("routes.policy.compartida.prefix", "/api/compartida")
+                .withProperty("routes.policy.compartida.namespace", "api")
+                .withProperty("routes.policy.compartida.identifier", "ruta"));
+
+        RoutePolicy propia = registro.resolver("POST", "/api/propia");
+        assertThat(propia.getNamespace()).isEqualTo("propia");
+        assertThat(propia.isIdempotente()).isTrue();
+        assertThat(propia.getIdentificador()).isEqualTo(RoutePolicy.Identificador.USUARIO);
+
+        assertThat(registro.resolver("GET", "/api/libre").isRateLimited()).isFalse();
+
+        RoutePolicy compartida = registro.resolver("GET", "/api/compartida");
+        assertThat(compartida.getNamespace()).isEqualTo("api");
+        assertThat(compartida.getIdentificador()).isEqualTo(RoutePolicy.Identificador.RUTA);
+        assertThat(compartida.isIdempotente()).isFalse();
+    }
+
+    @Test
+    void resuelveDesdeElRequest() {
+        RoutePolicyRegistry registro = registro(politicas("webhook")
+                .withProperty("routes.policy.webhook.prefix", "/api/pagos/webhook"));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/pagos/webhook");
+
+        assertThat(registro.resolver(request).getNombre()).isEqualTo("webhook");
+    }
+
+    @Test
+    void rechazaPoliticasMalDeclaradas() {
+        assertThatThrownBy(() -> registro(politicas("sin-prefijo")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("routes.policy.sin-prefijo.prefix");
+        assertThatThrownBy(() -> registro(politicas("relativa")
+                .withProperty("routes.policy.relativa.prefix", "api/pagos")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("api/pagos");
+    }
+}
@@ -0,0 +1,201 @@
+package com.medify.medicamentos_backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Normalización, puntaje y paginación de {@link FarmaciaBusquedaService}
+ */
+class FarmaciaBusquedaServiceTest {
+
+    private FarmaciaBusquedaService busqueda;
+
+    @BeforeEach
+    void setUp() {
+        busqueda = new FarmaciaBusquedaService(mock(FarmaciaDirectorioService.class));
+        ReflectionTestUtils.setField(busqueda, "maxPagina", 50);
+        ReflectionTestUtils.setField(busqueda, "maxResultados", 500);
+        ReflectionTestUtils.setField(busqueda, "maxTerminosPrefijo", 50);
+    }
+
+    @Test
+    void tokenizarNormalizaYQuitaPalabrasVacias() {
+        assertThat(FarmaciaBusquedaService.tokenizar("Farmacia Güemes de la Ciudad"))
+                .containsExactly("farmacia", "guemes", "ciudad");
+        assertThat(FarmaciaBusquedaService.tokenizar("Av. San Martín 1234, 1º piso"))
+                .containsExactly("av", "san", "martin", "1234", "1", "piso");
+        assertThat(FarmaciaBusquedaService.tokenizar("ÑANDÚ ñandu"))
+                .containsExactly("nandu");
+    }
+
+    @Test
+    void tokenizarTextoVacio() {
+        assertThat(FarmaciaBusquedaService.tokenizar(null)).isEmpty();
+        assertThat(FarmaciaBusquedaService.tokenizar("   ")).isEmpty();
+        assertThat(FarmaciaBusquedaService.tokenizar("de la y")).isEmpty();
+        assertThat(FarmaciaBusquedaService.tokenizar("--- !!")).isEmpty();
+    }
+
+    @Test
+    void encuentraSinAcentosNiMayusculas() {
+        farmacia("f1", "Farmacia Güemes", "Güemes 3200", "9 a 21");
+
+        assertThat(ids(busqueda.buscar("GUEMES", 0, 10))).containsExactly("f1");
+        assertThat(ids(busqueda.buscar("güemes", 0, 10))).containsExactly("f1");
+    }
+
+    @Test
+    void todasLasPalabrasTienenQueAparecer() {
+        farmacia("central", "Farmacia Central", "Belgrano 100", null);
+        farmacia("norte", "Farmacia del Norte", "Mitre 50", null);
+
+        assertThat(ids(busqueda.buscar("farmacia central", 0, 10))).containsExactly("central");
+        // Entre campos distintos también
+        assertThat(ids(busqueda.buscar("norte mitre", 0, 10))).containsExactly("norte");
+        assertThat(ids(busqueda.buscar("central mitre", 0, 10))).isEmpty();
+    }
+
+    @Test
+    void laUltimaPalabraSeTomaComoPrefijo() {
+        farmacia("central", "Farmacia Central", "Belgrano 100", null);
+        farmacia("centenario", "Farmacia Centenario", "Rivadavia 5000", null);
+        farmacia("sur", "Farmacia Sur", "Centro 1", null);
+
+        assertThat(ids(busqueda.buscar("farmacia cent", 0, 10))).containsExactlyInAnyOrder("central", "centenario", "sur");
+        assertThat(ids(busqueda.buscar("farmacia centr", 0, 10))).containsExactlyInAnyOrder("central", "sur");
+        // Solo la última: "cent" en el medio tiene que ser exacta
+        assertThat(ids(busqueda.buscar("cent farmacia", 0, 10))).isEmpty();
+        // Una sola letra no se expande
+        assertThat(ids(busqueda.buscar("c", 0, 10))).isEmpty();
+    }
+
+    @Test
+    void elNombrePesaMasQueLaDireccion() {
+        farmacia("por-direccion", "Farmacia Uno", "Sarmiento 200", null);
+        farmacia("por-nombre", "Farmacia Sarmiento", "Lavalle 10", null);
+        farmacia("otra", "Drogueria Dos", "Lavalle 20", null);
+
+        assertThat(ids(busqueda.buscar("sarmiento", 0, 10))).containsExactly("por-nombre", "por-direccion");
+    }
+
+    @Test
+    void laCoincidenciaExactaGanaAlPrefijo() {
+        farmacia("prefijo", "Farmacia Sanitas", "Lavalle 10", null);
+        farmacia("exacta", "Farmacia San", "Lavalle 20", null);
+
+        assertThat(ids(busqueda.buscar("san", 0, 10))).containsExactly("exacta", "prefijo");
+    }
+
+    @Test
+    void paginaConEmpateOrdenadoPorNombre() {
+        for (int i = 12; i >= 1; i--) {
+            farmacia(String.format("f%02d", i), String.format("Farmacia %02d", i), "Mitre " + i, null);
+        }
+
+        List<String> todos = new ArrayList<>();
+        for (int pagina = 0; pagina < 3; pagina++) {
+            Map<String, Object> resultado = busqueda.buscar("farmacia", pagina, 5);
+            assertThat(resultado).containsEntry("total", 12).containsEntry("pagina", pagina)
+                    .containsEntry("hayMas", pagina < 2);
+            todos.addAll(ids(resultado));
+        }
+
+        assertThat(todos).containsExactly("f01", "f02", "f03", "f04", "f05", "f06",
+                "f07", "f08", "f09", "f10", "f11", "f12");
+        assertThat(ids(busqueda.buscar("farmacia", 3, 5))).isEmpty();
+    }
+
+    @Test
+    void elLimiteSeAcotaAlMaximoDePagina() {
+        ReflectionTestUtils.setField(busqueda, "maxPagina", 3);
+        for (int i = 0; i < 5; i++) {
+            farmacia("f" + i, "Farmacia " + i, "Mitre", null);
+        }
+
+        assertThat(ids(busqueda.buscar("farmacia", 0, 1000))).hasSize(3);
+        assertThat(ids(busqueda.buscar("farmacia", 0, 0))).hasSize(1);
+        // Una página negativa es la primera
+        assertThat(busqueda.buscar("farmacia", -4, 3)).containsEntry("pagina", 0);
+    }
+
+    @Test
+    void rechazaPaginasMasAllaDeLosResultadosAlcanzables() {
+        ReflectionTestUtils.setField(busqueda, "maxResultados", 20);
+        farmacia("f1", "Farmacia Uno", "Mitre", null);
+
+        assertThat(busqueda.buscar("farmacia", 3, 5)).containsEntry("total", 1);
+        assertThatThrownBy(() -> busqueda.buscar("farmacia", 4, 5))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("20");
+        // Sin desbordar el int
+        assertThatThrownBy(() -> busqueda.buscar("farmacia", Integer.MAX_VALUE, 50))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void devuelveSoloDatosPublicos() {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("nombreComercial", "Farmacia Central");
+        datos.put("direccion", "Belgrano 100");
+        datos.put("telefono", "3510000000");
+        datos.put("email", "privado@farmacia.com");
+        datos.put("cuit", "20-00000000-0");
+        busqueda.actualizar("central", datos);
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) busqueda.buscar("central", 0, 10).get("items");
+
+        assertThat(items).singleElement().satisfies(item -> assertThat(item)
+                .containsOnlyKeys("id", "puntaje", "nombreComercial", "direccion", "telefono"));
+    }
+
+    @Test
+    void actualizarReemplazaLasPalabrasYQuitarLasBorra() {
+        farmacia("f1", "Farmacia Vieja", "Mitre 1", null);
+        farmacia("f1", "Farmacia Nueva", "Mitre 1", null);
+
+        assertThat(ids(busqueda.buscar("vieja", 0, 10))).isEmpty();
+        assertThat(ids(busqueda.buscar("nueva", 0, 10))).containsExactly("f1");
+
+        busqueda.quitar("f1");
+        assertThat(ids(busqueda.buscar("nueva", 0, 10))).isEmpty();
+        assertThat(busqueda.getStats()).containsEntry("farmacias", 0).containsEntry("palabras", 0);
+        // Quitar una que no está no falla
+        busqueda.quitar("f1");
+    }
+
+    @Test
+    void consultaVaciaNoDevuelveNada() {
+        farmacia("f1", "Farmacia Central", "Mitre 1", null);
+
+        assertThat(busqueda.buscar("de la", 0, 10)).containsEntry("total", 0).containsEntry("hayMas", false);
+        assertThat(ids(busqueda.buscar("", 0, 10))).isEmpty();
+    }
+
+    private void farmacia(String id, String nombre, String direccion, String horario) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("nombreComercial", nombre);
+        datos.put("direccion", direccion);
+        if (horario != null) {
+            datos.put("horario", horario);
+        }
+        busqueda.actualizar(id, datos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> ids(Map<String, Object> resultado) {
+        return ((List<Map<String, Object>>) resultado.get("items")).stream()
+                .map(item -> (String) item.get("id"))
+                .toList();
+    }
+}
@@ -0,0 +1,165 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.GeoPoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Consultas por radio de {@link FarmaciaGeoIndexService} y su mantenimiento
+ */
+class FarmaciaGeoIndexServiceTest {
+
+    private static final GeoPoint CORDOBA = new GeoPoint(-31.4201, -64.1888);
+    // Grados de latitud por km con el radio de la esfera de haversine
+    private static final double GRADOS_POR_KM = 1 / 111.195;
+
+    private final Map<String, GeoPoint> direcciones = new HashMap<>();
+    private FarmaciaGeoIndexService indice;
+
+    @BeforeEach
+    void setUp() {
+        Geocoder geocoder = direccion -> {
+            if (direccion.contains("falla")) {
+                throw new IllegalStateException("geocoder caído");
+            }
+            return direcciones.get(direccion);
+        };
+        indice = new FarmaciaGeoIndexService(mock(FarmaciaDirectorioService.class), geocoder);
+        ReflectionTestUtils.setField(indice, "celdaKm", 5.0);
+        ReflectionTestUtils.setField(indice, "radioMaxKm", 100.0);
+        indice.init();
+    }
+
+    @Test
+    void devuelveLasDelRadioDeLaMasCercanaALaMasLejana() {
+        ubicar("lejos", desplazada(CORDOBA, 12, 0));
+        ubicar("norte", desplazada(CORDOBA, 1, 0));
+        ubicar("este", desplazada(CORDOBA, 0, 4));
+        ubicar("rosario", new GeoPoint(-32.9442, -60.6505));
+
+        Map<String, Double> cercanas = indice.cercanas(CORDOBA, 10);
+
+        assertThat(cercanas.keySet()).containsExactly("norte", "este");
+        assertThat(cercanas.get("norte")).isCloseTo(1.0, within(0.02));
+        assertThat(cercanas.get("este")).isCloseTo(4.0, within(0.02));
+        assertThat(indice.cercanas(CORDOBA, 15).keySet()).containsExactly("norte", "este", "lejos");
+    }
+
+    @Test
+    void elRadioSeAcotaAlMaximo() {
+        ubicar("a-60km", desplazada(CORDOBA, 60, 0));
+        ubicar("rosario", new GeoPoint(-32.9442, -60.6505));
+
+        assertThat(indice.cercanas(CORDOBA, 1000).keySet()).containsExactly("a-60km");
+    }
+
+    @Test
+    void coincideConRecorrerTodasLasFarmacias() {
+        Random random = new Random(7);
+        Map<String, GeoPoint> todas = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            GeoPoint punto = new GeoPoint(CORDOBA.getLatitude() + (random.nextDouble() - 0.5) * 2,
+                    CORDOBA.getLongitude() + (random.nextDouble() - 0.5) * 2);
+            todas.put("f" + i, punto);
+            ubicar("f" + i, punto);
+        }
+
+        for (double radio : new double[]{0.5, 3, 7.5, 25, 60}) {
+            for (int consulta = 0; consulta < 20; consulta++) {
+                GeoPoint centro = new GeoPoint(CORDOBA.getLatitude() + (random.nextDouble() - 0.5),
+                        CORDOBA.getLongitude() + (random.nextDouble() - 0.5));
+                Set<String> esperadas = todas.entrySet().stream()
+                        .filter(e -> FarmaciaGeoIndexService.distanciaKm(centro.getLatitude(), centro.getLongitude(),
+                                e.getValue().getLatitude(), e.getValue().getLongitude()) <= radio)
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toSet());
+
+                assertThat(indice.cercanas(centro, radio).keySet()).containsExactlyInAnyOrderElementsOf(esperadas);
+            }
+        }
+    }
+
+    @Test
+    void prefiereLaUbicacionGuardadaALaDireccion() {
+        direcciones.put("Av. Colón 100, Córdoba", CORDOBA);
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("direccion", "Av. Colón 100, Córdoba");
+        datos.put("ubicacion", desplazada(CORDOBA, 50, 0));
+        indice.actualizar("f1", datos);
+
+        assertThat(indice.cercanas(CORDOBA, 10)).isEmpty();
+        assertThat(indice.cercanas(desplazada(CORDOBA, 50, 0), 1)).containsKey("f1");
+    }
+
+    @Test
+    void geocodificaLasFarmaciasSinUbicacion() {
+        direcciones.put("Av. Colón 100, Córdoba", CORDOBA);
+
+        indice.actualizar("f1", Map.of("direccion", "Av. Colón 100, Córdoba"));
+
+        assertThat(indice.cercanas(CORDOBA, 1)).containsEntry("f1", 0.0);
+        assertThat(indice.sinUbicacion()).isEmpty();
+    }
+
+    @Test
+    void lasQueNoSePuedenUbicarQuedanAparte() {
+        indice.actualizar("desconocida", Map.of("direccion", "Calle sin localidad 1"));
+        indice.actualizar("sin-direccion", Map.of("nombreComercial", "Farmacia"));
+        indice.actualizar("con-error", Map.of("direccion", "falla"));
+
+        assertThat(indice.sinUbicacion()).containsExactlyInAnyOrder("desconocida", "sin-direccion", "con-error");
+        assertThat(indice.getStats()).containsEntry("farmaciasUbicadas", 0).containsEntry("farmaciasSinUbicacion", 3);
+
+        // Al ubicarla sale de la lista
+        ubicar("desconocida", CORDOBA);
+        assertThat(indice.sinUbicacion()).containsExactlyInAnyOrder("sin-direccion", "con-error");
+    }
+
+    @Test
+    void moverYQuitarActualizanLasCeldas() {
+        ubicar("f1", CORDOBA);
+        ubicar("f1", desplazada(CORDOBA, 30, 30));
+
+        assertThat(indice.cercanas(CORDOBA, 5)).isEmpty();
+        assertThat(indice.cercanas(desplazada(CORDOBA, 30, 30), 1)).containsKey("f1");
+        assertThat(indice.getStats()).containsEntry("celdas", 1);
+
+        indice.quitar("f1");
+        assertThat(indice.cercanas(desplazada(CORDOBA, 30, 30), 1)).isEmpty();
+        assertThat(indice.getStats()).containsEntry("celdas", 0).containsEntry("farmaciasUbicadas", 0);
+    }
+
+    @Test
+    void distanciaEntreCiudades() {
+        // CABA - Córdoba
+        assertThat(FarmaciaGeoIndexService.distanciaKm(-34.6037, -58.3816, -31.4201, -64.1888))
+                .isCloseTo(646.7, within(0.1));
+        assertThat(FarmaciaGeoIndexService.distanciaKm(-31.4201, -64.1888, -31.4201, -64.1888)).isZero();
+    }
+
+    private void ubicar(String farmaciaId, GeoPoint ubicacion) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("ubicacion", ubicacion);
+        indice.actualizar(farmaciaId, datos);
+    }
+
+    /**
+     * Punto a kmNorte y kmEste del origen
+     */
+    private static GeoPoint desplazada(GeoPoint origen, double kmNorte, double kmEste) {
+        double lat = origen.getLatitude() + kmNorte * GRADOS_POR_KM;
+        double lon = origen.getLongitude() + kmEste * GRADOS_POR_KM / Math.cos(Math.toRadians(origen.getLatitude()));
+        return new GeoPoint(lat, lon);
+    }
+}
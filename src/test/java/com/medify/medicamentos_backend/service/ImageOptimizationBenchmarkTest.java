@@ -0,0 +1,152 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.ImagenProcesada;
+import com.medify.medicamentos_backend.util.ImagenesDePrueba;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Benchmark de {@link ImageOptimizationService} sobre imágenes de muestra
+ *
+ * Las muestras se generan (foto de receta de celular de 12 y 8 MP con EXIF, receta
+ * escaneada en A4 y captura de pantalla PNG) para no versionar binarios. Por cada una
+ * informa tamaño antes/después (con variantes), reducción y latencia p50/máxima; después
+ * mide el throughput del pool con más clientes que workers. Se corre con:
+ * mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class ImageOptimizationBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageOptimizationBenchmarkTest.class);
+    private static final int CALENTAMIENTO = 3;
+    private static final int REPETICIONES = 10;
+    private static final int CLIENTES = 8;
+    private static final int REQUESTS_CONCURRENTES = 48;
+
+    private static final Map<String, Muestra> MUESTRAS = new LinkedHashMap<>();
+    private static ImageOptimizationService servicio;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        MUESTRAS.put("foto 12MP", new Muestra(ImagenesDePrueba.conExif(
+                ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(4000, 3000, 1), 0.92f), 6), "image/jpeg"));
+        MUESTRAS.put("foto 8MP", new Muestra(ImagenesDePrueba.conExif(
+                ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(3264, 2448, 2), 0.9f), 1), "image/jpeg"));
+        MUESTRAS.put("escaneo A4", new Muestra(
+                ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(2480, 3508, 3), 0.95f), "image/jpeg"));
+        MUESTRAS.put("captura PNG", new Muestra(
+                ImagenesDePrueba.png(ImagenesDePrueba.captura(1170, 2532)), "image/png"));
+
+        servicio = ImageOptimizationServiceTest.servicio(32, true);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        servicio.shutdown();
+    }
+
+    @Test
+    void reduccionYLatenciaPorMuestra() throws Exception {
+        long totalAntes = 0;
+        long totalDespues = 0;
+        for (Map.Entry<String, Muestra> entrada : MUESTRAS.entrySet()) {
+            Muestra muestra = entrada.getValue();
+            for (int i = 0; i < CALENTAMIENTO; i++) {
+                optimizar(muestra);
+            }
+
+            long[] latencias = new long[REPETICIONES];
+            ImagenProcesada resultado = null;
+            for (int i = 0; i < REPETICIONES; i++) {
+                long t0 = System.nanoTime();
+                resultado = optimizar(muestra);
+                latencias[i] = System.nanoTime() - t0;
+            }
+
+            assertThat(resultado.isOptimizada()).isTrue();
+            long despues = resultado.getTamano();
+            long conVariantes = despues + resultado.getVariantes().values().stream()
+                    .mapToLong(ImagenProcesada::getTamano).sum();
+            totalAntes += muestra.bytes.length;
+            totalDespues += despues;
+
+            Arrays.sort(latencias);
+            log.info("{}: {} KB -> {} KB ({} KB con variantes, -{}%), {}x{}, p50 {} ms, máx {} ms",
+                    entrada.getKey(), muestra.bytes.length / 1024, despues / 1024, conVariantes / 1024,
+                    100 - despues * 100 / muestra.bytes.length,
+                    resultado.getAncho(), resultado.getAlto(),
+                    TimeUnit.NANOSECONDS.toMillis(latencias[REPETICIONES / 2]),
+                    TimeUnit.NANOSECONDS.toMillis(latencias[REPETICIONES - 1]));
+        }
+        log.info("Total: {} KB -> {} KB (-{}%)", totalAntes / 1024, totalDespues / 1024,
+                100 - totalDespues * 100 / totalAntes);
+    }
+
+    @Test
+    void throughputConMasClientesQueWorkers() throws Exception {
+        List<Muestra> muestras = new ArrayList<>(MUESTRAS.values());
+        AtomicInteger rechazadas = new AtomicInteger();
+        ExecutorService clientes = Executors.newFixedThreadPool(CLIENTES);
+        long inicio = System.nanoTime();
+        try {
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int i = 0; i < REQUESTS_CONCURRENTES; i++) {
+                Muestra muestra = muestras.get(i % muestras.size());
+                tareas.add(clientes.submit(() -> {
+                    try {
+                        optimizar(muestra);
+                    } catch (RejectedExecutionException e) {
+                        // Cola llena: el controller respondería 503
+                        rechazadas.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> tarea : tareas) {
+                tarea.get(5, TimeUnit.MINUTES);
+            }
+        } finally {
+            clientes.shutdownNow();
+        }
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        int aceptadas = REQUESTS_CONCURRENTES - rechazadas.get();
+        log.info("Throughput: {} imágenes en {} s ({} img/s) con {} clientes, {} rechazadas, stats {}",
+                aceptadas, String.format("%.1f", segundos), String.format("%.2f", aceptadas / segundos),
+                CLIENTES, rechazadas.get(), servicio.getStats());
+        assertThat(aceptadas).isPositive();
+    }
+
+    private static ImagenProcesada optimizar(Muestra muestra) throws Exception {
+        String nombre = "image/png".equals(muestra.contentType) ? "muestra.png" : "muestra.jpg";
+        return ImageOptimizationServiceTest.optimizar(servicio, muestra.bytes, nombre, muestra.contentType);
+    }
+
+    private static final class Muestra {
+        private final byte[] bytes;
+        private final String contentType;
+
+        Muestra(byte[] bytes, String contentType) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+        }
+    }
+}
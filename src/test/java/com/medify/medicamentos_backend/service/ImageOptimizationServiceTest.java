@@ -0,0 +1,174 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.ImagenProcesada;
+import com.medify.medicamentos_backend.util.ExifOrientationUtils;
+import com.medify.medicamentos_backend.util.ImagenesDePrueba;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Pipeline de {@link ImageOptimizationService}: orientación, reducción, EXIF,
+ * variantes y formatos que no se pueden decodificar
+ */
+class ImageOptimizationServiceTest {
+
+    private final List<ImageOptimizationService> servicios = new ArrayList<>();
+
+    /**
+     * Servicio con la configuración de application.properties
+     */
+    static ImageOptimizationService servicio(int maxMegapixels, boolean enabled) {
+        ImageOptimizationService servicio = new ImageOptimizationService();
+        ReflectionTestUtils.setField(servicio, "enabled", enabled);
+        ReflectionTestUtils.setField(servicio, "maxDimension", 2048);
+        ReflectionTestUtils.setField(servicio, "jpegQuality", 0.82f);
+        ReflectionTestUtils.setField(servicio, "maxMegapixels", maxMegapixels);
+        ReflectionTestUtils.setField(servicio, "workers", 2);
+        ReflectionTestUtils.setField(servicio, "queueSize", 16);
+        ReflectionTestUtils.setField(servicio, "memoryMaxMb", 256);
+        ReflectionTestUtils.setField(servicio, "timeoutSeconds", 30L);
+        ReflectionTestUtils.setField(servicio, "variantsEnabled", true);
+        ReflectionTestUtils.setField(servicio, "mediumDimension", 1024);
+        ReflectionTestUtils.setField(servicio, "thumbDimension", 320);
+        ReflectionTestUtils.setField(servicio, "variantsJpegQuality", 0.75f);
+        servicio.init();
+        return servicio;
+    }
+
+    static ImagenProcesada optimizar(ImageOptimizationService servicio, byte[] imagen, String nombre,
+                                     String contentType) throws Exception {
+        return servicio.optimizar(() -> new ByteArrayInputStream(imagen), nombre, contentType, imagen.length);
+    }
+
+    private ImageOptimizationService nuevo(int maxMegapixels, boolean enabled) {
+        ImageOptimizationService servicio = servicio(maxMegapixels, enabled);
+        servicios.add(servicio);
+        return servicio;
+    }
+
+    @AfterEach
+    void tearDown() {
+        servicios.forEach(ImageOptimizationService::shutdown);
+    }
+
+    @Test
+    void fotoDeCelularSeRotaReduceYPierdeElExif() throws Exception {
+        // Sensor apaisado con orientación 6: la foto "derecha" es vertical
+        byte[] foto = ImagenesDePrueba.conExif(
+                ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(3000, 2000, 1), 0.92f), 6);
+
+        ImagenProcesada resultado = optimizar(nuevo(32, true), foto, "receta.jpeg", "image/jpeg");
+
+        assertThat(resultado.isOptimizada()).isTrue();
+        assertThat(resultado.getContentType()).isEqualTo("image/jpeg");
+        assertThat(resultado.getExtension()).isEqualTo(".jpg");
+        assertThat(resultado.getAlto()).isEqualTo(2048);
+        assertThat(resultado.getAncho()).isEqualTo(1365);
+        assertThat(resultado.getTamano()).isLessThan(foto.length);
+        assertThat(resultado.getTamanoOriginal()).isEqualTo(foto.length);
+        assertThat(ExifOrientationUtils.leerOrientacion(resultado.getContenido())).isEqualTo(1);
+        assertThat(contiene(resultado.getContenido(), "MakerNote")).isFalse();
+
+        BufferedImage decodificada = ImageIO.read(new ByteArrayInputStream(resultado.getContenido()));
+        assertThat(decodificada.getWidth()).isEqualTo(1365);
+        assertThat(decodificada.getHeight()).isEqualTo(2048);
+    }
+
+    @Test
+    void generaVariantesMasChicas() throws Exception {
+        byte[] foto = ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(2400, 1800, 2), 0.9f);
+
+        ImagenProcesada resultado = optimizar(nuevo(32, true), foto, "receta.jpg", "image/jpeg");
+
+        assertThat(resultado.getVariantes()).containsOnlyKeys("medium", "thumb");
+        ImagenProcesada medium = resultado.getVariantes().get("medium");
+        ImagenProcesada thumb = resultado.getVariantes().get("thumb");
+        assertThat(Math.max(medium.getAncho(), medium.getAlto())).isEqualTo(1024);
+        assertThat(Math.max(thumb.getAncho(), thumb.getAlto())).isEqualTo(320);
+        assertThat(thumb.getTamano()).isLessThan(medium.getTamano());
+        assertThat(medium.getTamano()).isLessThan(resultado.getTamano());
+    }
+
+    @Test
+    void unaImagenChicaNoSeAgranda() throws Exception {
+        byte[] png = ImagenesDePrueba.png(ImagenesDePrueba.captura(300, 200));
+
+        ImagenProcesada resultado = optimizar(nuevo(32, true), png, "captura.png", "image/png");
+
+        assertThat(resultado.isOptimizada()).isTrue();
+        assertThat(resultado.getContentType()).isEqualTo("image/jpeg");
+        assertThat(resultado.getAncho()).isEqualTo(300);
+        assertThat(resultado.getAlto()).isEqualTo(200);
+    }
+
+    @Test
+    void rechazaImagenesDeMasMegapixeles() throws Exception {
+        byte[] foto = ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(1200, 1000, 3), 0.8f);
+        ImageOptimizationService servicio = nuevo(1, true);
+
+        assertThatThrownBy(() -> optimizar(servicio, foto, "grande.jpg", "image/jpeg"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("resolución máxima");
+    }
+
+    @Test
+    void formatoNoDecodificableSeGuardaSinMetadatos() throws Exception {
+        byte[] exif = "GPS -34.60".getBytes(StandardCharsets.US_ASCII);
+        byte[] webp = new byte[12 + 8 + 4 + 8 + exif.length];
+        System.arraycopy("RIFF".getBytes(StandardCharsets.US_ASCII), 0, webp, 0, 4);
+        webp[4] = (byte) (webp.length - 8);
+        System.arraycopy("WEBPVP8 ".getBytes(StandardCharsets.US_ASCII), 0, webp, 8, 8);
+        webp[16] = 4;
+        System.arraycopy("EXIF".getBytes(StandardCharsets.US_ASCII), 0, webp, 24, 4);
+        webp[28] = (byte) exif.length;
+        System.arraycopy(exif, 0, webp, 32, exif.length);
+        ImageOptimizationService servicio = nuevo(32, true);
+
+        ImagenProcesada resultado = optimizar(servicio, webp, "receta.webp", "image/webp");
+
+        assertThat(resultado.isOptimizada()).isFalse();
+        assertThat(resultado.getContentType()).isEqualTo("image/webp");
+        assertThat(resultado.getExtension()).isEqualTo(".webp");
+        assertThat(resultado.getTamano()).isEqualTo(24);
+        assertThat(contiene(resultado.getContenido(), "GPS")).isFalse();
+        assertThat(servicio.getStats()).containsEntry("procesadas", 1L).containsEntry("sinOptimizar", 1L);
+    }
+
+    @Test
+    void deshabilitadaSoloQuitaLosMetadatos() throws Exception {
+        byte[] original = ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(400, 300, 4), 0.9f);
+        byte[] foto = ImagenesDePrueba.conExif(original, 6);
+
+        ImagenProcesada resultado = optimizar(nuevo(32, false), foto, "receta.jpg", "image/jpeg");
+
+        assertThat(resultado.isOptimizada()).isFalse();
+        assertThat(resultado.getContenido()).isEqualTo(original);
+    }
+
+    @Test
+    void elHashEsDelArchivoOriginal() throws Exception {
+        byte[] foto = ImagenesDePrueba.conExif(ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(200, 100, 5), 0.9f), 1);
+
+        ImagenProcesada resultado = optimizar(nuevo(32, true), foto, "receta.jpg", "image/jpeg");
+
+        String esperado = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(foto));
+        assertThat(resultado.getHashOriginal()).isEqualTo(esperado);
+    }
+
+    private static boolean contiene(byte[] datos, String texto) {
+        return new String(datos, StandardCharsets.ISO_8859_1).contains(texto);
+    }
+}
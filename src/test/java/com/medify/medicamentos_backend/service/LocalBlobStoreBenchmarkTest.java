@@ -0,0 +1,175 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.util.ArchivoHttpUtils;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Benchmark del pipeline de subida y descarga sobre {@link LocalBlobStore}
+ *
+ * Escribe imágenes del tamaño típico de una foto de celular (varios hilos, como el
+ * pool de subidas) y las vuelve a servir con {@link ArchivoHttpUtils}, completas y por
+ * rangos. Informa MB/s y latencias p50/p99. Se corre con: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class LocalBlobStoreBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalBlobStoreBenchmarkTest.class);
+    private static final int ARCHIVOS = 200;
+    private static final int TAMANIO = 3 * 1024 * 1024;
+    private static final int HILOS = 4;
+    private static final int CALENTAMIENTO = 20;
+
+    @TempDir
+    Path raiz;
+
+    private LocalBlobStore store;
+    private byte[] imagen;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new LocalBlobStore();
+        ReflectionTestUtils.setField(store, "rootDir", raiz.toString());
+        ReflectionTestUtils.setField(store, "publicUrl", "http://localhost/api/archivos");
+        ReflectionTestUtils.setField(store, "folderPath", "/medify/imagenes");
+        store.init();
+
+        // Bytes aleatorios: como un JPEG, no se comprimen
+        imagen = new byte[TAMANIO];
+        new Random(42).nextBytes(imagen);
+    }
+
+    @Test
+    void subidaYDescarga() throws Exception {
+        for (int i = 0; i < CALENTAMIENTO; i++) {
+            String path = store.construirRuta("calentamiento", i + ".jpg");
+            store.guardar(path, new ByteArrayInputStream(imagen), true);
+            servir(path, null);
+        }
+
+        long[] escritura = new long[ARCHIVOS];
+        ExecutorService pool = Executors.newFixedThreadPool(HILOS);
+        long inicio = System.nanoTime();
+        try {
+            Future<?>[] tareas = new Future<?>[ARCHIVOS];
+            for (int i = 0; i < ARCHIVOS; i++) {
+                int n = i;
+                tareas[i] = pool.submit(() -> {
+                    long t0 = System.nanoTime();
+                    store.guardar(store.construirRuta("recetas", n + ".jpg"), new ByteArrayInputStream(imagen), false);
+                    escritura[n] = System.nanoTime() - t0;
+                    return null;
+                });
+            }
+            for (Future<?> tarea : tareas) {
+                tarea.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        informar("guardar (" + HILOS + " hilos)", escritura, System.nanoTime() - inicio, (long) ARCHIVOS * TAMANIO);
+
+        long[] completa = new long[ARCHIVOS];
+        inicio = System.nanoTime();
+        for (int i = 0; i < ARCHIVOS; i++) {
+            long t0 = System.nanoTime();
+            assertThat(servir(store.construirRuta("recetas", i + ".jpg"), null)).isEqualTo(TAMANIO);
+            completa[i] = System.nanoTime() - t0;
+        }
+        informar("servir completo", completa, System.nanoTime() - inicio, (long) ARCHIVOS * TAMANIO);
+
+        long[] rango = new long[ARCHIVOS];
+        inicio = System.nanoTime();
+        for (int i = 0; i < ARCHIVOS; i++) {
+            long t0 = System.nanoTime();
+            assertThat(servir(store.construirRuta("recetas", i + ".jpg"), "bytes=-65536")).isEqualTo(65536);
+            rango[i] = System.nanoTime() - t0;
+        }
+        informar("servir rango 64KB", rango, System.nanoTime() - inicio, (long) ARCHIVOS * 65536);
+    }
+
+    private int servir(String path, String range) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/archivos" + path);
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        RespuestaContada response = new RespuestaContada();
+        Path archivo = store.abrir(path);
+        ArchivoHttpUtils.enviar(archivo, "image/jpeg", ArchivoHttpUtils.etag(archivo), null, request, response);
+        return (int) response.salida.bytes;
+    }
+
+    private static void informar(String etapa, long[] latencias, long totalNanos, long bytes) {
+        long[] ordenadas = latencias.clone();
+        Arrays.sort(ordenadas);
+        double segundos = totalNanos / 1e9;
+        log.info("{}: {} archivos en {} ms - {} MB/s, p50 {} ms, p99 {} ms",
+                etapa, latencias.length, Math.round(segundos * 1000),
+                Math.round(bytes / (1024.0 * 1024) / segundos),
+                String.format("%.2f", ordenadas[ordenadas.length / 2] / 1e6),
+                String.format("%.2f", ordenadas[(int) (ordenadas.length * 0.99)] / 1e6));
+    }
+
+    /**
+     * Respuesta que descarta el cuerpo contando los bytes. El stream de
+     * MockHttpServletResponse escribe de a un byte y dominaría la medición.
+     */
+    private static final class RespuestaContada extends HttpServletResponseWrapper {
+        private final SalidaContada salida = new SalidaContada();
+
+        RespuestaContada() {
+            super(new MockHttpServletResponse());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return salida;
+        }
+    }
+
+    private static final class SalidaContada extends ServletOutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
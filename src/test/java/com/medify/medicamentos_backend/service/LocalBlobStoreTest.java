@@ -0,0 +1,196 @@
+package com.medify.medicamentos_backend.service;
+
+import com.medify.medicamentos_backend.dto.BlobInfo;
+import com.medify.medicamentos_backend.dto.PaginaBlobs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Listado incremental (orden y cursor) y escritura de {@link LocalBlobStore}
+ */
+class LocalBlobStoreTest {
+
+    private static final String CARPETA = "recetas";
+    private static final String PREFIJO = "/medify/imagenes/recetas/";
+    // Bien lejos del margen de los archivos recientes
+    private static final long BASE_MILLIS = System.currentTimeMillis() - 3_600_000;
+
+    @TempDir
+    Path raiz;
+
+    private LocalBlobStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new LocalBlobStore();
+        ReflectionTestUtils.setField(store, "rootDir", raiz.toString());
+        ReflectionTestUtils.setField(store, "publicUrl", "http://localhost/api/archivos");
+        ReflectionTestUtils.setField(store, "folderPath", "/medify/imagenes");
+        store.init();
+    }
+
+    @Test
+    void ordenaPorFechaYDespuesPorPath() throws Exception {
+        archivo("c.jpg", BASE_MILLIS);
+        archivo("b.jpg", BASE_MILLIS + 10);
+        archivo("a.jpg", BASE_MILLIS + 10);
+        archivo("d.jpg", BASE_MILLIS - 10);
+
+        PaginaBlobs pagina = store.listarCambios(CARPETA, null, 10, false);
+
+        assertThat(paths(pagina.getArchivos())).containsExactly(
+                PREFIJO + "d.jpg", PREFIJO + "c.jpg", PREFIJO + "a.jpg", PREFIJO + "b.jpg");
+        assertThat(pagina.isHayMas()).isFalse();
+        assertThat(pagina.getCursor()).isEqualTo((BASE_MILLIS + 10) + "|" + PREFIJO + "b.jpg");
+    }
+
+    @Test
+    void lasPaginasRecorrenTodoUnaVezYEnOrden() throws Exception {
+        List<String> esperados = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            // De a tres por milisegundo: el cursor tiene que cortar dentro de un mismo ms
+            String nombre = String.format("f%02d.jpg", i);
+            archivo(nombre, BASE_MILLIS + i / 3);
+            esperados.add(PREFIJO + nombre);
+        }
+
+        List<String> vistos = new ArrayList<>();
+        String cursor = null;
+        int paginas = 0;
+        PaginaBlobs pagina;
+        do {
+            pagina = store.listarCambios(CARPETA, cursor, 4, false);
+            vistos.addAll(paths(pagina.getArchivos()));
+            cursor = pagina.getCursor();
+            paginas++;
+        } while (pagina.isHayMas());
+
+        assertThat(vistos).containsExactlyElementsOf(esperados);
+        assertThat(paginas).isEqualTo(7);
+        // Con el último cursor no hay nada nuevo
+        assertThat(store.listarCambios(CARPETA, cursor, 4, false).getArchivos()).isEmpty();
+    }
+
+    @Test
+    void unCursorViejoNoUsaUnaFotoPosterior() throws Exception {
+        archivo("a.jpg", BASE_MILLIS);
+        archivo("b.jpg", BASE_MILLIS + 1);
+        archivo("c.jpg", BASE_MILLIS + 2);
+
+        PaginaBlobs primera = store.listarCambios(CARPETA, null, 1, false);
+        PaginaBlobs pagina = primera;
+        while (!pagina.getArchivos().isEmpty()) {
+            pagina = store.listarCambios(CARPETA, pagina.getCursor(), 1, false);
+        }
+
+        // La última página agotó la foto y la reemplazó por una desde "c": volver a
+        // pedir desde la primera página tiene que recorrer de nuevo
+        PaginaBlobs repetida = store.listarCambios(CARPETA, primera.getCursor(), 10, false);
+        assertThat(paths(repetida.getArchivos())).containsExactly(PREFIJO + "b.jpg", PREFIJO + "c.jpg");
+    }
+
+    @Test
+    void losArchivosRecientesSalenEnUnRecorridoPosterior() throws Exception {
+        archivo("viejo.jpg", BASE_MILLIS);
+        PaginaBlobs pagina = store.listarCambios(CARPETA, null, 10, false);
+
+        Path nuevo = archivo("nuevo.jpg", System.currentTimeMillis());
+        assertThat(store.listarCambios(CARPETA, pagina.getCursor(), 10, false).getArchivos()).isEmpty();
+
+        // Pasado el margen (acá: fecha más vieja) aparece, aunque el cursor ya avanzó
+        Files.setLastModifiedTime(nuevo, FileTime.fromMillis(BASE_MILLIS + 5));
+        PaginaBlobs siguiente = store.listarCambios(CARPETA, pagina.getCursor(), 10, false);
+        assertThat(paths(siguiente.getArchivos())).containsExactly(PREFIJO + "nuevo.jpg");
+    }
+
+    @Test
+    void noRecursivoIgnoraSubcarpetasYTemporales() throws Exception {
+        archivo("a.jpg", BASE_MILLIS);
+        archivo("sub/b.jpg", BASE_MILLIS);
+        archivo(".escribiendo.tmp", BASE_MILLIS);
+
+        assertThat(paths(store.listarCambios(CARPETA, null, 10, false).getArchivos()))
+                .containsExactly(PREFIJO + "a.jpg");
+        assertThat(paths(store.listarCambios(CARPETA, null, 10, true).getArchivos()))
+                .containsExactly(PREFIJO + "a.jpg", PREFIJO + "sub/b.jpg");
+    }
+
+    @Test
+    void carpetaInexistenteDevuelveElMismoCursor() throws Exception {
+        PaginaBlobs pagina = store.listarCambios("otra", "5|/x", 10, false);
+
+        assertThat(pagina.getArchivos()).isEmpty();
+        assertThat(pagina.getCursor()).isEqualTo("5|/x");
+        assertThat(pagina.isHayMas()).isFalse();
+    }
+
+    @Test
+    void rechazaCursoresInvalidos() throws Exception {
+        archivo("a.jpg", BASE_MILLIS);
+
+        assertThatThrownBy(() -> store.listarCambios(CARPETA, "sin-separador", 10, false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void guardarSinSobrescribirNoPisa() throws Exception {
+        String path = store.construirRuta(CARPETA, "x.jpg");
+        BlobInfo info = store.guardar(path, contenido("uno"), false);
+
+        assertThat(info.getSize()).isEqualTo(3);
+        assertThatThrownBy(() -> store.guardar(path, contenido("dos"), false))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(leer(path)).isEqualTo("uno");
+
+        store.guardar(path, contenido("tres"), true);
+        assertThat(leer(path)).isEqualTo("tres");
+        // No quedan temporales en la carpeta
+        try (var archivos = Files.list(raiz.resolve("medify/imagenes/recetas"))) {
+            assertThat(archivos).hasSize(1);
+        }
+    }
+
+    @Test
+    void rechazaPathsFueraDeLaRaiz() {
+        assertThatThrownBy(() -> store.guardar("/../afuera.jpg", contenido("x"), true))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.abrir("/../afuera.jpg")).isNull();
+    }
+
+    private Path archivo(String nombre, long millis) throws Exception {
+        Path archivo = raiz.resolve("medify/imagenes/recetas").resolve(nombre);
+        Files.createDirectories(archivo.getParent());
+        Files.write(archivo, nombre.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(archivo, FileTime.fromMillis(millis));
+        return archivo;
+    }
+
+    private static InputStream contenido(String texto) {
+        return new ByteArrayInputStream(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String leer(String path) throws Exception {
+        try (InputStream in = store.leer(path)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> paths(List<BlobInfo> archivos) {
+        return archivos.stream().map(BlobInfo::getPath).toList();
+    }
+}
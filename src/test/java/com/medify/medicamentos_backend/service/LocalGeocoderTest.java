@@ -0,0 +1,105 @@
+package com.medify.medicamentos_backend.service;
+
+import com.google.cloud.firestore.GeoPoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link LocalGeocoder} con la tabla offline del classpath
+ */
+class LocalGeocoderTest {
+
+    private static final GeoPoint CABA = new GeoPoint(-34.6037, -58.3816);
+    private static final GeoPoint CORDOBA = new GeoPoint(-31.4201, -64.1888);
+    private static final GeoPoint ROSARIO = new GeoPoint(-32.9442, -60.6505);
+    private static final GeoPoint LA_PLATA = new GeoPoint(-34.9214, -57.9545);
+    private static final GeoPoint MAR_DEL_PLATA = new GeoPoint(-38.0055, -57.5426);
+    private static final GeoPoint MENDOZA = new GeoPoint(-32.8895, -68.8458);
+
+    private LocalGeocoder geocoder;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        geocoder = new LocalGeocoder();
+        ReflectionTestUtils.setField(geocoder, "tabla", new ClassPathResource("geo/localidades.csv"));
+        geocoder.init();
+    }
+
+    @Test
+    void ubicaPorLocalidadSinImportarAcentosNiMayusculas() {
+        assertThat(geocoder.geocodificar("Av. Colón 1234, CÓRDOBA")).isEqualTo(CORDOBA);
+        assertThat(geocoder.geocodificar("calle 7 nro 800 - la plata")).isEqualTo(LA_PLATA);
+        assertThat(geocoder.geocodificar("Corrientes 1500, Capital Federal")).isEqualTo(CABA);
+    }
+
+    @Test
+    void ignoraNombresDeCalle() {
+        assertThat(geocoder.geocodificar("Av. Santa Fe 1234, CABA")).isEqualTo(CABA);
+        assertThat(geocoder.geocodificar("Calle Rosario 50, Córdoba")).isEqualTo(CORDOBA);
+    }
+
+    @Test
+    void ignoraLaProvinciaDeOtraLocalidad() {
+        assertThat(geocoder.geocodificar("Bv. Oroño 100, Rosario, Santa Fe")).isEqualTo(ROSARIO);
+        assertThat(geocoder.geocodificar("San Martín 10, Mendoza, Mendoza")).isEqualTo(MENDOZA);
+    }
+
+    @Test
+    void usaElCodigoPostalSiNoHayLocalidad() {
+        assertThat(geocoder.geocodificar("Ruta 9 km 700 (X5000ABC)")).isEqualTo(CORDOBA);
+        assertThat(geocoder.geocodificar("Güemes 3000 CP 7600")).isEqualTo(MAR_DEL_PLATA);
+        // Cuatro dígitos sueltos son la altura, no un código postal
+        assertThat(geocoder.geocodificar("Güemes 7600")).isNull();
+    }
+
+    @Test
+    void sinCoincidenciaDevuelveNull() {
+        assertThat(geocoder.geocodificar("Calle sin localidad 1")).isNull();
+        assertThat(geocoder.geocodificar("")).isNull();
+        assertThat(geocoder.geocodificar((String) null)).isNull();
+    }
+
+    @Test
+    void direccionEstructurada() {
+        assertThat(geocoder.geocodificar(direccion("Mitre 100", "Rosario", "Santa Fe", null))).isEqualTo(ROSARIO);
+        // Ciudad desconocida: código postal (con o sin letras CPA)
+        assertThat(geocoder.geocodificar(direccion("Mitre 100", "Villa X", null, "C1425ABC"))).isEqualTo(CABA);
+        // Ni ciudad ni código: texto libre con todos los campos
+        assertThat(geocoder.geocodificar(direccion("Mitre 100", "Villa X", "Mendoza", null))).isEqualTo(MENDOZA);
+        assertThat(geocoder.geocodificar(Map.of())).isNull();
+    }
+
+    @Test
+    void rechazaTablasMalFormadas() {
+        LocalGeocoder invalido = new LocalGeocoder();
+        ReflectionTestUtils.setField(invalido, "tabla",
+                new ByteArrayResource("# comentario\nsolo;tres;campos\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertThatThrownBy(invalido::init)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("solo;tres;campos");
+    }
+
+    private static Map<String, String> direccion(String calle, String ciudad, String provincia, String codigoPostal) {
+        Map<String, String> direccion = new HashMap<>();
+        direccion.put("street", calle);
+        direccion.put("city", ciudad);
+        if (provincia != null) {
+            direccion.put("province", provincia);
+        }
+        if (codigoPostal != null) {
+            direccion.put("postalCode", codigoPostal);
+        }
+        return direccion;
+    }
+}
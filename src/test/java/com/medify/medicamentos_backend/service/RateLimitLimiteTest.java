@@ -0,0 +1,168 @@
+package com.medify.medicamentos_backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link RateLimitService.Limite}: bucket GCRA (ráfaga, recarga, devolución, limpieza) y conteo por ventana
+ */
+class RateLimitLimiteTest {
+
+    // 60 por minuto: un token por segundo
+    private static final long SEGUNDO = TimeUnit.SECONDS.toNanos(1);
+    private static final long INICIO = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    void permiteLaRafagaYDespuesRechaza() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 3);
+
+        assertThat(limite.consumir("ip", INICIO)).isEqualTo(2);
+        assertThat(limite.consumir("ip", INICIO)).isEqualTo(1);
+        assertThat(limite.consumir("ip", INICIO)).isEqualTo(0);
+        assertThat(limite.consumir("ip", INICIO)).isEqualTo(-1);
+    }
+
+    @Test
+    void unRechazoNoConsumeTokens() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 1);
+
+        assertThat(limite.consumir("ip", INICIO)).isZero();
+        for (int i = 0; i < 10; i++) {
+            assertThat(limite.consumir("ip", INICIO)).isEqualTo(-1);
+        }
+        // Si los rechazos movieran el TAT, a un segundo seguiría sin haber token
+        assertThat(limite.consumir("ip", INICIO + SEGUNDO)).isZero();
+    }
+
+    @Test
+    void recargaUnTokenPorIntervalo() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 2);
+        limite.consumir("ip", INICIO);
+        limite.consumir("ip", INICIO);
+
+        assertThat(limite.consumir("ip", INICIO + SEGUNDO - 1)).isEqualTo(-1);
+        assertThat(limite.consumir("ip", INICIO + SEGUNDO)).isZero();
+        // Mucho tiempo después el bucket está lleno, pero no pasa de la ráfaga
+        assertThat(limite.consumir("ip", INICIO + 100 * SEGUNDO)).isEqualTo(1);
+    }
+
+    @Test
+    void losIdentificadoresSonIndependientes() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 1);
+
+        assertThat(limite.consumir("a", INICIO)).isZero();
+        assertThat(limite.consumir("a", INICIO)).isEqualTo(-1);
+        assertThat(limite.consumir("b", INICIO)).isZero();
+    }
+
+    @Test
+    void devolverRecuperaElToken() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 1);
+        limite.consumir("ip", INICIO);
+
+        limite.devolver("ip");
+
+        assertThat(limite.consumir("ip", INICIO)).isZero();
+        // Sin bucket no hay nada que devolver
+        limite.devolver("otra");
+        assertThat(limite.consumir("otra", INICIO)).isZero();
+    }
+
+    @Test
+    void limpiarBorraSoloLosBucketsLlenos() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, 5);
+        limite.consumir("vieja", INICIO);
+        limite.consumir("activa", INICIO + 10 * SEGUNDO);
+
+        assertThat(limite.limpiar(INICIO + 5 * SEGUNDO)).isEqualTo(1);
+
+        // "activa" conserva su estado: sigue con un token menos
+        assertThat(limite.consumir("activa", INICIO + 10 * SEGUNDO)).isEqualTo(3);
+        assertThat(limite.consumir("vieja", INICIO + 5 * SEGUNDO)).isEqualTo(4);
+    }
+
+    @Test
+    void sumarEnVentanaCuentaElRestoDelCluster() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 3, 3);
+        long ventana = 29_000_000L;
+
+        assertThat(limite.sumarEnVentana("ip", ventana, 1)).isTrue();
+        assertThat(limite.sumarEnVentana("ip", ventana, 1)).isTrue();
+        assertThat(limite.sumarEnVentana("ip", ventana, 1)).isFalse();
+        assertThat(limite.conteosEn(ventana)).containsEntry("ip", 2L);
+    }
+
+    @Test
+    void unaVentanaNuevaEmpiezaDeCero() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 2, 2);
+        long ventana = 29_000_000L;
+        limite.sumarEnVentana("ip", ventana, 0);
+        limite.sumarEnVentana("ip", ventana, 0);
+
+        assertThat(limite.sumarEnVentana("ip", ventana + 1, 0)).isTrue();
+        assertThat(limite.conteosEn(ventana + 1)).containsEntry("ip", 1L);
+    }
+
+    @Test
+    void conteosEnDescartaVentanasAnteriores() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 10, 10);
+        long ventana = 29_000_000L;
+        limite.sumarEnVentana("vieja", ventana - 1, 0);
+        limite.sumarEnVentana("actual", ventana, 0);
+
+        assertThat(limite.conteosEn(ventana)).containsOnlyKeys("actual");
+        // Ya se borró: tampoco aparece al volver a pedir la ventana anterior
+        assertThat(limite.conteosEn(ventana - 1)).isEmpty();
+    }
+
+    @Test
+    void ventanaFueraDeLos24BitsSigueContando() {
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", Integer.MAX_VALUE, 1);
+        // Ventana que no entra en 24 bits: se conservan sus bits bajos
+        long ventana = (1L << 24) + 5;
+
+        assertThat(limite.sumarEnVentana("ip", ventana, 0)).isTrue();
+        assertThat(limite.conteosEn(ventana)).containsEntry("ip", 1L);
+        assertThat(limite.sumarEnVentana("ip", ventana, Integer.MAX_VALUE - 2L)).isTrue();
+        assertThat(limite.conteosEn(ventana)).containsEntry("ip", 2L);
+        assertThat(limite.sumarEnVentana("ip", ventana, Integer.MAX_VALUE - 2L)).isFalse();
+    }
+
+    @Test
+    void bajoContencionNoSePasaDeLaRafaga() throws Exception {
+        int rafaga = 1000;
+        int hilos = 8;
+        RateLimitService.Limite limite = new RateLimitService.Limite("test", 60, rafaga);
+        AtomicInteger aceptadas = new AtomicInteger();
+        CountDownLatch largada = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        try {
+            for (int h = 0; h < hilos; h++) {
+                pool.submit(() -> {
+                    largada.await();
+                    for (int i = 0; i < rafaga; i++) {
+                        if (limite.consumir("ip", INICIO) >= 0) {
+                            aceptadas.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            largada.countDown();
+            pool.shutdown();
+            assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(aceptadas.get()).isEqualTo(rafaga);
+    }
+}
@@ -0,0 +1,130 @@
+package com.medify.medicamentos_backend.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Header Range y respuestas condicionales de {@link ArchivoHttpUtils}
+ */
+class ArchivoHttpUtilsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rangoConInicioYFin() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=0-99", 1000)).containsExactly(0, 99);
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=500-500", 1000)).containsExactly(500, 500);
+        assertThat(ArchivoHttpUtils.parsearRango("bytes= 10-20 ", 1000)).containsExactly(10, 20);
+    }
+
+    @Test
+    void rangoAbiertoHastaElFinal() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=900-", 1000)).containsExactly(900, 999);
+    }
+
+    @Test
+    void elFinSeRecortaAlTamanio() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=900-5000", 1000)).containsExactly(900, 999);
+    }
+
+    @Test
+    void sufijoConLosUltimosBytes() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=-100", 1000)).containsExactly(900, 999);
+        // Un sufijo más largo que el archivo es el archivo entero
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=-5000", 1000)).containsExactly(0, 999);
+    }
+
+    @Test
+    void rangosNoSatisfaciblesDevuelvenNull() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=1000-", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=20-10", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=-0", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=-10", 0)).isNull();
+    }
+
+    @Test
+    void rangosMalFormadosDevuelvenNull() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=100", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=-", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=a-b", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=--5", 1000)).isNull();
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=1-2-3", 1000)).isNull();
+    }
+
+    @Test
+    void variosRangosOUnidadDesconocidaEnvianTodo() {
+        assertThat(ArchivoHttpUtils.parsearRango("bytes=0-1,5-6", 1000)).isEmpty();
+        assertThat(ArchivoHttpUtils.parsearRango("items=0-1", 1000)).isEmpty();
+    }
+
+    @Test
+    void enviaElRangoPedido() throws Exception {
+        Path archivo = archivo("0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/archivo");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ArchivoHttpUtils.enviar(archivo, "text/plain", "\"e1\"", null, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    void rangoFueraDelArchivoDa416() throws Exception {
+        Path archivo = archivo("0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/archivo");
+        request.addHeader(HttpHeaders.RANGE, "bytes=50-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ArchivoHttpUtils.enviar(archivo, "text/plain", "\"e1\"", null, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void ifRangeConOtroEtagEnviaTodo() throws Exception {
+        Path archivo = archivo("0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/archivo");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"viejo\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ArchivoHttpUtils.enviar(archivo, "text/plain", "\"e1\"", null, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void ifNoneMatchConElEtagDa304() throws Exception {
+        Path archivo = archivo("0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/archivo");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"otro\", W/\"e1\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ArchivoHttpUtils.enviar(archivo, "text/plain", "\"e1\"", "max-age=60", request, response);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("max-age=60");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    private Path archivo(String contenido) throws Exception {
+        return Files.writeString(dir.resolve("archivo.txt"), contenido, StandardCharsets.US_ASCII);
+    }
+}
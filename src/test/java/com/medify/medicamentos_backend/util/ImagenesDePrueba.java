@@ -0,0 +1,137 @@
+package com.medify.medicamentos_backend.util;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Imágenes generadas para los tests: fotos de receta (papel, texto, ruido de sensor),
+ * capturas de pantalla y segmentos EXIF con orientación
+ */
+public final class ImagenesDePrueba {
+
+    private ImagenesDePrueba() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Foto de una receta: papel con sombra, renglones de texto y ruido de sensor
+     */
+    public static BufferedImage foto(int ancho, int alto, long semilla) {
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(semilla);
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                // Iluminación despareja: más oscuro hacia una esquina
+                int base = 235 - (int) (40.0 * (x + y) / (ancho + alto));
+                int ruido = (int) (random.nextGaussian() * 4);
+                int v = Math.max(0, Math.min(255, base + ruido));
+                imagen.setRGB(x, y, (v << 16) | (v << 8) | Math.max(0, v - 12));
+            }
+        }
+        escribirTexto(imagen, new Color(20, 30, 90), ancho / 60);
+        return imagen;
+    }
+
+    /**
+     * Captura de pantalla: colores planos con texto y transparencia en un borde
+     */
+    public static BufferedImage captura(int ancho, int alto) {
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = imagen.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, alto / 20, ancho, alto);
+            g.setColor(new Color(0, 120, 200));
+            g.fillRect(0, alto / 20, ancho, alto / 12);
+        } finally {
+            g.dispose();
+        }
+        escribirTexto(imagen, Color.DARK_GRAY, ancho / 30);
+        return imagen;
+    }
+
+    public static byte[] jpeg(BufferedImage imagen, float calidad) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(calidad);
+            writer.write(null, new IIOImage(imagen, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] png(BufferedImage imagen) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(imagen, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserta un segmento APP1/Exif (orientación y un bloque de datos del fabricante)
+     * después del SOI, como los que guardan los celulares
+     */
+    public static byte[] conExif(byte[] jpeg, int orientacion) {
+        byte[] segmento = segmentoExif(orientacion);
+        byte[] resultado = new byte[jpeg.length + segmento.length];
+        System.arraycopy(jpeg, 0, resultado, 0, 2);
+        System.arraycopy(segmento, 0, resultado, 2, segmento.length);
+        System.arraycopy(jpeg, 2, resultado, 2 + segmento.length, jpeg.length - 2);
+        return resultado;
+    }
+
+    /**
+     * Segmento APP1 completo (marcador incluido) con un IFD0 little-endian
+     */
+    public static byte[] segmentoExif(int orientacion) {
+        byte[] fabricante = "GPS -34.6037,-58.3816 MakerNote".getBytes(StandardCharsets.US_ASCII);
+        int tiff = 8 + 2 + 12 + 4;
+        int largo = 2 + 6 + tiff + fabricante.length;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + largo);
+        buffer.put((byte) 0xFF).put((byte) 0xE1);
+        buffer.putShort((short) largo);
+        buffer.put("Exif".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buffer.putShort((short) 1);
+        // Orientation: SHORT, 1 valor
+        buffer.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientacion).putShort((short) 0);
+        buffer.putInt(0);
+        buffer.put(fabricante);
+        return buffer.array();
+    }
+
+    private static void escribirTexto(BufferedImage imagen, Color color, int tamanio) {
+        Graphics2D g = imagen.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(color);
+            g.setFont(new Font(Font.SERIF, Font.PLAIN, Math.max(8, tamanio)));
+            int renglon = Math.max(10, tamanio * 2);
+            int margen = imagen.getWidth() / 10;
+            for (int y = imagen.getHeight() / 8, i = 0; y < imagen.getHeight() * 7 / 8; y += renglon, i++) {
+                g.drawString("Rp/ Amoxicilina 500 mg - 1 comp. c/8 h por 7 dias (" + i + ")", margen, y);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.medify.medicamentos_backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Quitado de metadatos sin re-codificar en {@link MetadatosImagenUtils}
+ */
+class MetadatosImagenUtilsTest {
+
+    @Test
+    void jpegSinExifNiComentariosConservandoLaImagen() throws Exception {
+        byte[] original = ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(64, 48, 1), 0.9f);
+        byte[] conMetadatos = insertarDespuesDelSoi(ImagenesDePrueba.conExif(original, 6),
+                segmentoJpeg(0xE2, "MPF\0datos"), segmentoJpeg(0xFE, "comentario"));
+
+        byte[] limpia = MetadatosImagenUtils.quitarMetadatos(conMetadatos);
+
+        assertThat(ExifOrientationUtils.leerOrientacion(limpia)).isEqualTo(1);
+        assertThat(contiene(limpia, "Exif")).isFalse();
+        assertThat(contiene(limpia, "comentario")).isFalse();
+        // APP2 (perfil ICC, MPF) se conserva
+        assertThat(contiene(limpia, "MPF")).isTrue();
+        // Los datos comprimidos quedan idénticos
+        assertThat(desdeSos(limpia)).isEqualTo(desdeSos(original));
+        assertThat(ImageIO.read(new ByteArrayInputStream(limpia)).getWidth()).isEqualTo(64);
+    }
+
+    @Test
+    void pngSinChunksDeTexto() throws Exception {
+        byte[] original = ImagenesDePrueba.png(ImagenesDePrueba.captura(32, 32));
+        byte[] conTexto = insertarChunkPng(original, "tEXt", "Comment\0ubicacion");
+
+        byte[] limpia = MetadatosImagenUtils.quitarMetadatos(conTexto);
+
+        assertThat(contiene(conTexto, "ubicacion")).isTrue();
+        assertThat(limpia).isEqualTo(original);
+        assertThat(ImageIO.read(new ByteArrayInputStream(limpia)).getWidth()).isEqualTo(32);
+    }
+
+    @Test
+    void webpSinExifNiXmpYConElTamanioCorregido() {
+        byte[] webp = webp(
+                chunk("VP8X", new byte[]{0x0C, 0, 0, 0, 9, 0, 0, 9, 0, 0}),
+                chunk("VP8 ", new byte[]{1, 2, 3, 4, 5, 6}),
+                chunk("EXIF", "GPS -34.60".getBytes(StandardCharsets.US_ASCII)),
+                chunk("XMP ", "<x:xmpmeta/>".getBytes(StandardCharsets.US_ASCII)));
+
+        byte[] limpia = MetadatosImagenUtils.quitarMetadatos(webp);
+
+        byte[] esperada = webp(
+                chunk("VP8X", new byte[]{0, 0, 0, 0, 9, 0, 0, 9, 0, 0}),
+                chunk("VP8 ", new byte[]{1, 2, 3, 4, 5, 6}));
+        assertThat(limpia).isEqualTo(esperada);
+    }
+
+    @Test
+    void webpConChunkImparConservaElRelleno() {
+        byte[] webp = webp(chunk("VP8L", new byte[]{1, 2, 3}), chunk("EXIF", new byte[]{9}));
+
+        byte[] limpia = MetadatosImagenUtils.quitarMetadatos(webp);
+
+        assertThat(limpia).isEqualTo(webp(chunk("VP8L", new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    void otrosFormatosSeDevuelvenSinCambios() {
+        byte[] gif = "GIF89a....".getBytes(StandardCharsets.US_ASCII);
+
+        assertThat(MetadatosImagenUtils.quitarMetadatos(gif)).isSameAs(gif);
+    }
+
+    @Test
+    void contenedoresTruncadosSeRechazan() throws Exception {
+        byte[] jpeg = ImagenesDePrueba.conExif(ImagenesDePrueba.jpeg(ImagenesDePrueba.foto(16, 16, 2), 0.9f), 1);
+        byte[] png = ImagenesDePrueba.png(ImagenesDePrueba.captura(16, 16));
+        byte[] webp = webp(chunk("VP8 ", new byte[]{1, 2, 3, 4}));
+
+        assertThatThrownBy(() -> MetadatosImagenUtils.quitarMetadatos(Arrays.copyOf(jpeg, 20)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadatosImagenUtils.quitarMetadatos(Arrays.copyOf(png, 20)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadatosImagenUtils.quitarMetadatos(Arrays.copyOf(webp, webp.length - 2)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] segmentoJpeg(int marcador, String contenido) {
+        byte[] datos = contenido.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + datos.length);
+        buffer.put((byte) 0xFF).put((byte) marcador).putShort((short) (2 + datos.length)).put(datos);
+        return buffer.array();
+    }
+
+    private static byte[] insertarDespuesDelSoi(byte[] jpeg, byte[]... segmentos) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        for (byte[] segmento : segmentos) {
+            out.writeBytes(segmento);
+        }
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    /**
+     * Desde el marcador SOS (datos comprimidos) hasta el final
+     */
+    private static byte[] desdeSos(byte[] jpeg) {
+        for (int i = 2; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xDA) {
+                return Arrays.copyOfRange(jpeg, i, jpeg.length);
+            }
+        }
+        throw new AssertionError("JPEG sin SOS");
+    }
+
+    /**
+     * Agrega un chunk después de IHDR (8 bytes de firma + 25 de IHDR)
+     */
+    private static byte[] insertarChunkPng(byte[] png, String tipo, String contenido) {
+        byte[] datos = contenido.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tipoBytes = tipo.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(tipoBytes);
+        crc.update(datos);
+
+        ByteBuffer chunk = ByteBuffer.allocate(12 + datos.length);
+        chunk.putInt(datos.length).put(tipoBytes).put(datos).putInt((int) crc.getValue());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(png, 0, 33);
+        out.writeBytes(chunk.array());
+        out.write(png, 33, png.length - 33);
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(String tipo, byte[] datos) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + datos.length + (datos.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(tipo.getBytes(StandardCharsets.US_ASCII)).putInt(datos.length).put(datos);
+        return buffer.array();
+    }
+
+    private static byte[] webp(byte[]... chunks) {
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            cuerpo.writeBytes(chunk);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(12 + cuerpo.size()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + cuerpo.size())
+                .put("WEBP".getBytes(StandardCharsets.US_ASCII)).put(cuerpo.toByteArray());
+        return buffer.array();
+    }
+
+    private static boolean contiene(byte[] datos, String texto) {
+        byte[] buscado = texto.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + buscado.length <= datos.length; i++) {
+            if (Arrays.equals(datos, i, i + buscado.length, buscado, 0, buscado.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}